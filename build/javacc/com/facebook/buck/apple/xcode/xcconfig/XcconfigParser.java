@@ -0,0 +1,540 @@
+/* XcconfigParser.java */
+/* Generated By:JavaCC: Do not edit this line. XcconfigParser.java */
+package com.facebook.buck.apple.xcode.xcconfig;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+import com.facebook.buck.util.ProjectFilesystem;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.io.Reader;
+import java.io.FileReader;
+import java.io.StringReader;
+
+/** Parse Xcconfig files. */
+public class XcconfigParser implements XcconfigParserConstants {
+
+  private Optional<ProjectFilesystem> fileSystem;
+  private Optional<Path> inputPathInProject;
+  private ImmutableList<Path> additionalSearchPaths;
+
+  private static XcconfigParser of(Reader input,
+                                   Optional<ProjectFilesystem> fileSystem,
+                                   Optional<Path> inputPathInProject,
+                                   ImmutableList<Path> additionalSearchPaths) {
+    XcconfigParser parser = new XcconfigParser(input);
+    parser.fileSystem = Preconditions.checkNotNull(fileSystem);
+    parser.inputPathInProject = Preconditions.checkNotNull(inputPathInProject);
+    parser.additionalSearchPaths = Preconditions.checkNotNull(additionalSearchPaths);
+    return parser;
+  }
+
+  public static ImmutableList<PredicatedConfigValue> parse(
+      ProjectFilesystem fileSystem,
+      Path inputPathInProject,
+      ImmutableList<Path> searchPaths) throws ParseException {
+    Optional<Reader> readerOpt = fileSystem.getReaderIfFileExists(inputPathInProject);
+    if (!readerOpt.isPresent()) {
+      throw new ParseException("Cannot open file: " + inputPathInProject);
+    }
+    try {
+        return XcconfigParser.of(readerOpt.get(),
+                                 Optional.<ProjectFilesystem>of(fileSystem),
+                                 Optional.<Path>of(inputPathInProject),
+                                 searchPaths)
+                             .file();
+    } catch (Throwable e) {  // javacc does not parse java7's multi-exception catch
+      if (e instanceof ParseException || e instanceof TokenMgrError) {
+        ParseException e1 = new ParseException("In file: " + inputPathInProject);
+        e1.initCause(e);
+        throw e1;
+      } else {
+        throw Throwables.propagate(e);
+      }
+    }
+  }
+
+  public static PredicatedConfigValue parseSetting(String setting) throws ParseException {
+    return XcconfigParser.of(new StringReader(setting),
+                             Optional.<ProjectFilesystem>absent(),
+                             Optional.<Path>absent(),
+                             ImmutableList.<Path>of())
+                         .buildSetting();
+  }
+
+  private ImmutableList<PredicatedConfigValue> parseIncludedFile(String includeFileName)
+      throws ParseException {
+
+    if (!fileSystem.isPresent()) {
+      throw new ParseException("Cannot include files without a filesystem");
+    }
+
+    // Parse the included file.
+    Path includeFilePath = FileSystems.getDefault().getPath(includeFileName);
+    Path includeFilePathInProject = null;
+
+    if (includeFilePath.isAbsolute()) {
+      // this feature is missing in xcodebuild : for testing purpose only!
+      includeFilePathInProject = includeFilePath;
+    } else if (inputPathInProject.isPresent()) {
+      // check relative to current file
+      try {
+        includeFilePathInProject = inputPathInProject.get().resolveSibling(includeFilePath);
+        if (!fileSystem.get().exists(includeFilePathInProject)) {
+            includeFilePathInProject = null;
+        }
+      } catch (InvalidPathException e) {
+        includeFilePathInProject = null;
+      }
+    }
+
+    // additional search paths
+    if (includeFilePathInProject == null) {
+        for (Path searchPath : additionalSearchPaths) {
+            Path path = searchPath.resolve(includeFilePath);
+            if (fileSystem.get().exists(path)) {
+                includeFilePathInProject = path;
+                break;
+            }
+        }
+    }
+
+    if (includeFilePathInProject == null) {
+      throw new ParseException("Cannot resolve path for included file: " + includeFileName);
+    }
+
+    return parse(fileSystem.get(), includeFilePathInProject, additionalSearchPaths);
+  }
+
+  final public ImmutableList<PredicatedConfigValue> file() throws ParseException {ImmutableList.Builder<PredicatedConfigValue> builder = ImmutableList.builder();
+  Token file;
+  PredicatedConfigValue setting;
+    label_1:
+    while (true) {
+      switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+      case LITERAL:
+      case INCLUDE:{
+        ;
+        break;
+        }
+      default:
+        jj_la1[0] = jj_gen;
+        break label_1;
+      }
+      switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+      case INCLUDE:{
+        jj_consume_token(INCLUDE);
+        file = jj_consume_token(QUOTED_STRING);
+String s = file.image;
+        builder.addAll(parseIncludedFile(s.substring(1, s.length()-1)));
+        break;
+        }
+      case LITERAL:{
+        setting = buildSetting();
+builder.add(setting);
+        break;
+        }
+      default:
+        jj_la1[1] = jj_gen;
+        jj_consume_token(-1);
+        throw new ParseException();
+      }
+    }
+{if ("" != null) return builder.build();}
+    throw new Error("Missing return statement in function");
+  }
+
+  final public PredicatedConfigValue buildSetting() throws ParseException {Token key;
+  ImmutableSortedSet.Builder<Condition> conditions = ImmutableSortedSet.naturalOrder();
+  ImmutableList<TokenValue> tokenValues;
+    key = jj_consume_token(LITERAL);
+    label_2:
+    while (true) {
+      switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+      case LEFT_BRACKET:{
+        ;
+        break;
+        }
+      default:
+        jj_la1[2] = jj_gen;
+        break label_2;
+      }
+      jj_consume_token(LEFT_BRACKET);
+      switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+      case CONDITION_IDENTIFIER:{
+        parseCondition(conditions);
+        label_3:
+        while (true) {
+          switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+          case COMMA:{
+            ;
+            break;
+            }
+          default:
+            jj_la1[3] = jj_gen;
+            break label_3;
+          }
+          jj_consume_token(COMMA);
+          parseCondition(conditions);
+        }
+        break;
+        }
+      default:
+        jj_la1[4] = jj_gen;
+        ;
+      }
+      jj_consume_token(RIGHT_BRACKET);
+    }
+    jj_consume_token(EQUAL);
+    tokenValues = parseTokenValues();
+    switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+    case EOL:{
+      jj_consume_token(EOL);
+      break;
+      }
+    case 0:{
+      jj_consume_token(0);
+      break;
+      }
+    default:
+      jj_la1[5] = jj_gen;
+      jj_consume_token(-1);
+      throw new ParseException();
+    }
+{if ("" != null) return new PredicatedConfigValue(key.image, conditions.build(), tokenValues);}
+    throw new Error("Missing return statement in function");
+  }
+
+  final public void parseCondition(ImmutableSortedSet.Builder<Condition> conditions) throws ParseException {Token key;
+  Token value = null;
+  boolean isPrefix = false;
+    key = jj_consume_token(CONDITION_IDENTIFIER);
+    jj_consume_token(CONDITION_EQUAL);
+    switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+    case CONDITION_IDENTIFIER:{
+      value = jj_consume_token(CONDITION_IDENTIFIER);
+      break;
+      }
+    default:
+      jj_la1[6] = jj_gen;
+      ;
+    }
+    switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+    case STAR:{
+      jj_consume_token(STAR);
+isPrefix = true;
+      break;
+      }
+    default:
+      jj_la1[7] = jj_gen;
+      ;
+    }
+conditions.add(new Condition(key.image, value == null ? "" : value.image, isPrefix));
+  }
+
+  final public ImmutableList<TokenValue> parseTokenValues() throws ParseException {ImmutableList.Builder<TokenValue> valueTokens = ImmutableList.builder();
+  TokenValue tokenValue;
+  Token token;
+    label_4:
+    while (true) {
+      switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+      case DOLLAR_LEFT_PAREN:
+      case RIGHT_PAREN:
+      case DOLLAR_LEFT_BRACE:
+      case RIGHT_BRACE:
+      case DOLLAR_LITERAL:
+      case VALUE_LITERAL:{
+        ;
+        break;
+        }
+      default:
+        jj_la1[8] = jj_gen;
+        break label_4;
+      }
+      switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+      case RIGHT_PAREN:
+      case RIGHT_BRACE:
+      case VALUE_LITERAL:{
+        switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+        case VALUE_LITERAL:{
+          token = jj_consume_token(VALUE_LITERAL);
+          break;
+          }
+        case RIGHT_PAREN:{
+          token = jj_consume_token(RIGHT_PAREN);
+          break;
+          }
+        case RIGHT_BRACE:{
+          token = jj_consume_token(RIGHT_BRACE);
+          break;
+          }
+        default:
+          jj_la1[9] = jj_gen;
+          jj_consume_token(-1);
+          throw new ParseException();
+        }
+valueTokens.add(TokenValue.literal(token.image));
+        break;
+        }
+      case DOLLAR_LEFT_PAREN:
+      case DOLLAR_LEFT_BRACE:
+      case DOLLAR_LITERAL:{
+        tokenValue = parseInterpolation();
+valueTokens.add(tokenValue);
+        break;
+        }
+      default:
+        jj_la1[10] = jj_gen;
+        jj_consume_token(-1);
+        throw new ParseException();
+      }
+    }
+{if ("" != null) return valueTokens.build();}
+    throw new Error("Missing return statement in function");
+  }
+
+  final public TokenValue parseInterpolation() throws ParseException {TokenValue result;
+  Token token;
+    switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+    case DOLLAR_LEFT_BRACE:{
+      jj_consume_token(DOLLAR_LEFT_BRACE);
+      result = parseInterpolationBody();
+      jj_consume_token(RIGHT_BRACE);
+      break;
+      }
+    case DOLLAR_LEFT_PAREN:{
+      jj_consume_token(DOLLAR_LEFT_PAREN);
+      result = parseInterpolationBody();
+      jj_consume_token(RIGHT_PAREN);
+      break;
+      }
+    case DOLLAR_LITERAL:{
+      token = jj_consume_token(DOLLAR_LITERAL);
+result = TokenValue.interpolation(token.image.substring(1));
+      break;
+      }
+    default:
+      jj_la1[11] = jj_gen;
+      jj_consume_token(-1);
+      throw new ParseException();
+    }
+{if ("" != null) return result;}
+    throw new Error("Missing return statement in function");
+  }
+
+  final public TokenValue parseInterpolationBody() throws ParseException {ImmutableList.Builder<TokenValue> tokenValues = ImmutableList.builder();
+    Token token;
+    TokenValue interpolation;
+    label_5:
+    while (true) {
+      switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+      case DOLLAR_LEFT_PAREN:
+      case DOLLAR_LEFT_BRACE:
+      case DOLLAR_LITERAL:
+      case VALUE_LITERAL:{
+        ;
+        break;
+        }
+      default:
+        jj_la1[12] = jj_gen;
+        break label_5;
+      }
+      switch ((jj_ntk==-1)?jj_ntk_f():jj_ntk) {
+      case VALUE_LITERAL:{
+        token = jj_consume_token(VALUE_LITERAL);
+tokenValues.add(TokenValue.literal(token.image));
+        break;
+        }
+      case DOLLAR_LEFT_PAREN:
+      case DOLLAR_LEFT_BRACE:
+      case DOLLAR_LITERAL:{
+        interpolation = parseInterpolation();
+tokenValues.add(interpolation);
+        break;
+        }
+      default:
+        jj_la1[13] = jj_gen;
+        jj_consume_token(-1);
+        throw new ParseException();
+      }
+    }
+{if ("" != null) return TokenValue.interpolation(tokenValues.build());}
+    throw new Error("Missing return statement in function");
+  }
+
+  /** Generated Token Manager. */
+  public XcconfigParserTokenManager token_source;
+  SimpleCharStream jj_input_stream;
+  /** Current token. */
+  public Token token;
+  /** Next token. */
+  public Token jj_nt;
+  private int jj_ntk;
+  private int jj_gen;
+  final private int[] jj_la1 = new int[14];
+  static private int[] jj_la1_0;
+  static {
+      jj_la1_init_0();
+   }
+   private static void jj_la1_init_0() {
+      jj_la1_0 = new int[] {0x240,0x240,0x80,0x400000,0x100000,0x40001,0x100000,0x200000,0x3f000,0x2a000,0x3f000,0x15000,0x35000,0x35000,};
+   }
+
+  /** Constructor with InputStream. */
+  public XcconfigParser(java.io.InputStream stream) {
+     this(stream, null);
+  }
+  /** Constructor with InputStream and supplied encoding */
+  public XcconfigParser(java.io.InputStream stream, String encoding) {
+    try { jj_input_stream = new SimpleCharStream(stream, encoding, 1, 1); } catch(java.io.UnsupportedEncodingException e) { throw new RuntimeException(e); }
+    token_source = new XcconfigParserTokenManager(jj_input_stream);
+    token = new Token();
+    jj_ntk = -1;
+    jj_gen = 0;
+    for (int i = 0; i < 14; i++) jj_la1[i] = -1;
+  }
+
+  /** Reinitialise. */
+  public void ReInit(java.io.InputStream stream) {
+     ReInit(stream, null);
+  }
+  /** Reinitialise. */
+  public void ReInit(java.io.InputStream stream, String encoding) {
+    try { jj_input_stream.ReInit(stream, encoding, 1, 1); } catch(java.io.UnsupportedEncodingException e) { throw new RuntimeException(e); }
+    token_source.ReInit(jj_input_stream);
+    token = new Token();
+    jj_ntk = -1;
+    jj_gen = 0;
+    for (int i = 0; i < 14; i++) jj_la1[i] = -1;
+  }
+
+  /** Constructor. */
+  public XcconfigParser(java.io.Reader stream) {
+    jj_input_stream = new SimpleCharStream(stream, 1, 1);
+    token_source = new XcconfigParserTokenManager(jj_input_stream);
+    token = new Token();
+    jj_ntk = -1;
+    jj_gen = 0;
+    for (int i = 0; i < 14; i++) jj_la1[i] = -1;
+  }
+
+  /** Reinitialise. */
+  public void ReInit(java.io.Reader stream) {
+    jj_input_stream.ReInit(stream, 1, 1);
+    token_source.ReInit(jj_input_stream);
+    token = new Token();
+    jj_ntk = -1;
+    jj_gen = 0;
+    for (int i = 0; i < 14; i++) jj_la1[i] = -1;
+  }
+
+  /** Constructor with generated Token Manager. */
+  public XcconfigParser(XcconfigParserTokenManager tm) {
+    token_source = tm;
+    token = new Token();
+    jj_ntk = -1;
+    jj_gen = 0;
+    for (int i = 0; i < 14; i++) jj_la1[i] = -1;
+  }
+
+  /** Reinitialise. */
+  public void ReInit(XcconfigParserTokenManager tm) {
+    token_source = tm;
+    token = new Token();
+    jj_ntk = -1;
+    jj_gen = 0;
+    for (int i = 0; i < 14; i++) jj_la1[i] = -1;
+  }
+
+  private Token jj_consume_token(int kind) throws ParseException {
+    Token oldToken;
+    if ((oldToken = token).next != null) token = token.next;
+    else token = token.next = token_source.getNextToken();
+    jj_ntk = -1;
+    if (token.kind == kind) {
+      jj_gen++;
+      return token;
+    }
+    token = oldToken;
+    jj_kind = kind;
+    throw generateParseException();
+  }
+
+
+/** Get the next Token. */
+  final public Token getNextToken() {
+    if (token.next != null) token = token.next;
+    else token = token.next = token_source.getNextToken();
+    jj_ntk = -1;
+    jj_gen++;
+    return token;
+  }
+
+/** Get the specific Token. */
+  final public Token getToken(int index) {
+    Token t = token;
+    for (int i = 0; i < index; i++) {
+      if (t.next != null) t = t.next;
+      else t = t.next = token_source.getNextToken();
+    }
+    return t;
+  }
+
+  private int jj_ntk_f() {
+    if ((jj_nt=token.next) == null)
+      return (jj_ntk = (token.next=token_source.getNextToken()).kind);
+    else
+      return (jj_ntk = jj_nt.kind);
+  }
+
+  private java.util.List<int[]> jj_expentries = new java.util.ArrayList<int[]>();
+  private int[] jj_expentry;
+  private int jj_kind = -1;
+
+  /** Generate ParseException. */
+  public ParseException generateParseException() {
+    jj_expentries.clear();
+    boolean[] la1tokens = new boolean[24];
+    if (jj_kind >= 0) {
+      la1tokens[jj_kind] = true;
+      jj_kind = -1;
+    }
+    for (int i = 0; i < 14; i++) {
+      if (jj_la1[i] == jj_gen) {
+        for (int j = 0; j < 32; j++) {
+          if ((jj_la1_0[i] & (1<<j)) != 0) {
+            la1tokens[j] = true;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < 24; i++) {
+      if (la1tokens[i]) {
+        jj_expentry = new int[1];
+        jj_expentry[0] = i;
+        jj_expentries.add(jj_expentry);
+      }
+    }
+    int[][] exptokseq = new int[jj_expentries.size()][];
+    for (int i = 0; i < jj_expentries.size(); i++) {
+      exptokseq[i] = jj_expentries.get(i);
+    }
+    return new ParseException(token, exptokseq, tokenImage);
+  }
+
+  /** Enable tracing. */
+  final public void enable_tracing() {
+  }
+
+  /** Disable tracing. */
+  final public void disable_tracing() {
+  }
+
+}
@@ -0,0 +1,83 @@
+/* Generated By:JavaCC: Do not edit this line. XcconfigParserConstants.java */
+package com.facebook.buck.apple.xcode.xcconfig;
+
+
+/**
+ * Token literal values and constants.
+ * Generated by org.javacc.parser.OtherFilesGen#start()
+ */
+public interface XcconfigParserConstants {
+
+  /** End of File. */
+  int EOF = 0;
+  /** RegularExpression Id. */
+  int LITERAL = 6;
+  /** RegularExpression Id. */
+  int LEFT_BRACKET = 7;
+  /** RegularExpression Id. */
+  int EQUAL = 8;
+  /** RegularExpression Id. */
+  int INCLUDE = 9;
+  /** RegularExpression Id. */
+  int QUOTED_STRING = 10;
+  /** RegularExpression Id. */
+  int DOLLAR_LEFT_PAREN = 12;
+  /** RegularExpression Id. */
+  int RIGHT_PAREN = 13;
+  /** RegularExpression Id. */
+  int DOLLAR_LEFT_BRACE = 14;
+  /** RegularExpression Id. */
+  int RIGHT_BRACE = 15;
+  /** RegularExpression Id. */
+  int DOLLAR_LITERAL = 16;
+  /** RegularExpression Id. */
+  int VALUE_LITERAL = 17;
+  /** RegularExpression Id. */
+  int EOL = 18;
+  /** RegularExpression Id. */
+  int CONDITION_EQUAL = 19;
+  /** RegularExpression Id. */
+  int CONDITION_IDENTIFIER = 20;
+  /** RegularExpression Id. */
+  int STAR = 21;
+  /** RegularExpression Id. */
+  int COMMA = 22;
+  /** RegularExpression Id. */
+  int RIGHT_BRACKET = 23;
+
+  /** Lexical state. */
+  int DEFAULT = 0;
+  /** Lexical state. */
+  int SETTING_VALUE = 1;
+  /** Lexical state. */
+  int CONDITION = 2;
+
+  /** Literal token values. */
+  String[] tokenImage = {
+    "<EOF>",
+    "\" \"",
+    "\"\\n\"",
+    "\"\\r\"",
+    "\"\\t\"",
+    "<token of kind 5>",
+    "<LITERAL>",
+    "\"[\"",
+    "<EQUAL>",
+    "\"#include\"",
+    "<QUOTED_STRING>",
+    "<token of kind 11>",
+    "\"$(\"",
+    "\")\"",
+    "\"${\"",
+    "\"}\"",
+    "<DOLLAR_LITERAL>",
+    "<VALUE_LITERAL>",
+    "\"\\n\"",
+    "\"=\"",
+    "<CONDITION_IDENTIFIER>",
+    "\"*\"",
+    "\",\"",
+    "\"]\"",
+  };
+
+}
@@ -0,0 +1,26 @@
+/* Generated By:JavaCC: Do not edit this line. Simple1Constants.java */
+package com.facebook.buck.javacc;
+
+
+/**
+ * Token literal values and constants.
+ * Generated by org.javacc.parser.OtherFilesGen#start()
+ */
+public interface Simple1Constants {
+
+  /** End of File. */
+  int EOF = 0;
+
+  /** Lexical state. */
+  int DEFAULT = 0;
+
+  /** Literal token values. */
+  String[] tokenImage = {
+    "<EOF>",
+    "\"\\n\"",
+    "\"\\r\"",
+    "\"{\"",
+    "\"}\"",
+  };
+
+}
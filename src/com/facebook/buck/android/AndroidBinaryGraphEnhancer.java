@@ -420,7 +420,8 @@ public class AndroidBinaryGraphEnhancer {
         primaryDexPath,
         dexSplitMode,
         allPreDexDeps,
-        aaptPackageResources);
+        aaptPackageResources,
+        /* keepSecondaryDexLayout */ exopackage);
     ruleResolver.addToIndex(preDexMerge);
 
     return preDexMerge;
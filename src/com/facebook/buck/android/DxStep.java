@@ -65,6 +65,10 @@ public class DxStep extends ShellStep {
     ;
   }
 
+  /** Shared by all of the steps that dex in-process, so that only so many dex at once. */
+  private static final InProcessDexerLimit inProcessDexerLimit =
+      new InProcessDexerLimit(SmartDexingStep.determineOptimalThreadCount());
+
   private static final Supplier<String> DEFAULT_GET_CUSTOM_DX = new Supplier<String>() {
     @Override
     @CheckForNull
@@ -169,7 +173,7 @@ public class DxStep extends ShellStep {
     }
   }
 
-  private int executeInProcess(ExecutionContext context) {
+  private int executeInProcess(ExecutionContext context) throws InterruptedException {
     ImmutableList<String> argv = getShellCommandInternal(context);
 
     // The first arguments should be ".../dx --dex".  Strip them off
@@ -179,11 +183,7 @@ public class DxStep extends ShellStep {
     ImmutableList<String> args = argv.subList(2, argv.size());
 
     try {
-      return new com.android.dx.command.dexer.Main().run(
-          args.toArray(new String[args.size()]),
-          context.getStdOut(),
-          context.getStdErr()
-      );
+      return inProcessDexerLimit.run(args, context.getStdOut(), context.getStdErr());
     } catch (IOException e) {
       e.printStackTrace(context.getStdErr());
       return 1;
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A limit on how many dexers {@link DxStep} runs at once in the JVM of buck itself, however many
+ * rules and {@link SmartDexingStep}s want them, as each is CPU bound and can hold a lot of memory.
+ * <p>
+ * Dexers are not reused: each run gets a new one, as {@code dx} keeps the state of a run in its
+ * instance. Only the classes of {@code dx} stay loaded and compiled from one run to the next,
+ * which, in buckd, is from one build to the next.
+ */
+class InProcessDexerLimit {
+
+  private static final Logger LOG = Logger.get(InProcessDexerLimit.class);
+
+  private final int maxDexers;
+  private final Semaphore permits;
+
+  InProcessDexerLimit(int maxDexers) {
+    Preconditions.checkArgument(maxDexers > 0);
+    this.maxDexers = maxDexers;
+    this.permits = new Semaphore(maxDexers, /* fair */ true);
+  }
+
+  /**
+   * Runs a new dexer once fewer than the maximum number of dexers are running.
+   *
+   * @param args the arguments of {@code dx --dex}.
+   * @return the exit code of the dexer.
+   */
+  int run(List<String> args, PrintStream stdout, PrintStream stderr)
+      throws IOException, InterruptedException {
+    if (!permits.tryAcquire()) {
+      LOG.debug("%d dexers are already running; waiting for one to finish.", maxDexers);
+      permits.acquire();
+    }
+    try {
+      return new com.android.dx.command.dexer.Main().run(
+          args.toArray(new String[args.size()]),
+          stdout,
+          stderr);
+    } finally {
+      permits.release();
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.android;
 
 import com.facebook.buck.android.PreDexMerge.BuildOutput;
+import com.facebook.buck.android.SmartDexingStep.DexInputHashesProvider;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildContext;
@@ -41,20 +42,28 @@ import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.primitives.Ints;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -67,6 +76,10 @@ import javax.annotation.Nullable;
  *   <li>Writing the split-dex "metadata.txt".
  * </ul>
  * <p>
+ * For an exopackage, whose secondary dex files are installed one by one, the layout of the
+ * secondary dex files is kept from one build to the next, so that a change to one library only
+ * changes the secondary dex file that it is in.
+ * <p>
  * Clients of this Buildable may need to know:
  * <ul>
  *   <li>The locations of the zip files directories containing secondary dex files and metadata.
@@ -91,6 +104,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
   private final DexSplitMode dexSplitMode;
   private final ImmutableSet<DexProducedFromJavaLibrary> preDexDeps;
   private final AaptPackageResources aaptPackageResources;
+  private final boolean keepSecondaryDexLayout;
   private final BuildOutputInitializer<BuildOutput> buildOutputInitializer;
 
   public PreDexMerge(
@@ -98,12 +112,14 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
       Path primaryDexPath,
       DexSplitMode dexSplitMode,
       ImmutableSet<DexProducedFromJavaLibrary> preDexDeps,
-      AaptPackageResources aaptPackageResources) {
+      AaptPackageResources aaptPackageResources,
+      boolean keepSecondaryDexLayout) {
     super(params);
     this.primaryDexPath = Preconditions.checkNotNull(primaryDexPath);
     this.dexSplitMode = Preconditions.checkNotNull(dexSplitMode);
     this.preDexDeps = Preconditions.checkNotNull(preDexDeps);
     this.aaptPackageResources = Preconditions.checkNotNull(aaptPackageResources);
+    this.keepSecondaryDexLayout = keepSecondaryDexLayout;
     this.buildOutputInitializer = new BuildOutputInitializer<>(params.getBuildTarget(), this);
   }
 
@@ -139,6 +155,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     private final Path metadataSubdir;
     private final Path jarfilesSubdir;
     private final Path metadataFile;
+    private final Path layoutFile;
 
     private SplitDexPaths() {
       Path workDir = BuildTargets.getBinPath(getBuildTarget(), "_%s_output");
@@ -152,6 +169,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
       metadataSubdir = metadataDir.resolve(AndroidBinary.SECONDARY_DEX_SUBDIR);
       jarfilesSubdir = jarfilesDir.resolve(AndroidBinary.SECONDARY_DEX_SUBDIR);
       metadataFile = metadataSubdir.resolve("metadata.txt");
+      layoutFile = workDir.resolve("secondary_dex_layout.txt");
     }
   }
 
@@ -202,19 +220,65 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
         dexSplitMode.getLinearAllocHardLimit(),
         dexSplitMode.getDexStore(),
         paths.jarfilesSubdir);
-    final PreDexedFilesSorter.Result sortResult =
-        preDexedFilesSorter.sortIntoPrimaryAndSecondaryDexes(context, steps);
+    final Supplier<PreDexedFilesSorter.Result> sortResult;
+    if (keepSecondaryDexLayout) {
+      // The layout of the last build can only be read once the steps run, so that is when the
+      // pre-dexed files are sorted.
+      SortStep sortStep = new SortStep(preDexedFilesSorter, context, paths.layoutFile);
+      steps.add(sortStep);
+      sortResult = sortStep;
+      buildableContext.recordArtifact(paths.layoutFile);
+    } else {
+      sortResult = Suppliers.ofInstance(
+          preDexedFilesSorter.sortIntoPrimaryAndSecondaryDexes(context, steps));
+    }
 
     steps.add(new SmartDexingStep(
         primaryDexPath,
-        Suppliers.ofInstance(sortResult.primaryDexInputs),
+        new Supplier<Set<Path>>() {
+          @Override
+          public Set<Path> get() {
+            return sortResult.get().primaryDexInputs;
+          }
+        },
         Optional.of(paths.jarfilesSubdir),
-        Optional.of(Suppliers.ofInstance(sortResult.secondaryOutputToInputs)),
-        sortResult.dexInputHashesProvider,
+        Optional.<Supplier<Multimap<Path, Path>>>of(
+            new Supplier<Multimap<Path, Path>>() {
+              @Override
+              public Multimap<Path, Path> get() {
+                return sortResult.get().secondaryOutputToInputs;
+              }
+            }),
+        new DexInputHashesProvider() {
+          @Override
+          public ImmutableMap<Path, Sha1HashCode> getDexInputHashes() {
+            return sortResult.get().dexInputHashesProvider.getDexInputHashes();
+          }
+        },
         paths.successDir,
         /* numThreads */ Optional.<Integer>absent(),
         DX_MERGE_OPTIONS));
 
+    if (keepSecondaryDexLayout) {
+      steps.add(new AbstractExecutionStep("write_secondary_dex_layout") {
+        @Override
+        public int execute(ExecutionContext executionContext) {
+          List<String> lines = Lists.newArrayList();
+          for (Map.Entry<Path, Integer> entry :
+               sortResult.get().secondaryDexLayout.entrySet()) {
+            lines.add(entry.getValue() + " " + entry.getKey());
+          }
+          try {
+            executionContext.getProjectFilesystem().writeLinesToPath(lines, paths.layoutFile);
+          } catch (IOException e) {
+            executionContext.logError(e, "Failed when writing the secondary dex layout.");
+            return 1;
+          }
+          return 0;
+        }
+      });
+    }
+
     // Record the primary dex SHA1 so exopackage apks can use it to compute their ABI keys.
     // Single dex apks cannot be exopackages, so they will never need ABI keys.
     steps.add(new RecordFileSha1Step(
@@ -226,7 +290,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
       @Override
       public int execute(ExecutionContext executionContext) {
         ProjectFilesystem filesystem = executionContext.getProjectFilesystem();
-        Map<Path, DexWithClasses> metadataTxtEntries = sortResult.metadataTxtDexEntries;
+        Map<Path, DexWithClasses> metadataTxtEntries = sortResult.get().metadataTxtDexEntries;
         List<String> lines = Lists.newArrayListWithCapacity(metadataTxtEntries.size());
         try {
           for (Map.Entry<Path, DexWithClasses> entry : metadataTxtEntries.entrySet()) {
@@ -247,6 +311,73 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     });
   }
 
+  /**
+   * Sorts the pre-dexed files, keeping the layout of the secondary dex files of the last build, and
+   * writes the canary classes of the secondary dex files.
+   */
+  private static class SortStep implements Step, Supplier<PreDexedFilesSorter.Result> {
+
+    private static final Splitter LAYOUT_LINE_SPLITTER = Splitter.on(' ').limit(2);
+
+    private final PreDexedFilesSorter preDexedFilesSorter;
+    private final BuildContext buildContext;
+    private final Path layoutFile;
+    @Nullable private PreDexedFilesSorter.Result result;
+
+    private SortStep(
+        PreDexedFilesSorter preDexedFilesSorter,
+        BuildContext buildContext,
+        Path layoutFile) {
+      this.preDexedFilesSorter = Preconditions.checkNotNull(preDexedFilesSorter);
+      this.buildContext = Preconditions.checkNotNull(buildContext);
+      this.layoutFile = Preconditions.checkNotNull(layoutFile);
+    }
+
+    @Override
+    public int execute(ExecutionContext context) throws InterruptedException {
+      Map<Path, Integer> previousLayout = Maps.newHashMap();
+      Optional<String> contents = context.getProjectFilesystem().readFileIfItExists(layoutFile);
+      if (contents.isPresent()) {
+        for (String line : Splitter.on('\n').omitEmptyStrings().split(contents.get())) {
+          List<String> parts = LAYOUT_LINE_SPLITTER.splitToList(line);
+          Integer secondaryDexNumber = parts.size() == 2 ? Ints.tryParse(parts.get(0)) : null;
+          if (secondaryDexNumber != null) {
+            previousLayout.put(Paths.get(parts.get(1)), secondaryDexNumber);
+          }
+        }
+      }
+
+      ImmutableList.Builder<Step> canarySteps = ImmutableList.builder();
+      result = preDexedFilesSorter.sortIntoPrimaryAndSecondaryDexes(
+          buildContext,
+          canarySteps,
+          Optional.of(previousLayout));
+      for (Step step : canarySteps.build()) {
+        int exitCode = step.execute(context);
+        if (exitCode != 0) {
+          return exitCode;
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public String getShortName() {
+      return "sort_pre_dexed_files";
+    }
+
+    @Override
+    public String getDescription(ExecutionContext context) {
+      return getShortName();
+    }
+
+    @Override
+    public PreDexedFilesSorter.Result get() {
+      Preconditions.checkState(result != null, "The pre-dexed files have not been sorted yet.");
+      return result;
+    }
+  }
+
   private void addStepsForSingleDex(
       ImmutableList.Builder<Step> steps,
       final BuildableContext buildableContext) {
@@ -298,6 +429,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
   @Override
   public RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
     dexSplitMode.appendToRuleKey("dexSplitMode", builder);
+    builder.set("keepSecondaryDexLayout", keepSecondaryDexLayout);
     return builder;
   }
 
@@ -53,6 +53,12 @@ import java.util.Set;
 
 /**
  * Responsible for bucketing pre-dexed objects into primary and secondary dex files.
+ * <p>
+ * Secondary dex files are normally packed afresh on each build, so adding a library can move
+ * every library after it into a different secondary dex. Given the layout of the last build, the
+ * sorter instead keeps each library in the secondary dex that it was in, and appends libraries
+ * that are new, or no longer fit, to the last secondary dex and to new ones after it. Then only
+ * the secondary dexes whose contents changed need to be merged, and installed, again.
  */
 public class PreDexedFilesSorter {
 
@@ -63,6 +69,12 @@ public class PreDexedFilesSorter {
   private final DexStore dexStore;
   private final Path secondaryDexJarFilesDir;
 
+  /**
+   * How many more secondary dexes than a fresh packing needs that keeping the layout of the last
+   * build may take, as a fraction of those that a fresh packing needs, before it is given up.
+   */
+  private static final double MAX_STABLE_LAYOUT_OVERHEAD = 0.25;
+
   /**
    * Directory under the project filesystem where this step may write temporary data. This directory
    * must exist and be empty before this step writes to it.
@@ -91,8 +103,22 @@ public class PreDexedFilesSorter {
   public Result sortIntoPrimaryAndSecondaryDexes(
       BuildContext context,
       ImmutableList.Builder<Step> steps) {
+    return sortIntoPrimaryAndSecondaryDexes(
+        context,
+        steps,
+        Optional.<Map<Path, Integer>>absent());
+  }
+
+  /**
+   * @param previousLayout the secondary dex, numbered from 1, that each pre-dexed file was in the
+   *     last time, or absent if the secondary dexes should be packed afresh.
+   */
+  public Result sortIntoPrimaryAndSecondaryDexes(
+      BuildContext context,
+      ImmutableList.Builder<Step> steps,
+      Optional<? extends Map<Path, Integer>> previousLayout) {
     List<DexWithClasses> primaryDexContents = Lists.newArrayList();
-    List<List<DexWithClasses>> secondaryDexesContents = Lists.newArrayList();
+    List<DexWithClasses> secondaryDexInputs = Lists.newArrayList();
 
     int primaryDexSize = 0;
     // R.class files should always be in the primary dex.
@@ -107,8 +133,6 @@ public class PreDexedFilesSorter {
         .toSortedList(DexWithClasses.DEX_WITH_CLASSES_COMPARATOR);
 
     // Bucket each DexWithClasses into the appropriate dex file.
-    List<DexWithClasses> currentSecondaryDexContents = null;
-    int currentSecondaryDexSize = 0;
     for (DexWithClasses dexWithClasses : sortedDexFilesToMerge) {
       if (mustBeInPrimaryDex(dexWithClasses)) {
         // Case 1: Entry must be in the primary dex.
@@ -137,22 +161,39 @@ public class PreDexedFilesSorter {
               linearAllocHardLimit);
           throw new HumanReadableException("Secondary dex exceeds linear alloc limit.");
         }
+        secondaryDexInputs.add(dexWithClasses);
+      }
+    }
 
-        // If there is no current secondary dex, or dexWithClasses would put the current secondary
-        // dex over the cost threshold, then create a new secondary dex and initialize it with a
-        // canary.
-        if (currentSecondaryDexContents == null ||
-            dexWithClasses.getSizeEstimate() + currentSecondaryDexSize > linearAllocHardLimit) {
-          DexWithClasses canary = createCanary(secondaryDexesContents.size() + 1, steps);
-
-          currentSecondaryDexContents = Lists.newArrayList(canary);
-          currentSecondaryDexSize = canary.getSizeEstimate();
-          secondaryDexesContents.add(currentSecondaryDexContents);
-        }
+    List<List<DexWithClasses>> packing = pack(
+        secondaryDexInputs,
+        Lists.<List<DexWithClasses>>newArrayList());
+    if (previousLayout.isPresent()) {
+      List<List<DexWithClasses>> stablePacking =
+          packStably(secondaryDexInputs, previousLayout.get());
+      // Holes left by libraries that were removed, or moved, are not filled, so a layout that has
+      // been kept for long enough can become wasteful.
+      if (stablePacking.size() <=
+          Math.ceil(packing.size() * (1 + MAX_STABLE_LAYOUT_OVERHEAD))) {
+        packing = stablePacking;
+      } else {
+        context.logBuildInfo(
+            "Repacking %d secondary dexes into %d.",
+            stablePacking.size(),
+            packing.size());
+      }
+    }
 
-        // Now add the contributions from the dexWithClasses entry.
-        currentSecondaryDexContents.add(dexWithClasses);
-        currentSecondaryDexSize += dexWithClasses.getSizeEstimate();
+    // Each secondary dex starts with a canary, even one whose libraries have all gone.
+    List<List<DexWithClasses>> secondaryDexesContents = Lists.newArrayList();
+    ImmutableMap.Builder<Path, Integer> layout = ImmutableMap.builder();
+    for (List<DexWithClasses> partition : packing) {
+      int secondaryDexNumber = secondaryDexesContents.size() + 1;
+      List<DexWithClasses> contents = Lists.newArrayList(createCanary(secondaryDexNumber, steps));
+      contents.addAll(partition);
+      secondaryDexesContents.add(contents);
+      for (DexWithClasses dexWithClasses : partition) {
+        layout.put(dexWithClasses.getPathToDexFile(), secondaryDexNumber);
       }
     }
 
@@ -176,7 +217,71 @@ public class PreDexedFilesSorter {
         primaryDexInputs,
         secondaryOutputToInputs.build(),
         metadataTxtEntries,
-        getDexInputsHashes(primaryDexContents, secondaryDexesContents));
+        getDexInputsHashes(primaryDexContents, secondaryDexesContents),
+        layout.build());
+  }
+
+  /**
+   * Adds each of {@code inputs}, in order, to the last of {@code partitions}, or to a new partition
+   * after it if it does not fit.
+   */
+  private List<List<DexWithClasses>> pack(
+      List<DexWithClasses> inputs,
+      List<List<DexWithClasses>> partitions) {
+    long currentPartitionSize = partitions.isEmpty() ?
+        0 :
+        getSizeEstimate(Iterables.getLast(partitions));
+    for (DexWithClasses dexWithClasses : inputs) {
+      if (partitions.isEmpty() ||
+          dexWithClasses.getSizeEstimate() + currentPartitionSize > linearAllocHardLimit) {
+        partitions.add(Lists.<DexWithClasses>newArrayList());
+        currentPartitionSize = 0;
+      }
+      Iterables.getLast(partitions).add(dexWithClasses);
+      currentPartitionSize += dexWithClasses.getSizeEstimate();
+    }
+    return partitions;
+  }
+
+  /**
+   * Puts each of {@code inputs} in the same partition as it was in {@code previousLayout}, as long
+   * as it fits, and packs the rest after them.
+   */
+  private List<List<DexWithClasses>> packStably(
+      List<DexWithClasses> inputs,
+      Map<Path, Integer> previousLayout) {
+    List<List<DexWithClasses>> partitions = Lists.newArrayList();
+    List<DexWithClasses> toAppend = Lists.newArrayList();
+    for (DexWithClasses dexWithClasses : inputs) {
+      Integer secondaryDexNumber = previousLayout.get(dexWithClasses.getPathToDexFile());
+      if (secondaryDexNumber == null || secondaryDexNumber < 1) {
+        toAppend.add(dexWithClasses);
+        continue;
+      }
+      while (partitions.size() < secondaryDexNumber) {
+        partitions.add(Lists.<DexWithClasses>newArrayList());
+      }
+      List<DexWithClasses> partition = partitions.get(secondaryDexNumber - 1);
+      if (getSizeEstimate(partition) + dexWithClasses.getSizeEstimate() <= linearAllocHardLimit) {
+        partition.add(dexWithClasses);
+      } else {
+        toAppend.add(dexWithClasses);
+      }
+    }
+
+    // Partitions that are left empty at the end can go, as no other partition is renumbered.
+    while (!partitions.isEmpty() && Iterables.getLast(partitions).isEmpty()) {
+      partitions.remove(partitions.size() - 1);
+    }
+    return pack(toAppend, partitions);
+  }
+
+  private static long getSizeEstimate(List<DexWithClasses> partition) {
+    long size = 0;
+    for (DexWithClasses dexWithClasses : partition) {
+      size += dexWithClasses.getSizeEstimate();
+    }
+    return size;
   }
 
   private static ImmutableMap<Path, Sha1HashCode> getDexInputsHashes(
@@ -266,16 +371,20 @@ public class PreDexedFilesSorter {
     public final Multimap<Path, Path> secondaryOutputToInputs;
     public final Map<Path, DexWithClasses> metadataTxtDexEntries;
     public final DexInputHashesProvider dexInputHashesProvider;
+    /** The secondary dex, numbered from 1, that each secondary dex input was put in. */
+    public final ImmutableMap<Path, Integer> secondaryDexLayout;
 
     public Result(
         Set<Path> primaryDexInputs,
         Multimap<Path, Path> secondaryOutputToInputs,
         Map<Path, DexWithClasses> metadataTxtDexEntries,
-        final ImmutableMap<Path, Sha1HashCode> dexInputHashes) {
+        final ImmutableMap<Path, Sha1HashCode> dexInputHashes,
+        ImmutableMap<Path, Integer> secondaryDexLayout) {
       this.primaryDexInputs = Preconditions.checkNotNull(primaryDexInputs);
       this.secondaryOutputToInputs = Preconditions.checkNotNull(secondaryOutputToInputs);
       this.metadataTxtDexEntries = Preconditions.checkNotNull(metadataTxtDexEntries);
       Preconditions.checkNotNull(dexInputHashes);
+      this.secondaryDexLayout = Preconditions.checkNotNull(secondaryDexLayout);
       this.dexInputHashesProvider = new DexInputHashesProvider() {
         @Override
         public ImmutableMap<Path, Sha1HashCode> getDexInputHashes() {
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.cli;
 
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.java.DefaultJavaPackageFinder;
@@ -23,8 +25,11 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.parser.BuildTargetParser;
 import com.facebook.buck.parser.ParseContext;
 import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.ArtifactCompression;
 import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.rules.CassandraArtifactCache;
+import com.facebook.buck.rules.AsyncUploadArtifactCache;
+import com.facebook.buck.rules.ContentAddressedDirArtifactCache;
 import com.facebook.buck.rules.DirArtifactCache;
 import com.facebook.buck.rules.HttpArtifactCache;
 import com.facebook.buck.rules.MultiArtifactCache;
@@ -35,6 +40,7 @@ import com.facebook.buck.util.FileHashCache;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.MorePaths;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MoreExecutors;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.annotations.Beta;
@@ -57,6 +63,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 
 import org.ini4j.Ini;
@@ -71,6 +78,7 @@ import java.nio.file.Paths;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -99,12 +107,19 @@ public class BuckConfig {
 
   private static final String DEFAULT_CACHE_DIR = "buck-cache";
   private static final String DEFAULT_DIR_CACHE_MODE = CacheMode.readwrite.name();
+  private static final String DEFAULT_DIR_CACHE_COMPRESSION = ArtifactCompression.fast.name();
   private static final String DEFAULT_CASSANDRA_PORT = "9160";
   private static final String DEFAULT_CASSANDRA_MODE = CacheMode.readwrite.name();
   private static final String DEFAULT_CASSANDRA_TIMEOUT_SECONDS = "10";
+  private static final String DEFAULT_CASSANDRA_COMPRESSION = ArtifactCompression.normal.name();
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheMode.readwrite.name();
   private static final String DEFAULT_HTTP_CACHE_PORT = "8080";
   private static final String DEFAULT_HTTP_CACHE_TIMEOUT_SECONDS = "10";
+  private static final String DEFAULT_HTTP_CACHE_COMPRESSION = ArtifactCompression.normal.name();
+  private static final String DEFAULT_CACHE_PREFETCH_BATCH_SIZE = "1000";
+  private static final String DEFAULT_UPLOAD_THREADS = "4";
+  private static final String DEFAULT_UPLOAD_QUEUE_SIZE = "100";
+  private static final String DEFAULT_UPLOAD_FLUSH_TIMEOUT_SECONDS = "10";
   private static final String DEFAULT_MAX_TRACES = "25";
 
   // Prefer "python2" where available (Linux), but fall back to "python" (Mac).
@@ -131,6 +146,11 @@ public class BuckConfig {
     http
   }
 
+  private enum DirCacheLayout {
+    zip,
+    content_addressed,
+  }
+
   private enum CacheMode {
     readonly(false),
     readwrite(true),
@@ -423,6 +443,32 @@ public class BuckConfig {
     return builder.build();
   }
 
+  /** @return how many buck.py processes may evaluate build files at once. */
+  public int getNumParsingThreads() {
+    Optional<String> value = getValue("project", "parsing_threads");
+    return value.isPresent() ?
+        Integer.parseInt(value.get()) :
+        Runtime.getRuntime().availableProcessors();
+  }
+
+  /** @return whether the rules of build files are kept in buck-out between runs of buck. */
+  public boolean isPersistentParseCacheEnabled() {
+    return getBooleanValue("project", "persistent_parse_cache", false);
+  }
+
+  /** @return whether buck.py asks Watchman for the files that {@code glob()} matches. */
+  public boolean isWatchmanGlobEnabled() {
+    String globHandler = getValue("project", "glob_handler").or("python");
+    switch (globHandler) {
+      case "python":
+        return false;
+      case "watchman":
+        return true;
+      default:
+        throw new HumanReadableException("Unusable project.glob_handler: '%s'", globHandler);
+    }
+  }
+
   @Nullable
   public String getBuildTargetForAlias(String alias) {
     Preconditions.checkNotNull(alias);
@@ -528,6 +574,19 @@ public class BuckConfig {
     return Long.parseLong(getValue("test", "timeout").or("0"));
   }
 
+  /**
+   * @return how many java_test rules a test JVM may run before it is replaced, or 0 to run each
+   *     one in a JVM of its own.
+   */
+  public int getTestJvmReuseLimit() {
+    return Integer.parseInt(getValue("test", "jvm_reuse_limit").or("0"));
+  }
+
+  /** @return how many JVMs the test classes of a java_test rule may be split across. */
+  public int getTestShardsPerRule() {
+    return Integer.parseInt(getValue("test", "shards_per_rule").or("1"));
+  }
+
   public boolean isTreatingAssumptionsAsErrors() {
     return getBooleanValue("test", "assumptions-are-errors", false);
   }
@@ -583,6 +642,14 @@ public class BuckConfig {
     }
   }
 
+  /**
+   * @return whether the {@link com.facebook.buck.rules.RuleKey}s of the whole action graph are
+   *     computed in parallel, input files included, before anything is built.
+   */
+  public boolean isParallelRuleKeyComputationEnabled() {
+    return getBooleanValue("build", "parallel_rule_keys", false);
+  }
+
   /**
    * Create an Ansi object appropriate for the current output. First respect the user's
    * preferences, if set. Next, respect any default provided by the caller. (This is used by buckd
@@ -633,7 +700,7 @@ public class BuckConfig {
           }
           break;
         case http:
-          ArtifactCache httpArtifactCache = createHttpArtifactCache(buckEventBus, fileHashCache);
+          ArtifactCache httpArtifactCache = createHttpArtifactCache(buckEventBus);
           builder.add(httpArtifactCache);
           break;
         }
@@ -642,18 +709,62 @@ public class BuckConfig {
       throw new HumanReadableException("Unusable cache.mode: '%s'", modes.toString());
     }
     ImmutableList<ArtifactCache> artifactCaches = builder.build();
+    ArtifactCache artifactCache;
     if (artifactCaches.size() == 1) {
       // Don't bother wrapping a single artifact cache in MultiArtifactCache.
-      return artifactCaches.get(0);
+      artifactCache = artifactCaches.get(0);
     } else {
-      return new MultiArtifactCache(artifactCaches);
+      artifactCache = new MultiArtifactCache(artifactCaches, createParallelFetchService());
+    }
+
+    if (getBooleanValue("cache", "async_upload", false)) {
+      artifactCache = new AsyncUploadArtifactCache(
+          artifactCache,
+          buckEventBus,
+          MoreExecutors.newMultiThreadExecutor(
+              "artifact-upload",
+              Integer.parseInt(getValue("cache", "upload_threads").or(DEFAULT_UPLOAD_THREADS))),
+          Integer.parseInt(getValue("cache", "upload_queue_size").or(DEFAULT_UPLOAD_QUEUE_SIZE)),
+          Long.parseLong(
+              getValue("cache", "upload_flush_timeout_seconds")
+                  .or(DEFAULT_UPLOAD_FLUSH_TIMEOUT_SECONDS)));
     }
+    return artifactCache;
+  }
+
+  /**
+   * @return the service on which a {@link MultiArtifactCache} queries all of its caches at once,
+   *     if {@code cache.parallel_fetch} is enabled.
+   */
+  private Optional<ListeningExecutorService> createParallelFetchService() {
+    if (!getBooleanValue("cache", "parallel_fetch", false)) {
+      return Optional.absent();
+    }
+    // Every build thread may have one query in flight per cache, so do not bound the pool here.
+    return Optional.of(
+        listeningDecorator(
+            Executors.newCachedThreadPool(
+                new MoreExecutors.NamedThreadFactory("artifact-cache-fetch"))));
   }
 
   ImmutableList<String> getArtifactCacheModes() {
     return asListWithoutComments(getValue("cache", "mode"));
   }
 
+  /**
+   * @return whether artifacts should be fetched in the background as soon as the
+   *     {@link com.facebook.buck.rules.RuleKey}s of the whole action graph are known.
+   */
+  public boolean isArtifactCachePrefetchEnabled() {
+    return getBooleanValue("cache", "prefetch", false);
+  }
+
+  /** @return the number of keys to check for existence in a single artifact cache request. */
+  public int getArtifactCachePrefetchBatchSize() {
+    return Integer.parseInt(
+        getValue("cache", "prefetch_batch_size").or(DEFAULT_CACHE_PREFETCH_BATCH_SIZE));
+  }
+
   @VisibleForTesting
   Path getCacheDir() {
     String cacheDir = getValue("cache", "dir").or(DEFAULT_CACHE_DIR);
@@ -676,12 +787,35 @@ public class BuckConfig {
     File dir = cacheDir.toFile();
     boolean doStore = readCacheMode("dir_mode", DEFAULT_DIR_CACHE_MODE);
     try {
-      return new DirArtifactCache(dir, doStore, getCacheDirMaxSizeBytes());
+      switch (getDirCacheLayout()) {
+      case content_addressed:
+        return new ContentAddressedDirArtifactCache(
+            dir,
+            doStore,
+            getCacheDirMaxSizeBytes(),
+            getBooleanValue("cache", "dir_hardlink_restores", false));
+      case zip:
+      default:
+        return new DirArtifactCache(
+            dir,
+            doStore,
+            getCacheDirMaxSizeBytes(),
+            readCacheCompression("dir_compression", DEFAULT_DIR_CACHE_COMPRESSION));
+      }
     } catch (IOException e) {
       throw new HumanReadableException("Failure initializing artifact cache directory: %s", dir);
     }
   }
 
+  private DirCacheLayout getDirCacheLayout() {
+    String layout = getValue("cache", "dir_layout").or(DirCacheLayout.zip.name());
+    try {
+      return DirCacheLayout.valueOf(layout);
+    } catch (IllegalArgumentException e) {
+      throw new HumanReadableException("Unusable cache.dir_layout: '%s'", layout);
+    }
+  }
+
   /**
    * Clients should use {@link #createArtifactCache(Optional, BuckEventBus, FileHashCache)} unless
    * it is expected that the user has defined a {@code cassandra} cache, and that it should be used
@@ -717,6 +851,7 @@ public class BuckConfig {
           port,
           timeoutSeconds,
           doStore,
+          readCacheCompression("cassandra_compression", DEFAULT_CASSANDRA_COMPRESSION),
           buckEventBus,
           fileHashCache);
     } catch (ConnectionException e) {
@@ -725,9 +860,7 @@ public class BuckConfig {
     }
   }
 
-  private ArtifactCache createHttpArtifactCache(
-      BuckEventBus buckEventBus,
-      FileHashCache fileHashCache) {
+  private ArtifactCache createHttpArtifactCache(BuckEventBus buckEventBus) {
     String host = getValue("cache", "http_host").or("localhost");
     int port = Integer.parseInt(getValue("cache", "http_port").or(DEFAULT_HTTP_CACHE_PORT));
     int timeoutSeconds = Integer.parseInt(
@@ -738,9 +871,9 @@ public class BuckConfig {
         port,
         timeoutSeconds,
         doStore,
+        readCacheCompression("http_compression", DEFAULT_HTTP_CACHE_COMPRESSION),
         projectFilesystem,
-        buckEventBus,
-        fileHashCache);
+        buckEventBus);
   }
 
   private boolean readCacheMode(String fieldName, String defaultValue) {
@@ -754,6 +887,16 @@ public class BuckConfig {
     return doStore;
   }
 
+  @VisibleForTesting
+  ArtifactCompression readCacheCompression(String fieldName, String defaultValue) {
+    String compression = getValue("cache", fieldName).or(defaultValue);
+    try {
+      return ArtifactCompression.valueOf(compression);
+    } catch (IllegalArgumentException e) {
+      throw new HumanReadableException("Unusable cache.%s: '%s'", fieldName, compression);
+    }
+  }
+
   public Optional<String> getNdkVersion() {
     return getValue("ndk", "ndk_version");
   }
@@ -96,7 +96,10 @@ class CommandRunnerParams {
               public Builder newInstance(BuildRule buildRule) {
                 return RuleKey.builder(buildRule, new NullFileHashCache());
               }
-            }),
+            },
+            /* parsingThreads */ 1,
+            /* usePersistentParseCache */ false,
+            /* useWatchmanGlob */ false),
         platform,
         environment,
         javaPackageFinder,
@@ -43,9 +43,11 @@ import com.facebook.buck.timing.Clock;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.timing.NanosAdjustedClock;
 import com.facebook.buck.util.Ansi;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultFileHashCache;
 import com.facebook.buck.util.FileHashCache;
+import com.facebook.buck.util.FileHashStore;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.InterruptionFailedException;
 import com.facebook.buck.util.ProcessExecutor;
@@ -114,6 +116,10 @@ public final class Main {
 
   private static final int ARTIFACT_CACHE_TIMEOUT_IN_SECONDS = 15;
 
+  /** Journal of file hashes, kept across Buck processes. */
+  private static final Path FILE_HASH_STORE_PATH =
+      BuckConstant.BUCK_OUTPUT_PATH.resolve("file_hashes");
+
   private static final TimeSpan DAEMON_SLAYER_TIMEOUT = new TimeSpan(2, TimeUnit.HOURS);
 
   private static final TimeSpan SUPER_CONSOLE_REFRESH_RATE =
@@ -168,16 +174,22 @@ public final class Main {
       this.repository = repositoryFactory.getRootRepository();
       this.clock = Preconditions.checkNotNull(clock);
       this.objectMapper = Preconditions.checkNotNull(objectMapper);
-      this.hashCache = new DefaultFileHashCache(repository.getFilesystem());
+      this.hashCache = createFileHashCache(repository.getFilesystem());
       this.parser = Parser.createParser(
           repositoryFactory,
           repository.getBuckConfig().getPythonInterpreter(),
           repository.getBuckConfig().getTempFilePatterns(),
-          createRuleKeyBuilderFactory(hashCache));
+          createRuleKeyBuilderFactory(
+              hashCache,
+              repository.getBuckConfig().isParallelRuleKeyComputationEnabled()),
+          repository.getBuckConfig().getNumParsingThreads(),
+          repository.getBuckConfig().isPersistentParseCacheEnabled(),
+          repository.getBuckConfig().isWatchmanGlobEnabled());
 
       this.fileEventBus = new EventBus("file-change-events");
       this.filesystemWatcher = createWatcher(repository.getFilesystem());
       fileEventBus.register(parser);
+      parser.startRecordingStamps();
       fileEventBus.register(hashCache);
       webServer = createWebServer(repository.getBuckConfig(), repository.getFilesystem());
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(repository.getFilesystem());
@@ -301,6 +313,7 @@ public final class Main {
 
     @Override
     public void close() throws IOException {
+      hashCache.flush();
       filesystemWatcher.close();
       shutdownWebServer();
     }
@@ -318,6 +331,23 @@ public final class Main {
 
   @Nullable private static volatile Daemon daemon;
 
+  /**
+   * The file hash store is shared by the caches of the daemon and of each command, so that the
+   * journal is loaded once per process.
+   */
+  @Nullable private static FileHashStore fileHashStore;
+  @Nullable private static Path fileHashStoreRoot;
+
+  private static synchronized DefaultFileHashCache createFileHashCache(
+      ProjectFilesystem projectFilesystem) {
+    Path rootPath = projectFilesystem.getRootPath();
+    if (fileHashStore == null || !rootPath.equals(fileHashStoreRoot)) {
+      fileHashStore = FileHashStore.load(projectFilesystem.resolve(FILE_HASH_STORE_PATH));
+      fileHashStoreRoot = rootPath;
+    }
+    return new DefaultFileHashCache(projectFilesystem, Optional.of(fileHashStore));
+  }
+
   /**
    * Get or create Daemon.
    */
@@ -542,7 +572,7 @@ public final class Main {
       }
     }
 
-    DefaultFileHashCache fileHashCache = new DefaultFileHashCache(rootRepository.getFilesystem());
+    DefaultFileHashCache fileHashCache = createFileHashCache(rootRepository.getFilesystem());
 
     @Nullable ArtifactCacheFactory artifactCacheFactory = null;
 
@@ -618,7 +648,12 @@ public final class Main {
             repositoryFactory,
             rootRepository.getBuckConfig().getPythonInterpreter(),
             rootRepository.getBuckConfig().getTempFilePatterns(),
-            createRuleKeyBuilderFactory(fileHashCache));
+            createRuleKeyBuilderFactory(
+                fileHashCache,
+                rootRepository.getBuckConfig().isParallelRuleKeyComputationEnabled()),
+            rootRepository.getBuckConfig().getNumParsingThreads(),
+            rootRepository.getBuckConfig().isPersistentParseCacheEnabled(),
+            rootRepository.getBuckConfig().isWatchmanGlobEnabled());
       }
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(rootRepository.getFilesystem());
 
@@ -664,6 +699,7 @@ public final class Main {
       context.get().exit(exitCode); // Allow nailgun client to exit while outputting traces.
     }
     closeCreatedArtifactCaches(artifactCacheFactory); // Wait for cache close after client exit.
+    fileHashCache.flush();
     for (BuckEventListener eventListener : eventListeners) {
       try {
         eventListener.outputTrace(buildId);
@@ -851,12 +887,17 @@ public final class Main {
 
   /**
    * @param hashCache A cache of file content hashes, used to avoid reading and hashing input files.
+   * @param isHashingInputsInParallel whether keys computed ahead of the build on a ForkJoinPool
+   *     may hash their input files in parallel.
    */
-  private static RuleKeyBuilderFactory createRuleKeyBuilderFactory(final FileHashCache hashCache) {
+  private static RuleKeyBuilderFactory createRuleKeyBuilderFactory(
+      final FileHashCache hashCache,
+      final boolean isHashingInputsInParallel) {
     return new RuleKeyBuilderFactory() {
       @Override
       public Builder newInstance(BuildRule buildRule) {
         RuleKey.Builder builder = RuleKey.builder(buildRule, hashCache);
+        builder.setHashingInputsInParallel(isHashingInputsInParallel);
         builder.set("buckVersionUid", BUCK_VERSION_UID);
         return builder;
       }
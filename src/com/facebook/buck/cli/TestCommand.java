@@ -24,6 +24,7 @@ import com.facebook.buck.java.JUnitStep;
 import com.facebook.buck.java.JavaLibrary;
 import com.facebook.buck.java.JavaTest;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
 import com.facebook.buck.parser.PartialGraph;
@@ -104,6 +105,8 @@ import javax.xml.transform.stream.StreamResult;
 
 public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
 
+  private static final Logger LOG = Logger.get(TestCommand.class);
+
   public static final int TEST_FAILURES_EXIT_CODE = 42;
 
   public TestCommand(CommandRunnerParams params) {
@@ -151,6 +154,7 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     ExecutionContext testExecutionContext = ExecutionContext.builder().
         setExecutionContext(buildExecutionContext).
         setTargetDevice(options.getTargetDeviceOptional()).
+        setTestResultsCacheEnabled(options.isResultsCacheEnabled()).
         build();
 
     try {
@@ -492,7 +496,19 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(
         executionContext.getProjectFilesystem(),
         getBuildEngine());
-    for (TestRule test : tests) {
+
+    // The step runner starts tests in the order that they are submitted, so start the longest
+    // first, lest one of them start last and hold up the end of the run.
+    final TestDurationHistory durationHistory = TestDurationHistory.load(
+        executionContext.getProjectFilesystem(),
+        executionContext.getObjectMapper());
+    tests = durationHistory.sortLongestFirst(tests);
+    // Only the tests that actually run count towards the predicted makespan, not those whose
+    // results are cached.
+    ImmutableList.Builder<TestRule> scheduledTests = ImmutableList.builder();
+    long startTime = System.currentTimeMillis();
+
+    for (final TestRule test : tests) {
       // Determine whether the test needs to be executed.
       boolean isTestRunRequired;
       isTestRunRequired = isTestRunRequiredForTest(
@@ -517,6 +533,8 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
             options.isDryRun(),
             options.getTestSelectorList());
         if (!testSteps.isEmpty()) {
+          scheduledTests.add(test);
+          stepsBuilder.add(durationHistory.createStartStep(test.getBuildTarget()));
           stepsBuilder.addAll(testSteps);
           stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
         }
@@ -538,6 +556,17 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
       FutureCallback<TestResults> onTestFinishedCallback =
           getFutureCallback(grouper, test, options, printTestResults);
       Futures.addCallback(testResults, onTestFinishedCallback);
+      Futures.addCallback(testResults, new FutureCallback<TestResults>() {
+        @Override
+        public void onSuccess(TestResults result) {
+          durationHistory.finished(test.getBuildTarget());
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // A test that could not run says nothing about how long it takes.
+        }
+      });
       results.add(testResults);
     }
 
@@ -562,6 +591,25 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
     getBuckEventBus().post(TestRunEvent.finished(
         options.getArgumentsFormattedAsBuildTargets(), completedResults));
 
+    long makespan = System.currentTimeMillis() - startTime;
+    Optional<Long> predictedMakespan =
+        durationHistory.predictMakespan(scheduledTests.build(), options.getNumThreads());
+    if (predictedMakespan.isPresent()) {
+      String report = String.format(
+          "Tests took %d ms to run, against %d ms predicted from their previous runs.",
+          makespan,
+          predictedMakespan.get());
+      LOG.info(report);
+      if (verbosity.shouldPrintCommand()) {
+        getStdErr().println(report);
+      }
+    }
+    try {
+      durationHistory.save();
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to save the durations of the tests");
+    }
+
     // Write out the results as XML, if requested.
     if (options.getPathToXmlTestOutput() != null) {
       try (Writer writer = Files.newWriter(
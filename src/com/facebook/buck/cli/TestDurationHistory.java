@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * How long the tests of each test rule took to run the last time that they ran, which is kept in
+ * {@code buck-out} between runs of {@code buck test}, so that the longest tests can be started
+ * first, rather than one of them starting last and holding up the end of the run.
+ * <p>
+ * The durations of the test classes of a {@code java_test} need no such file: they are in the
+ * results that it leaves in {@code buck-out}.
+ */
+class TestDurationHistory {
+
+  private static final Logger LOG = Logger.get(TestDurationHistory.class);
+
+  @VisibleForTesting
+  static final Path PATH = BuckConstant.BUCK_OUTPUT_PATH.resolve("test_durations.json");
+
+  private final ProjectFilesystem filesystem;
+  private final ObjectMapper objectMapper;
+  /** Durations in milliseconds, by fully qualified build target name. */
+  private final Map<String, Long> durations;
+  /**
+   * The durations as they were loaded, which estimates are made from, so that a prediction that is
+   * made once tests have run is not made from their own durations.
+   */
+  private final ImmutableMap<String, Long> previousDurations;
+  private final ConcurrentMap<BuildTarget, Long> startTimes = Maps.newConcurrentMap();
+
+  private TestDurationHistory(
+      ProjectFilesystem filesystem,
+      ObjectMapper objectMapper,
+      Map<String, Long> durations) {
+    this.filesystem = Preconditions.checkNotNull(filesystem);
+    this.objectMapper = Preconditions.checkNotNull(objectMapper);
+    this.durations = Preconditions.checkNotNull(durations);
+    this.previousDurations = ImmutableMap.copyOf(durations);
+  }
+
+  /** @return the durations written by the last run, or none if they cannot be read. */
+  static TestDurationHistory load(ProjectFilesystem filesystem, ObjectMapper objectMapper) {
+    Map<String, Long> durations = Maps.newHashMap();
+    Optional<String> json = filesystem.readFileIfItExists(PATH);
+    if (json.isPresent()) {
+      try {
+        durations.putAll(
+            objectMapper.<Map<String, Long>>readValue(
+                json.get(),
+                new TypeReference<Map<String, Long>>() {}));
+      } catch (IOException e) {
+        LOG.warn(e, "Ignoring unreadable test durations in %s", PATH);
+      }
+    }
+    return new TestDurationHistory(filesystem, objectMapper, durations);
+  }
+
+  @VisibleForTesting
+  synchronized Optional<Long> getDuration(BuildTarget target) {
+    return Optional.fromNullable(durations.get(target.getFullyQualifiedName()));
+  }
+
+  /**
+   * @return {@code tests}, longest first. A test that has not run before is assumed to take as long
+   *     as the average test that has. If none of them have, their order is kept.
+   */
+  ImmutableList<TestRule> sortLongestFirst(Iterable<TestRule> tests) {
+    final Map<TestRule, Long> estimates = estimate(tests);
+    if (estimates.isEmpty()) {
+      return ImmutableList.copyOf(tests);
+    }
+    List<TestRule> sorted = Lists.newArrayList(tests);
+    Collections.sort(sorted, new Comparator<TestRule>() {
+      @Override
+      public int compare(TestRule a, TestRule b) {
+        int byDuration = Long.compare(estimates.get(b), estimates.get(a));
+        return byDuration != 0 ? byDuration : a.getBuildTarget().compareTo(b.getBuildTarget());
+      }
+    });
+    return ImmutableList.copyOf(sorted);
+  }
+
+  /**
+   * @return how long running {@code tests}, in that order, on {@code threadCount} threads should
+   *     take, or absent if none of them have run before.
+   */
+  Optional<Long> predictMakespan(Iterable<TestRule> tests, int threadCount) {
+    Preconditions.checkArgument(threadCount > 0);
+    Map<TestRule, Long> estimates = estimate(tests);
+    if (estimates.isEmpty()) {
+      return Optional.absent();
+    }
+    PriorityQueue<Long> threadFinishTimes = new PriorityQueue<>();
+    for (int i = 0; i < threadCount; i++) {
+      threadFinishTimes.add(0L);
+    }
+    long makespan = 0;
+    for (TestRule test : tests) {
+      // Each test starts on whichever thread is free first.
+      long finishTime = threadFinishTimes.poll() + estimates.get(test);
+      threadFinishTimes.add(finishTime);
+      makespan = Math.max(makespan, finishTime);
+    }
+    return Optional.of(makespan);
+  }
+
+  /** @return the estimated duration of each test, or nothing if none of them have run before. */
+  private Map<TestRule, Long> estimate(Iterable<TestRule> tests) {
+    long knownTotal = 0;
+    int known = 0;
+    for (TestRule test : tests) {
+      Long duration = previousDurations.get(test.getBuildTarget().getFullyQualifiedName());
+      if (duration != null) {
+        knownTotal += duration;
+        known++;
+      }
+    }
+    Map<TestRule, Long> estimates = Maps.newHashMap();
+    if (known == 0) {
+      return estimates;
+    }
+    long defaultDuration = knownTotal / known;
+    for (TestRule test : tests) {
+      Long duration = previousDurations.get(test.getBuildTarget().getFullyQualifiedName());
+      estimates.put(test, duration == null ? defaultDuration : duration);
+    }
+    return estimates;
+  }
+
+  /** @return a step that marks the start of the steps that run the tests of {@code target}. */
+  Step createStartStep(final BuildTarget target) {
+    return new AbstractExecutionStep("start_test_timer") {
+      @Override
+      public int execute(ExecutionContext context) {
+        startTimes.put(target, System.currentTimeMillis());
+        return 0;
+      }
+    };
+  }
+
+  /** Records how long the tests of {@code target} took, if they ran since its start step. */
+  void finished(BuildTarget target) {
+    Long startTime = startTimes.remove(target);
+    if (startTime == null) {
+      return;
+    }
+    long duration = System.currentTimeMillis() - startTime;
+    synchronized (this) {
+      durations.put(target.getFullyQualifiedName(), duration);
+    }
+  }
+
+  synchronized void save() throws IOException {
+    filesystem.createParentDirs(PATH);
+    filesystem.writeContentsToPath(
+        objectMapper.writeValueAsString(new TreeMap<>(durations)),
+        PATH);
+  }
+}
@@ -17,14 +17,17 @@
 package com.facebook.buck.command;
 
 import static com.facebook.buck.rules.BuildableProperties.Kind.ANDROID;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 
 import com.facebook.buck.android.HasAndroidPlatformTarget;
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.graph.TopologicalSort;
 import com.facebook.buck.graph.TraversableGraph;
 import com.facebook.buck.java.JavaPackageFinder;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.ArtifactCache;
 import com.facebook.buck.rules.BuildContext;
@@ -33,6 +36,10 @@ import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleSuccess;
 import com.facebook.buck.rules.Builder;
+import com.facebook.buck.rules.CacheMode;
+import com.facebook.buck.rules.ParallelRuleKeyComputer;
+import com.facebook.buck.rules.PrefetchingArtifactCache;
+import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.StepFailedException;
@@ -40,12 +47,17 @@ import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.AndroidDirectoryResolver;
 import com.facebook.buck.util.AndroidPlatformTarget;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MoreExecutors;
 import com.facebook.buck.util.environment.Platform;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
 
@@ -54,21 +66,30 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nullable;
 
 public class Build implements Closeable {
 
+  private static final Logger LOG = Logger.get(Build.class);
+
   private final ActionGraph actionGraph;
 
   private final ExecutionContext executionContext;
 
   private final ArtifactCache artifactCache;
 
+  private final Optional<PrefetchingArtifactCache> prefetchingArtifactCache;
+
   private final BuildEngine buildEngine;
 
   private final DefaultStepRunner stepRunner;
 
+  private final int numThreads;
+
+  private final boolean isParallelRuleKeyComputationEnabled;
+
   private final JavaPackageFinder javaPackageFinder;
 
   private final BuildDependencies buildDependencies;
@@ -116,6 +137,8 @@ public class Build implements Closeable {
         .setAndroidPlatformTarget(androidPlatformTarget)
         .setTargetDevice(targetDevice)
         .setDefaultTestTimeoutMillis(defaultTestTimeoutMillis)
+        .setTestJvmReuseLimit(buckConfig.getTestJvmReuseLimit())
+        .setTestShardsPerRule(buckConfig.getTestShardsPerRule())
         .setCodeCoverageEnabled(isCodeCoverageEnabled)
         .setDebugEnabled(isDebugEnabled)
         .setEventBus(eventBus)
@@ -124,9 +147,23 @@ public class Build implements Closeable {
         .setJavaPackageFinder(javaPackageFinder)
         .setObjectMapper(objectMapper)
         .build();
-    this.artifactCache = Preconditions.checkNotNull(artifactCache);
+    Preconditions.checkNotNull(artifactCache);
+    if (buckConfig.isArtifactCachePrefetchEnabled()) {
+      PrefetchingArtifactCache prefetchingArtifactCache = new PrefetchingArtifactCache(
+          artifactCache,
+          listeningDecorator(MoreExecutors.newMultiThreadExecutor("artifact-prefetch", numThreads)),
+          buckConfig.getArtifactCachePrefetchBatchSize(),
+          projectFilesystem.resolve(BuckConstant.SCRATCH_PATH.resolve("prefetch")));
+      this.prefetchingArtifactCache = Optional.of(prefetchingArtifactCache);
+      this.artifactCache = prefetchingArtifactCache;
+    } else {
+      this.prefetchingArtifactCache = Optional.absent();
+      this.artifactCache = artifactCache;
+    }
     this.buildEngine = Preconditions.checkNotNull(buildEngine);
     this.stepRunner = new DefaultStepRunner(executionContext, numThreads);
+    this.numThreads = numThreads;
+    this.isParallelRuleKeyComputationEnabled = buckConfig.isParallelRuleKeyComputationEnabled();
     this.javaPackageFinder = Preconditions.checkNotNull(javaPackageFinder);
     this.buildDependencies = Preconditions.checkNotNull(buildDependencies);
     this.clock = Preconditions.checkNotNull(clock);
@@ -238,11 +275,66 @@ public class Build implements Closeable {
         .setEnvironment(executionContext.getEnvironment())
         .build();
 
+    if (isParallelRuleKeyComputationEnabled) {
+      computeRuleKeys();
+    }
+
+    if (prefetchingArtifactCache.isPresent()) {
+      // The keys are listed on the prefetch service, so that the build need not wait for them.
+      prefetchingArtifactCache.get().prefetchAsync(new Supplier<Iterable<RuleKey>>() {
+        @Override
+        public Iterable<RuleKey> get() {
+          if (!isParallelRuleKeyComputationEnabled) {
+            computeRuleKeys();
+          }
+          return computeRuleKeysForPrefetch();
+        }
+      });
+    }
+
     return Builder.getInstance().buildRules(buildEngine, rulesToBuild, buildContext);
   }
 
+  /**
+   * Computes the {@link RuleKey} of every rule in the action graph in parallel, so that neither the
+   * build nor the prefetch has to compute them one at a time.
+   */
+  private void computeRuleKeys() {
+    long startMillis = clock.currentTimeMillis();
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      new ParallelRuleKeyComputer(pool).computeRuleKeys(actionGraph.getNodes());
+    } finally {
+      pool.shutdown();
+    }
+    LOG.debug("Computed rule keys in %d ms", clock.currentTimeMillis() - startMillis);
+  }
+
+  /**
+   * @return the {@link RuleKey}s of the cacheable rules in the action graph, dependencies first, so
+   *     that the artifacts that are needed first are downloaded first.
+   */
+  private ImmutableList<RuleKey> computeRuleKeysForPrefetch() {
+    ImmutableList.Builder<RuleKey> ruleKeys = ImmutableList.builder();
+    for (BuildRule rule : TopologicalSort.sort(actionGraph, Predicates.<BuildRule>alwaysTrue())) {
+      if (rule.getCacheMode() != CacheMode.ENABLED) {
+        continue;
+      }
+      try {
+        ruleKeys.add(rule.getRuleKey());
+      } catch (RuntimeException e) {
+        // The build itself will report this properly if the rule ever gets built.
+        LOG.debug(e, "Not prefetching %s: could not compute its rule key.", rule);
+      }
+    }
+    return ruleKeys.build();
+  }
+
   @Override
   public void close() throws IOException {
     stepRunner.close();
+    if (prefetchingArtifactCache.isPresent()) {
+      prefetchingArtifactCache.get().close();
+    }
   }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads what a compiled class depends on from its class file.
+ */
+class ClassFileDependencies {
+
+  /** Tags of the constant pool entries that name types. */
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_CLASS = 7;
+
+  /** An object type in a descriptor or generic signature, such as {@code Ljava/lang/String;}. */
+  private static final Pattern OBJECT_TYPE = Pattern.compile("L([^;<>()\\[]+)[;<]");
+
+  /** Utility class: do not instantiate. */
+  private ClassFileDependencies() {}
+
+  /**
+   * @return the internal names of the types that a class file mentions anywhere: in class
+   *     references, in the descriptors and signatures of members and of what its code calls, and in
+   *     its annotations. The result may also contain names that are not types, such as those that
+   *     merely look like descriptors in string constants.
+   */
+  static ImmutableSortedSet<String> getReferencedTypes(byte[] classFile) throws IOException {
+    ImmutableSortedSet.Builder<String> types = ImmutableSortedSet.naturalOrder();
+    ClassReader reader = new ClassReader(classFile);
+    for (int i = 1; i < reader.getItemCount(); i++) {
+      // Each item points just past the tag of its entry, or is 0 for the second slot of a long or
+      // a double.
+      int offset = reader.getItem(i);
+      if (offset == 0) {
+        continue;
+      }
+      if (classFile[offset - 1] == CONSTANT_CLASS) {
+        String name = readUtf8(classFile, reader.getItem(reader.readUnsignedShort(offset)));
+        if (name.startsWith("[")) {
+          addObjectTypes(name, types);
+        } else {
+          types.add(name);
+        }
+      } else if (classFile[offset - 1] == CONSTANT_UTF8) {
+        addObjectTypes(readUtf8(classFile, offset), types);
+      }
+    }
+    return types.build();
+  }
+
+  /**
+   * @return the values of the compile time constants that a class declares, which javac copies into
+   *     the classes that use them rather than referring to the class that declares them, keyed by
+   *     the name and descriptor of their field.
+   */
+  static ImmutableSortedMap<String, String> getConstants(byte[] classFile) {
+    final ImmutableSortedMap.Builder<String, String> constants = ImmutableSortedMap.naturalOrder();
+    new ClassReader(classFile).accept(
+        new ClassVisitor(Opcodes.ASM4) {
+          @Override
+          public FieldVisitor visitField(
+              int access,
+              String name,
+              String desc,
+              String signature,
+              Object value) {
+            if (value != null) {
+              constants.put(name + ":" + desc, String.valueOf(value));
+            }
+            return null;
+          }
+        },
+        ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    return constants.build();
+  }
+
+  private static String readUtf8(byte[] classFile, int offset) throws IOException {
+    // A CONSTANT_Utf8 entry is laid out exactly as DataOutput#writeUTF writes a string.
+    return new DataInputStream(
+        new ByteArrayInputStream(classFile, offset, classFile.length - offset)).readUTF();
+  }
+
+  private static void addObjectTypes(String descriptor, ImmutableSortedSet.Builder<String> types) {
+    Matcher matcher = OBJECT_TYPE.matcher(descriptor);
+    while (matcher.find()) {
+      types.add(matcher.group(1));
+    }
+  }
+}
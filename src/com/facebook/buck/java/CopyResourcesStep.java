@@ -27,11 +27,14 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -79,11 +82,25 @@ public class CopyResourcesStep implements Step {
   @VisibleForTesting
   ImmutableList<Step> buildSteps() {
     ImmutableList.Builder<Step> allSteps = ImmutableList.builder();
+    for (Map.Entry<Path, Path> resource : getResourcesByRelativePath().entrySet()) {
+      Path target = outputDirectory.resolve(resource.getKey());
+      MkdirAndSymlinkFileStep link = new MkdirAndSymlinkFileStep(resource.getValue(), target);
+      allSteps.add(link);
+    }
+    return allSteps.build();
+  }
 
+  /**
+   * @return the path to each resource, keyed by where it goes relative to the output directory.
+   *     Where several resources go to the same place, the last one wins.
+   */
+  ImmutableMap<Path, Path> getResourcesByRelativePath() {
     if (resources.isEmpty()) {
-      return allSteps.build();
+      return ImmutableMap.of();
     }
 
+    Map<Path, Path> resourcesByRelativePath = Maps.newLinkedHashMap();
+
     String targetPackageDir = javaPackageFinder.findJavaPackageForPath(
         target.getBasePathWithSlash())
         .replace('.', File.separatorChar);
@@ -137,11 +154,10 @@ public class CopyResourcesStep implements Step {
           relativeSymlinkPath = Paths.get(resource.substring(lastIndex));
         }
       }
-      Path target = outputDirectory.resolve(relativeSymlinkPath);
-      MkdirAndSymlinkFileStep link = new MkdirAndSymlinkFileStep(pathToResource, target);
-      allSteps.add(link);
+      resourcesByRelativePath.remove(relativeSymlinkPath);
+      resourcesByRelativePath.put(relativeSymlinkPath, pathToResource);
     }
-    return allSteps.build();
+    return ImmutableMap.copyOf(resourcesByRelativePath);
   }
 
   @Override
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link Step} that writes a jar of stubs of the classes in another jar, which is all that javac
+ * needs to compile against them. A stub keeps the non-private members of its class, along with the
+ * values of its constants, but each of its methods merely throws; anonymous and local classes,
+ * which nothing else can refer to, and everything that is not a class, are left out.
+ */
+public class CreateAbiJarStep implements Step {
+
+  private final Optional<Path> pathToInputJar;
+  private final Path pathToOutputJar;
+  @Nullable private Sha1HashCode abiKey;
+
+  /**
+   * @param pathToInputJar the jar of the classes to write stubs of. If absent, or if there is no
+   *     such file, then an empty jar is written.
+   * @param pathToOutputJar where to write the jar of stubs. Its directory must exist.
+   */
+  public CreateAbiJarStep(Optional<Path> pathToInputJar, Path pathToOutputJar) {
+    this.pathToInputJar = Preconditions.checkNotNull(pathToInputJar);
+    this.pathToOutputJar = Preconditions.checkNotNull(pathToOutputJar);
+  }
+
+  @Override
+  public int execute(ExecutionContext context) {
+    ImmutableSortedMap.Builder<String, ByteSource> stubs = ImmutableSortedMap.naturalOrder();
+    try {
+      if (pathToInputJar.isPresent()) {
+        File inputJar = context.getProjectFilesystem().getFileForRelativePath(
+            pathToInputJar.get());
+        if (inputJar.isFile()) {
+          addStubs(inputJar, stubs);
+        }
+      }
+      ImmutableSortedMap<String, ByteSource> sortedStubs = stubs.build();
+      JarDirectoryStepHelper.createJarFile(pathToOutputJar, sortedStubs, context);
+      abiKey = hashStubs(sortedStubs);
+    } catch (IOException e) {
+      context.logError(e, "Unable to write the ABI jar %s.", pathToOutputJar);
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * @return the ABI key of the jar, which is a hash of its stubs, or null if this step has not run
+   *     successfully.
+   */
+  @Nullable
+  public Sha1HashCode getAbiKey() {
+    return abiKey;
+  }
+
+  private static Sha1HashCode hashStubs(ImmutableSortedMap<String, ByteSource> stubs)
+      throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Map.Entry<String, ByteSource> stub : stubs.entrySet()) {
+      byte[] bytes = stub.getValue().read();
+      hasher.putUnencodedChars(stub.getKey()).putInt(bytes.length).putBytes(bytes);
+    }
+    return new Sha1HashCode(hasher.hash().toString());
+  }
+
+  private static void addStubs(File inputJar, ImmutableSortedMap.Builder<String, ByteSource> stubs)
+      throws IOException {
+    try (ZipFile zip = new ZipFile(inputJar)) {
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+        ZipEntry entry = entries.nextElement();
+        if (!entry.getName().endsWith(".class")) {
+          continue;
+        }
+        byte[] classFile;
+        try (InputStream input = zip.getInputStream(entry)) {
+          classFile = ByteStreams.toByteArray(input);
+        }
+        Optional<byte[]> stub = createStub(classFile);
+        if (stub.isPresent()) {
+          stubs.put(entry.getName(), ByteSource.wrap(stub.get()));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the stub of a class, or absent if the class is anonymous or local, and so cannot be
+   *     compiled against. A class file too new to be read is its own stub.
+   */
+  @VisibleForTesting
+  static Optional<byte[]> createStub(byte[] classFile) {
+    ClassReader reader;
+    try {
+      reader = new ClassReader(classFile);
+    } catch (IllegalArgumentException e) {
+      return Optional.of(classFile);
+    }
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    StubClassVisitor stub = new StubClassVisitor(writer);
+    reader.accept(
+        stub,
+        ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    if (stub.isAnonymousOrLocal) {
+      return Optional.absent();
+    }
+    return Optional.of(writer.toByteArray());
+  }
+
+  @Override
+  public String getShortName() {
+    return "abi_jar";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format(
+        "create ABI jar %s from %s",
+        pathToOutputJar,
+        pathToInputJar.isPresent() ? pathToInputJar.get() : "nothing");
+  }
+
+  private static class StubClassVisitor extends ClassVisitor {
+    @Nullable private String name;
+    private boolean isAnonymousOrLocal;
+
+    private StubClassVisitor(ClassVisitor delegate) {
+      super(Opcodes.ASM4, delegate);
+    }
+
+    @Override
+    public void visit(
+        int version,
+        int access,
+        String name,
+        String signature,
+        String superName,
+        String[] interfaces) {
+      this.name = name;
+      super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+      // Anonymous and local classes are the ones that are not members of an outer class.
+      if (outerName == null || innerName == null) {
+        if (name.equals(this.name)) {
+          isAnonymousOrLocal = true;
+        }
+        return;
+      }
+      super.visitInnerClass(name, outerName, innerName, access);
+    }
+
+    @Override
+    public void visitOuterClass(String owner, String name, String desc) {
+      // Only anonymous and local classes have an enclosing method.
+    }
+
+    @Override
+    public FieldVisitor visitField(
+        int access,
+        String name,
+        String desc,
+        String signature,
+        Object value) {
+      if (isHidden(access)) {
+        return null;
+      }
+      return super.visitField(access, name, desc, signature, value);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(
+        int access,
+        String name,
+        String desc,
+        String signature,
+        String[] exceptions) {
+      if (isHidden(access) || "<clinit>".equals(name)) {
+        return null;
+      }
+      MethodVisitor method = super.visitMethod(access, name, desc, signature, exceptions);
+      if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+        return method;
+      }
+      return new MethodVisitor(Opcodes.ASM4, method) {
+        @Override
+        public void visitEnd() {
+          // The code comes after the annotations of the method, and keeps the class valid.
+          super.visitCode();
+          super.visitInsn(Opcodes.ACONST_NULL);
+          super.visitInsn(Opcodes.ATHROW);
+          super.visitMaxs(0, 0);
+          super.visitEnd();
+        }
+      };
+    }
+
+    private static boolean isHidden(int access) {
+      return (access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC)) != 0;
+    }
+  }
+}
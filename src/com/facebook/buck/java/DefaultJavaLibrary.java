@@ -39,6 +39,7 @@ import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.BuildableProperties;
 import com.facebook.buck.rules.ExportDependencies;
+import com.facebook.buck.rules.HasDepsNeededToBuild;
 import com.facebook.buck.rules.InitializableFromDisk;
 import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.RuleKey;
@@ -64,6 +65,7 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedMap;
@@ -107,7 +109,7 @@ import javax.annotation.Nullable;
  */
 public class DefaultJavaLibrary extends AbstractBuildRule
     implements JavaLibrary, AbiRule, HasClasspathEntries, ExportDependencies,
-    InitializableFromDisk<JavaLibrary.Data>, AndroidPackageable {
+    InitializableFromDisk<JavaLibrary.Data>, AndroidPackageable, HasDepsNeededToBuild {
 
   private static final BuildableProperties OUTPUT_TYPE = new BuildableProperties(LIBRARY);
 
@@ -120,6 +122,8 @@ public class DefaultJavaLibrary extends AbstractBuildRule
   private final ImmutableSortedSet<BuildRule> providedDeps;
   // Some classes need to override this when enhancing deps (see AndroidLibrary).
   private final ImmutableSet<Path> additionalClasspathEntries;
+  /** The ABI jars to compile against in place of the full jars of deps that they are keyed by. */
+  private final ImmutableMap<Path, JavaAbiJar> abiJarsToCompileAgainst;
   private final Supplier<ImmutableSetMultimap<JavaLibrary, Path>>
       outputClasspathEntriesSupplier;
   private final Supplier<ImmutableSetMultimap<JavaLibrary, Path>>
@@ -181,6 +185,37 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       ImmutableSet<Path> additionalClasspathEntries,
       JavacOptions javacOptions,
       Optional<Path> resourcesRoot) {
+    this(
+        params,
+        srcs,
+        resources,
+        proguardConfig,
+        postprocessClassesCommands,
+        exportedDeps,
+        providedDeps,
+        additionalClasspathEntries,
+        javacOptions,
+        resourcesRoot,
+        /* abiJarsToCompileAgainst */ ImmutableMap.<Path, JavaAbiJar>of());
+  }
+
+  /**
+   * @param abiJarsToCompileAgainst the ABI jars to compile against in place of the full jars of
+   *     deps that they are keyed by, which must be among the deps in {@code params}. This rule
+   *     starts to build once they are built, without waiting for the full jars.
+   */
+  public DefaultJavaLibrary(
+      BuildRuleParams params,
+      Set<? extends SourcePath> srcs,
+      Set<? extends SourcePath> resources,
+      Optional<Path> proguardConfig,
+      ImmutableList<String> postprocessClassesCommands,
+      ImmutableSortedSet<BuildRule> exportedDeps,
+      ImmutableSortedSet<BuildRule> providedDeps,
+      ImmutableSet<Path> additionalClasspathEntries,
+      JavacOptions javacOptions,
+      Optional<Path> resourcesRoot,
+      ImmutableMap<Path, JavaAbiJar> abiJarsToCompileAgainst) {
     super(params);
 
     // Exported deps are meant to be forwarded onto the CLASSPATH for dependents,
@@ -201,6 +236,11 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     this.exportedDeps = exportedDeps;
     this.providedDeps = providedDeps;
     this.additionalClasspathEntries = Preconditions.checkNotNull(additionalClasspathEntries);
+    Preconditions.checkArgument(
+        params.getDeps().containsAll(abiJarsToCompileAgainst.values()),
+        "%s must depend on the ABI jars it compiles against.",
+        params.getBuildTarget());
+    this.abiJarsToCompileAgainst = abiJarsToCompileAgainst;
     this.javacOptions = Preconditions.checkNotNull(javacOptions);
     this.resourcesRoot = Preconditions.checkNotNull(resourcesRoot);
     this.visibilityPatterns = Preconditions.checkNotNull(params.getVisibilityPatterns());
@@ -262,6 +302,38 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       Optional<JavacInMemoryStep.SuggestBuildRules> suggestBuildRules,
       ImmutableList.Builder<Step> commands,
       BuildTarget target) {
+    return createCommandsForJavac(
+        outputDirectory,
+        transitiveClasspathEntries,
+        declaredClasspathEntries,
+        javacOptions,
+        buildDependencies,
+        suggestBuildRules,
+        commands,
+        target,
+        /* pathToOutputJar */ Optional.<Path>absent(),
+        /* resources */ Optional.<CopyResourcesStep>absent(),
+        /* pathToIncrementalState */ Optional.<Path>absent());
+  }
+
+  /**
+   * As {@link #createCommandsForJavac(Path, ImmutableSet, ImmutableSet, JavacOptions,
+   * BuildDependencies, Optional, ImmutableList.Builder, BuildTarget)}, but asks javac, if it runs
+   * in memory, to write the classes and resources straight to {@code pathToOutputJar}, and to keep
+   * what it needs to compile incrementally in {@code pathToIncrementalState}.
+   */
+  private Supplier<Sha1HashCode> createCommandsForJavac(
+      Path outputDirectory,
+      ImmutableSet<Path> transitiveClasspathEntries,
+      ImmutableSet<Path> declaredClasspathEntries,
+      JavacOptions javacOptions,
+      BuildDependencies buildDependencies,
+      Optional<JavacInMemoryStep.SuggestBuildRules> suggestBuildRules,
+      ImmutableList.Builder<Step> commands,
+      BuildTarget target,
+      Optional<Path> pathToOutputJar,
+      Optional<CopyResourcesStep> resources,
+      Optional<Path> pathToIncrementalState) {
     // Make sure that this directory exists because ABI information will be written here.
     Step mkdir = new MakeCleanDirectoryStep(getPathToAbiOutputDir());
     commands.add(mkdir);
@@ -299,7 +371,16 @@ public class DefaultJavaLibrary extends AbstractBuildRule
             Optional.of(target),
             buildDependencies,
             suggestBuildRules,
-            Optional.of(pathToSrcsList));
+            Optional.of(pathToSrcsList),
+            pathToOutputJar,
+            resources,
+            pathToIncrementalState,
+            new Supplier<Sha1HashCode>() {
+              @Override
+              public Sha1HashCode get() {
+                return getAbiKeyForDeps();
+              }
+            });
       }
       commands.add(javacStep);
 
@@ -345,6 +426,19 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     return getPathToAbiOutputDir().resolve("abi");
   }
 
+  private boolean hasSrcZips() {
+    for (SourcePath src : getJavaSrcs()) {
+      if (src.resolve().toString().endsWith(JavacStep.SRC_ZIP)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Path getPathToIncrementalState() {
+    return BuildTargets.getGenPath(getBuildTarget(), "__%s__incremental_state");
+  }
+
   private static Path getOutputJarDirPath(BuildTarget target) {
     return BuildTargets.getGenPath(target, "lib__%s__output");
   }
@@ -414,6 +508,15 @@ public class DefaultJavaLibrary extends AbstractBuildRule
         continue;
       }
 
+      // What this rule compiles against is the ABI jar of a dep, if it has one.
+      if (candidate instanceof JavaLibrary) {
+        JavaAbiJar abiJar = abiJarsToCompileAgainst.get(
+            ((JavaLibrary) candidate).getPathToOutputFile());
+        if (abiJar != null) {
+          candidate = abiJar;
+        }
+      }
+
       if (candidate instanceof HasJavaAbi) {
         Sha1HashCode abiKey = ((HasJavaAbi) candidate).getAbiKey();
         hasher.putUnencodedChars(abiKey.getHash());
@@ -478,6 +581,14 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     return proguardConfig;
   }
 
+  ImmutableSortedSet<BuildRule> getProvidedDeps() {
+    return providedDeps;
+  }
+
+  ImmutableSet<Path> getAdditionalClasspathEntries() {
+    return additionalClasspathEntries;
+  }
+
   @Override
   public ImmutableCollection<Path> getInputsToCompareToOutput() {
     ImmutableList.Builder<Path> builder = ImmutableList.builder();
@@ -492,6 +603,24 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     return exportedDeps;
   }
 
+  /**
+   * @return the deps of this rule, other than the libraries that it compiles against the ABI jars
+   *     of, unless their outputs are also among its sources or resources.
+   */
+  @Override
+  public ImmutableSortedSet<BuildRule> getDepsNeededToBuild() {
+    if (abiJarsToCompileAgainst.isEmpty()) {
+      return getDeps();
+    }
+    Set<BuildRule> librariesOfAbiJars = Sets.newHashSet();
+    for (JavaAbiJar abiJar : abiJarsToCompileAgainst.values()) {
+      librariesOfAbiJars.add(abiJar.getLibrary());
+    }
+    librariesOfAbiJars.removeAll(
+        SourcePaths.filterBuildRuleInputs(Iterables.concat(srcs, resources)));
+    return ImmutableSortedSet.copyOf(Sets.difference(getDeps(), librariesOfAbiJars));
+  }
+
   public JavacOptions getJavacOptions() {
     return javacOptions;
   }
@@ -560,15 +689,47 @@ public class DefaultJavaLibrary extends AbstractBuildRule
         .filter(Predicates.notNull())
         .toSet();
 
-    ImmutableSet<Path> transitive = ImmutableSet.<Path>builder()
-        .addAll(transitiveClasspathEntries.values())
-        .addAll(provided)
-        .build();
+    ImmutableSet<Path> transitive = FluentIterable
+        .from(Iterables.concat(transitiveClasspathEntries.values(), provided))
+        .transform(getPathToCompileAgainst())
+        .toSet();
+
+    ImmutableSet<Path> declared = FluentIterable
+        .from(Iterables.concat(declaredClasspathEntries.values(), provided))
+        .transform(getPathToCompileAgainst())
+        .toSet();
 
-    ImmutableSet<Path> declared = ImmutableSet.<Path>builder()
-        .addAll(declaredClasspathEntries.values())
-        .addAll(provided)
-        .build();
+    // If there are resources, then link them to the appropriate place in the classes directory.
+    JavaPackageFinder finder = context.getJavaPackageFinder();
+    if (resourcesRoot.isPresent()) {
+      finder = new ResourcesRootPackageFinder(resourcesRoot.get(), finder);
+    }
+    CopyResourcesStep copyResources = new CopyResourcesStep(
+        getBuildTarget(),
+        resources,
+        outputDirectory,
+        finder);
+
+    // Javac running in memory can write the jar itself, rather than a directory of classes to be
+    // read back, unless other tools want to see the classes first.
+    boolean isJarWrittenByJavac = outputJar.isPresent() &&
+        !getJavaSrcs().isEmpty() &&
+        postprocessClassesCommands.isEmpty() &&
+        !javacOptions.getJavaCompilerEnvironment().getJavacPath().isPresent();
+    // Compiling incrementally builds on the jar from the last build, so it must survive.
+    boolean isCompiledIncrementally = isJarWrittenByJavac &&
+        javacOptions.isIncrementalCompilationEnabled() &&
+        javacOptions.getAnnotationProcessingData().isEmpty() &&
+        additionalClasspathEntries.isEmpty() &&
+        !hasSrcZips();
+    Optional<Path> pathToIncrementalState = Optional.absent();
+    if (isCompiledIncrementally) {
+      pathToIncrementalState = Optional.of(getPathToIncrementalState());
+      steps.add(new MkdirStep(getOutputJarDirPath(getBuildTarget())));
+      buildableContext.recordArtifact(pathToIncrementalState.get());
+    } else if (isJarWrittenByJavac) {
+      steps.add(new MakeCleanDirectoryStep(getOutputJarDirPath(getBuildTarget())));
+    }
 
     // This adds the javac command, along with any supporting commands.
     Supplier<Sha1HashCode> abiKeySupplier = createCommandsForJavac(
@@ -579,30 +740,26 @@ public class DefaultJavaLibrary extends AbstractBuildRule
         context.getBuildDependencies(),
         suggestBuildRule,
         steps,
-        getBuildTarget());
-
-    addPostprocessClassesCommands(steps, postprocessClassesCommands, outputDirectory);
-
-    // If there are resources, then link them to the appropriate place in the classes directory.
-    JavaPackageFinder finder = context.getJavaPackageFinder();
-    if (resourcesRoot.isPresent()) {
-      finder = new ResourcesRootPackageFinder(resourcesRoot.get(), finder);
-    }
-    steps.add(
-        new CopyResourcesStep(
-            getBuildTarget(),
-            resources,
-            outputDirectory,
-            finder));
+        getBuildTarget(),
+        isJarWrittenByJavac ? outputJar : Optional.<Path>absent(),
+        isJarWrittenByJavac ? Optional.of(copyResources) : Optional.<CopyResourcesStep>absent(),
+        pathToIncrementalState);
 
-    if (outputJar.isPresent()) {
-      steps.add(new MakeCleanDirectoryStep(getOutputJarDirPath(getBuildTarget())));
-      steps.add(new JarDirectoryStep(
-          outputJar.get(),
-          Collections.singleton(outputDirectory),
-          /* mainClass */ null,
-          /* manifestFile */ null));
+    if (isJarWrittenByJavac) {
       buildableContext.recordArtifact(outputJar.get());
+    } else {
+      addPostprocessClassesCommands(steps, postprocessClassesCommands, outputDirectory);
+      steps.add(copyResources);
+
+      if (outputJar.isPresent()) {
+        steps.add(new MakeCleanDirectoryStep(getOutputJarDirPath(getBuildTarget())));
+        steps.add(new JarDirectoryStep(
+            outputJar.get(),
+            Collections.singleton(outputDirectory),
+            /* mainClass */ null,
+            /* manifestFile */ null));
+        buildableContext.recordArtifact(outputJar.get());
+      }
     }
 
     Preconditions.checkNotNull(abiKeySupplier,
@@ -616,6 +773,20 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     return steps.build();
   }
 
+  /**
+   * @return a function from a classpath entry to what to compile against in its place, which is
+   *     the ABI jar of a dep if it has one, and otherwise the entry itself.
+   */
+  private Function<Path, Path> getPathToCompileAgainst() {
+    return new Function<Path, Path>() {
+      @Override
+      public Path apply(Path classpathEntry) {
+        JavaAbiJar abiJar = abiJarsToCompileAgainst.get(classpathEntry);
+        return abiJar == null ? classpathEntry : abiJar.getPathToOutputFile();
+      }
+    };
+  }
+
   /**
    * Assuming the build has completed successfully, the ABI should have been computed, and it should
    * be stored for subsequent builds.
@@ -651,9 +822,11 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       return false;
     }
 
-    ImmutableSet<Path> classPaths =
-        ImmutableSet.copyOf(
-            ((JavaLibrary) transitiveNotDeclaredRule).getOutputClasspathEntries().values());
+    // The full jars of deps may not be built yet if their ABI jars are compiled against instead.
+    ImmutableSet<Path> classPaths = FluentIterable
+        .from(((JavaLibrary) transitiveNotDeclaredRule).getOutputClasspathEntries().values())
+        .transform(getPathToCompileAgainst())
+        .toSet();
     boolean containsMissingBuildRule = false;
     // Open the output jar for every jar contained as the output of transitiveNotDeclaredDep.  With
     // the exception of rules that export their dependencies, this will result in a single
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What {@link JavacInMemoryStep} remembers about the last compilation of a library, so that the
+ * next one can compile only the sources that changed, and those that depend on them, against the
+ * classes that the others compiled to last time.
+ * <p>
+ * For each source, this records its hash, the classes that javac wrote from it, the types that
+ * those classes refer to, and the ABI summaries of the types it declares. The state also carries a
+ * fingerprint of everything else that went into the compilation, and the hash of the jar that it
+ * produced: a state whose fingerprint or jar does not match is of no use.
+ */
+class IncrementalCompilationState {
+
+  private static final Logger LOG = Logger.get(IncrementalCompilationState.class);
+
+  private static final int FORMAT_VERSION = 1;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final String fingerprint;
+  private final String jarHash;
+  private final ImmutableSortedMap<String, Source> sources;
+
+  IncrementalCompilationState(
+      String fingerprint,
+      HashCode jarHash,
+      Map<String, Source> sources) {
+    this(FORMAT_VERSION, fingerprint, jarHash.toString(), sources);
+  }
+
+  @JsonCreator
+  private IncrementalCompilationState(
+      @JsonProperty("version") int version,
+      @JsonProperty("fingerprint") String fingerprint,
+      @JsonProperty("jarHash") String jarHash,
+      @JsonProperty("sources") Map<String, Source> sources) {
+    Preconditions.checkArgument(version == FORMAT_VERSION);
+    this.fingerprint = Preconditions.checkNotNull(fingerprint);
+    this.jarHash = Preconditions.checkNotNull(jarHash);
+    this.sources = ImmutableSortedMap.copyOf(sources);
+  }
+
+  /** @return the state in {@code file}, or absent if there is none that can be read. */
+  static Optional<IncrementalCompilationState> read(File file) {
+    if (!file.isFile()) {
+      return Optional.absent();
+    }
+    try {
+      return Optional.of(MAPPER.readValue(file, IncrementalCompilationState.class));
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.debug(e, "Ignoring unreadable incremental compilation state in %s", file);
+      return Optional.absent();
+    }
+  }
+
+  void write(File file) throws IOException {
+    MAPPER.writeValue(file, this);
+  }
+
+  @JsonProperty("version")
+  private int getVersion() {
+    return FORMAT_VERSION;
+  }
+
+  @JsonProperty("fingerprint")
+  String getFingerprint() {
+    return fingerprint;
+  }
+
+  @JsonProperty("jarHash")
+  String getJarHash() {
+    return jarHash;
+  }
+
+  /** @return what is known about each source, keyed by its path relative to the project root. */
+  @JsonProperty("sources")
+  ImmutableSortedMap<String, Source> getSources() {
+    return sources;
+  }
+
+  /**
+   * @param hashes the current hash of every source of the library, keyed as in
+   *     {@link #getSources()}.
+   * @return the sources whose hash changed, along with every source that refers, directly or
+   *     through others, to a class compiled from one of them; or absent if sources were added or
+   *     removed, in which case a class may now resolve to a different type than it did before.
+   */
+  Optional<ImmutableSortedSet<String>> getSourcesToRecompile(Map<String, HashCode> hashes) {
+    if (!hashes.keySet().equals(sources.keySet())) {
+      return Optional.absent();
+    }
+
+    Multimap<String, String> referringSources = HashMultimap.create();
+    for (Map.Entry<String, Source> entry : sources.entrySet()) {
+      for (String type : entry.getValue().getReferencedTypes()) {
+        referringSources.put(type, entry.getKey());
+      }
+    }
+
+    Set<String> toRecompile = Sets.newHashSet();
+    Deque<String> toVisit = Lists.newLinkedList();
+    for (Map.Entry<String, HashCode> entry : hashes.entrySet()) {
+      if (!entry.getValue().toString().equals(sources.get(entry.getKey()).getHash())) {
+        toRecompile.add(entry.getKey());
+        toVisit.add(entry.getKey());
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      for (String type : sources.get(toVisit.remove()).getClasses()) {
+        for (String referringSource : referringSources.get(type)) {
+          if (toRecompile.add(referringSource)) {
+            toVisit.add(referringSource);
+          }
+        }
+      }
+    }
+    return Optional.of(ImmutableSortedSet.copyOf(toRecompile));
+  }
+
+  /** What the last compilation learned about one source. */
+  static class Source {
+    private final String hash;
+    private final ImmutableSortedSet<String> classes;
+    private final ImmutableSortedSet<String> referencedTypes;
+    private final ImmutableSortedMap<String, String> abiSummaries;
+
+    /**
+     * @param classes the internal names of the classes that javac wrote from the source.
+     * @param referencedTypes the internal names of the types that those classes refer to.
+     * @param abiSummaries the ABI summaries of the top-level types that the source declares, keyed
+     *     by qualified name.
+     */
+    @JsonCreator
+    Source(
+        @JsonProperty("hash") String hash,
+        @JsonProperty("classes") Collection<String> classes,
+        @JsonProperty("referencedTypes") Collection<String> referencedTypes,
+        @JsonProperty("abiSummaries") Map<String, String> abiSummaries) {
+      this.hash = Preconditions.checkNotNull(hash);
+      this.classes = ImmutableSortedSet.copyOf(classes);
+      this.referencedTypes = ImmutableSortedSet.copyOf(referencedTypes);
+      this.abiSummaries = ImmutableSortedMap.copyOf(abiSummaries);
+    }
+
+    @JsonProperty("hash")
+    String getHash() {
+      return hash;
+    }
+
+    @JsonProperty("classes")
+    ImmutableSortedSet<String> getClasses() {
+      return classes;
+    }
+
+    @JsonProperty("referencedTypes")
+    ImmutableSortedSet<String> getReferencedTypes() {
+      return referencedTypes;
+    }
+
+    @JsonProperty("abiSummaries")
+    ImmutableSortedMap<String, String> getAbiSummaries() {
+      return abiSummaries;
+    }
+  }
+}
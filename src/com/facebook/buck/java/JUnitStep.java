@@ -16,6 +16,7 @@
 
 package com.facebook.buck.java;
 
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
@@ -48,6 +49,10 @@ public class JUnitStep extends ShellStep {
   @VisibleForTesting
   public static final String BUILD_ID_PROPERTY = "com.facebook.buck.buildId";
 
+  /** JVMs that are kept alive to run tests in when {@code [test] jvm_reuse_limit} is set. */
+  private static final JUnitWorkerPool workerPool =
+      new JUnitWorkerPool(Runtime.getRuntime().availableProcessors());
+
   private final ImmutableSet<Path> classpathEntries;
   private final Set<String> testClassNames;
   private final List<String> vmArgs;
@@ -146,6 +151,43 @@ public class JUnitStep extends ShellStep {
     return "junit";
   }
 
+  @Override
+  public int execute(ExecutionContext context) throws InterruptedException {
+    if (!canRunInWorker(context)) {
+      return super.execute(context);
+    }
+    ImmutableList.Builder<String> request = ImmutableList.builder();
+    request.add(Joiner.on(File.pathSeparator).join(classpathEntries));
+    request.add(tmpDirectory.toString());
+    request.add(buildId.toString());
+    request.addAll(getTestRunnerArgs(context));
+    JUnitWorkerPool.Result result = workerPool.run(
+        testRunnerClassesDirectory,
+        context.getProjectDirectoryRoot(),
+        context.getEnvironment(),
+        context.getTestJvmReuseLimit(),
+        request.build());
+    // Print what the tests printed, as the output of a JVM of their own would be.
+    if (!result.output.isEmpty() && context.getVerbosity().shouldPrintOutput()) {
+      context.postEvent(ConsoleEvent.warning("%s", result.output));
+    }
+    return result.exitCode;
+  }
+
+  /**
+   * @return whether the tests can run in a JVM that is kept alive to run other tests, which has no
+   *     VM arguments of its own, nor coverage or debugging agents.
+   */
+  @VisibleForTesting
+  boolean canRunInWorker(ExecutionContext context) {
+    return context.getTestJvmReuseLimit() > 0 &&
+        type == TestType.JUNIT &&
+        vmArgs.isEmpty() &&
+        !isCodeCoverageEnabled &&
+        !isDebugEnabled &&
+        !context.getVerbosity().shouldUseVerbosityFlagIfAvailable();
+  }
+
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     ImmutableList.Builder<String> args = ImmutableList.builder();
@@ -199,6 +241,14 @@ public class JUnitStep extends ShellStep {
           "java_test: unrecognized type " + type + ", expected eg. junit or testng");
     }
 
+    args.addAll(getTestRunnerArgs(context));
+
+    return args.build();
+  }
+
+  private ImmutableList<String> getTestRunnerArgs(ExecutionContext context) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
     // tests written to those file descriptors, as well.
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * JVMs that {@link JUnitStep} keeps alive to run tests in, rather than start a JVM for each
+ * java_test. Each of them runs {@code com.facebook.buck.junit.JUnitWorkerMain}, which runs the
+ * tests of each request in a class loader of its own, and writes their results where the test
+ * runner always writes them.
+ * <p>
+ * A worker is replaced once it has run as many requests as its limit allows, or once a request
+ * leaves threads running in it. Anything that the tests print outside of the results goes to a log
+ * file per worker. What each run adds to it is returned with the result of the run, and the log is
+ * deleted along with the worker, unless the worker died.
+ */
+class JUnitWorkerPool {
+
+  private static final Logger LOG = Logger.get(JUnitWorkerPool.class);
+
+  @VisibleForTesting
+  static final String WORKER_MAIN_CLASS_NAME = "com.facebook.buck.junit.JUnitWorkerMain";
+
+  private final int maxIdleWorkers;
+  private final List<Worker> idleWorkers = Lists.newLinkedList();
+
+  /** The outcome of a run of the test runner in a worker. */
+  static class Result {
+    /** 0 once the test runner has run, or 1 if it failed, or the worker could not run it. */
+    final int exitCode;
+    /** Anything that the tests, or the test runner, printed outside of the results. */
+    final String output;
+
+    private Result(int exitCode, String output) {
+      this.exitCode = exitCode;
+      this.output = Preconditions.checkNotNull(output);
+    }
+  }
+
+  JUnitWorkerPool(int maxIdleWorkers) {
+    Preconditions.checkArgument(maxIdleWorkers >= 0);
+    this.maxIdleWorkers = maxIdleWorkers;
+  }
+
+  /**
+   * Runs the test runner in a worker, starting one if none is idle.
+   *
+   * @param testRunnerClassesDirectory where the classes of the test runner, and of the worker, are.
+   * @param workingDirectory the directory that relative paths in the request are relative to.
+   * @param environment the environment of the worker.
+   * @param maxRunsPerWorker how many requests a worker runs before it is replaced.
+   * @param request the request, as {@code JUnitWorkerMain} expects it.
+   */
+  Result run(
+      Path testRunnerClassesDirectory,
+      Path workingDirectory,
+      ImmutableMap<String, String> environment,
+      int maxRunsPerWorker,
+      List<String> request) {
+    Preconditions.checkArgument(maxRunsPerWorker > 0);
+    Worker worker = acquire(testRunnerClassesDirectory, workingDirectory, environment);
+    if (worker == null) {
+      return new Result(1, "");
+    }
+
+    long logOffset = worker.log.length();
+    boolean succeeded;
+    boolean isReusable;
+    try {
+      worker.send(request);
+      succeeded = worker.responses.readBoolean();
+      isReusable = worker.responses.readBoolean();
+    } catch (IOException e) {
+      LOG.warn(e, "Test JVM died; its output is in %s", worker.log);
+      worker.close(/* deleteLog */ false);
+      return new Result(1, readLog(worker.log, logOffset));
+    }
+    String output = readLog(worker.log, logOffset);
+
+    if (isReusable && worker.runs < maxRunsPerWorker) {
+      release(worker);
+    } else {
+      worker.close(/* deleteLog */ true);
+    }
+    return new Result(succeeded ? 0 : 1, output);
+  }
+
+  /** @return what has been written to {@code log} from {@code offset} on. */
+  private static String readLog(File log, long offset) {
+    try (RandomAccessFile file = new RandomAccessFile(log, "r")) {
+      byte[] bytes = new byte[(int) Math.max(0, file.length() - offset)];
+      file.seek(offset);
+      file.readFully(bytes);
+      return new String(bytes, Charsets.UTF_8);
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to read %s", log);
+      return "";
+    }
+  }
+
+  @Nullable
+  private Worker acquire(
+      Path testRunnerClassesDirectory,
+      Path workingDirectory,
+      ImmutableMap<String, String> environment) {
+    // Only a worker that was started the same way may be reused.
+    ImmutableList<Object> key =
+        ImmutableList.<Object>of(testRunnerClassesDirectory, workingDirectory, environment);
+    synchronized (this) {
+      for (Iterator<Worker> iterator = idleWorkers.iterator(); iterator.hasNext();) {
+        Worker idle = iterator.next();
+        if (idle.key.equals(key)) {
+          iterator.remove();
+          return idle;
+        }
+      }
+    }
+    try {
+      return Worker.start(key, testRunnerClassesDirectory, workingDirectory, environment);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to start a test JVM");
+      return null;
+    }
+  }
+
+  private void release(Worker worker) {
+    Worker evicted = null;
+    synchronized (this) {
+      idleWorkers.add(worker);
+      if (idleWorkers.size() > maxIdleWorkers) {
+        evicted = idleWorkers.remove(0);
+      }
+    }
+    if (evicted != null) {
+      evicted.close(/* deleteLog */ true);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleWorkerCount() {
+    return idleWorkers.size();
+  }
+
+  private static class Worker {
+    private final ImmutableList<Object> key;
+    private final Process process;
+    private final File log;
+    private final DataOutputStream requests;
+    private final DataInputStream responses;
+    private int runs;
+
+    private Worker(ImmutableList<Object> key, Process process, File log) {
+      this.key = key;
+      this.process = process;
+      this.log = log;
+      this.requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      this.responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    private static Worker start(
+        ImmutableList<Object> key,
+        Path testRunnerClassesDirectory,
+        Path workingDirectory,
+        ImmutableMap<String, String> environment) throws IOException {
+      File log = Files.createTempFile("junit-worker", ".log").toFile();
+      ProcessBuilder processBuilder = new ProcessBuilder(
+          ImmutableList.of(
+              "java",
+              "-classpath",
+              testRunnerClassesDirectory.toString(),
+              WORKER_MAIN_CLASS_NAME))
+          .directory(workingDirectory.toAbsolutePath().toFile())
+          .redirectError(log);
+      processBuilder.environment().clear();
+      processBuilder.environment().putAll(environment);
+      Process process = processBuilder.start();
+      LOG.debug("Started a test JVM, whose output is in %s", log);
+      return new Worker(key, process, log);
+    }
+
+    private void send(List<String> request) throws IOException {
+      runs++;
+      requests.writeInt(request.size());
+      for (String string : request) {
+        byte[] bytes = string.getBytes(Charsets.UTF_8);
+        requests.writeInt(bytes.length);
+        requests.write(bytes);
+      }
+      requests.flush();
+    }
+
+    private void close(boolean deleteLog) {
+      // The worker exits once it reads the end of its requests.
+      try {
+        requests.close();
+      } catch (IOException e) {
+        process.destroy();
+      }
+      if (deleteLog && !log.delete()) {
+        LOG.debug("Unable to delete %s", log);
+      }
+    }
+  }
+}
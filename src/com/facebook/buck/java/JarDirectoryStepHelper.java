@@ -28,7 +28,9 @@ import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
@@ -55,6 +57,9 @@ import javax.annotation.Nullable;
 
 public class JarDirectoryStepHelper {
 
+  /** Before the DOS epoch, which zip entries use: every such time is written as the epoch. */
+  private static final long DETERMINISTIC_TIMESTAMP = 0;
+
   private JarDirectoryStepHelper() {}
 
   public static void createJarFile(
@@ -127,6 +132,62 @@ public class JarDirectoryStepHelper {
     }
   }
 
+  /**
+   * Creates a jar from the given contents, keyed by their path in the jar, along with an entry for
+   * every directory that they are in. Every entry carries the same timestamp, so that the jar only
+   * depends on its contents. A {@link JarFile#MANIFEST_NAME} among the contents is written in place
+   * of the default manifest.
+   */
+  public static void createJarFile(
+      Path pathToOutputFile,
+      ImmutableSortedMap<String, ByteSource> contents,
+      ExecutionContext context) throws IOException {
+    Manifest manifest = new Manifest();
+    ByteSource userSupplied = contents.get(JarFile.MANIFEST_NAME);
+    if (userSupplied != null) {
+      try (InputStream manifestStream = userSupplied.openStream()) {
+        manifest.read(manifestStream);
+      }
+    }
+    if (!manifest.getMainAttributes().containsKey(Attributes.Name.MANIFEST_VERSION)) {
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    }
+
+    try (CustomZipOutputStream outputFile = ZipOutputStreams.newOutputStream(
+        context.getProjectFilesystem().getFileForRelativePath(pathToOutputFile))) {
+      Set<String> addedDirectories = Sets.newHashSet();
+      for (Map.Entry<String, ByteSource> entry : contents.entrySet()) {
+        String entryName = entry.getKey();
+        if (entryName.equals(JarFile.MANIFEST_NAME)) {
+          continue;
+        }
+
+        for (int slash = entryName.indexOf('/');
+             slash != -1;
+             slash = entryName.indexOf('/', slash + 1)) {
+          String directoryName = entryName.substring(0, slash + 1);
+          if (addedDirectories.add(directoryName)) {
+            JarEntry directoryEntry = new JarEntry(directoryName);
+            directoryEntry.setTime(DETERMINISTIC_TIMESTAMP);
+            outputFile.putNextEntry(directoryEntry);
+            outputFile.closeEntry();
+          }
+        }
+
+        JarEntry fileEntry = new JarEntry(entryName);
+        fileEntry.setTime(DETERMINISTIC_TIMESTAMP);
+        outputFile.putNextEntry(fileEntry);
+        entry.getValue().copyTo(outputFile);
+        outputFile.closeEntry();
+      }
+
+      JarEntry manifestEntry = new JarEntry(JarFile.MANIFEST_NAME);
+      manifestEntry.setTime(DETERMINISTIC_TIMESTAMP);
+      outputFile.putNextEntry(manifestEntry);
+      manifest.write(outputFile);
+    }
+  }
+
   /**
    * @param file is assumed to be a zip file.
    * @param jar is the file being written.
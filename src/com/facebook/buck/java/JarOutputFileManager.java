@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link JavaFileManager} that keeps whatever javac and annotation processors write to
+ * {@link StandardLocation#CLASS_OUTPUT} in memory, so that it can be written straight into a jar
+ * rather than to a directory of classes that is then read back to build the jar. Everything else,
+ * such as sources that processors generate into {@link StandardLocation#SOURCE_OUTPUT}, goes to
+ * the underlying file manager.
+ * <p>
+ * Closing this file manager does not close the underlying one.
+ */
+class JarOutputFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+  /** Files written to the class output, keyed by their path in the jar. */
+  private final Map<String, InMemoryFileObject> outputs = Maps.newHashMap();
+  /** The sources that javac compiled each class in {@link #outputs} from. */
+  private final Map<String, URI> sources = Maps.newHashMap();
+
+  JarOutputFileManager(JavaFileManager fileManager) {
+    super(fileManager);
+  }
+
+  /** @return the contents of the files written to the class output, keyed by path in the jar. */
+  ImmutableSortedMap<String, ByteSource> getOutputs() {
+    ImmutableSortedMap.Builder<String, ByteSource> contents = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, InMemoryFileObject> output : outputs.entrySet()) {
+      byte[] bytes = output.getValue().getBytes();
+      // javac deletes what it failed to write.
+      if (bytes != null) {
+        contents.put(output.getKey(), ByteSource.wrap(bytes));
+      }
+    }
+    return contents.build();
+  }
+
+  /**
+   * @return the paths in the jar of the classes that javac wrote from each source it compiled,
+   *     keyed by the {@link FileObject#toUri()} of the source.
+   */
+  ImmutableSetMultimap<URI, String> getOutputsBySource() {
+    ImmutableSetMultimap.Builder<URI, String> outputsBySource = ImmutableSetMultimap.builder();
+    for (Map.Entry<String, URI> source : sources.entrySet()) {
+      if (outputs.get(source.getKey()).getBytes() != null) {
+        outputsBySource.put(source.getValue(), source.getKey());
+      }
+    }
+    return outputsBySource.build();
+  }
+
+  @Override
+  public JavaFileObject getJavaFileForOutput(
+      Location location,
+      String className,
+      JavaFileObject.Kind kind,
+      FileObject sibling) throws IOException {
+    if (location != StandardLocation.CLASS_OUTPUT) {
+      return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+    String pathInJar = className.replace('.', '/') + kind.extension;
+    if (sibling != null) {
+      sources.put(pathInJar, sibling.toUri());
+    }
+    return createOutput(pathInJar, kind);
+  }
+
+  @Override
+  public FileObject getFileForOutput(
+      Location location,
+      String packageName,
+      String relativeName,
+      FileObject sibling) throws IOException {
+    if (location != StandardLocation.CLASS_OUTPUT) {
+      return super.getFileForOutput(location, packageName, relativeName, sibling);
+    }
+    return createOutput(getPathInJar(packageName, relativeName), JavaFileObject.Kind.OTHER);
+  }
+
+  @Override
+  public JavaFileObject getJavaFileForInput(
+      Location location,
+      String className,
+      JavaFileObject.Kind kind) throws IOException {
+    if (location == StandardLocation.CLASS_OUTPUT) {
+      InMemoryFileObject output = outputs.get(className.replace('.', '/') + kind.extension);
+      if (output != null) {
+        return output;
+      }
+    }
+    return super.getJavaFileForInput(location, className, kind);
+  }
+
+  @Override
+  public FileObject getFileForInput(
+      Location location,
+      String packageName,
+      String relativeName) throws IOException {
+    if (location == StandardLocation.CLASS_OUTPUT) {
+      InMemoryFileObject output = outputs.get(getPathInJar(packageName, relativeName));
+      if (output != null) {
+        return output;
+      }
+    }
+    return super.getFileForInput(location, packageName, relativeName);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof InMemoryFileObject || b instanceof InMemoryFileObject) {
+      return a == b;
+    }
+    return super.isSameFile(a, b);
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof InMemoryFileObject) {
+      String path = ((InMemoryFileObject) file).pathInJar;
+      return path.substring(0, path.length() - file.getKind().extension.length())
+          .replace('/', '.');
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public void close() {
+    // The underlying file manager belongs to whoever created this one.
+  }
+
+  private InMemoryFileObject createOutput(String pathInJar, JavaFileObject.Kind kind) {
+    InMemoryFileObject output = new InMemoryFileObject(pathInJar, kind);
+    outputs.put(pathInJar, output);
+    return output;
+  }
+
+  private static String getPathInJar(String packageName, String relativeName) {
+    if (packageName.isEmpty()) {
+      return relativeName;
+    }
+    return packageName.replace('.', '/') + '/' + relativeName;
+  }
+
+  private static class InMemoryFileObject extends SimpleJavaFileObject {
+    private final String pathInJar;
+    @Nullable private byte[] bytes;
+
+    private InMemoryFileObject(String pathInJar, Kind kind) {
+      super(createUri(pathInJar), kind);
+      this.pathInJar = pathInJar;
+    }
+
+    private static URI createUri(String pathInJar) {
+      try {
+        // Like ZipEntryJavaFileObject, as javac does not seem to tolerate "jar:" URIs.
+        return new URI("string:///" + pathInJar);
+      } catch (URISyntaxException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Nullable
+    private synchronized byte[] getBytes() {
+      return bytes;
+    }
+
+    @Override
+    public synchronized OutputStream openOutputStream() {
+      return new ByteArrayOutputStream() {
+        @Override
+        public void close() throws IOException {
+          super.close();
+          synchronized (InMemoryFileObject.this) {
+            bytes = toByteArray();
+          }
+        }
+      };
+    }
+
+    @Override
+    public synchronized InputStream openInputStream() throws IOException {
+      if (bytes == null) {
+        throw new IOException("Nothing has been written to " + pathInJar + " yet");
+      }
+      return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      try (InputStream input = openInputStream()) {
+        return new String(ByteStreams.toByteArray(input), Charsets.UTF_8);
+      }
+    }
+
+    @Override
+    public synchronized boolean delete() {
+      bytes = null;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static com.facebook.buck.rules.BuildableProperties.Kind.ANDROID;
+
+import com.facebook.buck.java.JavacStep.SuggestBuildRules;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.rules.AbiRule;
+import com.facebook.buck.rules.AbstractBuildRule;
+import com.facebook.buck.rules.BuildContext;
+import com.facebook.buck.rules.BuildDependencies;
+import com.facebook.buck.rules.BuildOutputInitializer;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.InitializableFromDisk;
+import com.facebook.buck.rules.OnDiskBuildInfo;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.rules.SourcePaths;
+import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A jar of stubs of the classes of a {@link DefaultJavaLibrary}, as {@link CreateAbiJarStep} writes
+ * them, which is enough to compile against the library. Where it can, this compiles the sources
+ * of the library against the ABI jars of its deps, without annotation processors, rather than
+ * waiting for the full jars of the library and of its deps to be built: the ABI jars of a graph of
+ * libraries can then all be built in about the time it takes to compile one library per level.
+ * <p>
+ * When the ABI of a library cannot be worked out from its sources alone, such as when annotation
+ * processors generate code that they refer to, its ABI jar is made from its full jar instead, and
+ * the libraries that depend on it compile against its full jar.
+ * <p>
+ * Its ABI key is a hash of its stubs, so libraries that compile against it need not be rebuilt
+ * when only the implementation of the library changes.
+ */
+public class JavaAbiJar extends AbstractBuildRule
+    implements HasJavaAbi, InitializableFromDisk<Sha1HashCode> {
+
+  public static final BuildRuleType TYPE = new BuildRuleType("java_abi_jar");
+
+  private final DefaultJavaLibrary library;
+  /** What to compile the sources of the library against, or absent to use its full jar. */
+  private final Optional<ImmutableSet<Path>> classpath;
+  private final Path outputJar;
+  private final Path scratchDir;
+  private final BuildOutputInitializer<Sha1HashCode> buildOutputInitializer;
+
+  private JavaAbiJar(
+      BuildRuleParams params,
+      DefaultJavaLibrary library,
+      Optional<ImmutableSet<Path>> classpath) {
+    super(params);
+    this.library = Preconditions.checkNotNull(library);
+    this.classpath = Preconditions.checkNotNull(classpath);
+    BuildTarget target = params.getBuildTarget();
+    this.outputJar = BuildTargets.getGenPath(target, "lib__%s__abi")
+        .resolve(target.getShortName() + ".jar");
+    this.scratchDir = BuildTargets.getBinPath(target, "lib__%s__abi_classes");
+    this.buildOutputInitializer = new BuildOutputInitializer<>(target, this);
+  }
+
+  /**
+   * @param params the parameters of the rule being created, from which those of the ABI jars of
+   *     the deps of {@code library} are derived.
+   * @return the ABI jar of {@code library}, which, along with the ABI jars of the libraries on its
+   *     classpath that it is compiled against, is either found in {@code resolver} or created and
+   *     added to it.
+   */
+  public static JavaAbiJar create(
+      BuildRuleParams params,
+      DefaultJavaLibrary library,
+      BuildRuleResolver resolver) {
+    BuildTarget target = BuildTargets.createFlavoredBuildTarget(library, JavaLibrary.ABI_JAR);
+    Optional<BuildRule> indexed = resolver.getRuleOptional(target);
+    if (indexed.isPresent()) {
+      return (JavaAbiJar) indexed.get();
+    }
+
+    JavaAbiJar abiJar;
+    if (!isCompiledFromSources(library)) {
+      abiJar = new JavaAbiJar(
+          params.copyWithChanges(
+              TYPE,
+              target,
+              ImmutableSortedSet.<BuildRule>of(library),
+              /* extraDeps */ ImmutableSortedSet.<BuildRule>of()),
+          library,
+          Optional.<ImmutableSet<Path>>absent());
+    } else {
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      deps.addAll(SourcePaths.filterBuildRuleInputs(library.getJavaSrcs()));
+      ImmutableSet.Builder<Path> classpath = ImmutableSet.builder();
+      ImmutableSetMultimap<JavaLibrary, Path> classpathEntries = getClasspathEntries(
+          library.getDepsForTransitiveClasspathEntries(),
+          library.getProvidedDeps());
+      ImmutableMap<Path, JavaAbiJar> depAbiJars = getAbiJars(params, classpathEntries, resolver);
+      for (Map.Entry<JavaLibrary, Path> entry : classpathEntries.entries()) {
+        JavaAbiJar depAbiJar = depAbiJars.get(entry.getValue());
+        if (depAbiJar != null) {
+          deps.add(depAbiJar);
+          classpath.add(depAbiJar.getPathToOutputFile());
+        } else if (!hasAbiJar(entry.getKey())) {
+          deps.add(entry.getKey());
+          classpath.add(entry.getValue());
+        }
+        // Otherwise, the entry is the jar of a library that the dep exports, which has an entry of
+        // its own.
+      }
+      abiJar = new JavaAbiJar(
+          params.copyWithChanges(
+              TYPE,
+              target,
+              deps.build(),
+              /* extraDeps */ ImmutableSortedSet.<BuildRule>of()),
+          library,
+          Optional.of(classpath.build()));
+    }
+    return resolver.addToIndex(abiJar);
+  }
+
+  /**
+   * @param params the parameters of the rule being created, from which those of the ABI jars are
+   *     derived.
+   * @return the ABI jars to compile against in place of the full jars that they are keyed by, for
+   *     those of {@code classpathEntries} that have one, each of which is either found in
+   *     {@code resolver} or created and added to it.
+   */
+  public static ImmutableMap<Path, JavaAbiJar> getAbiJars(
+      BuildRuleParams params,
+      ImmutableSetMultimap<JavaLibrary, Path> classpathEntries,
+      BuildRuleResolver resolver) {
+    ImmutableMap.Builder<Path, JavaAbiJar> abiJars = ImmutableMap.builder();
+    for (Map.Entry<JavaLibrary, Path> entry : classpathEntries.entries()) {
+      JavaLibrary dep = entry.getKey();
+      if (hasAbiJar(dep) && entry.getValue().equals(dep.getPathToOutputFile())) {
+        abiJars.put(entry.getValue(), create(params, (DefaultJavaLibrary) dep, resolver));
+      }
+    }
+    return abiJars.build();
+  }
+
+  /**
+   * @return whether the ABI of {@code library} can be worked out by compiling its sources: javac
+   *     must run in memory, without annotation processors, whose output the sources may refer to,
+   *     and without classpath entries other than those of its deps.
+   */
+  @VisibleForTesting
+  static boolean isCompiledFromSources(DefaultJavaLibrary library) {
+    JavacOptions javacOptions = library.getJavacOptions();
+    return javacOptions.getAnnotationProcessingData().isEmpty() &&
+        !javacOptions.getJavaCompilerEnvironment().getJavacPath().isPresent() &&
+        library.getAdditionalClasspathEntries().isEmpty();
+  }
+
+  /**
+   * @return whether libraries that depend on {@code library} compile against its ABI jar. Those
+   *     that are flavors of other rules, such as the java code that thrift generates, cannot have
+   *     one.
+   */
+  private static boolean hasAbiJar(JavaLibrary library) {
+    return library instanceof DefaultJavaLibrary &&
+        !library.getBuildTarget().isFlavored() &&
+        isCompiledFromSources((DefaultJavaLibrary) library);
+  }
+
+  /**
+   * @param deps the deps of a library whose classpath entries are also those of dependents, which
+   *     are its declared and exported deps.
+   * @return the classpath that the full jar of a library with these deps is compiled against.
+   */
+  static ImmutableSetMultimap<JavaLibrary, Path> getClasspathEntries(
+      Set<BuildRule> deps,
+      Iterable<BuildRule> providedDeps) {
+    ImmutableSetMultimap.Builder<JavaLibrary, Path> entries = ImmutableSetMultimap.builder();
+    entries.putAll(Classpaths.getClasspathEntries(deps));
+    for (JavaLibrary provided : JavaLibraryClasspathProvider.getJavaLibraryDeps(providedDeps)) {
+      entries.putAll(provided.getOutputClasspathEntries());
+    }
+    return entries.build();
+  }
+
+  /** @return the library that this is the ABI jar of. */
+  DefaultJavaLibrary getLibrary() {
+    return library;
+  }
+
+  @VisibleForTesting
+  Optional<ImmutableSet<Path>> getClasspath() {
+    return classpath;
+  }
+
+  @Override
+  protected ImmutableCollection<Path> getInputsToCompareToOutput() {
+    if (!classpath.isPresent()) {
+      return ImmutableList.of();
+    }
+    return SourcePaths.filterInputsToCompareToOutput(library.getJavaSrcs());
+  }
+
+  @Override
+  protected RuleKey.Builder appendDetailsToRuleKey(RuleKey.Builder builder) {
+    builder.set("compiled_from_sources", classpath.isPresent());
+    if (!classpath.isPresent()) {
+      // The full jar of the library, which is a dep, is the only input.
+      return builder;
+    }
+    return library.getJavacOptions().appendToRuleKey(builder);
+  }
+
+  @Override
+  public ImmutableList<Step> getBuildSteps(
+      BuildContext context,
+      final BuildableContext buildableContext) {
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    steps.add(new MakeCleanDirectoryStep(outputJar.getParent()));
+
+    Optional<Path> classesJar;
+    if (!classpath.isPresent()) {
+      classesJar = Optional.fromNullable(library.getPathToOutputFile());
+    } else if (library.getJavaSrcs().isEmpty()) {
+      classesJar = Optional.absent();
+    } else {
+      JavacOptions javacOptions = library.getJavacOptions();
+      // As for the library, only override the bootclasspath for Android code.
+      if (library.getProperties().is(ANDROID)) {
+        javacOptions = JavacOptions.builder(javacOptions)
+            .setBootclasspath(context.getAndroidBootclasspathSupplier().get())
+            .build();
+      }
+      classesJar = Optional.of(scratchDir.resolve("classes.jar"));
+      steps.add(new MakeCleanDirectoryStep(scratchDir));
+      steps.add(new JavacInMemoryStep(
+          scratchDir,
+          library.getJavaSrcs(),
+          classpath.get(),
+          classpath.get(),
+          javacOptions,
+          /* pathToOutputAbiFile */ Optional.<Path>absent(),
+          Optional.of(getBuildTarget()),
+          BuildDependencies.TRANSITIVE,
+          Optional.<SuggestBuildRules>absent(),
+          /* pathToSrcsList */ Optional.<Path>absent(),
+          classesJar,
+          /* resources */ Optional.<CopyResourcesStep>absent()));
+    }
+    final CreateAbiJarStep createAbiJar = new CreateAbiJarStep(classesJar, outputJar);
+    steps.add(createAbiJar);
+    steps.add(new AbstractExecutionStep("record_abi_key") {
+      @Override
+      public int execute(ExecutionContext context) {
+        Sha1HashCode abiKey = Preconditions.checkNotNull(
+            createAbiJar.getAbiKey(),
+            "The ABI jar step must create a non-null ABI key for this rule.");
+        buildableContext.addMetadata(AbiRule.ABI_KEY_ON_DISK_METADATA, abiKey.getHash());
+        return 0;
+      }
+    });
+    buildableContext.recordArtifact(outputJar);
+    return steps.build();
+  }
+
+  @Override
+  public Path getPathToOutputFile() {
+    return outputJar;
+  }
+
+  @Override
+  public Sha1HashCode initializeFromDisk(OnDiskBuildInfo onDiskBuildInfo) {
+    Optional<Sha1HashCode> abiKey = onDiskBuildInfo.getHash(AbiRule.ABI_KEY_ON_DISK_METADATA);
+    if (!abiKey.isPresent()) {
+      throw new IllegalStateException(String.format(
+          "Should not be initializing %s from disk if ABI key is not written",
+          this));
+    }
+    return abiKey.get();
+  }
+
+  @Override
+  public BuildOutputInitializer<Sha1HashCode> getBuildOutputInitializer() {
+    return buildOutputInitializer;
+  }
+
+  @Override
+  public Sha1HashCode getAbiKey() {
+    return buildOutputInitializer.getBuildOutput();
+  }
+}
@@ -55,6 +55,22 @@ public class JavaBuckConfig {
         targetLevel.or(TARGETED_JAVA_VERSION));
   }
 
+  /**
+   * @return whether java_library rules may compile only the sources that changed since they were
+   *     last built, and those that depend on them.
+   */
+  public boolean isIncrementalCompilationEnabled() {
+    return delegate.getBooleanValue("java", "incremental_compilation", false);
+  }
+
+  /**
+   * @return whether java_library rules compile against the ABI jars of their deps, which are built
+   *     from sources alone, so that they can start before the full jars of their deps are built.
+   */
+  public boolean isCompilingAgainstAbiJarsEnabled() {
+    return delegate.getBooleanValue("java", "compile_against_abi_jars", false);
+  }
+
   @VisibleForTesting
   public Optional<Path> getJavac() {
     Optional<String> path = delegate.getValue("tools", "javac");
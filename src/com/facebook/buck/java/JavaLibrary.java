@@ -57,6 +57,12 @@ public interface JavaLibrary extends BuildRule, HasClasspathEntries,
    */
   public static final Flavor SRC_JAR = new Flavor("src");
 
+  /**
+   * A {@link JavaLibrary} can also build a jar of stubs of its classes, which is enough to compile
+   * against, from its sources and the stubs of its deps, without waiting for their full jars.
+   */
+  public static final Flavor ABI_JAR = new Flavor("abi");
+
   // TODO(natthu): This can probably be avoided by using a JavaPackageable interface similar to
   // AndroidPackageable.
   public ImmutableSortedSet<BuildRule> getDepsForTransitiveClasspathEntries();
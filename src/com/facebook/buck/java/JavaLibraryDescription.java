@@ -22,11 +22,13 @@ import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.model.Flavor;
 import com.facebook.buck.model.Flavored;
 import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleFactoryParams;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.Description;
 import com.facebook.buck.rules.FlavorableDescription;
+import com.facebook.buck.rules.ImplicitDepsInferringDescription;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePaths;
@@ -37,22 +39,44 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
 
 import java.nio.file.Path;
 
 public class JavaLibraryDescription implements Description<JavaLibraryDescription.Arg>,
-    FlavorableDescription<JavaLibraryDescription.Arg>, Flavored {
+    FlavorableDescription<JavaLibraryDescription.Arg>, Flavored,
+    ImplicitDepsInferringDescription {
 
   public static final BuildRuleType TYPE = new BuildRuleType("java_library");
   public static final String ANNOTATION_PROCESSORS = "annotation_processors";
 
   @VisibleForTesting
   final JavaCompilerEnvironment javacEnv;
+  private final boolean incrementalCompilation;
+  private final boolean compileAgainstAbiJars;
 
   public JavaLibraryDescription(JavaCompilerEnvironment javacEnv) {
+    this(
+        javacEnv,
+        /* incrementalCompilation */ false,
+        /* compileAgainstAbiJars */ false);
+  }
+
+  /**
+   * @param compileAgainstAbiJars whether libraries compile against the {@link JavaAbiJar}s of
+   *     their deps, where they have them, so that they need not wait for the full jars of their
+   *     deps to be built.
+   */
+  public JavaLibraryDescription(
+      JavaCompilerEnvironment javacEnv,
+      boolean incrementalCompilation,
+      boolean compileAgainstAbiJars) {
     this.javacEnv = Preconditions.checkNotNull(javacEnv);
+    this.incrementalCompilation = incrementalCompilation;
+    this.compileAgainstAbiJars = compileAgainstAbiJars;
   }
 
   @Override
@@ -64,7 +88,9 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
   public boolean hasFlavors(ImmutableSet<Flavor> flavors) {
     boolean match = true;
     for (Flavor flavor : flavors) {
-      match &= JavaLibrary.SRC_JAR.equals(flavor) || Flavor.DEFAULT.equals(flavor);
+      match &= JavaLibrary.SRC_JAR.equals(flavor) ||
+          JavaLibrary.ABI_JAR.equals(flavor) ||
+          Flavor.DEFAULT.equals(flavor);
     }
     return match;
   }
@@ -88,11 +114,44 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
       return new JavaSourceJar(params, args.srcs.get());
     }
 
+    if (target.getFlavors().contains(JavaLibrary.ABI_JAR)) {
+      // The library is an implicit dep of its ABI jar, so it has already been created.
+      DefaultJavaLibrary library =
+          (DefaultJavaLibrary) resolver.getRule(target.getUnflavoredTarget());
+      return JavaAbiJar.create(params, library, resolver);
+    }
+
+    return createLibrary(params, resolver, args);
+  }
+
+  private DefaultJavaLibrary createLibrary(
+      BuildRuleParams params,
+      BuildRuleResolver resolver,
+      Arg args) {
+    BuildTarget target = params.getBuildTarget();
     JavacOptions.Builder javacOptions = JavaLibraryDescription.getJavacOptions(args, javacEnv);
 
     AnnotationProcessingParams annotationParams =
         args.buildAnnotationProcessingParams(target, params.getProjectFilesystem(), resolver);
     javacOptions.setAnnotationProcessingData(annotationParams);
+    javacOptions.setIncrementalCompilation(incrementalCompilation);
+
+    ImmutableSortedSet<BuildRule> exportedDeps = resolver.getAllRules(args.exportedDeps.get());
+    ImmutableSortedSet<BuildRule> providedDeps = resolver.getAllRules(args.providedDeps.get());
+    ImmutableMap<Path, JavaAbiJar> abiJars = ImmutableMap.of();
+    if (compileAgainstAbiJars) {
+      abiJars = JavaAbiJar.getAbiJars(
+          params,
+          JavaAbiJar.getClasspathEntries(
+              ImmutableSortedSet.copyOf(Sets.union(params.getDeclaredDeps(), exportedDeps)),
+              providedDeps),
+          resolver);
+      params = params.copyWithExtraDeps(
+          ImmutableSortedSet.<BuildRule>naturalOrder()
+              .addAll(params.getExtraDeps())
+              .addAll(abiJars.values())
+              .build());
+    }
 
     return new DefaultJavaLibrary(
         params,
@@ -100,11 +159,24 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
         validateResources(args, params.getProjectFilesystem()),
         args.proguardConfig,
         args.postprocessClassesCommands.get(),
-        resolver.getAllRules(args.exportedDeps.get()),
-        resolver.getAllRules(args.providedDeps.get()),
+        exportedDeps,
+        providedDeps,
         /* additionalClasspathEntries */ ImmutableSet.<Path>of(),
         javacOptions.build(),
-        args.resourcesRoot);
+        args.resourcesRoot,
+        abiJars);
+  }
+
+  /**
+   * The {@link JavaLibrary#ABI_JAR} flavor of a library is derived from the library itself, which
+   * must therefore be in the graph too.
+   */
+  @Override
+  public Iterable<String> findDepsFromParams(BuildRuleFactoryParams params) {
+    if (params.target.getFlavors().contains(JavaLibrary.ABI_JAR)) {
+      return ImmutableList.of(params.target.getUnflavoredTarget().toString());
+    }
+    return ImmutableList.of();
   }
 
   // TODO(natthu): Consider adding a validateArg() method on Description which gets called before
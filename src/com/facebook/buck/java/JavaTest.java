@@ -28,6 +28,7 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.facebook.buck.step.fs.WriteFileStep;
 import com.facebook.buck.test.TestCaseSummary;
 import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
@@ -38,11 +39,15 @@ import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.ZipFileTraversal;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -52,6 +57,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.zip.ZipEntry;
@@ -166,6 +172,38 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
       return ImmutableList.of();
     }
 
+    ImmutableList<String> amendedVmArgs =
+        amendVmArgs(vmArgs, executionContext.getTargetDeviceOptional());
+
+    // A class that passed the last time that it ran, with the same key, is not run again: its
+    // results are kept instead. Those results, like the durations that shards are balanced by, have
+    // to be read before the results of last time are cleaned away.
+    Optional<ImmutableSortedMap<String, String>> testClassKeys = Optional.absent();
+    Map<String, String> reusableResults = ImmutableMap.of();
+    if (executionContext.isTestResultsCacheEnabled() &&
+        !executionContext.isDebugEnabled() &&
+        !executionContext.isCodeCoverageEnabled() &&
+        !isDryRun &&
+        testSelectorList.isEmpty()) {
+      testClassKeys = getTestClassKeys(executionContext, testClassNames, amendedVmArgs);
+      if (testClassKeys.isPresent()) {
+        reusableResults = getReusableResults(executionContext, testClassKeys.get());
+      }
+    }
+    Set<String> testClassesToRun =
+        ImmutableSet.copyOf(Sets.difference(testClassNames, reusableResults.keySet()));
+
+    int shardCount = executionContext.isDebugEnabled() ?
+        1 :
+        Math.min(executionContext.getTestShardsPerRule(), testClassesToRun.size());
+    ImmutableList<ImmutableSortedSet<String>> shards = ImmutableList.of();
+    if (shardCount > 1) {
+      shards = TestShards.balance(
+          testClassesToRun,
+          getPreviousTestClassDurations(executionContext, testClassesToRun),
+          shardCount);
+    }
+
     ImmutableList.Builder<Step> steps = ImmutableList.builder();
 
     Path pathToTestOutput = getPathToTestOutputDirectory();
@@ -173,29 +211,178 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule {
     steps.add(new MakeCleanDirectoryStep(pathToTestOutput));
     steps.add(new MakeCleanDirectoryStep(tmpDirectory));
 
+    for (Map.Entry<String, String> result : reusableResults.entrySet()) {
+      steps.add(
+          new WriteFileStep(
+              result.getValue(),
+              pathToTestOutput.resolve(result.getKey() + ".xml")));
+    }
+    if (testClassKeys.isPresent()) {
+      steps.add(
+          TestClassKeys.createWriteStep(
+              testClassKeys.get(),
+              pathToTestOutput.resolve(TestClassKeys.KEYS_FILE)));
+    }
+    if (testClassesToRun.isEmpty()) {
+      return steps.build();
+    }
+
     ImmutableSet<Path> classpathEntries = ImmutableSet.<Path>builder()
         .addAll(getTransitiveClasspathEntries().values())
         .addAll(additionalClasspathEntries)
         .addAll(getBootClasspathEntries(executionContext))
         .build();
 
-    Step junit = new JUnitStep(
-        classpathEntries,
-        testClassNames,
-        amendVmArgs(vmArgs, executionContext.getTargetDeviceOptional()),
-        pathToTestOutput,
-        tmpDirectory,
-        executionContext.isCodeCoverageEnabled(),
-        executionContext.isDebugEnabled(),
-        executionContext.getBuckEventBus().getBuildId(),
-        testSelectorList,
-        isDryRun,
-        testType);
-    steps.add(junit);
+    if (shards.isEmpty()) {
+      steps.add(
+          new JUnitStep(
+              classpathEntries,
+              testClassesToRun,
+              amendedVmArgs,
+              pathToTestOutput,
+              tmpDirectory,
+              executionContext.isCodeCoverageEnabled(),
+              executionContext.isDebugEnabled(),
+              executionContext.getBuckEventBus().getBuildId(),
+              testSelectorList,
+              isDryRun,
+              testType));
+      return steps.build();
+    }
+
+    // Each shard writes its results, and its temporary files, to directories of its own.
+    List<JUnitStep> shardSteps = Lists.newArrayListWithCapacity(shards.size());
+    List<Path> shardResultDirectories = Lists.newArrayListWithCapacity(shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      String shardDirectoryName = String.format("__shard_%d__", i);
+      Path shardResultDirectory = pathToTestOutput.resolve(shardDirectoryName);
+      Path shardTmpDirectory = tmpDirectory.resolve(shardDirectoryName);
+      steps.add(new MakeCleanDirectoryStep(shardResultDirectory));
+      steps.add(new MakeCleanDirectoryStep(shardTmpDirectory));
+      shardResultDirectories.add(shardResultDirectory);
+      shardSteps.add(
+          new JUnitStep(
+              classpathEntries,
+              shards.get(i),
+              amendedVmArgs,
+              shardResultDirectory,
+              shardTmpDirectory,
+              executionContext.isCodeCoverageEnabled(),
+              /* isDebugEnabled */ false,
+              executionContext.getBuckEventBus().getBuildId(),
+              testSelectorList,
+              isDryRun,
+              testType));
+    }
+    steps.add(new ShardedJUnitStep(shardSteps, shardResultDirectories, pathToTestOutput));
 
     return steps.build();
   }
 
+  /**
+   * @return how long, in milliseconds, each of {@code testClassNames} took the last time that it
+   *     ran, going by the results that it left behind, for those that did.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private Map<String, Long> getPreviousTestClassDurations(
+      ExecutionContext context,
+      Set<String> testClassNames) {
+    ImmutableMap.Builder<String, Long> durations = ImmutableMap.builder();
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    for (String testClass : testClassNames) {
+      File testResultFile = filesystem.getFileForRelativePath(
+          getPathToTestOutputDirectory().resolve(testClass + ".xml"));
+      if (!testResultFile.isFile()) {
+        continue;
+      }
+      try {
+        durations.put(testClass, XmlTestResultParser.parse(testResultFile).getTotalTime());
+      } catch (IOException | RuntimeException e) {
+        // The results are only a hint, so a class whose results cannot be read is treated as one
+        // that has not run before.
+      }
+    }
+    return durations.build();
+  }
+
+  /**
+   * @return the key of the results of each of {@code testClassNames}, or absent if this rule
+   *     cannot be keyed, in which case all of its test classes run.
+   */
+  private Optional<ImmutableSortedMap<String, String>> getTestClassKeys(
+      ExecutionContext context,
+      Set<String> testClassNames,
+      ImmutableList<String> amendedVmArgs) {
+    Path pathToOutputFile = getPathToOutputFile();
+    if (pathToOutputFile == null) {
+      return Optional.absent();
+    }
+    ImmutableSetMultimap.Builder<JavaLibrary, Path> dependencies = ImmutableSetMultimap.builder();
+    for (Map.Entry<JavaLibrary, Path> entry : getTransitiveClasspathEntries().entries()) {
+      if (entry.getKey() != this) {
+        dependencies.put(entry);
+      }
+    }
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    try {
+      return TestClassKeys.compute(
+          testClassNames,
+          getClassNamesToHashes(),
+          filesystem.getFileForRelativePath(pathToOutputFile),
+          dependencies.build(),
+          ImmutableSet.<Path>builder()
+              .addAll(additionalClasspathEntries)
+              .addAll(getBootClasspathEntries(context))
+              .build(),
+          ImmutableList.<String>builder()
+              .add(testType.toString())
+              .add(String.valueOf(context.getDefaultTestTimeoutMillis()))
+              .addAll(amendedVmArgs)
+              .build(),
+          filesystem);
+    } catch (IOException | IllegalStateException e) {
+      // Without the class hashes of a library, or with a classpath entry that cannot be read, the
+      // classes cannot be keyed, so they all run, as they would with the cache disabled.
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * @return the results of each of the test classes whose key is the same as the last time that it
+   *     ran, if it passed then.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private Map<String, String> getReusableResults(
+      ExecutionContext context,
+      Map<String, String> testClassKeys) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Path pathToTestOutput = getPathToTestOutputDirectory();
+    ImmutableMap<String, String> previousKeys =
+        TestClassKeys.read(filesystem, pathToTestOutput.resolve(TestClassKeys.KEYS_FILE));
+    ImmutableMap.Builder<String, String> results = ImmutableMap.builder();
+    for (Map.Entry<String, String> key : testClassKeys.entrySet()) {
+      if (!key.getValue().equals(previousKeys.get(key.getKey()))) {
+        continue;
+      }
+      Path testResultPath = pathToTestOutput.resolve(key.getKey() + ".xml");
+      Optional<String> testResult = filesystem.readFileIfItExists(testResultPath);
+      if (!testResult.isPresent()) {
+        continue;
+      }
+      try {
+        if (XmlTestResultParser.parse(filesystem.getFileForRelativePath(testResultPath))
+            .isSuccess()) {
+          // The results are written back with a trailing newline, so it is trimmed here lest they
+          // grow each time that they are kept.
+          results.put(key.getKey(), CharMatcher.WHITESPACE.trimTrailingFrom(testResult.get()));
+        }
+      } catch (IOException | RuntimeException e) {
+        // A class whose results cannot be read runs again.
+      }
+    }
+    return results.build();
+  }
+
   @VisibleForTesting
   ImmutableList<String> amendVmArgs(
       ImmutableList<String> existingVmArgs,
@@ -26,6 +26,8 @@ import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePaths;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.MorePaths;
+import com.facebook.buck.util.ProjectFilesystem;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
@@ -33,26 +35,42 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
 import java.net.URLClassLoader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -64,7 +82,6 @@ import javax.tools.JavaCompiler;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardJavaFileManager;
-import javax.tools.ToolProvider;
 
 /**
  * Command used to compile java libraries with a variety of ways to handle dependencies.
@@ -83,6 +100,15 @@ public class JavacInMemoryStep extends JavacStep {
   private static final Logger LOG = Logger.get(JavacInMemoryStep.class);
   @Nullable
   private static final Class<? extends Processor> abiWriterClass = loadAbiWriterClass();
+  private static final JavacWorkerPool workerPool =
+      new JavacWorkerPool(Runtime.getRuntime().availableProcessors());
+  private static final ProcessorClassLoaderCache processorClassLoaders =
+      new ProcessorClassLoaderCache();
+
+  private final Optional<Path> pathToOutputJar;
+  private final Optional<CopyResourcesStep> resources;
+  private final Optional<Path> pathToIncrementalState;
+  private final Supplier<Sha1HashCode> abiKeyForDeps;
 
   public JavacInMemoryStep(
       Path outputDirectory,
@@ -95,6 +121,76 @@ public class JavacInMemoryStep extends JavacStep {
       BuildDependencies buildDependencies,
       Optional<SuggestBuildRules> suggestBuildRules,
       Optional<Path> pathToSrcsList) {
+    this(outputDirectory,
+        javaSourceFilePaths,
+        transitiveClasspathEntries,
+        declaredClasspathEntries,
+        javacOptions,
+        pathToOutputAbiFile,
+        invokingRule,
+        buildDependencies,
+        suggestBuildRules,
+        pathToSrcsList,
+        /* pathToOutputJar */ Optional.<Path>absent(),
+        /* resources */ Optional.<CopyResourcesStep>absent());
+  }
+
+  /**
+   * @param pathToOutputJar if present, the jar to write the classes to, rather than writing them
+   *     to {@code outputDirectory}. Its directory must exist.
+   * @param resources if present, the resources to add to the jar, in place of running the step.
+   */
+  public JavacInMemoryStep(
+      Path outputDirectory,
+      Set<? extends SourcePath> javaSourceFilePaths,
+      Set<Path> transitiveClasspathEntries,
+      Set<Path> declaredClasspathEntries,
+      JavacOptions javacOptions,
+      Optional<Path> pathToOutputAbiFile,
+      Optional<BuildTarget> invokingRule,
+      BuildDependencies buildDependencies,
+      Optional<SuggestBuildRules> suggestBuildRules,
+      Optional<Path> pathToSrcsList,
+      Optional<Path> pathToOutputJar,
+      Optional<CopyResourcesStep> resources) {
+    this(outputDirectory,
+        javaSourceFilePaths,
+        transitiveClasspathEntries,
+        declaredClasspathEntries,
+        javacOptions,
+        pathToOutputAbiFile,
+        invokingRule,
+        buildDependencies,
+        suggestBuildRules,
+        pathToSrcsList,
+        pathToOutputJar,
+        resources,
+        /* pathToIncrementalState */ Optional.<Path>absent(),
+        /* abiKeyForDeps */ Suppliers.<Sha1HashCode>ofInstance(null));
+  }
+
+  /**
+   * @param pathToIncrementalState if present, where to keep what javac learns about the sources,
+   *     so that the next time the library is compiled, only the sources that changed, and those
+   *     that depend on them, need compiling. Requires {@code pathToOutputJar} and
+   *     {@code pathToOutputAbiFile}, and that there be no annotation processors.
+   * @param abiKeyForDeps the ABI key of what the library is compiled against, once it is built.
+   */
+  public JavacInMemoryStep(
+      Path outputDirectory,
+      Set<? extends SourcePath> javaSourceFilePaths,
+      Set<Path> transitiveClasspathEntries,
+      Set<Path> declaredClasspathEntries,
+      JavacOptions javacOptions,
+      Optional<Path> pathToOutputAbiFile,
+      Optional<BuildTarget> invokingRule,
+      BuildDependencies buildDependencies,
+      Optional<SuggestBuildRules> suggestBuildRules,
+      Optional<Path> pathToSrcsList,
+      Optional<Path> pathToOutputJar,
+      Optional<CopyResourcesStep> resources,
+      Optional<Path> pathToIncrementalState,
+      Supplier<Sha1HashCode> abiKeyForDeps) {
     super(outputDirectory,
         javaSourceFilePaths,
         transitiveClasspathEntries,
@@ -105,6 +201,15 @@ public class JavacInMemoryStep extends JavacStep {
         buildDependencies,
         suggestBuildRules,
         pathToSrcsList);
+    this.pathToOutputJar = Preconditions.checkNotNull(pathToOutputJar);
+    this.resources = Preconditions.checkNotNull(resources);
+    this.pathToIncrementalState = Preconditions.checkNotNull(pathToIncrementalState);
+    this.abiKeyForDeps = Preconditions.checkNotNull(abiKeyForDeps);
+    Preconditions.checkArgument(pathToOutputJar.isPresent() || !resources.isPresent());
+    Preconditions.checkArgument(!pathToIncrementalState.isPresent() ||
+        (pathToOutputJar.isPresent() &&
+            pathToOutputAbiFile.isPresent() &&
+            javacOptions.getAnnotationProcessingData().isEmpty()));
   }
 
   @Override
@@ -129,20 +234,6 @@ public class JavacInMemoryStep extends JavacStep {
 
   @Override
   protected int buildWithClasspath(ExecutionContext context, Set<Path> buildClasspathEntries) {
-    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-    Preconditions.checkNotNull(compiler,
-        "If using JRE instead of JDK, ToolProvider.getSystemJavaCompiler() may be null.");
-    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
-    Iterable<? extends JavaFileObject> compilationUnits = ImmutableSet.of();
-    try {
-      compilationUnits = createCompilationUnits(
-          fileManager, context.getProjectFilesystem().getAbsolutifier());
-    } catch (IOException e) {
-      close(fileManager, compilationUnits, null);
-      e.printStackTrace(context.getStdErr());
-      return 1;
-    }
-
     if (pathToSrcsList.isPresent()) {
       // write javaSourceFilePaths to classes file
       // for buck user to have a list of all .java files to be compiled
@@ -154,7 +245,6 @@ public class JavacInMemoryStep extends JavacStep {
                 .transform(Functions.toStringFunction()),
             pathToSrcsList.get());
       } catch (IOException e) {
-        close(fileManager, compilationUnits, null);
         context.logError(e,
             "Cannot write list of .java files to compile to %s file! Terminating compilation.",
             pathToSrcsList.get());
@@ -162,36 +252,37 @@ public class JavacInMemoryStep extends JavacStep {
       }
     }
 
-    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
     List<String> options = getOptions(context, buildClasspathEntries);
-    List<String> classNamesForAnnotationProcessing = ImmutableList.of();
-    Writer compilerOutputWriter = new PrintWriter(context.getStdErr());
-    JavaCompiler.CompilationTask compilationTask = compiler.getTask(
-        compilerOutputWriter,
-        fileManager,
-        diagnostics,
-        options,
-        classNamesForAnnotationProcessing,
-        compilationUnits);
-
-    // Ensure annotation processors are loaded from their own classloader. If we don't do this, then
-    // the evidence suggests that they get one polluted with Buck's own classpath, which means that
-    // libraries that have dependencies on different versions of Buck's deps may choke with novel
-    // errors that don't occur on the command line.
-    ProcessorBundle bundle = null;
-    boolean isSuccess;
+    Optional<String> fingerprint = Optional.absent();
+    if (pathToIncrementalState.isPresent() && abiKeyFile != null) {
+      fingerprint = Optional.of(getIncrementalFingerprint(options));
+      try {
+        if (compileIncrementally(context, buildClasspathEntries, fingerprint.get())) {
+          return 0;
+        }
+      } catch (IOException e) {
+        LOG.debug(e, "Unable to compile %s incrementally", invokingRule.orNull());
+      }
+      options = addAbiSummariesOption(options);
+    }
 
+    Compilation compilation;
     try {
-      bundle = prepareProcessors(invokingRule.orNull(), options);
-      compilationTask.setProcessors(bundle.processors);
-
-      // Invoke the compilation and inspect the result.
-      isSuccess = compilationTask.call();
-    } finally {
-      close(fileManager, compilationUnits, bundle);
+      compilation = compile(context, javaSourceFilePaths, options);
+    } catch (IOException e) {
+      e.printStackTrace(context.getStdErr());
+      return 1;
     }
 
-    if (isSuccess) {
+    if (compilation.isSuccess) {
+      if (pathToOutputJar.isPresent()) {
+        try {
+          writeOutputJar(context, Preconditions.checkNotNull(compilation.outputs).getOutputs());
+        } catch (IOException e) {
+          e.printStackTrace(context.getStdErr());
+          return 1;
+        }
+      }
       if (abiKeyFile != null) {
         try {
           String firstLine = Files.readFirstLine(abiKeyFile, Charsets.UTF_8);
@@ -203,12 +294,27 @@ public class JavacInMemoryStep extends JavacStep {
           return 1;
         }
       }
+      if (fingerprint.isPresent()) {
+        try {
+          JarOutputFileManager outputs = Preconditions.checkNotNull(compilation.outputs);
+          writeIncrementalState(
+              context,
+              fingerprint.get(),
+              outputs.getOutputs(),
+              outputs.getOutputsBySource(),
+              ImmutableMap.<String, IncrementalCompilationState.Source>of());
+        } catch (IOException e) {
+          e.printStackTrace(context.getStdErr());
+          return 1;
+        }
+      }
       return 0;
     } else {
       if (context.getVerbosity().shouldPrintStandardInformation()) {
         int numErrors = 0;
         int numWarnings = 0;
-        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+        for (Diagnostic<? extends JavaFileObject> diagnostic :
+             compilation.diagnostics.getDiagnostics()) {
           Diagnostic.Kind kind = diagnostic.getKind();
           if (kind == Diagnostic.Kind.ERROR) {
             ++numErrors;
@@ -228,14 +334,419 @@ public class JavacInMemoryStep extends JavacStep {
     }
   }
 
+  /**
+   * Runs javac over {@code sources}. When javac is asked to write a jar, whatever it writes to the
+   * class output is kept in memory, in {@link Compilation#outputs}.
+   */
+  private Compilation compile(
+      ExecutionContext context,
+      Set<? extends SourcePath> sources,
+      List<String> options) throws IOException {
+    JavacWorkerPool.Worker worker = workerPool.acquire(options);
+    StandardJavaFileManager standardFileManager = worker.getFileManager();
+    JavaFileManager fileManager = standardFileManager;
+    JarOutputFileManager outputs = null;
+    if (pathToOutputJar.isPresent()) {
+      outputs = new JarOutputFileManager(standardFileManager);
+      fileManager = outputs;
+    }
+    Iterable<? extends JavaFileObject> compilationUnits = ImmutableSet.of();
+    try {
+      compilationUnits = createCompilationUnits(
+          sources,
+          standardFileManager,
+          context.getProjectFilesystem().getAbsolutifier());
+    } catch (IOException e) {
+      close(worker, /* isReusable */ true, compilationUnits, null);
+      throw e;
+    }
+
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    List<String> classNamesForAnnotationProcessing = ImmutableList.of();
+    Writer compilerOutputWriter = new PrintWriter(context.getStdErr());
+    JavaCompiler compiler = worker.getCompiler();
+    JavaCompiler.CompilationTask compilationTask = compiler.getTask(
+        compilerOutputWriter,
+        fileManager,
+        diagnostics,
+        options,
+        classNamesForAnnotationProcessing,
+        compilationUnits);
+
+    // Ensure annotation processors are loaded from their own classloader. If we don't do this, then
+    // the evidence suggests that they get one polluted with Buck's own classpath, which means that
+    // libraries that have dependencies on different versions of Buck's deps may choke with novel
+    // errors that don't occur on the command line.
+    ProcessorBundle bundle = null;
+    boolean isSuccess = false;
+    // A compilation that crashed may have left the file manager in any state.
+    boolean isCompleted = false;
+
+    try {
+      bundle = prepareProcessors(invokingRule.orNull(), options);
+      compilationTask.setProcessors(bundle.processors);
+
+      // Invoke the compilation and inspect the result.
+      isSuccess = compilationTask.call();
+      isCompleted = true;
+    } finally {
+      close(worker, isCompleted, compilationUnits, bundle);
+    }
+    return new Compilation(isSuccess, diagnostics, outputs);
+  }
+
+  /**
+   * Compiles only the sources that changed since the last compilation, and those that depend on
+   * them, against the classes that the others compiled to last time, and writes a jar with the
+   * same contents as compiling every source would.
+   *
+   * @return whether the library was compiled. If not, it needs compiling in full, either because
+   *     the last compilation left nothing to build on, or because the changes may have affected
+   *     classes that this cannot tell depend on them: classes that a new type could shadow a type
+   *     for, and classes that inlined a changed constant.
+   */
+  private boolean compileIncrementally(
+      ExecutionContext context,
+      Set<Path> buildClasspathEntries,
+      String fingerprint) throws IOException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    File jar = filesystem.getFileForRelativePath(pathToOutputJar.get());
+    Optional<IncrementalCompilationState> previous = IncrementalCompilationState.read(
+        filesystem.getFileForRelativePath(pathToIncrementalState.get()));
+    if (!previous.isPresent() ||
+        !previous.get().getFingerprint().equals(fingerprint) ||
+        !jar.isFile() ||
+        !Files.asByteSource(jar).hash(Hashing.sha1()).toString().equals(
+            previous.get().getJarHash())) {
+      return false;
+    }
+
+    Map<String, SourcePath> sourcesByName = Maps.newHashMap();
+    Map<String, HashCode> hashes = Maps.newHashMap();
+    for (SourcePath source : javaSourceFilePaths) {
+      String name = MorePaths.pathWithUnixSeparators(source.resolve());
+      sourcesByName.put(name, source);
+      hashes.put(
+          name,
+          Files.asByteSource(filesystem.getFileForRelativePath(source.resolve()))
+              .hash(Hashing.sha1()));
+    }
+    Optional<ImmutableSortedSet<String>> toRecompile =
+        previous.get().getSourcesToRecompile(hashes);
+    if (!toRecompile.isPresent()) {
+      return false;
+    }
+    LOG.debug("Compiling %d of %d sources of %s",
+        toRecompile.get().size(),
+        sourcesByName.size(),
+        invokingRule.orNull());
+
+    Map<String, ByteSource> previousClasses = Maps.newHashMap();
+    try (ZipFile zipFile = new ZipFile(jar)) {
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+           entries.hasMoreElements();
+          ) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.getName().endsWith(JavaFileObject.Kind.CLASS.extension)) {
+          try (InputStream input = zipFile.getInputStream(entry)) {
+            previousClasses.put(entry.getName(), ByteSource.wrap(ByteStreams.toByteArray(input)));
+          }
+        }
+      }
+    }
+
+    Map<String, IncrementalCompilationState.Source> keptSources = Maps.newHashMap();
+    Map<String, ByteSource> contents = Maps.newHashMap();
+    Set<SourcePath> sourcesToRecompile = Sets.newLinkedHashSet();
+    Set<String> replacedClasses = Sets.newHashSet();
+    for (Map.Entry<String, IncrementalCompilationState.Source> entry :
+         previous.get().getSources().entrySet()) {
+      if (toRecompile.get().contains(entry.getKey())) {
+        sourcesToRecompile.add(sourcesByName.get(entry.getKey()));
+        replacedClasses.addAll(entry.getValue().getClasses());
+        continue;
+      }
+      keptSources.put(entry.getKey(), entry.getValue());
+      for (String className : entry.getValue().getClasses()) {
+        String pathInJar = className + JavaFileObject.Kind.CLASS.extension;
+        ByteSource classFile = previousClasses.get(pathInJar);
+        if (classFile == null) {
+          return false;
+        }
+        contents.put(pathInJar, classFile);
+      }
+    }
+
+    ImmutableSortedMap<String, ByteSource> outputs = ImmutableSortedMap.of();
+    ImmutableSetMultimap<URI, String> outputsBySource = ImmutableSetMultimap.of();
+    if (!sourcesToRecompile.isEmpty()) {
+      // The classes that are not compiled again go where javac can find them.
+      for (Map.Entry<String, ByteSource> classFile : contents.entrySet()) {
+        Path path = outputDirectory.resolve(classFile.getKey());
+        filesystem.createParentDirs(path);
+        filesystem.writeBytesToPath(classFile.getValue().read(), path);
+      }
+      Set<Path> classpath = Sets.newLinkedHashSet();
+      classpath.add(outputDirectory);
+      classpath.addAll(buildClasspathEntries);
+      Compilation compilation;
+      try {
+        compilation = compile(
+            context,
+            sourcesToRecompile,
+            addAbiSummariesOption(getOptions(context, classpath)));
+      } finally {
+        filesystem.rmdir(outputDirectory);
+        filesystem.mkdirs(outputDirectory);
+      }
+      if (!compilation.isSuccess) {
+        // Compile everything, so that the errors are those of a clean build.
+        return false;
+      }
+      outputs = Preconditions.checkNotNull(compilation.outputs).getOutputs();
+      outputsBySource = compilation.outputs.getOutputsBySource();
+    }
+
+    Map<String, String> previousConstants = Maps.newHashMap();
+    for (String className : replacedClasses) {
+      ByteSource classFile = previousClasses.get(className + JavaFileObject.Kind.CLASS.extension);
+      if (classFile != null) {
+        addConstants(className, classFile, previousConstants);
+      }
+    }
+    Map<String, String> constants = Maps.newHashMap();
+    for (Map.Entry<String, ByteSource> output : outputs.entrySet()) {
+      String className = getClassName(output.getKey());
+      if (!replacedClasses.contains(className) && !isAnonymousOrLocalClass(className)) {
+        // Unchanged sources may refer to a type with the same simple name, that the new one would
+        // now shadow.
+        return false;
+      }
+      addConstants(className, output.getValue(), constants);
+    }
+    if (!constants.equals(previousConstants)) {
+      // Classes that use a constant have a copy of its value, rather than a reference to it.
+      return false;
+    }
+
+    contents.putAll(outputs);
+    writeOutputJar(context, ImmutableSortedMap.copyOf(contents));
+    IncrementalCompilationState state =
+        writeIncrementalState(context, fingerprint, outputs, outputsBySource, keptSources);
+    SortedSet<String> summaries = Sets.newTreeSet();
+    for (IncrementalCompilationState.Source source : state.getSources().values()) {
+      summaries.addAll(source.getAbiSummaries().values());
+    }
+    abiKey = new Sha1HashCode(AbiWriterProtocol.computeAbiKey(summaries));
+    return true;
+  }
+
+  /**
+   * Records what the compilation that just wrote the jar learned about the sources it compiled,
+   * along with what earlier ones learned about the others, for the next compilation to build on.
+   *
+   * @param outputs the classes that javac wrote.
+   * @param outputsBySource the paths in the jar of the classes, keyed by the URI of their source.
+   * @param keptSources what earlier compilations learned about the sources that javac did not
+   *     compile this time.
+   */
+  private IncrementalCompilationState writeIncrementalState(
+      ExecutionContext context,
+      String fingerprint,
+      ImmutableSortedMap<String, ByteSource> outputs,
+      ImmutableSetMultimap<URI, String> outputsBySource,
+      Map<String, IncrementalCompilationState.Source> keptSources) throws IOException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    SortedMap<String, String> summariesByType = ImmutableSortedMap.of();
+    File summariesFile = getAbiSummariesFile();
+    if (summariesFile.isFile()) {
+      summariesByType = AbiWriterProtocol.readSummaries(summariesFile);
+    }
+
+    Map<String, IncrementalCompilationState.Source> sources = Maps.newHashMap(keptSources);
+    Set<String> attributedClasses = Sets.newHashSet();
+    Set<String> attributedTypes = Sets.newHashSet();
+    for (URI uri : outputsBySource.keySet()) {
+      if (!"file".equals(uri.getScheme())) {
+        continue;
+      }
+      Path path = filesystem.getRootPath().toAbsolutePath().normalize()
+          .relativize(Paths.get(uri).normalize());
+      Set<String> classes = Sets.newHashSet();
+      Set<String> referencedTypes = Sets.newHashSet();
+      Map<String, String> summaries = Maps.newHashMap();
+      for (String pathInJar : outputsBySource.get(uri)) {
+        String className = getClassName(pathInJar);
+        classes.add(className);
+        referencedTypes.addAll(
+            ClassFileDependencies.getReferencedTypes(outputs.get(pathInJar).read()));
+        String type = className.replace('/', '.');
+        String summary = summariesByType.get(type);
+        if (summary != null) {
+          summaries.put(type, summary);
+          attributedTypes.add(type);
+        }
+      }
+      attributedClasses.addAll(classes);
+      sources.put(
+          MorePaths.pathWithUnixSeparators(path),
+          new IncrementalCompilationState.Source(
+              Files.asByteSource(filesystem.getFileForRelativePath(path))
+                  .hash(Hashing.sha1())
+                  .toString(),
+              classes,
+              referencedTypes,
+              summaries));
+    }
+
+    Set<String> sourceNames = Sets.newHashSet();
+    for (SourcePath source : javaSourceFilePaths) {
+      sourceNames.add(MorePaths.pathWithUnixSeparators(source.resolve()));
+    }
+    // Sources that javac wrote no classes for, such as package-info.java files, have nothing to
+    // record other than that they are unchanged.
+    for (String sourceName : Sets.difference(sourceNames, sources.keySet()).immutableCopy()) {
+      sources.put(
+          sourceName,
+          new IncrementalCompilationState.Source(
+              Files.asByteSource(filesystem.getFileForRelativePath(sourceName))
+                  .hash(Hashing.sha1())
+                  .toString(),
+              ImmutableSet.<String>of(),
+              ImmutableSet.<String>of(),
+              ImmutableMap.<String, String>of()));
+    }
+
+    boolean isEverythingAttributed = sources.keySet().equals(sourceNames) &&
+        attributedTypes.equals(summariesByType.keySet());
+    for (String pathInJar : outputs.keySet()) {
+      if (!attributedClasses.contains(getClassName(pathInJar))) {
+        isEverythingAttributed = false;
+      }
+    }
+    if (!isEverythingAttributed) {
+      // Nothing the next compilation could rely on: record a state that matches no sources.
+      LOG.debug("Unable to tell which sources of %s some classes came from", invokingRule.orNull());
+      sources.clear();
+    }
+
+    IncrementalCompilationState state = new IncrementalCompilationState(
+        fingerprint,
+        Files.asByteSource(filesystem.getFileForRelativePath(pathToOutputJar.get()))
+            .hash(Hashing.sha1()),
+        sources);
+    state.write(filesystem.getFileForRelativePath(pathToIncrementalState.get()));
+    return state;
+  }
+
+  /**
+   * @return a fingerprint of what, other than its sources, goes into compiling the library: a
+   *     compilation can only build on the last one if this has not changed.
+   */
+  private String getIncrementalFingerprint(List<String> options) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putUnencodedChars(System.getProperty("java.version"));
+    for (String option : options) {
+      hasher.putByte((byte) 0).putUnencodedChars(option);
+    }
+    hasher.putByte((byte) 0).putUnencodedChars(abiKeyForDeps.get().getHash());
+    return hasher.hash().toString();
+  }
+
+  private File getAbiSummariesFile() {
+    return new File(Preconditions.checkNotNull(abiKeyFile).getParentFile(), "abi_summaries");
+  }
+
+  private List<String> addAbiSummariesOption(List<String> options) {
+    return ImmutableList.<String>builder()
+        .addAll(options)
+        .add(String.format("-A%s=%s",
+                AbiWriterProtocol.PARAM_ABI_SUMMARIES_FILE,
+                getAbiSummariesFile().getAbsolutePath()))
+        .build();
+  }
+
+  private static void addConstants(
+      String className,
+      ByteSource classFile,
+      Map<String, String> constants) throws IOException {
+    for (Map.Entry<String, String> constant :
+         ClassFileDependencies.getConstants(classFile.read()).entrySet()) {
+      constants.put(className + "." + constant.getKey(), constant.getValue());
+    }
+  }
+
+  /** @return the internal name of the class at {@code pathInJar}. */
+  private static String getClassName(String pathInJar) {
+    return pathInJar.substring(
+        0,
+        pathInJar.length() - JavaFileObject.Kind.CLASS.extension.length());
+  }
+
+  /** @return whether a class is one that no other could refer to by name. */
+  private static boolean isAnonymousOrLocalClass(String className) {
+    int lastDollar = className.lastIndexOf('$');
+    return lastDollar != -1 &&
+        lastDollar + 1 < className.length() &&
+        Character.isDigit(className.charAt(lastDollar + 1));
+  }
+
+  /** The outcome of running javac. */
+  private static class Compilation {
+    private final boolean isSuccess;
+    private final DiagnosticCollector<JavaFileObject> diagnostics;
+    @Nullable private final JarOutputFileManager outputs;
+
+    private Compilation(
+        boolean isSuccess,
+        DiagnosticCollector<JavaFileObject> diagnostics,
+        @Nullable JarOutputFileManager outputs) {
+      this.isSuccess = isSuccess;
+      this.diagnostics = diagnostics;
+      this.outputs = outputs;
+    }
+  }
+
+  private void writeOutputJar(
+      ExecutionContext context,
+      ImmutableSortedMap<String, ByteSource> classes) throws IOException {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Map<String, ByteSource> contents = Maps.newHashMap(classes);
+    if (resources.isPresent()) {
+      for (Map.Entry<Path, Path> resource :
+           resources.get().getResourcesByRelativePath().entrySet()) {
+        addResource(
+            MorePaths.pathWithUnixSeparators(resource.getKey()),
+            filesystem.getFileForRelativePath(resource.getValue()),
+            contents);
+      }
+    }
+    JarDirectoryStepHelper.createJarFile(
+        pathToOutputJar.get(),
+        ImmutableSortedMap.copyOf(contents),
+        context);
+  }
+
+  private static void addResource(String pathInJar, File file, Map<String, ByteSource> contents) {
+    File[] children = file.listFiles();
+    if (children == null) {
+      contents.put(pathInJar, Files.asByteSource(file));
+      return;
+    }
+    for (File child : children) {
+      addResource(pathInJar + "/" + child.getName(), child, contents);
+    }
+  }
+
   private void close(
-      JavaFileManager fileManager,
+      JavacWorkerPool.Worker worker,
+      boolean isReusable,
       Iterable<? extends JavaFileObject> compilationUnits,
       @Nullable ProcessorBundle bundle) {
-    try {
-      fileManager.close();
-    } catch (IOException e) {
-      LOG.warn(e, "Unable to close java filemanager. We may be leaking memory.");
+    if (isReusable) {
+      workerPool.release(worker);
+    } else {
+      workerPool.discard(worker);
     }
 
     for (JavaFileObject unit : compilationUnits) {
@@ -273,27 +784,17 @@ public class JavacInMemoryStep extends JavacStep {
       return processorBundle;
     }
 
-    Iterable<String> rawPaths = Splitter.on(File.pathSeparator)
-        .omitEmptyStrings()
-        .split(processorClassPath);
-    URL[] urls = FluentIterable.from(rawPaths)
+    ImmutableList<Path> searchPath = FluentIterable
+        .from(Splitter.on(File.pathSeparator).omitEmptyStrings().split(processorClassPath))
         .transform(
-            new Function<String, URL>() {
+            new Function<String, Path>() {
               @Override
-              public URL apply(String pathRelativeToProjectRoot) {
-                try {
-                  return Paths.get(pathRelativeToProjectRoot).toUri().toURL();
-                } catch (MalformedURLException e) {
-                  // The paths we're being given should have all been resolved from the file system
-                  // already. We'd need to be unfortunate to get here. Bubble up a runtime
-                  // exception.
-                  throw new RuntimeException(e);
-                }
+              public Path apply(String pathRelativeToProjectRoot) {
+                return Paths.get(pathRelativeToProjectRoot);
               }
             })
-        .toArray(URL.class);
-    // Note the lack of a parent classloader.
-    processorBundle.classLoader = new URLClassLoader(urls, /* parent */ null);
+        .toList();
+    processorBundle.classLoader = processorClassLoaders.acquire(searchPath);
 
     Iterable<String> names = Splitter.on(",")
         .trimResults()
@@ -328,10 +829,11 @@ public class JavacInMemoryStep extends JavacStep {
   }
 
   private Iterable<? extends JavaFileObject> createCompilationUnits(
+      Set<? extends SourcePath> sources,
       StandardJavaFileManager fileManager,
       Function<Path, Path> absolutifier) throws IOException {
     List<JavaFileObject> compilationUnits = Lists.newArrayList();
-    for (SourcePath srcPath : javaSourceFilePaths) {
+    for (SourcePath srcPath : sources) {
       Path path = srcPath.resolve();
 
       if (path.toString().endsWith(".java")) {
@@ -401,15 +903,10 @@ public class JavacInMemoryStep extends JavacStep {
         return;
       }
 
-      try {
-        classLoader.close();
-      } catch (IOException e) {
-        // Nothing sane to do. Log and carry on.
-        LOG.warn("Unable to close annotation processor classloader.");
-      } finally {
-        // Null out the classloader to allow it to be garbage collected.
-        classLoader = null;
-      }
+      // The classloader is shared with other compilations, which close it once none uses it.
+      processorClassLoaders.release(classLoader);
+      // Null out the classloader to allow it to be garbage collected.
+      classLoader = null;
     }
   }
 }
@@ -44,18 +44,21 @@ public class JavacOptions {
   private final boolean verbose;
   private final AnnotationProcessingData annotationProcessingData;
   private final Optional<String> bootclasspath;
+  private final boolean incrementalCompilation;
 
   private JavacOptions(
       JavaCompilerEnvironment javacEnv,
       boolean debug,
       boolean verbose,
       Optional<String> bootclasspath,
-      AnnotationProcessingData annotationProcessingData) {
+      AnnotationProcessingData annotationProcessingData,
+      boolean incrementalCompilation) {
     this.javacEnv = Preconditions.checkNotNull(javacEnv);
     this.debug = debug;
     this.verbose = verbose;
     this.bootclasspath = Preconditions.checkNotNull(bootclasspath);
     this.annotationProcessingData = Preconditions.checkNotNull(annotationProcessingData);
+    this.incrementalCompilation = incrementalCompilation;
   }
 
   public JavaCompilerEnvironment getJavaCompilerEnvironment() {
@@ -156,6 +159,14 @@ public class JavacOptions {
     return annotationProcessingData;
   }
 
+  /**
+   * @return whether javac may compile only the sources that changed since it last compiled the
+   *     library, and those that depend on them. This does not change what javac produces.
+   */
+  public boolean isIncrementalCompilationEnabled() {
+    return incrementalCompilation;
+  }
+
   public static Builder builder() {
     return new Builder();
   }
@@ -172,6 +183,7 @@ public class JavacOptions {
     builder.setBootclasspath(options.bootclasspath.orNull());
 
     builder.setJavaCompilerEnvironment(options.getJavaCompilerEnvironment());
+    builder.setIncrementalCompilation(options.incrementalCompilation);
 
     return builder;
   }
@@ -182,6 +194,7 @@ public class JavacOptions {
     private Optional<String> bootclasspath = Optional.absent();
     private AnnotationProcessingData annotationProcessingData = AnnotationProcessingData.EMPTY;
     private JavaCompilerEnvironment javacEnv = JavaCompilerEnvironment.DEFAULT;
+    private boolean incrementalCompilation = false;
 
     private Builder() {
     }
@@ -211,13 +224,19 @@ public class JavacOptions {
       return this;
     }
 
+    public Builder setIncrementalCompilation(boolean incrementalCompilation) {
+      this.incrementalCompilation = incrementalCompilation;
+      return this;
+    }
+
     public JavacOptions build() {
       return new JavacOptions(
           javacEnv,
           debug,
           verbose,
           bootclasspath,
-          annotationProcessingData);
+          annotationProcessingData,
+          incrementalCompilation);
     }
   }
 }
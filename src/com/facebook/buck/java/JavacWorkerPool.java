@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.FileHashStore.FileStamp;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compilers that {@link JavacInMemoryStep} keeps warm between compilations. A
+ * {@link StandardJavaFileManager} opens and indexes every jar on the classpath the first time it
+ * looks a class up, and keeps them open until it is closed; reusing one across compilations saves
+ * reading the same jars, such as guava or android.jar, for every library.
+ * <p>
+ * A worker is only reused for a compilation with the same file manager options, other than the
+ * classpath and output directories, that every compilation sets. Before a worker is reused, the
+ * jars on the new classpath are checked against the {@link FileStamp}s they had when the worker
+ * last used them: a worker that may have indexed an older version of one of them is discarded.
+ */
+class JavacWorkerPool {
+
+  private static final Logger LOG = Logger.get(JavacWorkerPool.class);
+
+  /** File manager options that differ between compilations, and which each one sets. */
+  private static final ImmutableList<String> PER_COMPILATION_OPTIONS =
+      ImmutableList.of("-classpath", "-d", "-s");
+
+  /** File manager options whose values list the jars a compilation reads classes from. */
+  private static final ImmutableList<String> SEARCH_PATH_OPTIONS =
+      ImmutableList.of("-bootclasspath", "-classpath");
+
+  private final int maxIdleWorkers;
+  private final List<Worker> idleWorkers = Lists.newLinkedList();
+  @Nullable private JavaCompiler systemCompiler;
+
+  JavacWorkerPool(int maxIdleWorkers) {
+    Preconditions.checkArgument(maxIdleWorkers >= 0);
+    this.maxIdleWorkers = maxIdleWorkers;
+  }
+
+  /**
+   * @return a worker for a compilation with the given options, which the caller must hand back to
+   *     {@link #release(Worker)} or {@link #discard(Worker)} when the compilation is over.
+   */
+  Worker acquire(List<String> options) {
+    ImmutableList<String> key = getReuseKey(options);
+    List<Path> searchPath = getSearchPath(options);
+    Map<Path, FileStamp> stamps = getArchiveStamps(searchPath);
+
+    Worker worker = null;
+    JavaCompiler compiler;
+    synchronized (this) {
+      for (Iterator<Worker> iterator = idleWorkers.iterator(); iterator.hasNext();) {
+        Worker idle = iterator.next();
+        if (idle.key.equals(key)) {
+          iterator.remove();
+          worker = idle;
+          break;
+        }
+      }
+      if (systemCompiler == null) {
+        systemCompiler = ToolProvider.getSystemJavaCompiler();
+      }
+      compiler = systemCompiler;
+    }
+
+    if (worker != null && !worker.prepareForReuse(options, searchPath, stamps)) {
+      LOG.debug("Discarding a javac worker that cannot be reused for these options");
+      discard(worker);
+      worker = null;
+    }
+    if (worker == null) {
+      Preconditions.checkNotNull(compiler,
+          "If using JRE instead of JDK, ToolProvider.getSystemJavaCompiler() may be null.");
+      worker = new Worker(
+          compiler,
+          compiler.getStandardFileManager(null, null, null),
+          key);
+    }
+    worker.archiveStamps.putAll(stamps);
+    return worker;
+  }
+
+  /** Hands back a worker whose compilation completed, so that a later one may reuse it. */
+  void release(Worker worker) {
+    synchronized (this) {
+      if (idleWorkers.size() < maxIdleWorkers) {
+        idleWorkers.add(0, worker);
+        return;
+      }
+    }
+    discard(worker);
+  }
+
+  /** Closes a worker that must not be reused, for example because its compilation crashed. */
+  void discard(Worker worker) {
+    try {
+      worker.fileManager.close();
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to close java filemanager. We may be leaking memory.");
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleWorkerCount() {
+    return idleWorkers.size();
+  }
+
+  @VisibleForTesting
+  static ImmutableList<String> getReuseKey(List<String> options) {
+    ImmutableList.Builder<String> key = ImmutableList.builder();
+    for (Iterator<String> iterator = options.iterator(); iterator.hasNext();) {
+      String option = iterator.next();
+      if (PER_COMPILATION_OPTIONS.contains(option) && iterator.hasNext()) {
+        iterator.next();
+      } else if (option.startsWith("-A")) {
+        // Processor options, such as where to write the ABI key, do not reach the file manager.
+        continue;
+      } else {
+        key.add(option);
+      }
+    }
+    return key.build();
+  }
+
+  /** @return the entries of the classpath and bootclasspath of a compilation. */
+  private static List<Path> getSearchPath(List<String> options) {
+    List<Path> searchPath = Lists.newArrayList();
+    for (int i = 0; i < options.size() - 1; i++) {
+      if (SEARCH_PATH_OPTIONS.contains(options.get(i))) {
+        for (String entry : Splitter.on(File.pathSeparator)
+            .omitEmptyStrings()
+            .split(options.get(i + 1))) {
+          searchPath.add(Paths.get(entry).toAbsolutePath());
+        }
+      }
+    }
+    return searchPath;
+  }
+
+  /**
+   * @return the entries of the path that {@code option} sets in {@code options}, or null, which
+   *     sets the default location, if the option is not there.
+   */
+  @Nullable
+  private static List<File> getLocation(List<String> options, String option) {
+    int index = options.indexOf(option);
+    if (index < 0 || index == options.size() - 1) {
+      return null;
+    }
+    List<File> location = Lists.newArrayList();
+    for (String entry : Splitter.on(File.pathSeparator)
+        .omitEmptyStrings()
+        .split(options.get(index + 1))) {
+      location.add(new File(entry));
+    }
+    return location;
+  }
+
+  /** @return the stamps of the jars, as opposed to directories, on the search path. */
+  private static Map<Path, FileStamp> getArchiveStamps(List<Path> searchPath) {
+    Map<Path, FileStamp> stamps = Maps.newHashMap();
+    for (Path path : searchPath) {
+      if (!Files.isRegularFile(path)) {
+        continue;
+      }
+      try {
+        stamps.put(path, FileStamp.of(path));
+      } catch (IOException e) {
+        // Unreadable now, so javac will not read it either.
+        LOG.debug(e, "Unable to stamp classpath entry %s", path);
+      }
+    }
+    return stamps;
+  }
+
+  static class Worker {
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager fileManager;
+    private final ImmutableList<String> key;
+    private final Map<Path, FileStamp> archiveStamps = Maps.newHashMap();
+
+    private Worker(
+        JavaCompiler compiler,
+        StandardJavaFileManager fileManager,
+        ImmutableList<String> key) {
+      this.compiler = compiler;
+      this.fileManager = fileManager;
+      this.key = key;
+    }
+
+    JavaCompiler getCompiler() {
+      return compiler;
+    }
+
+    StandardJavaFileManager getFileManager() {
+      return fileManager;
+    }
+
+    /**
+     * @return whether the file manager can be reused for a compilation with the given options and
+     *     search path, whose jars have the given stamps, after setting the locations that differ
+     *     from those of the last compilation.
+     */
+    private boolean prepareForReuse(
+        List<String> options,
+        List<Path> searchPath,
+        Map<Path, FileStamp> stamps) {
+      for (Path path : searchPath) {
+        // A jar that has gone since would still be indexed too.
+        FileStamp previous = archiveStamps.get(path);
+        if (previous != null && !previous.equals(stamps.get(path))) {
+          return false;
+        }
+      }
+      try {
+        // A file manager keeps the locations that the options of its first compilation set, and
+        // ignores those in the options of later ones.
+        fileManager.setLocation(StandardLocation.CLASS_PATH, getLocation(options, "-classpath"));
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, getLocation(options, "-d"));
+        // Only compilations that run annotation processors set this.
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, getLocation(options, "-s"));
+      } catch (IOException e) {
+        // Such as for an output directory that does not exist, which a fresh worker reports.
+        return false;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.FileHashStore.FileStamp;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Annotation processor classloaders that {@link JavacInMemoryStep} shares between compilations
+ * with the same processor path, so that the classes of a processor and of its dependencies are
+ * loaded and verified once rather than for every library that uses it. Processors themselves are
+ * still instantiated afresh for every compilation.
+ * <p>
+ * A classloader is only shared while every jar on its path has the {@link FileStamp} it had when
+ * the classloader was created. Paths with directories on them, whose contents have no such stamp,
+ * get a classloader of their own for every compilation.
+ */
+class ProcessorClassLoaderCache {
+
+  private static final Logger LOG = Logger.get(ProcessorClassLoaderCache.class);
+
+  private final Map<ImmutableList<Path>, CachedClassLoader> bySearchPath = Maps.newHashMap();
+  private final Map<URLClassLoader, CachedClassLoader> byClassLoader =
+      new IdentityHashMap<>();
+
+  /**
+   * @return a classloader, without a parent, for the given processor path, which the caller must
+   *     hand back to {@link #release(URLClassLoader)} when the compilation is over.
+   */
+  synchronized URLClassLoader acquire(ImmutableList<Path> searchPath) {
+    Optional<ImmutableList<FileStamp>> stamps = getStamps(searchPath);
+    CachedClassLoader cached = bySearchPath.get(searchPath);
+    if (cached != null) {
+      if (stamps.isPresent() && cached.stamps.equals(stamps)) {
+        cached.users++;
+        return cached.classLoader;
+      }
+      LOG.debug("Processor path %s has changed; loading processors again", searchPath);
+      bySearchPath.remove(searchPath);
+      cached.isEvicted = true;
+      closeIfUnused(cached);
+    }
+
+    // Note the lack of a parent classloader.
+    URLClassLoader classLoader = new URLClassLoader(toUrls(searchPath), /* parent */ null);
+    cached = new CachedClassLoader(classLoader, stamps);
+    cached.users++;
+    byClassLoader.put(cached.classLoader, cached);
+    if (stamps.isPresent()) {
+      bySearchPath.put(searchPath, cached);
+    } else {
+      cached.isEvicted = true;
+    }
+    return cached.classLoader;
+  }
+
+  /** Hands back a classloader from {@link #acquire(ImmutableList)}. */
+  synchronized void release(URLClassLoader classLoader) {
+    CachedClassLoader cached = byClassLoader.get(classLoader);
+    if (cached == null) {
+      return;
+    }
+    cached.users--;
+    closeIfUnused(cached);
+  }
+
+  @VisibleForTesting
+  synchronized int size() {
+    return bySearchPath.size();
+  }
+
+  private void closeIfUnused(CachedClassLoader cached) {
+    if (!cached.isEvicted || cached.users > 0) {
+      return;
+    }
+    byClassLoader.remove(cached.classLoader);
+    try {
+      cached.classLoader.close();
+    } catch (IOException e) {
+      // Nothing sane to do. Log and carry on.
+      LOG.warn("Unable to close annotation processor classloader.");
+    }
+  }
+
+  /** @return the stamps of the jars on the path, or absent if it has directories on it. */
+  private static Optional<ImmutableList<FileStamp>> getStamps(ImmutableList<Path> searchPath) {
+    ImmutableList.Builder<FileStamp> stamps = ImmutableList.builder();
+    for (Path path : searchPath) {
+      if (!Files.isRegularFile(path)) {
+        return Optional.absent();
+      }
+      try {
+        stamps.add(FileStamp.of(path));
+      } catch (IOException e) {
+        return Optional.absent();
+      }
+    }
+    return Optional.of(stamps.build());
+  }
+
+  private static URL[] toUrls(ImmutableList<Path> searchPath) {
+    URL[] urls = new URL[searchPath.size()];
+    for (int i = 0; i < urls.length; i++) {
+      try {
+        urls[i] = searchPath.get(i).toUri().toURL();
+      } catch (MalformedURLException e) {
+        // The paths we're being given should have all been resolved from the file system
+        // already. We'd need to be unfortunate to get here. Bubble up a runtime exception.
+        throw new RuntimeException(e);
+      }
+    }
+    return urls;
+  }
+
+  private static class CachedClassLoader {
+    private final URLClassLoader classLoader;
+    private final Optional<ImmutableList<FileStamp>> stamps;
+    private int users;
+    private boolean isEvicted;
+
+    private CachedClassLoader(
+        URLClassLoader classLoader,
+        Optional<ImmutableList<FileStamp>> stamps) {
+      this.classLoader = classLoader;
+      this.stamps = stamps;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the shards of the tests of a rule, each a {@link JUnitStep} that writes its results to a
+ * directory of its own, at the same time, and then moves all of their results to the directory
+ * that the results of the rule are read from, as if a single {@link JUnitStep} had written them.
+ */
+public class ShardedJUnitStep implements Step {
+
+  private final ImmutableList<JUnitStep> shards;
+  private final ImmutableList<Path> shardResultDirectories;
+  private final Path directoryForTestResults;
+
+  /**
+   * @param shards the steps that run each shard.
+   * @param shardResultDirectories where each of {@code shards} writes its results.
+   * @param directoryForTestResults where to move the results of all of the shards to.
+   */
+  public ShardedJUnitStep(
+      List<JUnitStep> shards,
+      List<Path> shardResultDirectories,
+      Path directoryForTestResults) {
+    Preconditions.checkArgument(!shards.isEmpty());
+    Preconditions.checkArgument(shards.size() == shardResultDirectories.size());
+    this.shards = ImmutableList.copyOf(shards);
+    this.shardResultDirectories = ImmutableList.copyOf(shardResultDirectories);
+    this.directoryForTestResults = Preconditions.checkNotNull(directoryForTestResults);
+  }
+
+  @Override
+  public int execute(final ExecutionContext context) throws InterruptedException {
+    ExecutorService executor = MoreExecutors.newMultiThreadExecutor(
+        ShardedJUnitStep.class.getSimpleName(),
+        shards.size());
+    int exitCode = 0;
+    try {
+      List<Future<Integer>> exitCodes = Lists.newArrayList();
+      for (final JUnitStep shard : shards) {
+        exitCodes.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws InterruptedException {
+            return shard.execute(context);
+          }
+        }));
+      }
+      for (Future<Integer> shardExitCode : exitCodes) {
+        try {
+          int code = shardExitCode.get();
+          if (exitCode == 0) {
+            exitCode = code;
+          }
+        } catch (ExecutionException e) {
+          context.logError(e.getCause(), "Failed to run a shard of the tests.");
+          exitCode = 1;
+        }
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      throw e;
+    } finally {
+      executor.shutdown();
+    }
+
+    // Move the results of the shards that did run even if others failed, as a single run would
+    // have left them.
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    try {
+      for (Path shardResultDirectory : shardResultDirectories) {
+        ImmutableCollection<Path> results = filesystem.getDirectoryContents(shardResultDirectory);
+        if (results == null) {
+          continue;
+        }
+        for (Path result : results) {
+          filesystem.move(
+              result,
+              directoryForTestResults.resolve(result.getFileName()),
+              StandardCopyOption.REPLACE_EXISTING);
+        }
+        filesystem.rmdir(shardResultDirectory);
+      }
+    } catch (IOException e) {
+      context.logError(e, "Failed to merge the results of the shards of the tests.");
+      return 1;
+    }
+    return exitCode;
+  }
+
+  @Override
+  public String getShortName() {
+    return "junit";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    StringBuilder description = new StringBuilder();
+    for (JUnitStep shard : shards) {
+      description.append(shard.getDescription(context)).append(" & ");
+    }
+    return description.append("wait").toString();
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.WriteFileStep;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keys for the results of each test class of a {@link JavaTest}, so that a class that passed the
+ * last time that it ran, with the same key, need not run again.
+ * <p>
+ * The key of a test class covers its own bytecode, and that of any other test class of the rule
+ * that it refers to, whether directly or through another test class. It also covers everything
+ * else that the class could see when it ran: the rest of the classes of the rule, its resources,
+ * the classes and resources of the libraries on its classpath, any other classpath entries, and
+ * how the tests are run. So a change to one test class of a rule only invalidates the results of
+ * that class, and of those that refer to it.
+ */
+class TestClassKeys {
+
+  /** The file, in the directory of the results of a rule, that the keys of its results are in. */
+  static final String KEYS_FILE = ".class_keys";
+
+  private static final String SEPARATOR = " ";
+
+  private static final Splitter LINE_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+
+  /** Utility class: do not instantiate. */
+  private TestClassKeys() {}
+
+  /**
+   * @param testClassNames the fully qualified names of the test classes of the rule.
+   * @param classHashes the hashes of all of the class files of the rule, by their internal names.
+   * @param jar the output of the rule, which its class files and resources are in.
+   * @param dependencies the classpath entries of the libraries that the rule depends on.
+   * @param otherClasspathEntries any other entries of the classpath of the tests.
+   * @param settings anything else that affects how the tests run.
+   * @return the key of each of {@code testClassNames}, or absent if its classpath includes a
+   *     directory, whose contents cannot be keyed cheaply.
+   */
+  static Optional<ImmutableSortedMap<String, String>> compute(
+      Set<String> testClassNames,
+      SortedMap<String, HashCode> classHashes,
+      File jar,
+      ImmutableSetMultimap<JavaLibrary, Path> dependencies,
+      Set<Path> otherClasspathEntries,
+      Iterable<String> settings,
+      ProjectFilesystem filesystem) throws IOException {
+    Map<String, String> testClassesByInternalName = Maps.newHashMap();
+    for (String testClassName : testClassNames) {
+      testClassesByInternalName.put(testClassName.replace('.', '/'), testClassName);
+    }
+
+    // Which test classes each test class refers to. The test classes that the other classes of the
+    // rule refer to are needed by every test class.
+    ListMultimap<String, String> references = ArrayListMultimap.create();
+    Set<String> neededByAll = Sets.newHashSet();
+    Hasher commonHasher = Hashing.sha1().newHasher();
+    try (ZipFile zipFile = new ZipFile(jar)) {
+      putResources(zipFile, commonHasher);
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        if (!entry.getName().endsWith(".class")) {
+          continue;
+        }
+        String owner = getOwner(
+            entry.getName().substring(0, entry.getName().length() - ".class".length()),
+            testClassesByInternalName);
+        for (String referenced : getReferencedTestClasses(
+                 zipFile,
+                 entry,
+                 testClassesByInternalName)) {
+          if (owner == null) {
+            neededByAll.add(referenced);
+          } else if (!referenced.equals(owner)) {
+            references.put(owner, referenced);
+          }
+        }
+      }
+    }
+
+    ListMultimap<String, String> ownClassHashes = ArrayListMultimap.create();
+    for (Map.Entry<String, HashCode> classHash : classHashes.entrySet()) {
+      String owner = getOwner(classHash.getKey(), testClassesByInternalName);
+      String line = classHash.getKey() + SEPARATOR + classHash.getValue();
+      if (owner == null) {
+        putString(commonHasher, line);
+      } else {
+        ownClassHashes.put(owner, line);
+      }
+    }
+
+    for (String setting : settings) {
+      putString(commonHasher, setting);
+    }
+
+    // The order of the libraries does not change the classpath that they make, so they are put in
+    // a canonical order.
+    SortedMap<String, JavaLibrary> dependenciesByName = Maps.newTreeMap();
+    for (JavaLibrary dependency : dependencies.keySet()) {
+      dependenciesByName.put(dependency.getBuildTarget().getFullyQualifiedName(), dependency);
+    }
+    for (JavaLibrary dependency : dependenciesByName.values()) {
+      putString(commonHasher, dependency.getBuildTarget().getFullyQualifiedName());
+      for (Map.Entry<String, HashCode> classHash :
+           dependency.getClassNamesToHashes().entrySet()) {
+        putString(commonHasher, classHash.getKey() + SEPARATOR + classHash.getValue());
+      }
+      for (Path path : dependencies.get(dependency)) {
+        File file = filesystem.getFileForRelativePath(path);
+        if (file.isDirectory()) {
+          return Optional.absent();
+        }
+        putString(commonHasher, path.toString());
+        if (file.isFile()) {
+          try (ZipFile zipFile = new ZipFile(file)) {
+            putResources(zipFile, commonHasher);
+          }
+        }
+      }
+    }
+
+    for (Path path : otherClasspathEntries) {
+      File file = filesystem.getFileForRelativePath(path);
+      if (file.isDirectory()) {
+        return Optional.absent();
+      }
+      // The classes of these entries have not been hashed, so the entries as a whole are keyed by
+      // when they last changed.
+      putString(commonHasher, path.toString());
+      commonHasher.putLong(file.length());
+      commonHasher.putLong(file.lastModified());
+    }
+
+    HashCode commonHash = commonHasher.hash();
+    ImmutableSortedMap.Builder<String, String> keys = ImmutableSortedMap.naturalOrder();
+    for (String testClassName : testClassNames) {
+      SortedSet<String> needed = Sets.newTreeSet();
+      Deque<String> toVisit = Lists.newLinkedList(neededByAll);
+      toVisit.add(testClassName);
+      while (!toVisit.isEmpty()) {
+        String next = toVisit.remove();
+        if (needed.add(next)) {
+          toVisit.addAll(references.get(next));
+        }
+      }
+
+      Hasher hasher = Hashing.sha1().newHasher();
+      hasher.putBytes(commonHash.asBytes());
+      for (String neededClassName : needed) {
+        putString(hasher, neededClassName);
+        for (String line : ownClassHashes.get(neededClassName)) {
+          putString(hasher, line);
+        }
+      }
+      keys.put(testClassName, hasher.hash().toString());
+    }
+    return Optional.of(keys.build());
+  }
+
+  /** @return the keys in {@code keysFile}, or none if there is no such file. */
+  static ImmutableMap<String, String> read(ProjectFilesystem filesystem, Path keysFile) {
+    Optional<String> contents = filesystem.readFileIfItExists(keysFile);
+    if (!contents.isPresent()) {
+      return ImmutableMap.of();
+    }
+    Map<String, String> keys = Maps.newHashMap();
+    for (String line : LINE_SPLITTER.split(contents.get())) {
+      List<String> parts = Splitter.on(SEPARATOR).splitToList(line);
+      if (parts.size() == 2) {
+        keys.put(parts.get(0), parts.get(1));
+      }
+    }
+    return ImmutableMap.copyOf(keys);
+  }
+
+  /** @return a step that writes {@code keys} to {@code keysFile}. */
+  static Step createWriteStep(Map<String, String> keys, Path keysFile) {
+    return new WriteFileStep(Joiner.on('\n').withKeyValueSeparator(SEPARATOR).join(keys), keysFile);
+  }
+
+  /**
+   * @return the fully qualified name of the test class that a class file belongs to, be it the
+   *     test class itself or one of its nested classes, or null if it belongs to none of them.
+   */
+  @Nullable
+  private static String getOwner(
+      String internalName,
+      Map<String, String> testClassesByInternalName) {
+    int nestedClassSeparator = internalName.indexOf('$');
+    String topLevelName = nestedClassSeparator == -1 ?
+        internalName :
+        internalName.substring(0, nestedClassSeparator);
+    return testClassesByInternalName.get(topLevelName);
+  }
+
+  private static Set<String> getReferencedTestClasses(
+      ZipFile zipFile,
+      ZipEntry entry,
+      Map<String, String> testClassesByInternalName) throws IOException {
+    byte[] classFile;
+    try (InputStream inputStream = zipFile.getInputStream(entry)) {
+      classFile = ByteStreams.toByteArray(inputStream);
+    }
+    Iterable<String> referencedTypes;
+    try {
+      referencedTypes = ClassFileDependencies.getReferencedTypes(classFile);
+    } catch (IOException | RuntimeException e) {
+      // A class file that cannot be read, such as one of a version that is too new, is assumed to
+      // refer to every test class.
+      return ImmutableSet.copyOf(testClassesByInternalName.values());
+    }
+    Set<String> referenced = Sets.newHashSet();
+    for (String referencedType : referencedTypes) {
+      String owner = getOwner(referencedType, testClassesByInternalName);
+      if (owner != null) {
+        referenced.add(owner);
+      }
+    }
+    return referenced;
+  }
+
+  /** Puts the names and checksums of the entries of a jar that are not class files. */
+  private static void putResources(ZipFile jar, Hasher hasher) {
+    SortedMap<String, String> resources = Maps.newTreeMap();
+    for (ZipEntry entry : Collections.list(jar.entries())) {
+      if (!entry.isDirectory() && !entry.getName().endsWith(".class")) {
+        resources.put(entry.getName(), entry.getCrc() + SEPARATOR + entry.getSize());
+      }
+    }
+    for (Map.Entry<String, String> resource : resources.entrySet()) {
+      putString(hasher, resource.getKey() + SEPARATOR + resource.getValue());
+    }
+  }
+
+  private static void putString(Hasher hasher, String string) {
+    // Each string is terminated, so that no two sequences of strings are hashed alike.
+    hasher.putString(string, Charsets.UTF_8).putByte((byte) 0);
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits the test classes of a rule into shards that should take about as long as each other to
+ * run, going by how long each class took the last time that it ran.
+ */
+class TestShards {
+
+  /** Utility class: do not instantiate. */
+  private TestShards() {}
+
+  /**
+   * Deals the classes out longest first, each to the shard with the least to run so far. A class
+   * that has not run before is assumed to take as long as the average class that has.
+   *
+   * @param durations how long, in milliseconds, each class that ran before took.
+   * @return at most {@code maxShards} shards, none of them empty.
+   */
+  static ImmutableList<ImmutableSortedSet<String>> balance(
+      Set<String> testClassNames,
+      Map<String, Long> durations,
+      int maxShards) {
+    Preconditions.checkArgument(maxShards > 0);
+
+    long knownTotal = 0;
+    int known = 0;
+    for (String testClassName : testClassNames) {
+      Long duration = durations.get(testClassName);
+      if (duration != null) {
+        knownTotal += duration;
+        known++;
+      }
+    }
+    long defaultDuration = known == 0 ? 1L : Math.max(1L, knownTotal / known);
+    final Map<String, Long> estimates = Maps.newHashMap();
+    for (String testClassName : testClassNames) {
+      Long duration = durations.get(testClassName);
+      estimates.put(testClassName, duration == null ? defaultDuration : duration);
+    }
+
+    List<String> longestFirst = Lists.newArrayList(testClassNames);
+    Collections.sort(longestFirst, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        int byDuration = Long.compare(estimates.get(b), estimates.get(a));
+        return byDuration != 0 ? byDuration : a.compareTo(b);
+      }
+    });
+
+    int shardCount = Math.min(maxShards, testClassNames.size());
+    List<List<String>> shards = Lists.newArrayListWithCapacity(shardCount);
+    long[] loads = new long[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(Lists.<String>newArrayList());
+    }
+    for (String testClassName : longestFirst) {
+      int lightest = 0;
+      for (int i = 1; i < shardCount; i++) {
+        if (loads[i] < loads[lightest]) {
+          lightest = i;
+        }
+      }
+      shards.get(lightest).add(testClassName);
+      loads[lightest] += estimates.get(testClassName);
+    }
+
+    ImmutableList.Builder<ImmutableSortedSet<String>> balanced = ImmutableList.builder();
+    for (List<String> shard : shards) {
+      balanced.add(ImmutableSortedSet.copyOf(shard));
+    }
+    return balanced.build();
+  }
+}
@@ -23,14 +23,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import javax.annotation.processing.AbstractProcessor;
@@ -44,10 +41,13 @@ import javax.lang.model.element.TypeElement;
 
 @SupportedSourceVersion(RELEASE_7)
 @SupportedAnnotationTypes("*")
-@SupportedOptions({AbiWriterProtocol.PARAM_ABI_OUTPUT_FILE})
+@SupportedOptions({
+    AbiWriterProtocol.PARAM_ABI_OUTPUT_FILE,
+    AbiWriterProtocol.PARAM_ABI_SUMMARIES_FILE})
 public class AbiWriter extends AbstractProcessor {
 
   private SortedSet<String> classes = new TreeSet<>();
+  private SortedMap<String, String> summariesByType = new TreeMap<>();
 
   @Override
   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
@@ -58,7 +58,9 @@ public class AbiWriter extends AbstractProcessor {
         Renderable renderable = factory.deriveFor(element);
         StringBuilder builder = new StringBuilder();
         renderable.appendTo(builder);
-        classes.add(builder.toString());
+        String summary = builder.toString();
+        classes.add(summary);
+        summariesByType.put(((TypeElement) element).getQualifiedName().toString(), summary);
       } else if (element instanceof PackageElement) {
         // Only found in package-info classes and therefore do not contribute to the ABI.
         continue;
@@ -70,6 +72,15 @@ public class AbiWriter extends AbstractProcessor {
     if (destFile != null) {
       writeAbi(new File(destFile));
     }
+    String summariesFile =
+        processingEnv.getOptions().get(AbiWriterProtocol.PARAM_ABI_SUMMARIES_FILE);
+    if (summariesFile != null) {
+      try {
+        AbiWriterProtocol.writeSummaries(new File(summariesFile), summariesByType);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
 
     // We're not laying claim to any annotations.
     return false;
@@ -106,30 +117,6 @@ public class AbiWriter extends AbstractProcessor {
   }
 
   static String computeAbiKey(SortedSet<String> summaries) {
-    try {
-      MessageDigest digest = MessageDigest.getInstance("sha-1");
-
-      for (String summary : summaries) {
-        // "2" is the number of bytes in a java character
-        ByteBuffer buffer =
-            ByteBuffer.allocate(summary.length() * 2).order(ByteOrder.LITTLE_ENDIAN);
-
-        for (int i = 0; i < summary.length(); i++) {
-          buffer.putChar(summary.charAt(i));
-        }
-        digest.update(buffer.array());
-      }
-      byte[] sha1Bytes = digest.digest();
-
-      // This isn't a particularly fast operation. A quick test indicates that it's approximately
-      // 3-4 times slower than "new BigInteger(1, sha1Bytes).toString(16)". It does, however, ensure
-      // that the resulting string is always 40 characters long and padded with 0 if necessary.
-      // To give an indication of speed, on my i7 mbp, 100k string generations takes ~450ms compared
-      // to ~150ms. In short, the speed hit isn't going to be the end of the world for our use case.
-      return String.format("%040x", new BigInteger(1, sha1Bytes));
-    } catch (NoSuchAlgorithmException e) {
-      // Note: if we get this we're on a broken JRE and we're not having fun.
-      throw new RuntimeException(e);
-    }
+    return AbiWriterProtocol.computeAbiKey(summaries);
   }
 }
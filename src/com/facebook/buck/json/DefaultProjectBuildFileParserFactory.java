@@ -28,14 +28,24 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   private final ProjectFilesystem projectFilesystem;
   private final String pythonInterpreter;
   private final ImmutableSet<Description<?>> descriptions;
+  private final boolean useWatchmanGlob;
 
   public DefaultProjectBuildFileParserFactory(
       ProjectFilesystem projectFilesystem,
       String pythonInterpreter,
       ImmutableSet<Description<?>> descriptions) {
+    this(projectFilesystem, pythonInterpreter, descriptions, /* useWatchmanGlob */ false);
+  }
+
+  public DefaultProjectBuildFileParserFactory(
+      ProjectFilesystem projectFilesystem,
+      String pythonInterpreter,
+      ImmutableSet<Description<?>> descriptions,
+      boolean useWatchmanGlob) {
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.pythonInterpreter = Preconditions.checkNotNull(pythonInterpreter);
     this.descriptions = Preconditions.checkNotNull(descriptions);
+    this.useWatchmanGlob = useWatchmanGlob;
   }
 
   @Override
@@ -44,7 +54,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       Console console,
       ImmutableMap<String, String> environment,
       BuckEventBus buckEventBus) {
-    return new ProjectBuildFileParser(
+    ProjectBuildFileParser parser = new ProjectBuildFileParser(
         projectFilesystem,
         commonIncludes,
         pythonInterpreter,
@@ -52,5 +62,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         console,
         environment,
         buckEventBus);
+    parser.setUseWatchmanGlob(useWatchmanGlob);
+    return parser;
   }
 }
@@ -36,6 +36,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.CharStreams;
 
 import java.io.BufferedReader;
@@ -46,6 +48,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -94,6 +97,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
   private boolean isClosed;
 
   private boolean enableProfiling;
+  private boolean useWatchmanGlob;
   @Nullable private NamedTemporaryFile profileOutputFile;
   @Nullable private Thread stderrConsumer;
 
@@ -140,6 +144,17 @@ public class ProjectBuildFileParser implements AutoCloseable {
     this.enableProfiling = enableProfiling;
   }
 
+  /**
+   * Sets whether buck.py asks Watchman for the files that {@code glob()} matches, rather than
+   * walking the filesystem for them. buck.py walks the filesystem anyway if Watchman is not
+   * running.
+   */
+  public void setUseWatchmanGlob(boolean useWatchmanGlob) {
+    ensureNotClosed();
+    ensureNotInitialized();
+    this.useWatchmanGlob = useWatchmanGlob;
+  }
+
   private void ensureNotClosed() {
     Preconditions.checkState(!isClosed);
   }
@@ -237,6 +252,10 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
     argBuilder.add("--project_root", projectRoot.toAbsolutePath().toString());
 
+    if (useWatchmanGlob) {
+      argBuilder.add("--use_watchman_glob");
+    }
+
     // Add the --include flags.
     for (String include : commonIncludes) {
       argBuilder.add("--include");
@@ -421,29 +440,45 @@ public class ProjectBuildFileParser implements AutoCloseable {
     Files.createDirectories(buckDotPy.getParent());
 
     try (Writer out = Files.newBufferedWriter(buckDotPy, UTF_8)) {
-      Path original = Paths.get(PATH_TO_BUCK_PY);
-      CharStreams.copy(Files.newBufferedReader(original, UTF_8), out);
-      out.write("\n\n");
-
-      ConstructorArgMarshaller inspector = new ConstructorArgMarshaller();
-      BuckPyFunction function = new BuckPyFunction(inspector);
-      for (Description<?> description : descriptions) {
-        out.write(function.toPythonFunction(
-            description.getBuildRuleType(),
-            description.createUnpopulatedConstructorArg()));
-        out.write('\n');
-      }
-
-      out.write(Joiner.on("\n").join(
-          "if __name__ == '__main__':",
-          "  try:",
-          "    main()",
-          "  except KeyboardInterrupt:",
-          "    print >> sys.stderr, 'Killed by User'",
-          ""));
+      writeBuckPy(out, descriptions);
     }
     Path normalizedBuckDotPyPath = buckDotPy.normalize();
     pathToBuckPy = Optional.of(normalizedBuckDotPyPath);
     LOG.debug("Created temporary buck.py instance at %s.", normalizedBuckDotPyPath);
   }
+
+  /**
+   * @return a hash of the buck.py that a parser for {@code descriptions} evaluates build files
+   *     with. It changes whenever the rules that buck.py makes of a build file might.
+   */
+  public static HashCode hashBuckPy(ImmutableSet<Description<?>> descriptions)
+      throws IOException {
+    StringWriter out = new StringWriter();
+    writeBuckPy(out, descriptions);
+    return Hashing.sha1().hashString(out.toString(), UTF_8);
+  }
+
+  private static void writeBuckPy(Writer out, ImmutableSet<Description<?>> descriptions)
+      throws IOException {
+    Path original = Paths.get(PATH_TO_BUCK_PY);
+    CharStreams.copy(Files.newBufferedReader(original, UTF_8), out);
+    out.write("\n\n");
+
+    ConstructorArgMarshaller inspector = new ConstructorArgMarshaller();
+    BuckPyFunction function = new BuckPyFunction(inspector);
+    for (Description<?> description : descriptions) {
+      out.write(function.toPythonFunction(
+          description.getBuildRuleType(),
+          description.createUnpopulatedConstructorArg()));
+      out.write('\n');
+    }
+
+    out.write(Joiner.on("\n").join(
+        "if __name__ == '__main__':",
+        "  try:",
+        "    main()",
+        "  except KeyboardInterrupt:",
+        "    print >> sys.stderr, 'Killed by User'",
+        ""));
+  }
 }
@@ -64,6 +64,15 @@ class DelegateRunnerWithTimeout extends Runner {
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
   }
 
+  /**
+   * Stops the thread that this thread's tests ran on, which would otherwise outlive them, and keep
+   * a JVM that is not about to exit from exiting.
+   */
+  static void shutdownExecutor() {
+    executor.get().shutdown();
+    executor.remove();
+  }
+
   /**
    * @return the description from the original {@link Runner} wrapped by this {@link Runner}.
    */
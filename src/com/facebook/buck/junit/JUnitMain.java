@@ -46,4 +46,21 @@ public class JUnitMain {
     runner.parseArgs(args);
     runner.runAndExit();
   }
+
+  /**
+   * Runs the tests as {@link #main(String[])} does, but returns once their results have been
+   * written rather than exit, so that {@link JUnitWorkerMain} can run more tests in this JVM.
+   */
+  public static void runTests(String[] args) throws Throwable {
+    CheckDependency.isPresent("junit", "org.junit.Test");
+    CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
+
+    JUnitRunner runner = new JUnitRunner();
+    runner.parseArgs(args);
+    try {
+      runner.run();
+    } finally {
+      DelegateRunnerWithTimeout.shutdownExecutor();
+    }
+  }
 }
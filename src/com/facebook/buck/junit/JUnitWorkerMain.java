@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Long-lived JVM that runs {@link JUnitMain} once per request, so that a JVM does not have to be
+ * started, and warmed up, for every java_test. Each run loads the tests, and the runner, in a
+ * {@link ClassLoader} of its own, whose parent is that of the system {@link ClassLoader}, so that
+ * runs do not see each other's classes, or those of this worker.
+ * <p>
+ * Requests are read from stdin, each as a count of strings followed by the strings:
+ * <ul>
+ *   <li>(string) classpath of the tests, which does not include the test runner
+ *   <li>(string) value of {@code java.io.tmpdir} for the run
+ *   <li>(string) build id
+ *   <li>(string...) arguments to {@link JUnitMain}
+ * </ul>
+ * Once the results have been written, two booleans are written to stdout. The first is false if
+ * the test runner failed, rather than any of the tests. The second is false if the run left
+ * non-daemon threads behind, in which case this worker exits rather than run any more tests, much
+ * as {@link JUnitMain} exits rather than wait for them. Anything that the tests print to stdout
+ * goes to stderr instead. This worker exits when stdin is closed.
+ * <p>
+ * IMPORTANT! This class limits itself to types that are available in the JDK, for the same reason
+ * as {@link JUnitMain}.
+ */
+public class JUnitWorkerMain {
+
+  private static final String BUILD_ID_PROPERTY = "com.facebook.buck.buildId";
+
+  /** How long non-daemon threads that a run started have to finish before they are leaked. */
+  private static final long THREAD_GRACE_PERIOD_MILLIS = 1000L;
+
+  private JUnitWorkerMain() {
+    // Launcher class.
+  }
+
+  public static void main(String[] args) throws IOException {
+    DataInputStream requests = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+    DataOutputStream responses = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    // Stdout belongs to the protocol from now on.
+    System.setOut(System.err);
+
+    URL runnerClasses = JUnitWorkerMain.class.getProtectionDomain().getCodeSource().getLocation();
+    while (true) {
+      String[] request;
+      try {
+        request = readRequest(requests);
+      } catch (EOFException e) {
+        return;
+      }
+      Set<Thread> threadsBefore = new HashSet<>(Thread.getAllStackTraces().keySet());
+      boolean succeeded = run(runnerClasses, request);
+      boolean isReusable = !hasLeakedThreads(threadsBefore);
+      responses.writeBoolean(succeeded);
+      responses.writeBoolean(isReusable);
+      responses.flush();
+      if (!isReusable) {
+        // Do not wait for the threads that the tests left behind.
+        System.exit(0);
+      }
+    }
+  }
+
+  private static String[] readRequest(DataInputStream requests) throws IOException {
+    String[] request = new String[requests.readInt()];
+    for (int i = 0; i < request.length; i++) {
+      byte[] bytes = new byte[requests.readInt()];
+      requests.readFully(bytes);
+      request[i] = new String(bytes, "UTF-8");
+    }
+    return request;
+  }
+
+  /** @return whether the test runner ran, whether or not the tests passed. */
+  private static boolean run(URL runnerClasses, String[] request) throws IOException {
+    List<URL> classpath = new ArrayList<>();
+    for (String entry : request[0].split(File.pathSeparator)) {
+      if (!entry.isEmpty()) {
+        classpath.add(new File(entry).toURI().toURL());
+      }
+    }
+    classpath.add(runnerClasses);
+
+    Properties properties = (Properties) System.getProperties().clone();
+    PrintStream out = System.out;
+    PrintStream err = System.err;
+    InputStream in = System.in;
+    Thread currentThread = Thread.currentThread();
+    ClassLoader contextClassLoader = currentThread.getContextClassLoader();
+
+    URLClassLoader loader = new URLClassLoader(
+        classpath.toArray(new URL[classpath.size()]),
+        ClassLoader.getSystemClassLoader().getParent());
+    boolean succeeded = false;
+    try {
+      System.setProperty("java.io.tmpdir", request[1]);
+      System.setProperty(BUILD_ID_PROPERTY, request[2]);
+      currentThread.setContextClassLoader(loader);
+      Class.forName(JUnitMain.class.getName(), /* initialize */ true, loader)
+          .getMethod("runTests", String[].class)
+          .invoke(null, (Object) Arrays.copyOfRange(request, 3, request.length));
+      succeeded = true;
+    } catch (InvocationTargetException e) {
+      e.getCause().printStackTrace();
+    } catch (ReflectiveOperationException e) {
+      e.printStackTrace();
+    } finally {
+      currentThread.setContextClassLoader(contextClassLoader);
+      System.setProperties(properties);
+      System.setOut(out);
+      System.setErr(err);
+      System.setIn(in);
+      loader.close();
+    }
+    return succeeded;
+  }
+
+  private static boolean hasLeakedThreads(Set<Thread> threadsBefore) {
+    long deadline = System.currentTimeMillis() + THREAD_GRACE_PERIOD_MILLIS;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.isDaemon() || threadsBefore.contains(thread)) {
+        continue;
+      }
+      try {
+        thread.join(Math.max(1L, deadline - System.currentTimeMillis()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return true;
+      }
+      if (thread.isAlive()) {
+        System.err.printf("Tests left thread %s running.\n", thread.getName());
+        return true;
+      }
+    }
+    return false;
+  }
+}
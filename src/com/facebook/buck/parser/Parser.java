@@ -42,14 +42,18 @@ import com.facebook.buck.rules.RuleKeyBuilderFactory;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
+import com.facebook.buck.util.FileStampSnapshot;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MoreExecutors;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -58,18 +62,30 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Runnables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -95,12 +111,18 @@ public class Parser {
 
   private final RuleKeyBuilderFactory ruleKeyBuilderFactory;
 
+  /** How many buck.py processes may evaluate build files at once. */
+  private final int parsingThreads;
+
+  /** Where the rules of build files are kept between runs of buck, if anywhere. */
+  private final Optional<PersistentParseCache> persistentParseCache;
+
   /**
    * Key of the meta-rule that lists the build files executed while reading rules.
    * The value is a list of strings with the root build file as the head and included
    * build files as the tail, for example: {"__includes":["/jimp/BUCK", "/jimp/buck_includes"]}
    */
-  private static final String INCLUDES_META_RULE = "__includes";
+  static final String INCLUDES_META_RULE = "__includes";
 
   /**
    * A map from absolute included files ({@code /jimp/BUILD_DEFS}, for example) to the build files
@@ -108,6 +130,26 @@ public class Parser {
    */
   private final ListMultimap<Path, Path> buildFileDependents;
 
+  /**
+   * The stamps of the build files that have been parsed, of the files they include and of the
+   * directories of their packages, as they were when they were parsed. On an overflow, only the
+   * build files that any of these have changed for are parsed again.
+   */
+  private final FileStampSnapshot parsedFileStamps;
+
+  /**
+   * A map from the absolute paths of the directories of a package, including those of the
+   * packages below it, to its build file. Files are added to or removed from the package, and so
+   * to or from what its globs match, when the stamps of these change.
+   */
+  private final SetMultimap<Path, Path> packageDirectoryDependents;
+
+  /**
+   * Reads the stamps of each build file that is parsed, off the thread that parsed it, once
+   * {@link #startRecordingStamps()} has been called. Until then, nothing is recorded.
+   */
+  @Nullable private ExecutorService stampRecorder;
+
   /**
    * A BuckEvent used to record the parse start time, which should include the WatchEvent
    * processing that occurs before the BuildTargets required to build a full ParseStart event are
@@ -176,9 +218,22 @@ public class Parser {
       final RepositoryFactory repositoryFactory,
       String pythonInterpreter,
       ImmutableSet<Pattern> tempFilePatterns,
-      RuleKeyBuilderFactory ruleKeyBuilderFactory)
+      RuleKeyBuilderFactory ruleKeyBuilderFactory,
+      int parsingThreads,
+      boolean usePersistentParseCache,
+      boolean useWatchmanGlob)
       throws IOException, InterruptedException {
     final Repository rootRepository = repositoryFactory.getRootRepository();
+    Optional<PersistentParseCache> persistentParseCache = Optional.absent();
+    if (usePersistentParseCache) {
+      HashCode buckPyHash = ProjectBuildFileParser.hashBuckPy(rootRepository.getAllDescriptions());
+      HashCode parserKey = Hashing.sha1().newHasher()
+          .putString(pythonInterpreter, Charsets.UTF_8)
+          .putBytes(buckPyHash.asBytes())
+          .hash();
+      persistentParseCache = Optional.of(
+          new PersistentParseCache(rootRepository.getFilesystem(), parserKey, tempFilePatterns));
+    }
     return new Parser(repositoryFactory,
         /* Calls to get() will reconstruct the build file tree by calling constructBuildFileTree. */
         // TODO(simons): Consider momoizing the suppler.
@@ -194,9 +249,12 @@ public class Parser {
         new DefaultProjectBuildFileParserFactory(
             rootRepository.getFilesystem(),
             pythonInterpreter,
-            rootRepository.getAllDescriptions()),
+            rootRepository.getAllDescriptions(),
+            useWatchmanGlob),
         tempFilePatterns,
-        ruleKeyBuilderFactory);
+        ruleKeyBuilderFactory,
+        parsingThreads,
+        persistentParseCache);
   }
 
   /**
@@ -209,8 +267,11 @@ public class Parser {
       BuildTargetParser buildTargetParser,
       ProjectBuildFileParserFactory buildFileParserFactory,
       ImmutableSet<Pattern> tempFilePatterns,
-      RuleKeyBuilderFactory ruleKeyBuilderFactory)
+      RuleKeyBuilderFactory ruleKeyBuilderFactory,
+      int parsingThreads,
+      Optional<PersistentParseCache> persistentParseCache)
       throws IOException, InterruptedException {
+    Preconditions.checkArgument(parsingThreads > 0);
     this.repositoryFactory = Preconditions.checkNotNull(repositoryFactory);
     this.repository = repositoryFactory.getRootRepository();
     this.buildFileTreeCache = new BuildFileTreeCache(
@@ -219,7 +280,12 @@ public class Parser {
     this.buildFileParserFactory = Preconditions.checkNotNull(buildFileParserFactory);
     this.ruleKeyBuilderFactory = Preconditions.checkNotNull(ruleKeyBuilderFactory);
     this.buildFileDependents = ArrayListMultimap.create();
+    this.parsedFileStamps = new FileStampSnapshot(repository.getFilesystem());
+    this.packageDirectoryDependents =
+        Multimaps.synchronizedSetMultimap(HashMultimap.<Path, Path>create());
     this.tempFilePatterns = tempFilePatterns;
+    this.parsingThreads = parsingThreads;
+    this.persistentParseCache = Preconditions.checkNotNull(persistentParseCache);
     this.state = new CachedState();
   }
 
@@ -251,8 +317,28 @@ public class Parser {
     return !includesChanged && !environmentChanged && fileParsed;
   }
 
+  /**
+   * Records the stamps of what is parsed from now on, so that an overflow of the file watcher
+   * that this parser is registered with drops only the build files whose files have changed.
+   * Without a watcher there is no overflow to recover from, so walking each parsed package for its
+   * stamps would be wasted.
+   */
+  public synchronized void startRecordingStamps() {
+    if (stampRecorder == null) {
+      stampRecorder = MoreExecutors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat(Parser.class.getSimpleName() + "-stamps-%d")
+              .setDaemon(true)
+              .build());
+    }
+  }
+
   private synchronized void invalidateCache() {
+    awaitRecordedStamps();
     state.invalidateAll();
+    // Nothing is parsed any more, so there is nothing to check the files of.
+    parsedFileStamps.clear();
+    packageDirectoryDependents.clear();
   }
 
   /**
@@ -260,6 +346,7 @@ public class Parser {
    */
   private ImmutableSet<BuildTarget> resolveTargetSpec(
       TargetNodeSpec spec,
+      Iterable<Path> buildFiles,
       Iterable<String> defaultIncludes,
       ProjectBuildFileParser buildFileParser,
       ImmutableMap<String, String> environment)
@@ -268,7 +355,7 @@ public class Parser {
     ImmutableSet.Builder<BuildTarget> targets = ImmutableSet.builder();
 
     // Iterate over the build files the given target node spec returns.
-    for (Path buildFile : spec.getBuildFileSpec().findBuildFiles(repository.getFilesystem())) {
+    for (Path buildFile : buildFiles) {
 
       // Format a proper error message for non-existent build files.
       if (!repository.getFilesystem().isFile(buildFile)) {
@@ -299,15 +386,31 @@ public class Parser {
       Iterable<? extends TargetNodeSpec> specs,
       Iterable<String> defaultIncludes,
       ProjectBuildFileParser buildFileParser,
-      ImmutableMap<String, String> environment)
+      ImmutableMap<String, String> environment,
+      ParserPool parserPool)
       throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
 
+    Map<TargetNodeSpec, ImmutableSet<Path>> buildFilesBySpec = Maps.newLinkedHashMap();
+    Set<Path> allBuildFiles = Sets.newLinkedHashSet();
+    for (TargetNodeSpec spec : specs) {
+      ImmutableSet<Path> buildFiles =
+          spec.getBuildFileSpec().findBuildFiles(repository.getFilesystem());
+      buildFilesBySpec.put(spec, buildFiles);
+      for (Path buildFile : buildFiles) {
+        if (repository.getFilesystem().isFile(buildFile)) {
+          allBuildFiles.add(repository.getFilesystem().resolve(buildFile));
+        }
+      }
+    }
+    parseAhead(allBuildFiles, defaultIncludes, environment, parserPool);
+
     ImmutableSet.Builder<BuildTarget> targets = ImmutableSet.builder();
 
-    for (TargetNodeSpec spec : specs) {
+    for (Map.Entry<TargetNodeSpec, ImmutableSet<Path>> entry : buildFilesBySpec.entrySet()) {
       targets.addAll(
           resolveTargetSpec(
-              spec,
+              entry.getKey(),
+              entry.getValue(),
               defaultIncludes,
               buildFileParser,
               environment));
@@ -316,6 +419,119 @@ public class Parser {
     return targets.build();
   }
 
+  /**
+   * Parses those of {@code buildFiles} that are not cached on the buck.py processes of
+   * {@code parserPool}, several at a time, and caches their rules as each one is parsed. This only
+   * warms the cache: a build file that fails to parse is left for the caller to parse again, so
+   * that the error is reported just as it would have been without this.
+   *
+   * @return the build files that were parsed.
+   */
+  private synchronized ImmutableSet<Path> parseAhead(
+      Iterable<Path> buildFiles,
+      Iterable<String> defaultIncludes,
+      ImmutableMap<String, String> environment,
+      ParserPool parserPool) throws InterruptedException {
+    ImmutableSet.Builder<Path> parsed = ImmutableSet.builder();
+    List<Path> toParse = Lists.newArrayList();
+    for (Path buildFile : buildFiles) {
+      if (isCached(buildFile, defaultIncludes, environment)) {
+        continue;
+      }
+      if (parsePersistedRules(buildFile, defaultIncludes, environment)) {
+        parsed.add(buildFile);
+      } else {
+        toParse.add(buildFile);
+      }
+    }
+    if (toParse.size() < 2 || parsingThreads < 2) {
+      return parsed.build();
+    }
+
+    parserPool.submit(toParse);
+    for (int i = 0; i < toParse.size(); i++) {
+      // The rules of each build file are cached on this thread, which holds the lock on the
+      // parser, while the processes go on to the next build files.
+      ParserPool.ParseResult result = parserPool.take();
+      if (!result.rules.isPresent()) {
+        continue;
+      }
+      try {
+        parseRawRulesInternal(result.rules.get());
+        recordStamps(result.buildFile, result.rules.get());
+        parsed.add(result.buildFile);
+        persistRules(result.buildFile, defaultIncludes, environment, result.rules.get());
+      } catch (BuildTargetException | IOException | HumanReadableException e) {
+        LOG.debug(e, "Leaving %s to be parsed again.", result.buildFile);
+        state.invalidateDependents(result.buildFile);
+      }
+    }
+    return parsed.build();
+  }
+
+  /**
+   * Parses the build files of the targets that {@code toExplore} depend on, directly or not, one
+   * level of dependencies at a time, so that the build files of each level are parsed in parallel
+   * rather than one at a time as the targets are explored.
+   *
+   * @return the build files that were parsed.
+   */
+  private synchronized Set<Path> parseDependenciesAhead(
+      Iterable<BuildTarget> toExplore,
+      Iterable<String> defaultIncludes,
+      ImmutableMap<String, String> environment,
+      ParserPool parserPool) throws IOException, InterruptedException {
+    Set<Path> parsed = Sets.newHashSet();
+    if (parsingThreads < 2) {
+      return parsed;
+    }
+
+    Set<BuildTarget> seen = Sets.newHashSet(toExplore);
+    List<BuildTarget> level = Lists.newArrayList(toExplore);
+    while (!level.isEmpty()) {
+      Set<Path> buildFiles = Sets.newLinkedHashSet();
+      for (BuildTarget target : level) {
+        Optional<Path> buildFile = getBuildFile(target);
+        if (buildFile.isPresent()) {
+          buildFiles.add(buildFile.get());
+        }
+      }
+      parsed.addAll(parseAhead(buildFiles, defaultIncludes, environment, parserPool));
+
+      List<BuildTarget> nextLevel = Lists.newArrayList();
+      for (BuildTarget target : level) {
+        TargetNode<?> targetNode;
+        try {
+          targetNode = getTargetNode(target);
+        } catch (HumanReadableException e) {
+          // The exploration of the targets will report this.
+          continue;
+        }
+        if (targetNode == null) {
+          continue;
+        }
+        for (BuildTarget dep : targetNode.getDeps()) {
+          if (seen.add(dep)) {
+            nextLevel.add(dep);
+          }
+        }
+      }
+      level = nextLevel;
+    }
+    return parsed;
+  }
+
+  private Optional<Path> getBuildFile(BuildTarget buildTarget)
+      throws IOException, InterruptedException {
+    try {
+      return Optional.of(
+          repositoryFactory.getRepositoryByCanonicalName(buildTarget.getRepository())
+              .getAbsolutePathToBuildFile(buildTarget));
+    } catch (Repository.MissingBuildFileException | HumanReadableException e) {
+      return Optional.absent();
+    }
+  }
+
   /**
    * @param targetNodeSpecs the specs representing the build targets to generate a target graph for.
    * @param defaultIncludes the files to include before executing build files.
@@ -339,7 +555,15 @@ public class Parser {
                  defaultIncludes,
                  console,
                  environment,
-                 eventBus)) {
+                 eventBus);
+         ParserPool parserPool = new ParserPool(
+             parsingThreads,
+             buildFileParserFactory,
+             defaultIncludes,
+             console,
+             environment,
+             eventBus,
+             enableProfiling)) {
       buildFileParser.setEnableProfiling(enableProfiling);
 
       // Resolve the target node specs to the build targets the represent.
@@ -347,7 +571,8 @@ public class Parser {
           targetNodeSpecs,
           defaultIncludes,
           buildFileParser,
-          environment);
+          environment,
+          parserPool);
 
       postParseStartEvent(buildTargets, eventBus);
 
@@ -356,7 +581,8 @@ public class Parser {
             buildTargets,
             defaultIncludes,
             buildFileParser,
-            environment);
+            environment,
+            parserPool);
         return graph;
       } finally {
         eventBus.post(ParseEvent.finished(buildTargets, Optional.fromNullable(graph)));
@@ -402,15 +628,22 @@ public class Parser {
    * @param toExplore the {@link BuildTarget}s that {@link TargetGraph} is calculated for.
    * @param defaultIncludes the files to include before executing build files.
    * @param buildFileParser the parser for build files.
+   * @param parserPool the parsers for build files that can be parsed ahead of the exploration.
    * @return a {@link TargetGraph} containing all the nodes from {@code toExplore}.
    */
   private synchronized TargetGraph buildTargetGraph(
       Iterable<BuildTarget> toExplore,
       final Iterable<String> defaultIncludes,
       final ProjectBuildFileParser buildFileParser,
-      final ImmutableMap<String, String> environment) throws IOException, InterruptedException {
+      final ImmutableMap<String, String> environment,
+      ParserPool parserPool) throws IOException, InterruptedException {
     final MutableDirectedGraph<TargetNode<?>> graph = new MutableDirectedGraph<>();
 
+    // A build file that was parsed ahead is treated as though it were parsed when the exploration
+    // first gets to it, so that a missing target is reported just as it would have been.
+    final Set<Path> parsedAhead =
+        parseDependenciesAhead(toExplore, defaultIncludes, environment, parserPool);
+
     AbstractAcyclicDepthFirstPostOrderTraversal<BuildTarget> traversal =
         new AbstractAcyclicDepthFirstPostOrderTraversal<BuildTarget>() {
           @Override
@@ -430,12 +663,19 @@ public class Parser {
             for (BuildTarget buildTargetForDep : targetNode.getDeps()) {
               try {
                 TargetNode<?> depTargetNode = getTargetNode(buildTargetForDep);
+                Optional<Path> depBuildFile = parsedAhead.isEmpty() ?
+                    Optional.<Path>absent() :
+                    getBuildFile(buildTargetForDep);
+                boolean wasParsedAhead =
+                    depBuildFile.isPresent() && parsedAhead.remove(depBuildFile.get());
                 if (depTargetNode == null) {
-                  parseBuildFileContainingTarget(
-                      buildTargetForDep,
-                      defaultIncludes,
-                      buildFileParser,
-                      environment);
+                  if (!wasParsedAhead) {
+                    parseBuildFileContainingTarget(
+                        buildTargetForDep,
+                        defaultIncludes,
+                        buildFileParser,
+                        environment);
+                  }
                   depTargetNode = getTargetNode(buildTargetForDep);
                   if (depTargetNode == null) {
                     throw new HumanReadableException(
@@ -540,15 +780,146 @@ public class Parser {
     Preconditions.checkNotNull(defaultIncludes);
     Preconditions.checkNotNull(buildFileParser);
 
-    if (!isCached(buildFile, defaultIncludes, environment)) {
-      LOG.debug("Parsing %s file: %s", BuckConstant.BUILD_RULES_FILE_NAME, buildFile);
-      parseRawRulesInternal(buildFileParser.getAllRulesAndMetaRules(buildFile));
-    } else {
+    if (isCached(buildFile, defaultIncludes, environment)) {
       LOG.debug("Not parsing %s file (already in cache)", BuckConstant.BUILD_RULES_FILE_NAME);
+    } else if (parsePersistedRules(buildFile, defaultIncludes, environment)) {
+      LOG.debug(
+          "Not parsing %s file (kept from an earlier run)",
+          BuckConstant.BUILD_RULES_FILE_NAME);
+    } else {
+      LOG.debug("Parsing %s file: %s", BuckConstant.BUILD_RULES_FILE_NAME, buildFile);
+      List<Map<String, Object>> rules = buildFileParser.getAllRulesAndMetaRules(buildFile);
+      parseRawRulesInternal(rules);
+      recordStamps(buildFile, rules);
+      persistRules(buildFile, defaultIncludes, environment, rules);
     }
     return state.getRawRules(buildFile);
   }
 
+  /**
+   * Caches the rules that were kept for {@code buildFile} by an earlier run of buck, if there are
+   * any and they are still what buck.py would make of it.
+   *
+   * @return whether {@code buildFile} is now cached.
+   */
+  private synchronized boolean parsePersistedRules(
+      Path buildFile,
+      Iterable<String> defaultIncludes,
+      ImmutableMap<String, String> environment) {
+    if (!persistentParseCache.isPresent()) {
+      return false;
+    }
+    Optional<List<Map<String, Object>>> rules =
+        persistentParseCache.get().get(buildFile, defaultIncludes, environment);
+    if (!rules.isPresent()) {
+      return false;
+    }
+    try {
+      parseRawRulesInternal(rules.get());
+      recordStamps(buildFile, rules.get());
+      return true;
+    } catch (BuildTargetException | IOException | HumanReadableException e) {
+      // Parsing the build file again reports whatever is wrong with it.
+      LOG.debug(e, "Discarding the rules kept for %s.", buildFile);
+      state.invalidateDependents(buildFile);
+      return false;
+    }
+  }
+
+  private void persistRules(
+      Path buildFile,
+      Iterable<String> defaultIncludes,
+      ImmutableMap<String, String> environment,
+      List<Map<String, Object>> rules) {
+    if (persistentParseCache.isPresent()) {
+      persistentParseCache.get().put(buildFile, defaultIncludes, environment, rules);
+    }
+  }
+
+  /**
+   * Has the stamps of {@code buildFile}, of the files it includes and of the directories of its
+   * package recorded as they are now that it has been parsed. They are read on the stamp recorder,
+   * so a file that changed while it was being parsed, or since, was modified too recently for its
+   * stamp to be recorded, and still counts as changed.
+   */
+  private synchronized void recordStamps(
+      final Path buildFile,
+      List<Map<String, Object>> rules) {
+    if (stampRecorder == null) {
+      return;
+    }
+    final long parsedMillis = System.currentTimeMillis();
+    final List<Path> files = Lists.newArrayList(normalize(buildFile));
+    for (Map<String, Object> rule : rules) {
+      if (isMetaRule(rule)) {
+        for (Object include : (List<?>) rule.get(INCLUDES_META_RULE)) {
+          files.add(normalize(Paths.get((String) include)));
+        }
+      }
+    }
+    stampRecorder.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (Path file : files) {
+            parsedFileStamps.record(file, parsedMillis);
+          }
+          recordPackageDirectoryStamps(files.get(0), parsedMillis);
+        } catch (IOException e) {
+          // Whatever was not recorded counts as changed on an overflow.
+          LOG.debug(e, "Could not record the stamps of %s.", buildFile);
+        }
+      }
+    });
+  }
+
+  /**
+   * Waits for the stamps of the build files parsed so far to be recorded. Those that are not, if
+   * interrupted, count as changed.
+   */
+  private void awaitRecordedStamps() {
+    if (stampRecorder == null) {
+      return;
+    }
+    try {
+      stampRecorder.submit(Runnables.doNothing()).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /** Runs on the stamp recorder, so it does not hold the lock on the parser. */
+  private void recordPackageDirectoryStamps(final Path buildFile, final long parsedMillis)
+      throws IOException {
+    final Path packageDir = buildFile.getParent();
+    final ProjectFilesystem filesystem = repository.getFilesystem();
+    final Set<Path> ignoredDirs = Sets.newHashSet();
+    for (Path ignorePath : filesystem.getIgnorePaths()) {
+      ignoredDirs.add(filesystem.resolve(ignorePath));
+    }
+
+    filesystem.walkFileTree(packageDir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        if (!dir.equals(packageDir) &&
+            (ignoredDirs.contains(dir) || dir.getFileName().toString().startsWith("."))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        parsedFileStamps.record(dir, parsedMillis);
+        packageDirectoryDependents.put(dir, buildFile);
+        // The directory of a package below this one is recorded, as adding or removing its build
+        // file moves its files out of or into this package, but what is below it is not.
+        if (!dir.equals(packageDir) && Files.isRegularFile(dir.resolve(buildFile.getFileName()))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
   /**
    * @param rules the raw rule objects to parse.
    */
@@ -721,10 +1092,32 @@ public class Parser {
       state.invalidateDependents(path);
 
     } else {
-      // Non-path change event, likely an overflow due to many change events: invalidate everything.
-      LOG.debug("Parser invalidating entire cache on overflow.");
+      // Non-path change event, likely an overflow due to many change events: invalidate the
+      // build files that any of the files or package directories they were parsed from changed for.
       buildFileTreeCache.invalidateIfStale();
-      invalidateCache();
+      invalidateChangedBuildFiles();
+    }
+  }
+
+  private synchronized void invalidateChangedBuildFiles() {
+    awaitRecordedStamps();
+    Set<Path> tracked = Sets.newHashSet(state.getParsedBuildFiles());
+    tracked.addAll(buildFileDependents.keySet());
+    synchronized (packageDirectoryDependents) {
+      tracked.addAll(packageDirectoryDependents.keySet());
+    }
+    ImmutableSet<Path> changed = parsedFileStamps.findChanged(tracked);
+    LOG.debug(
+        "Parser invalidating %d changed of %d tracked files on overflow.",
+        changed.size(),
+        tracked.size());
+
+    for (Path path : changed) {
+      parsedFileStamps.forget(path);
+      state.invalidateDependents(path);
+      for (Path buildFile : packageDirectoryDependents.removeAll(path)) {
+        state.invalidateDependents(buildFile);
+      }
     }
   }
 
@@ -934,6 +1327,10 @@ public class Parser {
       buildFileDependents.removeAll(path);
     }
 
+    public synchronized ImmutableSet<Path> getParsedBuildFiles() {
+      return ImmutableSet.copyOf(parsedBuildFiles.keySet());
+    }
+
     public boolean isParsed(Path buildFile) {
       return parsedBuildFiles.containsKey(normalize(buildFile));
     }
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.ProjectBuildFileParser;
+import com.facebook.buck.json.ProjectBuildFileParserFactory;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.Console;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * A pool of buck.py processes that {@link Parser} parses build files on, several at a time. Each
+ * process parses one build file at a time, so the pool has a thread for each of them. Processes
+ * are only started as they are needed, so a pool that is never given more than one build file to
+ * parse at once starts no more than one.
+ */
+class ParserPool implements AutoCloseable {
+
+  private static final Logger LOG = Logger.get(ParserPool.class);
+
+  /** How long {@link #close()} waits for the build files that are being parsed. */
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  /** The rules of a build file, or absent if it could not be parsed. */
+  static class ParseResult {
+    final Path buildFile;
+    final Optional<List<Map<String, Object>>> rules;
+
+    private ParseResult(Path buildFile, Optional<List<Map<String, Object>>> rules) {
+      this.buildFile = Preconditions.checkNotNull(buildFile);
+      this.rules = Preconditions.checkNotNull(rules);
+    }
+  }
+
+  private final int size;
+  private final ProjectBuildFileParserFactory buildFileParserFactory;
+  private final ImmutableList<String> defaultIncludes;
+  private final Console console;
+  private final ImmutableMap<String, String> environment;
+  private final BuckEventBus eventBus;
+  private final boolean enableProfiling;
+
+  /** The processes that are not parsing a build file. Guards {@link #isClosed}, too. */
+  private final BlockingQueue<ProjectBuildFileParser> idleParsers = new LinkedBlockingQueue<>();
+  private boolean isClosed = false;
+
+  @Nullable private ExecutorService executor;
+  @Nullable private CompletionService<ParseResult> completionService;
+
+  ParserPool(
+      int size,
+      ProjectBuildFileParserFactory buildFileParserFactory,
+      Iterable<String> defaultIncludes,
+      Console console,
+      ImmutableMap<String, String> environment,
+      BuckEventBus eventBus,
+      boolean enableProfiling) {
+    Preconditions.checkArgument(size > 0);
+    this.size = size;
+    this.buildFileParserFactory = Preconditions.checkNotNull(buildFileParserFactory);
+    this.defaultIncludes = ImmutableList.copyOf(defaultIncludes);
+    this.console = Preconditions.checkNotNull(console);
+    this.environment = Preconditions.checkNotNull(environment);
+    this.eventBus = Preconditions.checkNotNull(eventBus);
+    this.enableProfiling = enableProfiling;
+  }
+
+  /**
+   * Starts parsing {@code buildFiles}, in order. Their results are returned by {@link #take()} as
+   * each of them is parsed.
+   */
+  void submit(Iterable<Path> buildFiles) {
+    if (executor == null) {
+      executor = MoreExecutors.newMultiThreadExecutor("buck.py", size);
+      completionService = new ExecutorCompletionService<>(executor);
+    }
+    Preconditions.checkNotNull(completionService);
+    for (final Path buildFile : buildFiles) {
+      completionService.submit(new Callable<ParseResult>() {
+        @Override
+        public ParseResult call() throws InterruptedException {
+          return parse(buildFile);
+        }
+      });
+    }
+  }
+
+  /** @return the result of the next of the submitted build files to be parsed. */
+  ParseResult take() throws InterruptedException {
+    Preconditions.checkNotNull(completionService);
+    try {
+      return completionService.take().get();
+    } catch (ExecutionException e) {
+      // parse() catches everything that a build file could make it throw.
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private ParseResult parse(Path buildFile) throws InterruptedException {
+    ProjectBuildFileParser parser;
+    synchronized (idleParsers) {
+      if (isClosed) {
+        return new ParseResult(buildFile, Optional.<List<Map<String, Object>>>absent());
+      }
+      parser = idleParsers.poll();
+    }
+    if (parser == null) {
+      parser = buildFileParserFactory.createParser(
+          defaultIncludes,
+          console,
+          environment,
+          eventBus);
+      parser.setEnableProfiling(enableProfiling);
+    }
+
+    try {
+      List<Map<String, Object>> rules = parser.getAllRulesAndMetaRules(buildFile);
+      synchronized (idleParsers) {
+        if (!isClosed) {
+          idleParsers.add(parser);
+          parser = null;
+        }
+      }
+      return new ParseResult(buildFile, Optional.of(rules));
+    } catch (BuildFileParseException | RuntimeException e) {
+      // The process may have gone, so it is not used again.
+      LOG.debug(e, "Failed to parse %s.", buildFile);
+      return new ParseResult(buildFile, Optional.<List<Map<String, Object>>>absent());
+    } finally {
+      if (parser != null) {
+        closeParser(parser);
+      }
+    }
+  }
+
+  /**
+   * Closes the processes that are idle, and skips the build files that are yet to be parsed. A
+   * process that is part way through a build file cannot be interrupted, so it is closed by its
+   * own thread once it finishes. This waits a while for that, but not for a buck.py that hangs.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    List<ProjectBuildFileParser> parsersToClose = Lists.newArrayList();
+    synchronized (idleParsers) {
+      isClosed = true;
+      idleParsers.drainTo(parsersToClose);
+    }
+    for (ProjectBuildFileParser parser : parsersToClose) {
+      closeParser(parser);
+    }
+    if (executor != null) {
+      executor.shutdown();
+      if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("buck.py is still parsing a build file; not waiting for it to finish.");
+      }
+    }
+  }
+
+  private static void closeParser(ProjectBuildFileParser parser) throws InterruptedException {
+    try {
+      parser.close();
+    } catch (BuildFileParseException e) {
+      // Whatever went wrong is reported when the build file is parsed again.
+      LOG.debug(e, "Failed to close a parser.");
+    }
+  }
+}
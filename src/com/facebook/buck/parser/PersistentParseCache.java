@@ -0,0 +1,416 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the raw rules that buck.py makes of each build file on disk, so that a new run of buck
+ * can read them back rather than start Python to evaluate the build file again.
+ * <p>
+ * The rules of a build file are kept for as long as none of these change:
+ * <ul>
+ *   <li>the contents of the build file and of each of the files it includes, as listed by its
+ *       {@link Parser#INCLUDES_META_RULE} meta rule;
+ *   <li>the names of the files in its package, which is what its calls to {@code glob()} see;
+ *   <li>the default includes, the environment and the buck.py that it was evaluated with.
+ * </ul>
+ * This is how {@link Parser} decides when to parse a build file again while buckd is running, so
+ * rules read from here are the ones that buckd would have kept in memory.
+ */
+class PersistentParseCache {
+
+  private static final Logger LOG = Logger.get(PersistentParseCache.class);
+
+  @VisibleForTesting
+  static final Path CACHE_PATH = BuckConstant.BUCK_OUTPUT_PATH.resolve("parse_cache");
+
+  /** Bump this whenever the format of an entry changes. */
+  private static final int VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte STRING_REFERENCE = 2;
+  private static final byte TRUE = 3;
+  private static final byte FALSE = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte LIST = 7;
+  private static final byte MAP = 8;
+
+  private final ProjectFilesystem filesystem;
+  private final Path cacheDir;
+  private final HashCode parserKey;
+  private final ImmutableSet<Pattern> tempFilePatterns;
+
+  /**
+   * @param parserKey identifies the buck.py, and the Python interpreter, that build files are
+   *     evaluated with.
+   * @param tempFilePatterns the names of files that are left out of the listing of a package.
+   */
+  PersistentParseCache(
+      ProjectFilesystem filesystem,
+      HashCode parserKey,
+      ImmutableSet<Pattern> tempFilePatterns) {
+    this.filesystem = Preconditions.checkNotNull(filesystem);
+    this.cacheDir = filesystem.resolve(CACHE_PATH);
+    this.parserKey = Preconditions.checkNotNull(parserKey);
+    this.tempFilePatterns = Preconditions.checkNotNull(tempFilePatterns);
+  }
+
+  /**
+   * @param buildFile the absolute path to a build file.
+   * @return the rules, meta rules included, that were kept for {@code buildFile}, or absent if
+   *     there are none or they may have changed.
+   */
+  Optional<List<Map<String, Object>>> get(
+      Path buildFile,
+      Iterable<String> defaultIncludes,
+      ImmutableMap<String, String> environment) {
+    Path entry = getEntry(buildFile);
+    if (!Files.isRegularFile(entry)) {
+      return Optional.absent();
+    }
+
+    try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+      return readEntry(in, buildFile, defaultIncludes, environment);
+    } catch (IOException | RuntimeException e) {
+      // Whatever is wrong with the entry, the build file is simply parsed again.
+      LOG.debug(e, "Could not read the rules of %s from %s.", buildFile, entry);
+      return Optional.absent();
+    }
+  }
+
+  private Optional<List<Map<String, Object>>> readEntry(
+      DataInputStream in,
+      Path buildFile,
+      Iterable<String> defaultIncludes,
+      ImmutableMap<String, String> environment) throws IOException {
+    if (in.readInt() != VERSION ||
+        !readString(in).equals(buildFile.toString()) ||
+        !readString(in).equals(hashContext(defaultIncludes, environment).toString())) {
+      return Optional.absent();
+    }
+
+    int numInputs = in.readInt();
+    for (int i = 0; i < numInputs; i++) {
+      Path input = Paths.get(readString(in));
+      String hash = readString(in);
+      if (!Files.isRegularFile(input) || !hashFile(input).toString().equals(hash)) {
+        LOG.verbose("%s has changed since %s was parsed.", input, buildFile);
+        return Optional.absent();
+      }
+    }
+    if (!readString(in).equals(hashPackageListing(buildFile).toString())) {
+      LOG.verbose("The files in the package of %s have changed.", buildFile);
+      return Optional.absent();
+    }
+
+    List<String> strings = Lists.newArrayList();
+    int numRules = in.readInt();
+    List<Map<String, Object>> rules = Lists.newArrayListWithCapacity(numRules);
+    for (int i = 0; i < numRules; i++) {
+      @SuppressWarnings("unchecked") // Every rule is written as a map.
+      Map<String, Object> rule = (Map<String, Object>) readValue(in, strings);
+      rules.add(Preconditions.checkNotNull(rule));
+    }
+    return Optional.of(rules);
+  }
+
+  /**
+   * Keeps {@code rules}, which buck.py has just made of {@code buildFile}, for later runs.
+   */
+  void put(
+      Path buildFile,
+      Iterable<String> defaultIncludes,
+      ImmutableMap<String, String> environment,
+      List<Map<String, Object>> rules) {
+    Path entry = getEntry(buildFile);
+    @Nullable Path tempEntry = null;
+    try {
+      Files.createDirectories(cacheDir);
+      // Written aside and then moved into place, so that no run of buck reads half an entry.
+      tempEntry = Files.createTempFile(cacheDir, entry.getFileName().toString(), ".tmp");
+      try (DataOutputStream out =
+               new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempEntry)))) {
+        out.writeInt(VERSION);
+        writeString(out, buildFile.toString());
+        writeString(out, hashContext(defaultIncludes, environment).toString());
+
+        ImmutableSet<Path> inputs = getInputs(buildFile, rules);
+        out.writeInt(inputs.size());
+        for (Path input : inputs) {
+          writeString(out, input.toString());
+          writeString(out, hashFile(input).toString());
+        }
+        writeString(out, hashPackageListing(buildFile).toString());
+
+        Map<String, Integer> strings = Maps.newHashMap();
+        out.writeInt(rules.size());
+        for (Map<String, Object> rule : rules) {
+          writeValue(out, rule, strings);
+        }
+      }
+      Files.move(tempEntry, entry, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug(e, "Could not keep the rules of %s in %s.", buildFile, entry);
+      if (tempEntry != null) {
+        try {
+          Files.deleteIfExists(tempEntry);
+        } catch (IOException e2) {
+          LOG.debug(e2, "Could not delete %s.", tempEntry);
+        }
+      }
+    }
+  }
+
+  private Path getEntry(Path buildFile) {
+    return cacheDir.resolve(Hashing.sha1().hashString(buildFile.toString(), UTF_8).toString());
+  }
+
+  private HashCode hashContext(
+      Iterable<String> defaultIncludes,
+      ImmutableMap<String, String> environment) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(parserKey.toString(), UTF_8);
+    for (String include : defaultIncludes) {
+      hasher.putByte((byte) 0).putString(include, UTF_8);
+    }
+    hasher.putByte((byte) 1);
+    for (Map.Entry<String, String> entry : ImmutableSortedMap.copyOf(environment).entrySet()) {
+      hasher.putString(entry.getKey(), UTF_8).putByte((byte) 0);
+      hasher.putString(entry.getValue(), UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * @return the build file and the files that it includes, as listed by its meta rule.
+   */
+  private ImmutableSet<Path> getInputs(Path buildFile, List<Map<String, Object>> rules) {
+    ImmutableSet.Builder<Path> inputs = ImmutableSet.builder();
+    inputs.add(buildFile);
+    for (Map<String, Object> rule : rules) {
+      Object includes = rule.get(Parser.INCLUDES_META_RULE);
+      if (includes instanceof List) {
+        for (Object include : (List<?>) includes) {
+          inputs.add(filesystem.resolve(Paths.get((String) include)));
+        }
+      }
+    }
+    return inputs.build();
+  }
+
+  private static HashCode hashFile(Path file) throws IOException {
+    return Hashing.sha1().hashBytes(Files.readAllBytes(file));
+  }
+
+  /**
+   * @return a hash of the names of the files in the package of {@code buildFile}. Like the
+   *     {@link com.facebook.buck.model.BuildFileTree}, this does not go into the packages below it,
+   *     nor into ignored or hidden directories.
+   */
+  private HashCode hashPackageListing(Path buildFile) throws IOException {
+    final Path packageDir = buildFile.getParent();
+    final String buildFileName = buildFile.getFileName().toString();
+    final Set<Path> ignoredDirs = Sets.newHashSet(cacheDir);
+    for (Path ignorePath : filesystem.getIgnorePaths()) {
+      ignoredDirs.add(filesystem.resolve(ignorePath));
+    }
+
+    final SortedSet<String> files = Sets.newTreeSet();
+    filesystem.walkFileTree(packageDir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (dir.equals(packageDir)) {
+          return FileVisitResult.CONTINUE;
+        }
+        if (ignoredDirs.contains(dir) ||
+            dir.getFileName().toString().startsWith(".") ||
+            Files.isRegularFile(dir.resolve(buildFileName))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (!isTempFile(file)) {
+          files.add(packageDir.relativize(file).toString());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String file : files) {
+      hasher.putString(file, UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash();
+  }
+
+  private boolean isTempFile(Path file) {
+    String fileName = file.getFileName().toString();
+    for (Pattern pattern : tempFilePatterns) {
+      if (pattern.matcher(fileName).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes one of the values that {@link com.facebook.buck.json.RawParser} makes of buck.py's
+   * output. A string that has already been written is written as its index in {@code strings},
+   * as most of them, the names of the arguments of rules to begin with, are repeated many times.
+   */
+  private static void writeValue(
+      DataOutputStream out,
+      @Nullable Object value,
+      Map<String, Integer> strings) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof String) {
+      String string = (String) value;
+      Integer index = strings.get(string);
+      if (index != null) {
+        out.writeByte(STRING_REFERENCE);
+        out.writeInt(index);
+      } else {
+        strings.put(string, strings.size());
+        out.writeByte(STRING);
+        writeString(out, string);
+      }
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Long || value instanceof Integer) {
+      out.writeByte(LONG);
+      out.writeLong(((Number) value).longValue());
+    } else if (value instanceof Number) {
+      out.writeByte(DOUBLE);
+      out.writeDouble(((Number) value).doubleValue());
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      out.writeByte(LIST);
+      out.writeInt(list.size());
+      for (Object item : list) {
+        writeValue(out, item, strings);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      out.writeByte(MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(out, entry.getKey(), strings);
+        writeValue(out, entry.getValue(), strings);
+      }
+    } else {
+      throw new IllegalArgumentException("Cannot keep a value of " + value.getClass());
+    }
+  }
+
+  @Nullable
+  private static Object readValue(DataInputStream in, List<String> strings) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case STRING:
+        String string = readString(in);
+        strings.add(string);
+        return string;
+      case STRING_REFERENCE:
+        return strings.get(in.readInt());
+      case TRUE:
+        return true;
+      case FALSE:
+        return false;
+      case LONG:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case LIST:
+        int numItems = in.readInt();
+        List<Object> list = Lists.newArrayListWithCapacity(numItems);
+        for (int i = 0; i < numItems; i++) {
+          list.add(readValue(in, strings));
+        }
+        return list;
+      case MAP:
+        int numEntries = in.readInt();
+        Map<String, Object> map = Maps.newHashMapWithExpectedSize(numEntries);
+        for (int i = 0; i < numEntries; i++) {
+          String key = (String) Preconditions.checkNotNull(readValue(in, strings));
+          // As in RawParser, the keys are interned to keep the rules of a large project small.
+          map.put(key.intern(), readValue(in, strings));
+        }
+        return map;
+      default:
+        throw new IOException("Unknown tag: " + tag);
+    }
+  }
+
+  /** Unlike {@link DataOutputStream#writeUTF(String)}, this has no limit on the length. */
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
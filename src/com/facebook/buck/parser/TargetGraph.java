@@ -55,7 +55,11 @@ public class TargetGraph extends DefaultImmutableDirectedAcyclicGraph<TargetNode
             } catch (NoSuchBuildTargetException e) {
               throw new HumanReadableException(e);
             }
-            ruleResolver.addToIndex(rule);
+            // The rule may already have been created, and indexed, along with one that it is a
+            // dep of, as the ABI jars of java_library rules are.
+            if (ruleResolver.getRuleOptional(rule.getBuildTarget()).orNull() != rule) {
+              ruleResolver.addToIndex(rule);
+            }
             actionGraph.addNode(rule);
 
             for (BuildRule buildRule : rule.getDeps()) {
@@ -14,6 +14,8 @@ import optparse
 import os
 import os.path
 import re
+import socket
+import subprocess
 import sys
 
 
@@ -49,12 +51,13 @@ class BuildFileContext(object):
 
     type = BuildContextType.BUILD_FILE
 
-    def __init__(self, base_path, dirname):
+    def __init__(self, base_path, dirname, watchman_client=None):
         self.globals = {}
         self.includes = set()
         self.base_path = base_path
         self.dirname = dirname
         self.rules = {}
+        self.watchman_client = watchman_client
 
 
 class IncludeContext(object):
@@ -120,17 +123,35 @@ def glob(includes, excludes=[], include_dotfiles=False, build_env=None):
     assert build_env.type == BuildContextType.BUILD_FILE, (
         "Cannot use `glob()` at the top-level of an included file.")
 
+    client = build_env.watchman_client
+    if client is not None and client.is_usable():
+        try:
+            return glob_watchman(
+                includes,
+                excludes,
+                include_dotfiles,
+                build_env.base_path,
+                build_env.dirname,
+                client)
+        except WatchmanError:
+            # The filesystem has the answer too, if more slowly.
+            pass
+
     search_base = Path(build_env.dirname)
     return glob_internal(includes, excludes, include_dotfiles, search_base)
 
 
-def glob_internal(includes, excludes, include_dotfiles, search_base):
+def check_glob_args(includes, excludes):
     # Ensure the user passes lists of strings rather than just a string.
     assert not isinstance(includes, basestring), \
         "The first argument to glob() must be a list of strings."
     assert not isinstance(excludes, basestring), \
         "The excludes argument must be a list of strings."
 
+
+def glob_internal(includes, excludes, include_dotfiles, search_base):
+    check_glob_args(includes, excludes)
+
     def includes_iterator():
         for pattern in includes:
             for path in search_base.glob(pattern):
@@ -138,6 +159,54 @@ def glob_internal(includes, excludes, include_dotfiles, search_base):
                 if path.is_file() and (include_dotfiles or not path.name.startswith('.')):
                     yield path.relative_to(search_base)
 
+    return exclude_glob_results(includes_iterator(), excludes)
+
+
+def glob_watchman(includes, excludes, include_dotfiles, base_path, dirname,
+                  watchman_client):
+    """
+    Does what glob_internal() does, but asks Watchman for the files that
+    match the includes rather than walking the directory of the build file.
+    Raises WatchmanError if Watchman cannot answer.
+    """
+    check_glob_args(includes, excludes)
+    if not includes:
+        return []
+
+    # Dotfiles and excludes are handled here, just as glob_internal() handles
+    # them, so that only the matching of the includes is up to Watchman.
+    query = {
+        'expression': [
+            'allof',
+            ['anyof', ['type', 'f'], ['type', 'l']],
+            ['anyof'] + [
+                ['match', pattern, 'wholename', {'includedotfiles': True}]
+                for pattern in includes],
+        ],
+        'fields': ['name', 'type'],
+    }
+    files = watchman_client.query_project(base_path, query)
+
+    def includes_iterator():
+        for f in files:
+            # Watchman's names are unicode, which Path cannot take unless
+            # they are ASCII, so encode them as the file system does.
+            name = f['name']
+            if isinstance(name, unicode):
+                name = name.encode(sys.getfilesystemencoding() or 'utf-8')
+            path = Path(name)
+            if f['type'] == 'l' and not os.path.isfile(
+                    os.path.join(dirname, name)):
+                # Like Path.is_file(), follow symlinks, and skip the ones that
+                # do not lead to a file.
+                continue
+            if include_dotfiles or not path.name.startswith('.'):
+                yield path
+
+    return exclude_glob_results(includes_iterator(), excludes)
+
+
+def exclude_glob_results(paths, excludes):
     def is_special(pat):
         return "*" in pat or "?" in pat or "[" in pat
 
@@ -158,7 +227,89 @@ def glob_internal(includes, excludes, include_dotfiles, search_base):
                 return True
         return False
 
-    return sorted(set([str(p) for p in includes_iterator() if not exclusion(p)]))
+    return sorted(set([str(p) for p in paths if not exclusion(p)]))
+
+
+class WatchmanError(Exception):
+    pass
+
+
+class WatchmanClient(object):
+    """
+    Queries the Watchman server for the files of the project, over a
+    connection to its unix socket that is opened on the first query and kept
+    for as long as buck.py runs. If Watchman cannot be reached, or the
+    connection fails, the client is no longer usable and glob() goes back to
+    walking the filesystem.
+    """
+
+    def __init__(self, project_root):
+        self._project_root = project_root
+        self._watch_root = None
+        self._relative_path = ''
+        self._sock = None
+        self._buffer = ''
+        self._usable = True
+
+    def is_usable(self):
+        return self._usable
+
+    def query_project(self, base_path, query):
+        """
+        Runs query, a dict of Watchman query parameters, on the directory at
+        base_path in the project, and returns the files that it finds with
+        their names relative to that directory.
+        """
+        if self._sock is None:
+            self._connect()
+        relative_root = '/'.join(
+            p for p in [self._relative_path, base_path] if p)
+        if relative_root:
+            query = dict(query, relative_root=relative_root)
+        try:
+            # An error in the response is only about this query, so it leaves
+            # the client usable.
+            return self._send(['query', self._watch_root, query])['files']
+        except (socket.error, KeyError, ValueError) as e:
+            self._disable(e)
+            raise WatchmanError(str(e))
+
+    def _connect(self):
+        try:
+            sockname = json.loads(subprocess.check_output(
+                ['watchman', '--no-pretty', 'get-sockname']))['sockname']
+            self._sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+            self._sock.connect(sockname)
+            watch = self._send(['watch-project', self._project_root])
+            self._watch_root = watch['watch']
+            self._relative_path = watch.get('relative_path', '')
+        except (WatchmanError, socket.error, OSError,
+                subprocess.CalledProcessError, KeyError, ValueError) as e:
+            self._disable(e)
+            raise WatchmanError(str(e))
+
+    def _send(self, command):
+        self._sock.sendall(json.dumps(command) + '\n')
+        while '\n' not in self._buffer:
+            chunk = self._sock.recv(65536)
+            if not chunk:
+                raise socket.error('Watchman closed the connection.')
+            self._buffer += chunk
+        response, self._buffer = self._buffer.split('\n', 1)
+        result = json.loads(response)
+        if 'error' in result:
+            raise WatchmanError(result['error'])
+        return result
+
+    def _disable(self, error):
+        if self._usable:
+            print >> sys.stderr, (
+                'Watchman is unavailable, so glob() will walk the '
+                'filesystem instead: %s' % error)
+        self._usable = False
+        if self._sock is not None:
+            self._sock.close()
+            self._sock = None
 
 
 @provide_for_build
@@ -198,12 +349,14 @@ def add_deps(name, deps=[], build_env=None):
 
 class BuildFileProcessor(object):
 
-    def __init__(self, project_root, implicit_includes=[]):
+    def __init__(self, project_root, implicit_includes=[],
+                 watchman_client=None):
         self._cache = {}
         self._build_env_stack = []
 
         self._project_root = project_root
         self._implicit_includes = implicit_includes
+        self._watchman_client = watchman_client
 
         lazy_functions = {}
         for func in BUILD_FUNCTIONS:
@@ -378,7 +531,8 @@ class BuildFileProcessor(object):
         len_suffix = -len('/' + BUILD_RULES_FILE_NAME)
         base_path = relative_path_to_build_file[:len_suffix]
         dirname = os.path.dirname(path)
-        build_env = BuildFileContext(base_path, dirname)
+        build_env = BuildFileContext(
+            base_path, dirname, watchman_client=self._watchman_client)
 
         return self._process(
             build_env,
@@ -431,15 +585,25 @@ def main():
         action='store_true',
         dest='server',
         help='Invoke as a server to parse individual BUCK files on demand.')
+    parser.add_option(
+        '--use_watchman_glob',
+        action='store_true',
+        dest='use_watchman_glob',
+        help='Ask Watchman for the files that glob() matches.')
     (options, args) = parser.parse_args()
 
     # Even though project_root is absolute path, it may not be concise. For
     # example, it might be like "C:\project\.\rule".
     project_root = os.path.abspath(options.project_root)
 
+    watchman_client = None
+    if options.use_watchman_glob:
+        watchman_client = WatchmanClient(project_root)
+
     buildFileProcessor = BuildFileProcessor(
         project_root,
-        implicit_includes=options.include or [])
+        implicit_includes=options.include or [],
+        watchman_client=watchman_client)
 
     for build_file in args:
         values = buildFileProcessor.process(build_file)
@@ -1,4 +1,4 @@
-from buck import glob_internal, LazyBuildEnvPartial
+from buck import glob_internal, glob_watchman, LazyBuildEnvPartial
 from pathlib import Path, PurePosixPath
 import os
 import shutil
@@ -26,6 +26,16 @@ def fake_path(path, glob_results={}):
     return result
 
 
+class FakeWatchmanClient(object):
+    def __init__(self, files):
+        self.files = files
+        self.queries = []
+
+    def query_project(self, base_path, query):
+        self.queries.append((base_path, query))
+        return [{'name': name, 'type': 'f'} for name in self.files]
+
+
 def split_path(path):
     """Splits /foo/bar/baz.java into ['', 'foo', 'bar', 'baz.java']."""
     return path.split('/')
@@ -171,6 +181,64 @@ class TestBuck(unittest.TestCase):
         finally:
             shutil.rmtree(d)
 
+    def test_glob_watchman_queries_the_includes(self):
+        client = FakeWatchmanClient(['A.java', 'bar/B.java'])
+        self.assertEqual(
+            ['A.java', 'bar/B.java'],
+            glob_watchman(
+                includes=['*.java', 'bar/*.java'],
+                excludes=[],
+                include_dotfiles=False,
+                base_path='foo',
+                dirname='/project/foo',
+                watchman_client=client))
+        base_path, query = client.queries[0]
+        self.assertEqual('foo', base_path)
+        self.assertEqual(
+            ['anyof',
+             ['match', '*.java', 'wholename', {'includedotfiles': True}],
+             ['match', 'bar/*.java', 'wholename', {'includedotfiles': True}]],
+            query['expression'][2])
+
+    def test_glob_watchman_excludes_and_skips_dotfiles(self):
+        client = FakeWatchmanClient(
+            ['A.java', 'B.java', 'Test.java', '.C.java', 'bar/BarTest.java'])
+        self.assertEqual(
+            ['A.java', 'B.java'],
+            glob_watchman(
+                includes=['**/*.java'],
+                excludes=['**/*Test.java'],
+                include_dotfiles=False,
+                base_path='foo',
+                dirname='/project/foo',
+                watchman_client=client))
+
+    def test_glob_watchman_handles_non_ascii_names(self):
+        client = FakeWatchmanClient([u'\u00e9t\u00e9.txt', u'A.txt'])
+        self.assertEqual(
+            ['A.txt',
+             u'\u00e9t\u00e9.txt'.encode(sys.getfilesystemencoding() or 'utf-8')],
+            glob_watchman(
+                includes=['*.txt'],
+                excludes=[],
+                include_dotfiles=False,
+                base_path='foo',
+                dirname='/project/foo',
+                watchman_client=client))
+
+    def test_glob_watchman_does_not_query_without_includes(self):
+        client = FakeWatchmanClient(['A.java'])
+        self.assertEqual(
+            [],
+            glob_watchman(
+                includes=[],
+                excludes=[],
+                include_dotfiles=False,
+                base_path='foo',
+                dirname='/project/foo',
+                watchman_client=client))
+        self.assertEqual([], client.queries)
+
     def test_lazy_build_env_partial(self):
         def cobol_binary(
                 name,
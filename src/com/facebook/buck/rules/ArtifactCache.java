@@ -16,8 +16,12 @@
 
 package com.facebook.buck.rules;
 
+import com.google.common.collect.ImmutableSet;
+
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 
 public interface ArtifactCache extends Closeable {
   /**
@@ -30,6 +34,21 @@ public interface ArtifactCache extends Closeable {
    */
   public CacheResult fetch(RuleKey ruleKey, File output) throws InterruptedException;
 
+  /**
+   * Fetch a cached artifact, keyed by ruleKey, and restore the files that it contains under root,
+   * overwriting existing files. Caches that can do so restore the files directly, without
+   * producing the intermediate zip that {@link #fetch(RuleKey, File)} returns; all others use
+   * {@link ArtifactCaches#fetchAndExtractViaZip(ArtifactCache, RuleKey, Path)}.
+   *
+   * @param ruleKey cache fetch key
+   * @param root directory that the paths in the artifact are relative to
+   * @return whether it was a {@link CacheResult#MISS} (indicating a failure) or some type of hit.
+   * @throws IOException if the artifact was found, but could not be restored. Files under root may
+   *     have been partially overwritten.
+   */
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root)
+      throws InterruptedException, IOException;
+
   /**
    * Store the artifact at path specified by output to cache, such that it can later be fetched
    * using ruleKey as the lookup key.  If any internal errors occur, fail silently and continue
@@ -42,6 +61,33 @@ public interface ArtifactCache extends Closeable {
    */
   public void store(RuleKey ruleKey, File output) throws InterruptedException;
 
+  /**
+   * Store the artifact packed by packer, such that it can later be fetched using ruleKey as the
+   * lookup key. Caches that can do so pack the artifact straight to where they keep it; all others
+   * use {@link ArtifactCaches#storeViaZip(ArtifactCache, RuleKey, ArtifactPacker,
+   * ArtifactCompression)}, packing at the compression configured for the cache. Errors in the cache
+   * itself are handled as in {@link #store(RuleKey, File)}.
+   * <p>
+   * This is a noop if {@link #isStoreSupported()} returns {@code false}.
+   *
+   * @param ruleKey cache store key
+   * @param packer writes the artifact
+   * @throws IOException if packer failed.
+   */
+  public void store(RuleKey ruleKey, ArtifactPacker packer)
+      throws InterruptedException, IOException;
+
+  /**
+   * Determine which of the given keys may have an artifact in this cache, using as few round trips
+   * as possible. A key that is not returned is known to be a miss, so a cache that cannot answer
+   * cheaply should return all of {@code ruleKeys}.
+   *
+   * @param ruleKeys cache fetch keys
+   * @return the subset of {@code ruleKeys} that {@link #fetch(RuleKey, File)} may find.
+   */
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException;
+
   /**
    * This method must return the same value over the lifetime of this object.
    * @return whether this{@link ArtifactCache} supports storing artifacts.
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.zip.Unzip;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Utility methods shared by {@link ArtifactCache} implementations.
+ */
+public class ArtifactCaches {
+
+  private static final Logger LOG = Logger.get(ArtifactCaches.class);
+
+  /** Utility class: do not instantiate. */
+  private ArtifactCaches() {}
+
+  /**
+   * Implements {@link ArtifactCache#fetchAndExtract(RuleKey, Path)} for caches that can only
+   * return an artifact as a zip: fetch the zip to a temp file and unzip it under root.
+   */
+  public static CacheResult fetchAndExtractViaZip(
+      ArtifactCache artifactCache,
+      RuleKey ruleKey,
+      Path root) throws InterruptedException, IOException {
+    File zipFile = createTempZip(ruleKey);
+    return extractFetchedZip(ruleKey, artifactCache.fetch(ruleKey, zipFile), zipFile, root);
+  }
+
+  /**
+   * @return a new temp file for the zip of the artifact for ruleKey. Its extension must be ".zip"
+   *     for Filesystems.newFileSystem() to infer that we are creating a zip-based FileSystem.
+   */
+  static File createTempZip(RuleKey ruleKey) throws IOException {
+    return File.createTempFile(ruleKey.toString(), ".zip");
+  }
+
+  /**
+   * Unzips zipFile, which was fetched with the given cacheResult, under root and deletes it. On a
+   * miss, only deletes it.
+   */
+  static CacheResult extractFetchedZip(
+      RuleKey ruleKey,
+      CacheResult cacheResult,
+      File zipFile,
+      Path root) throws IOException {
+    if (!cacheResult.isSuccess()) {
+      zipFile.delete();
+      return cacheResult;
+    }
+
+    try {
+      Unzip.extractZipFile(
+          zipFile.toPath().toAbsolutePath(),
+          root.toAbsolutePath(),
+          /* overwriteExistingFiles */ true);
+    } catch (IOException e) {
+      // Leave the zip around for debugging purposes.
+      LOG.warn(e, "Failed to unzip the artifact for %s at %s", ruleKey, zipFile);
+      throw e;
+    }
+    Files.delete(zipFile.toPath());
+    return cacheResult;
+  }
+
+  /**
+   * Implements {@link ArtifactCache#store(RuleKey, ArtifactPacker)} for caches that can only store
+   * an artifact from a file: pack it to a temp zip at the cache's compression and store that.
+   */
+  public static void storeViaZip(
+      ArtifactCache artifactCache,
+      RuleKey ruleKey,
+      ArtifactPacker packer,
+      ArtifactCompression compression) throws InterruptedException, IOException {
+    if (!artifactCache.isStoreSupported()) {
+      return;
+    }
+    File zipFile = File.createTempFile(ruleKey.toString(), ".zip");
+    try {
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(zipFile))) {
+        packer.writeTo(out, compression);
+      }
+      artifactCache.store(ruleKey, zipFile);
+    } finally {
+      Files.deleteIfExists(zipFile.toPath());
+    }
+  }
+}
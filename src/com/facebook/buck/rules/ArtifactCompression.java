@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import java.util.zip.Deflater;
+
+/**
+ * How hard an {@link ArtifactCache} asks an {@link ArtifactPacker} to compress the files of an
+ * artifact. Whatever the choice, files that are compressed already, such as jars, are stored
+ * without compressing them again.
+ */
+public enum ArtifactCompression {
+  /** Store every file as it is: cheapest to pack, largest to store. */
+  none(Deflater.NO_COMPRESSION),
+  /** Deflate at the fastest level, for caches on a fast disk. */
+  fast(Deflater.BEST_SPEED),
+  /** Deflate at the default level. */
+  normal(Deflater.DEFAULT_COMPRESSION),
+  /** Deflate at the slowest level, for caches on a slow network. */
+  best(Deflater.BEST_COMPRESSION),
+  ;
+
+  private final int compressionLevel;
+
+  private ArtifactCompression(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  /** @return the {@link Deflater} level for files that are not compressed already. */
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+}
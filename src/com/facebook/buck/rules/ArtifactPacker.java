@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Packs the files of an artifact as a zip on demand, so that an {@link ArtifactCache} can write it
+ * straight to where it is stored rather than to a temp file first.
+ */
+public interface ArtifactPacker {
+
+  /**
+   * Writes the zip of the artifact to out, which is left open. May be called more than once.
+   *
+   * @param compression how hard to compress the files of the artifact.
+   */
+  public void writeTo(OutputStream out, ArtifactCompression compression) throws IOException;
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+
+/**
+ * Snapshot of the state of the queue of an {@link AsyncUploadArtifactCache}, posted whenever an
+ * upload is queued or finishes.
+ */
+public class ArtifactUploadQueueEvent extends AbstractBuckEvent {
+
+  private final int queuedUploads;
+  private final long queuedBytes;
+  private final int finishedUploads;
+  private final long uploadedBytes;
+
+  public ArtifactUploadQueueEvent(
+      int queuedUploads,
+      long queuedBytes,
+      int finishedUploads,
+      long uploadedBytes) {
+    this.queuedUploads = queuedUploads;
+    this.queuedBytes = queuedBytes;
+    this.finishedUploads = finishedUploads;
+    this.uploadedBytes = uploadedBytes;
+  }
+
+  /** @return the number of uploads that are waiting or in progress. */
+  public int getQueuedUploads() {
+    return queuedUploads;
+  }
+
+  /** @return the total size of the artifacts that are waiting or in progress. */
+  public long getQueuedBytes() {
+    return queuedBytes;
+  }
+
+  /** @return the number of uploads that have finished so far. */
+  public int getFinishedUploads() {
+    return finishedUploads;
+  }
+
+  /** @return the total size of the artifacts whose uploads have finished so far. */
+  public long getUploadedBytes() {
+    return uploadedBytes;
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format(
+        "queued=%d (%d bytes), finished=%d (%d bytes)",
+        queuedUploads,
+        queuedBytes,
+        finishedUploads,
+        uploadedBytes);
+  }
+
+  @Override
+  public boolean isRelatedTo(BuckEvent event) {
+    return event instanceof ArtifactUploadQueueEvent;
+  }
+
+  @Override
+  public String getEventName() {
+    return "ArtifactUploadQueueEvent";
+  }
+}
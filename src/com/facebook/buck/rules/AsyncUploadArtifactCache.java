@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorator for an {@link ArtifactCache} that performs {@link #store(RuleKey, File)} on its own
+ * threads, so that build threads never wait for artifacts to be written to a slow cache.
+ * <p>
+ * The queue is bounded: once {@code maxQueuedUploads} uploads are waiting or in progress,
+ * {@link #store(RuleKey, File)} blocks until one of them finishes. {@link #close()} waits at most
+ * {@code flushTimeoutSeconds} for the queue to drain, then abandons the remaining uploads.
+ * <p>
+ * The state of the queue is posted to the {@link BuckEventBus} as
+ * {@link ArtifactUploadQueueEvent}s.
+ */
+public class AsyncUploadArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(AsyncUploadArtifactCache.class);
+
+  private final ArtifactCache delegate;
+  private final BuckEventBus eventBus;
+  private final ExecutorService uploadService;
+  private final Semaphore queueSlots;
+  private final long flushTimeoutSeconds;
+
+  /** Guards closing against queueing, since the upload service discards what it rejects. */
+  private final Object closeLock = new Object();
+  private final AtomicBoolean isClosed = new AtomicBoolean(false);
+  private final AtomicInteger uploadCount = new AtomicInteger(0);
+  private final AtomicInteger queuedUploads = new AtomicInteger(0);
+  private final AtomicLong queuedBytes = new AtomicLong(0);
+  private final AtomicInteger finishedUploads = new AtomicInteger(0);
+  private final AtomicLong uploadedBytes = new AtomicLong(0);
+
+  /**
+   * @param uploadService the service that performs the uploads. It is shut down by
+   *     {@link #close()}.
+   */
+  public AsyncUploadArtifactCache(
+      ArtifactCache delegate,
+      BuckEventBus eventBus,
+      ExecutorService uploadService,
+      int maxQueuedUploads,
+      long flushTimeoutSeconds) {
+    Preconditions.checkArgument(maxQueuedUploads > 0);
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.eventBus = Preconditions.checkNotNull(eventBus);
+    this.uploadService = Preconditions.checkNotNull(uploadService);
+    this.queueSlots = new Semaphore(maxQueuedUploads);
+    this.flushTimeoutSeconds = flushTimeoutSeconds;
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, File output) throws InterruptedException {
+    return delegate.fetch(ruleKey, output);
+  }
+
+  @Override
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root)
+      throws InterruptedException, IOException {
+    return delegate.fetchAndExtract(ruleKey, root);
+  }
+
+  /**
+   * Queues the upload and returns. The caller may delete output as soon as this returns, so the
+   * artifact is first hard linked (or, failing that, copied) to a file owned by the queue.
+   */
+  @Override
+  public void store(RuleKey ruleKey, File output) throws InterruptedException {
+    if (isClosed.get()) {
+      delegate.store(ruleKey, output);
+      return;
+    }
+
+    queueSlots.acquire();
+    Upload upload;
+    try {
+      upload = new Upload(ruleKey, stage(output), /* isRepacked */ false);
+    } catch (IOException e) {
+      queueSlots.release();
+      LOG.warn(e, "store(%s): unable to queue upload of %s, storing it directly", ruleKey, output);
+      delegate.store(ruleKey, output);
+      return;
+    }
+    queue(upload);
+  }
+
+  private void queue(Upload upload) {
+    queuedUploads.incrementAndGet();
+    queuedBytes.addAndGet(upload.sizeBytes);
+    postQueueEvent();
+    synchronized (closeLock) {
+      if (!isClosed.get()) {
+        uploadService.execute(upload);
+        return;
+      }
+    }
+    // close() ran while store() waited for a slot: upload on this thread instead, which also
+    // releases the slot and deletes the staged artifact.
+    LOG.debug("store(%s): the upload queue is closed, storing it directly", upload.ruleKey);
+    upload.run();
+  }
+
+  private Path stage(File output) throws IOException {
+    Path source = output.toPath();
+    Path staged = source.resolveSibling(
+        String.format("%s-%d.upload", source.getFileName(), uploadCount.incrementAndGet()));
+    try {
+      Files.createLink(staged, source);
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.copy(source, staged);
+    }
+    return staged;
+  }
+
+  /**
+   * The artifact has to be packed before store() returns, since the files that it contains may
+   * change afterwards, so pack it to a file and queue that. Compressing is left to the upload
+   * thread: the file is packed without compression, and repacked at the compression of the
+   * delegate as it is uploaded.
+   */
+  @Override
+  public void store(RuleKey ruleKey, ArtifactPacker packer)
+      throws InterruptedException, IOException {
+    if (isClosed.get() || !delegate.isStoreSupported()) {
+      delegate.store(ruleKey, packer);
+      return;
+    }
+
+    queueSlots.acquire();
+    Path staged = null;
+    Upload upload;
+    try {
+      staged = File.createTempFile(ruleKey.toString(), ".upload").toPath();
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(staged))) {
+        packer.writeTo(out, ArtifactCompression.none);
+      }
+      upload = new Upload(ruleKey, staged, /* isRepacked */ true);
+    } catch (IOException e) {
+      queueSlots.release();
+      if (staged != null) {
+        Files.deleteIfExists(staged);
+      }
+      throw e;
+    }
+    queue(upload);
+  }
+
+  @Override
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException {
+    return delegate.multiContains(ruleKeys);
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return delegate.isStoreSupported();
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (closeLock) {
+      isClosed.set(true);
+      uploadService.shutdown();
+    }
+    try {
+      if (!uploadService.awaitTermination(flushTimeoutSeconds, TimeUnit.SECONDS)) {
+        List<Runnable> abandoned = uploadService.shutdownNow();
+        LOG.warn(
+            "Gave up on %d artifact uploads after %d seconds",
+            queuedUploads.get(),
+            flushTimeoutSeconds);
+        for (Runnable runnable : abandoned) {
+          ((Upload) runnable).finish(/* isUploaded */ false);
+        }
+        // Give interrupted uploads a moment to delete their staged artifacts.
+        uploadService.awaitTermination(1, TimeUnit.SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    delegate.close();
+  }
+
+  private void postQueueEvent() {
+    eventBus.post(new ArtifactUploadQueueEvent(
+        queuedUploads.get(),
+        queuedBytes.get(),
+        finishedUploads.get(),
+        uploadedBytes.get()));
+  }
+
+  private class Upload implements Runnable {
+    private final RuleKey ruleKey;
+    private final Path staged;
+    private final boolean isRepacked;
+    private final long sizeBytes;
+
+    /**
+     * @param isRepacked whether staged is an uncompressed zip for the delegate to repack, rather
+     *     than a zip to store as it is.
+     */
+    private Upload(RuleKey ruleKey, Path staged, boolean isRepacked) throws IOException {
+      this.ruleKey = ruleKey;
+      this.staged = staged;
+      this.isRepacked = isRepacked;
+      this.sizeBytes = Files.size(staged);
+    }
+
+    @Override
+    public void run() {
+      boolean isUploaded = false;
+      try {
+        if (isRepacked) {
+          delegate.store(ruleKey, new RepackingArtifactPacker(staged));
+        } else {
+          delegate.store(ruleKey, staged.toFile());
+        }
+        isUploaded = true;
+      } catch (InterruptedException e) {
+        LOG.debug("store(%s): interrupted", ruleKey);
+        Thread.currentThread().interrupt();
+      } catch (IOException e) {
+        LOG.warn(e, "store(%s): unable to repack the artifact", ruleKey);
+      } catch (RuntimeException e) {
+        LOG.warn(e, "store(%s): upload failed", ruleKey);
+      } finally {
+        finish(isUploaded);
+      }
+    }
+
+    private void finish(boolean isUploaded) {
+      try {
+        Files.deleteIfExists(staged);
+      } catch (IOException e) {
+        LOG.debug(e, "Unable to delete staged artifact %s", staged);
+      }
+      queuedUploads.decrementAndGet();
+      queuedBytes.addAndGet(-sizeBytes);
+      if (isUploaded) {
+        finishedUploads.incrementAndGet();
+        uploadedBytes.addAndGet(sizeBytes);
+      }
+      queueSlots.release();
+      postQueueEvent();
+    }
+  }
+}
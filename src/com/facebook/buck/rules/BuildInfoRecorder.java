@@ -41,6 +41,7 @@ import com.google.gson.JsonPrimitive;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -160,7 +161,7 @@ public class BuildInfoRecorder {
   }
 
   /**
-   * Creates a zip file of the metadata and recorded artifacts and stores it in the artifact cache.
+   * Zips the metadata and recorded artifacts and stores them in the artifact cache.
    */
   public void performUploadToArtifactCache(ArtifactCache artifactCache, BuckEventBus eventBus)
       throws InterruptedException {
@@ -188,29 +189,35 @@ public class BuildInfoRecorder {
       throw new RuntimeException(e);
     }
 
-    ImmutableSet<Path> pathsToIncludeInZip = pathsToIncludeInZipBuilder.build();
-    File zip;
+    final ImmutableSet<Path> pathsToIncludeInZip = pathsToIncludeInZipBuilder.build();
+    long time = TimeUnit.MILLISECONDS.toSeconds(clock.currentTimeMillis());
+    String additionalArtifactInfo = String.format(
+        "build_id=%s\ntimestamp=%d\n%s\n",
+        buildId,
+        time,
+        artifactExtraData);
+    final ImmutableMap<Path, String> additionalFileContents =
+        ImmutableMap.of(PATH_TO_ARTIFACT_INFO, additionalArtifactInfo);
+
+    // The cache decides where the zip is written, so that it need not be staged in a temp file.
+    ArtifactPacker packer = new ArtifactPacker() {
+      @Override
+      public void writeTo(OutputStream out, ArtifactCompression compression) throws IOException {
+        projectFilesystem.createZip(
+            pathsToIncludeInZip,
+            out,
+            additionalFileContents,
+            compression.getCompressionLevel());
+      }
+    };
     try {
-      zip = File.createTempFile(buildTarget.getFullyQualifiedName().replace('/', '_'), ".zip");
-      long time = TimeUnit.MILLISECONDS.toSeconds(clock.currentTimeMillis());
-      String additionalArtifactInfo = String.format(
-          "build_id=%s\ntimestamp=%d\n%s\n",
-          buildId,
-          time,
-          artifactExtraData);
-      projectFilesystem.createZip(
-          pathsToIncludeInZip,
-          zip,
-          ImmutableMap.of(PATH_TO_ARTIFACT_INFO, additionalArtifactInfo));
+      artifactCache.store(ruleKey, packer);
     } catch (IOException e) {
       eventBus.post(ConsoleEvent.info("Failed to create zip for %s containing:\n%s",
           buildTarget,
           Joiner.on('\n').join(ImmutableSortedSet.copyOf(pathsToIncludeInZip))));
       e.printStackTrace();
-      return;
     }
-    artifactCache.store(ruleKey, zip);
-    zip.delete();
   }
 
   private List<Path> getEntries(final Path outputDirectory) throws IOException {
@@ -227,13 +234,13 @@ public class BuildInfoRecorder {
   }
 
   /**
-   * Fetches the artifact associated with the {@link #buildTarget} for this class and writes it to
-   * the specified {@code outputFile}.
+   * Fetches the artifact associated with the {@link #buildTarget} for this class and restores the
+   * files that it contains under {@code projectRoot}.
    */
-  public CacheResult fetchArtifactForBuildable(File outputFile, ArtifactCache artifactCache)
-      throws InterruptedException {
-    Preconditions.checkNotNull(outputFile);
-    return artifactCache.fetch(ruleKey, outputFile);
+  public CacheResult fetchArtifactForBuildable(Path projectRoot, ArtifactCache artifactCache)
+      throws InterruptedException, IOException {
+    Preconditions.checkNotNull(projectRoot);
+    return artifactCache.fetchAndExtract(ruleKey, projectRoot);
   }
 
   /**
@@ -24,7 +24,6 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepRunner;
 import com.facebook.buck.util.concurrent.MoreFutures;
-import com.facebook.buck.zip.Unzip;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -38,7 +37,6 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
@@ -127,10 +125,20 @@ public class CachingBuildEngine implements BuildEngine {
       for (BuildRule dep : rule.getDeps()) {
         builtDeps.add(build(context, dep));
       }
-      ListenableFuture<List<BuildRuleSuccess>> allBuiltDeps = Futures.allAsList(builtDeps);
+      final ListenableFuture<List<BuildRuleSuccess>> allBuiltDeps = Futures.allAsList(builtDeps);
+
+      // A rule that needs only some of its deps to build itself need not wait for the others.
+      ListenableFuture<List<BuildRuleSuccess>> builtDepsNeededToBuild = allBuiltDeps;
+      if (rule instanceof HasDepsNeededToBuild) {
+        List<ListenableFuture<BuildRuleSuccess>> neededDeps = Lists.newArrayList();
+        for (BuildRule dep : ((HasDepsNeededToBuild) rule).getDepsNeededToBuild()) {
+          neededDeps.add(build(context, dep));
+        }
+        builtDepsNeededToBuild = Futures.allAsList(neededDeps);
+      }
 
-      // Schedule this rule to build itself once all of the deps are built.
-      context.getStepRunner().addCallback(allBuiltDeps,
+      // Schedule this rule to build itself once the deps that it needs are built.
+      context.getStepRunner().addCallback(builtDepsNeededToBuild,
           new FutureCallback<List<BuildRuleSuccess>>() {
 
             private final BuckEventBus eventBus = context.getEventBus();
@@ -215,15 +223,27 @@ public class CachingBuildEngine implements BuildEngine {
                 }
               }
 
-              doHydrationAfterBuildStepsFinish(rule, result, onDiskBuildInfo);
+              doHydrationAfterBuildStepsFinish(rule, onDiskBuildInfo);
 
               // Do the post to the event bus immediately after the future is set so that the
               // build time measurement is as accurate as possible.
               logBuildRuleFinished(result);
 
-              // Only now that the rule should be in a completely valid state, resolve the future.
-              BuildRuleSuccess buildRuleSuccess = new BuildRuleSuccess(rule, result.getSuccess());
-              newFuture.set(buildRuleSuccess);
+              // Only now that the rule should be in a completely valid state, resolve the future,
+              // though not before all of its deps are built, as they are for any other rule.
+              final BuildRuleSuccess buildRuleSuccess =
+                  new BuildRuleSuccess(rule, result.getSuccess());
+              Futures.addCallback(allBuiltDeps, new FutureCallback<List<BuildRuleSuccess>>() {
+                @Override
+                public void onSuccess(List<BuildRuleSuccess> deps) {
+                  newFuture.set(buildRuleSuccess);
+                }
+
+                @Override
+                public void onFailure(Throwable failure) {
+                  newFuture.setException(failure);
+                }
+              });
 
               // Finally, upload to the artifact cache.
               if (success != null && success.shouldUploadResultingArtifact()) {
@@ -283,7 +303,8 @@ public class CachingBuildEngine implements BuildEngine {
 
 
   /**
-   * This method is invoked once all of this rule's dependencies are built.
+   * This method is invoked once all of this rule's dependencies are built, or, for a
+   * {@link HasDepsNeededToBuild}, once those that it needs are.
    * <p>
    * This method should be executed on a fresh Runnable in BuildContext's ListeningExecutorService,
    * so there is no reason to schedule new work in a new Runnable.
@@ -349,7 +370,6 @@ public class CachingBuildEngine implements BuildEngine {
     CacheResult cacheResult;
     if (shouldTryToFetchFromCache) {
       // Before deciding to build, check the ArtifactCache.
-      // The fetched file is now a ZIP file, so it needs to be unzipped.
       try {
         cacheResult = tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
             rule,
@@ -414,57 +434,21 @@ public class CachingBuildEngine implements BuildEngine {
       ArtifactCache artifactCache,
       Path projectRoot,
       BuildContext buildContext) throws InterruptedException {
-    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
-    // that we are creating a zip-based FileSystem.
-    File zipFile;
-    try {
-      zipFile = File.createTempFile(rule.getFullyQualifiedName().replace('/', '_'), ".zip");
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-
-    // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
-    // Then we could download directly from Cassandra into the on-disk cache and unzip it from
-    // there.
-    CacheResult cacheResult = buildInfoRecorder.fetchArtifactForBuildable(zipFile, artifactCache);
-    if (!cacheResult.isSuccess()) {
-      zipFile.delete();
-      return cacheResult;
-    }
-
-    // We unzip the file in the root of the project directory.
-    // Ideally, the following would work:
-    //
-    // Path pathToZip = Paths.get(zipFile.getAbsolutePath());
-    // FileSystem fs = FileSystems.newFileSystem(pathToZip, /* loader */ null);
-    // Path root = Iterables.getOnlyElement(fs.getRootDirectories());
-    // MoreFiles.copyRecursively(root, projectRoot);
-    //
-    // Unfortunately, this does not appear to work, in practice, because MoreFiles fails when trying
-    // to resolve a Path for a zip entry against a file Path on disk.
-
+    // The artifact is restored in the root of the project directory.
     try {
-      Unzip.extractZipFile(zipFile.toPath().toAbsolutePath(),
-          projectRoot.toAbsolutePath(),
-          /* overwriteExistingFiles */ true);
+      return buildInfoRecorder.fetchArtifactForBuildable(projectRoot, artifactCache);
     } catch (IOException e) {
       // In the wild, we have seen some inexplicable failures during this step. For now, we try to
       // give the user as much information as we can to debug the issue, but return CacheResult.MISS
       // so that Buck will fall back on doing a local build.
       buildContext.getEventBus().post(ConsoleEvent.warning(
-              "Failed to unzip the artifact for %s at %s.\n" +
+              "Failed to restore the artifact for %s.\n" +
                   "The rule will be built locally, " +
-                  "but here is the stacktrace of the failed unzip call:\n" +
-                  rule.getBuildTarget(),
-              zipFile.getAbsolutePath(),
+                  "but here is the stacktrace of the failed restore:\n%s",
+              rule.getBuildTarget(),
               Throwables.getStackTraceAsString(e)));
       return CacheResult.MISS;
     }
-
-    // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
-    // around for debugging purposes.
-    zipFile.delete();
-    return cacheResult;
   }
 
   /**
@@ -508,7 +492,6 @@ public class CachingBuildEngine implements BuildEngine {
   @VisibleForTesting
   public void doHydrationAfterBuildStepsFinish(
       BuildRule rule,
-      BuildResult result,
       OnDiskBuildInfo onDiskBuildInfo) {
     // Give the rule a chance to populate its internal data structures now that all of the
     // files should be in a valid state.
@@ -516,10 +499,6 @@ public class CachingBuildEngine implements BuildEngine {
     if (initializable != null) {
       doInitializeFromDisk(initializable, onDiskBuildInfo);
     }
-
-    // Only now that the rule should be in a completely valid state, resolve the future.
-    BuildRuleSuccess buildRuleSuccess = new BuildRuleSuccess(rule, result.getSuccess());
-    results.get(rule.getBuildTarget()).set(buildRuleSuccess);
   }
 
   /**
@@ -26,6 +26,7 @@ import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.FutureCallback;
@@ -127,6 +128,7 @@ public class CassandraArtifactCache implements ArtifactCache {
   private final Future<KeyspaceAndTtl> keyspaceAndTtlFuture;
   private final AtomicInteger numConnectionExceptionReports;
   private final boolean doStore;
+  private final ArtifactCompression compression;
   private final BuckEventBus buckEventBus;
   private final FileHashCache fileHashCache;
 
@@ -139,10 +141,17 @@ public class CassandraArtifactCache implements ArtifactCache {
       int port,
       int timeoutSeconds,
       boolean doStore,
+      ArtifactCompression compression,
       BuckEventBus buckEventBus,
       FileHashCache fileHashCache)
       throws ConnectionException {
-    this(timeoutSeconds, doStore, buckEventBus, fileHashCache, new AstyanaxContext.Builder()
+    this(
+        timeoutSeconds,
+        doStore,
+        compression,
+        buckEventBus,
+        fileHashCache,
+        new AstyanaxContext.Builder()
             .forCluster(CLUSTER_NAME)
             .forKeyspace(KEYSPACE_NAME)
             .withAstyanaxConfiguration(new AstyanaxConfigurationImpl()
@@ -163,10 +172,12 @@ public class CassandraArtifactCache implements ArtifactCache {
   CassandraArtifactCache(
       int timeoutSeconds,
       boolean doStore,
+      ArtifactCompression compression,
       BuckEventBus buckEventBus,
       FileHashCache fileHashCache,
       final AstyanaxContext<Keyspace> context) {
     this.doStore = doStore;
+    this.compression = Preconditions.checkNotNull(compression);
     this.buckEventBus = Preconditions.checkNotNull(buckEventBus);
     this.fileHashCache = Preconditions.checkNotNull(fileHashCache);
     this.numConnectionExceptionReports = new AtomicInteger(0);
@@ -346,6 +357,12 @@ public class CassandraArtifactCache implements ArtifactCache {
     return success;
   }
 
+  @Override
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root)
+      throws InterruptedException, IOException {
+    return ArtifactCaches.fetchAndExtractViaZip(this, ruleKey, root);
+  }
+
   @Override
   public void store(RuleKey ruleKey, File output) throws InterruptedException {
     if (!isStoreSupported()) {
@@ -445,6 +462,21 @@ public class CassandraArtifactCache implements ArtifactCache {
     }
   }
 
+  @Override
+  public void store(RuleKey ruleKey, ArtifactPacker packer)
+      throws InterruptedException, IOException {
+    ArtifactCaches.storeViaZip(this, ruleKey, packer, compression);
+  }
+
+  /**
+   * An artifact lives in a single column, so checking for its existence costs as much as fetching
+   * it. Report every key as possibly present and leave it to {@link #fetch(RuleKey, File)}.
+   */
+  @Override
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    return ruleKeys;
+  }
+
   @Override
   public boolean isStoreSupported() {
     return doStore;
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.MorePosixFilePermissions;
+import com.facebook.buck.zip.CustomZipEntry;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.Hashing;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Directory-based {@link ArtifactCache} that stores the files of an artifact by content rather than
+ * as a zip per {@link RuleKey}.
+ * <p>
+ * Each file is stored once as a blob named after the SHA-1 of its contents, so files that appear in
+ * the artifacts of many rules (or of many versions of the same rule) only take up space once.
+ * Each {@link RuleKey} maps to a manifest listing the blob, executable bit, and path of every file
+ * in its artifact:
+ * <pre>
+ *   cas/blobs/ab/abcdef...          (an executable blob has an ".x" suffix)
+ *   cas/manifests/&lt;rulekey&gt;          lines of "&lt;sha1&gt; &lt;x|-&gt; &lt;path&gt;"
+ * </pre>
+ * {@link #fetchAndExtract(RuleKey, Path)} restores files straight from the blobs, without building
+ * and unpacking a zip. With {@code useHardLinks}, a restored file is a hard link to its blob, which
+ * makes restoring a large artifact almost free. This relies on build steps replacing their outputs
+ * rather than writing into them, since writing into a restored file would also change the blob.
+ */
+public class ContentAddressedDirArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(ContentAddressedDirArtifactCache.class);
+
+  private static final String EXECUTABLE_SUFFIX = ".x";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int EXECUTABLE_MODE =
+      (int) MorePosixFilePermissions.toMode(EnumSet.of(PosixFilePermission.OWNER_EXECUTE));
+
+  private final Path blobsDir;
+  private final Path manifestsDir;
+  private final boolean doStore;
+  private final Optional<Long> maxCacheSizeBytes;
+  private final boolean useHardLinks;
+
+  public ContentAddressedDirArtifactCache(
+      File cacheDir,
+      boolean doStore,
+      Optional<Long> maxCacheSizeBytes,
+      boolean useHardLinks) throws IOException {
+    Path casDir = Preconditions.checkNotNull(cacheDir).toPath().resolve("cas");
+    this.blobsDir = casDir.resolve("blobs");
+    this.manifestsDir = casDir.resolve("manifests");
+    this.doStore = doStore;
+    this.maxCacheSizeBytes = Preconditions.checkNotNull(maxCacheSizeBytes);
+    this.useHardLinks = useHardLinks;
+    Files.createDirectories(blobsDir);
+    Files.createDirectories(manifestsDir);
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, File output) {
+    Optional<ImmutableList<ManifestEntry>> manifest = readManifestIfComplete(ruleKey);
+    if (!manifest.isPresent()) {
+      LOG.debug("Artifact fetch(%s, %s) cache miss", ruleKey, output.getPath());
+      return CacheResult.MISS;
+    }
+
+    try {
+      Files.createDirectories(output.toPath().getParent());
+      try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(output)) {
+        for (ManifestEntry entry : manifest.get()) {
+          CustomZipEntry zipEntry = new CustomZipEntry(entry.path);
+          if (entry.isExecutable) {
+            zipEntry.setExternalAttributes(EXECUTABLE_MODE << 16);
+          }
+          zip.putNextEntry(zipEntry);
+          Files.copy(getBlobPath(entry.sha1, entry.isExecutable), zip);
+          zip.closeEntry();
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact fetch(%s, %s) error", ruleKey, output.getPath());
+      return CacheResult.MISS;
+    }
+    LOG.debug("Artifact fetch(%s, %s) cache hit", ruleKey, output.getPath());
+    return CacheResult.DIR_HIT;
+  }
+
+  @Override
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root) throws IOException {
+    Optional<ImmutableList<ManifestEntry>> manifest = readManifestIfComplete(ruleKey);
+    if (!manifest.isPresent()) {
+      LOG.debug("Artifact fetchAndExtract(%s) cache miss", ruleKey);
+      return CacheResult.MISS;
+    }
+
+    Path absoluteRoot = root.toAbsolutePath();
+    for (ManifestEntry entry : manifest.get()) {
+      Path blob = getBlobPath(entry.sha1, entry.isExecutable);
+      Path target = absoluteRoot.resolve(entry.path);
+      Files.createDirectories(target.getParent());
+      // Never write through an existing file: it may be a hard link to a blob.
+      Files.deleteIfExists(target);
+      if (!useHardLinks || !tryCreateLink(target, blob)) {
+        Files.copy(blob, target);
+        if (entry.isExecutable) {
+          target.toFile().setExecutable(/* executable */ true, /* ownerOnly */ true);
+        }
+      }
+    }
+    LOG.debug("Artifact fetchAndExtract(%s) cache hit", ruleKey);
+    return CacheResult.DIR_HIT;
+  }
+
+  private boolean tryCreateLink(Path target, Path blob) {
+    try {
+      Files.createLink(target, blob);
+      return true;
+    } catch (IOException | UnsupportedOperationException e) {
+      // For example, the cache is on a different filesystem than the project.
+      LOG.debug(e, "Unable to link %s to %s, copying it instead", target, blob);
+      return false;
+    }
+  }
+
+  @Override
+  public void store(RuleKey ruleKey, File output) {
+    if (!doStore) {
+      return;
+    }
+    Path tmpManifest = null;
+    try {
+      List<String> lines = Lists.newArrayList();
+      try (ZipFile zip = new ZipFile(output)) {
+        Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+        while (entries.hasMoreElements()) {
+          ZipArchiveEntry entry = entries.nextElement();
+          if (entry.isDirectory()) {
+            continue;
+          }
+          boolean isExecutable =
+              MorePosixFilePermissions.fromMode(entry.getExternalAttributes() >> 16)
+                  .contains(PosixFilePermission.OWNER_EXECUTE);
+          String sha1 = storeBlob(zip, entry, isExecutable);
+          lines.add(new ManifestEntry(sha1, isExecutable, entry.getName()).toLine());
+        }
+      }
+
+      // As in DirArtifactCache, write to a temporary file and move it to its final location so
+      // that a partially written manifest never poses as a valid artifact. The blobs that it refers
+      // to have all been moved into place by now.
+      tmpManifest = Files.createTempFile(manifestsDir, ruleKey.toString(), TEMP_SUFFIX);
+      Files.write(tmpManifest, Joiner.on('\n').join(lines).getBytes(Charsets.UTF_8));
+      Files.move(tmpManifest, manifestsDir.resolve(ruleKey.toString()), REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact store(%s, %s) error", ruleKey, output.getPath());
+      deleteQuietly(tmpManifest);
+    }
+  }
+
+  /** @return the SHA-1 of the contents of entry, which are now stored as a blob. */
+  private String storeBlob(ZipFile zip, ZipArchiveEntry entry, boolean isExecutable)
+      throws IOException {
+    Path tmpBlob = Files.createTempFile(blobsDir, "blob", TEMP_SUFFIX);
+    try {
+      String sha1;
+      try (HashingInputStream input =
+               new HashingInputStream(Hashing.sha1(), zip.getInputStream(entry))) {
+        Files.copy(input, tmpBlob, REPLACE_EXISTING);
+        sha1 = input.hash().toString();
+      }
+
+      Path blob = getBlobPath(sha1, isExecutable);
+      if (Files.exists(blob)) {
+        // Bump the blob so that an eviction running in another process is less likely to pick it.
+        Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+      } else {
+        if (isExecutable) {
+          tmpBlob.toFile().setExecutable(/* executable */ true, /* ownerOnly */ true);
+        }
+        Files.createDirectories(blob.getParent());
+        // Blobs with the same name have the same contents, so it does not matter who wins a race.
+        Files.move(tmpBlob, blob, REPLACE_EXISTING);
+      }
+      return sha1;
+    } finally {
+      Files.deleteIfExists(tmpBlob);
+    }
+  }
+
+  /**
+   * The zip is only read back to split it into blobs, which are kept uncompressed, so there is no
+   * point in compressing it.
+   */
+  @Override
+  public void store(RuleKey ruleKey, ArtifactPacker packer)
+      throws InterruptedException, IOException {
+    ArtifactCaches.storeViaZip(this, ruleKey, packer, ArtifactCompression.none);
+  }
+
+  @Override
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableSet.Builder<RuleKey> present = ImmutableSet.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      if (Files.exists(manifestsDir.resolve(ruleKey.toString()))) {
+        present.add(ruleKey);
+      }
+    }
+    return present.build();
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return doStore;
+  }
+
+  @Override
+  public void close() {
+    // store() operation is synchronous - do nothing.
+  }
+
+  /**
+   * @param finished Signals that the build has finished.
+   */
+  @Subscribe
+  public synchronized void buildFinished(BuildEvent.Finished finished) {
+    deleteOldEntries();
+  }
+
+  /**
+   * Deletes the manifests that were least recently stored or restored until the blobs referenced by
+   * the remaining ones fit in {@code maxCacheSizeBytes}, then deletes the blobs that are no longer
+   * referenced.
+   */
+  @VisibleForTesting
+  void deleteOldEntries() {
+    if (!maxCacheSizeBytes.isPresent()) {
+      return;
+    }
+
+    List<Path> manifests = Lists.newArrayList();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(manifestsDir)) {
+      for (Path manifest : stream) {
+        if (!manifest.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+          manifests.add(manifest);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to list the manifests in %s", manifestsDir);
+      return;
+    }
+    Collections.sort(manifests, MOST_RECENTLY_MODIFIED_FIRST);
+
+    Set<Path> liveBlobs = Sets.newHashSet();
+    long currentSizeBytes = 0;
+    boolean isFull = false;
+    for (Path manifest : manifests) {
+      if (!isFull) {
+        try {
+          Set<Path> manifestBlobs = Sets.newHashSet();
+          long manifestSizeBytes = 0;
+          for (ManifestEntry entry : readManifest(manifest)) {
+            Path blob = getBlobPath(entry.sha1, entry.isExecutable);
+            if (!liveBlobs.contains(blob) && manifestBlobs.add(blob)) {
+              manifestSizeBytes += Files.size(blob);
+            }
+          }
+          if (currentSizeBytes + manifestSizeBytes <= maxCacheSizeBytes.get()) {
+            currentSizeBytes += manifestSizeBytes;
+            liveBlobs.addAll(manifestBlobs);
+            continue;
+          }
+        } catch (IOException e) {
+          // Unreadable, or missing some of its blobs: drop it.
+          LOG.debug(e, "Evicting incomplete manifest %s", manifest);
+        }
+        isFull = currentSizeBytes >= maxCacheSizeBytes.get();
+      }
+      deleteQuietly(manifest);
+    }
+
+    // A store() in another process may add a blob just before its manifest, so a blob swept here
+    // can leave a manifest that refers to a missing blob. Such a manifest is treated as a miss.
+    try (DirectoryStream<Path> shards = Files.newDirectoryStream(blobsDir)) {
+      for (Path shard : shards) {
+        if (!Files.isDirectory(shard)) {
+          continue;
+        }
+        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(shard)) {
+          for (Path blob : blobs) {
+            if (!liveBlobs.contains(blob)) {
+              deleteQuietly(blob);
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to sweep unreferenced blobs from %s", blobsDir);
+    }
+  }
+
+  /**
+   * @return the entries of the manifest for ruleKey, or absent if there is no manifest or some of
+   *     the blobs that it refers to have been evicted.
+   */
+  private Optional<ImmutableList<ManifestEntry>> readManifestIfComplete(RuleKey ruleKey) {
+    Path manifest = manifestsDir.resolve(ruleKey.toString());
+    ImmutableList<ManifestEntry> entries;
+    try {
+      entries = readManifest(manifest);
+    } catch (NoSuchFileException e) {
+      return Optional.absent();
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to read manifest %s", manifest);
+      return Optional.absent();
+    }
+
+    for (ManifestEntry entry : entries) {
+      if (!Files.exists(getBlobPath(entry.sha1, entry.isExecutable))) {
+        LOG.debug("Manifest %s refers to missing blob %s", manifest, entry.sha1);
+        return Optional.absent();
+      }
+    }
+
+    try {
+      // Eviction is by least recent use, and a restore is a use.
+      Files.setLastModifiedTime(manifest, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to touch manifest %s", manifest);
+    }
+    return Optional.of(entries);
+  }
+
+  private static ImmutableList<ManifestEntry> readManifest(Path manifest) throws IOException {
+    ImmutableList.Builder<ManifestEntry> entries = ImmutableList.builder();
+    for (String line : Files.readAllLines(manifest, Charsets.UTF_8)) {
+      if (!line.isEmpty()) {
+        entries.add(ManifestEntry.fromLine(line));
+      }
+    }
+    return entries.build();
+  }
+
+  @VisibleForTesting
+  Path getBlobPath(String sha1, boolean isExecutable) {
+    return blobsDir
+        .resolve(sha1.substring(0, 2))
+        .resolve(isExecutable ? sha1 + EXECUTABLE_SUFFIX : sha1);
+  }
+
+  private static void deleteQuietly(@Nullable Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      // If the file is now in use, we no longer want to delete it anyway.
+      LOG.debug(e, "Unable to delete %s", path);
+    }
+  }
+
+  private static final Comparator<Path> MOST_RECENTLY_MODIFIED_FIRST = new Comparator<Path>() {
+    @Override
+    public int compare(Path a, Path b) {
+      return Long.compare(b.toFile().lastModified(), a.toFile().lastModified());
+    }
+  };
+
+  private static class ManifestEntry {
+    private final String sha1;
+    private final boolean isExecutable;
+    private final String path;
+
+    private ManifestEntry(String sha1, boolean isExecutable, String path) {
+      this.sha1 = sha1;
+      this.isExecutable = isExecutable;
+      this.path = path;
+    }
+
+    private String toLine() {
+      return String.format("%s %s %s", sha1, isExecutable ? "x" : "-", path);
+    }
+
+    private static ManifestEntry fromLine(String line) throws IOException {
+      String[] parts = line.split(" ", 3);
+      if (parts.length != 3 || parts[0].length() < 2) {
+        throw new IOException(String.format("Malformed manifest line: '%s'", line));
+      }
+      return new ManifestEntry(parts[0], "x".equals(parts[1]), parts[2]);
+    }
+  }
+}
@@ -19,18 +19,22 @@ package com.facebook.buck.rules;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import com.facebook.buck.log.Logger;
-import com.facebook.buck.util.MoreFiles;
-import com.facebook.buck.util.collect.ArrayIterable;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.facebook.buck.zip.Unzip;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.Subscribe;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class DirArtifactCache implements ArtifactCache {
 
@@ -39,12 +43,26 @@ public class DirArtifactCache implements ArtifactCache {
   private final File cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final boolean doStore;
+  private final ArtifactCompression compression;
+  private final DirArtifactCacheIndex index;
+  private final ExecutorService evictionService;
 
   public DirArtifactCache(File cacheDir, boolean doStore, Optional<Long> maxCacheSizeBytes)
       throws IOException {
+    this(cacheDir, doStore, maxCacheSizeBytes, ArtifactCompression.fast);
+  }
+
+  public DirArtifactCache(
+      File cacheDir,
+      boolean doStore,
+      Optional<Long> maxCacheSizeBytes,
+      ArtifactCompression compression) throws IOException {
     this.cacheDir = Preconditions.checkNotNull(cacheDir);
     this.maxCacheSizeBytes = Preconditions.checkNotNull(maxCacheSizeBytes);
     this.doStore = doStore;
+    this.compression = Preconditions.checkNotNull(compression);
+    this.index = new DirArtifactCacheIndex(cacheDir);
+    this.evictionService = MoreExecutors.newSingleThreadExecutor("dir-artifact-cache-eviction");
     Files.createDirectories(cacheDir.toPath());
   }
 
@@ -56,6 +74,7 @@ public class DirArtifactCache implements ArtifactCache {
       try {
         Files.createDirectories(output.toPath().getParent());
         Files.copy(cacheEntry.toPath(), output.toPath(), REPLACE_EXISTING);
+        index.recordUse(cacheEntry.getName(), cacheEntry.length());
         success = CacheResult.DIR_HIT;
       } catch (IOException e) {
         LOG.warn(
@@ -73,6 +92,24 @@ public class DirArtifactCache implements ArtifactCache {
     return success;
   }
 
+  @Override
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root)
+      throws InterruptedException, IOException {
+    File cacheEntry = new File(cacheDir, ruleKey.toString());
+    if (!cacheEntry.exists()) {
+      LOG.debug("Artifact fetchAndExtract(%s) cache miss", ruleKey);
+      return CacheResult.MISS;
+    }
+    // Unzip straight from the cache entry rather than copying it out first.
+    Unzip.extractZipFile(
+        cacheEntry.toPath().toAbsolutePath(),
+        root.toAbsolutePath(),
+        /* overwriteExistingFiles */ true);
+    index.recordUse(cacheEntry.getName(), cacheEntry.length());
+    LOG.debug("Artifact fetchAndExtract(%s) cache hit", ruleKey);
+    return CacheResult.DIR_HIT;
+  }
+
   @Override
   public void store(RuleKey ruleKey, File output) {
     if (!doStore) {
@@ -87,6 +124,7 @@ public class DirArtifactCache implements ArtifactCache {
       tmpCacheEntry = File.createTempFile(ruleKey.toString(), ".tmp", cacheDir).toPath();
       Files.copy(output.toPath(), tmpCacheEntry, REPLACE_EXISTING);
       Files.move(tmpCacheEntry, cacheEntry.toPath(), REPLACE_EXISTING);
+      index.recordUse(cacheEntry.getName(), cacheEntry.length());
     } catch (IOException e) {
       LOG.warn(
           e,
@@ -104,6 +142,39 @@ public class DirArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Packs the artifact straight into the temporary file that becomes the cache entry, so it is
+   * written to disk only once.
+   */
+  @Override
+  public void store(RuleKey ruleKey, ArtifactPacker packer) throws IOException {
+    if (!doStore) {
+      return;
+    }
+    File cacheEntry = new File(cacheDir, ruleKey.toString());
+    Path tmpCacheEntry = File.createTempFile(ruleKey.toString(), ".tmp", cacheDir).toPath();
+    try {
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmpCacheEntry))) {
+        packer.writeTo(out, compression);
+      }
+      Files.move(tmpCacheEntry, cacheEntry.toPath(), REPLACE_EXISTING);
+      index.recordUse(cacheEntry.getName(), cacheEntry.length());
+    } finally {
+      Files.deleteIfExists(tmpCacheEntry);
+    }
+  }
+
+  @Override
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableSet.Builder<RuleKey> present = ImmutableSet.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      if (new File(cacheDir, ruleKey.toString()).exists()) {
+        present.add(ruleKey);
+      }
+    }
+    return present.build();
+  }
+
   /**
    * @return {@code true}: storing artifacts is always supported by this class.
    */
@@ -114,28 +185,53 @@ public class DirArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
-    // store() operation is synchronous - do nothing.
+    // store() operation is synchronous, but an eviction may still be running.
+    evictionService.shutdown();
+    try {
+      evictionService.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      index.close();
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to compact the index of artifact cache directory %s", cacheDir);
+    }
   }
 
   /**
    * @param finished Signals that the build has finished.
    */
   @Subscribe
-  public synchronized void buildFinished(BuildEvent.Finished finished) {
-    deleteOldFiles();
+  public void buildFinished(BuildEvent.Finished finished) {
+    // Eviction only needs the index, so it does not hold up the end of the build.
+    evictionService.submit(new Runnable() {
+      @Override
+      public void run() {
+        deleteOldFiles();
+      }
+    });
   }
 
   /**
-   * Deletes files that haven't been accessed recently from the directory cache.
+   * Deletes the least recently used entries from the directory cache until it fits in
+   * {@code maxCacheSizeBytes}.
    */
   @VisibleForTesting
   void deleteOldFiles() {
     if (!maxCacheSizeBytes.isPresent()) {
       return;
     }
-    for (File fileAccessedEntry : findFilesToDelete()) {
+    Iterable<String> namesToDelete;
+    try {
+      namesToDelete = index.evict(maxCacheSizeBytes.get());
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to read the index of artifact cache directory %s", cacheDir);
+      return;
+    }
+    for (String name : namesToDelete) {
       try {
-        Files.deleteIfExists(fileAccessedEntry.toPath());
+        Files.deleteIfExists(new File(cacheDir, name).toPath());
       } catch (IOException e) {
         // Eat any IOExceptions while attempting to clean up the cache directory.  If the file is
         // now in use, we no longer want to delete it.
@@ -143,24 +239,4 @@ public class DirArtifactCache implements ArtifactCache {
       }
     }
   }
-
-  private Iterable<File> findFilesToDelete() {
-    Preconditions.checkState(maxCacheSizeBytes.isPresent());
-    long maxSizeBytes = maxCacheSizeBytes.get();
-
-    File[] files = cacheDir.listFiles();
-    MoreFiles.sortFilesByAccessTime(files);
-
-    // Finds the first N from the list ordered by last access time who's combined size is less than
-    // maxCacheSizeBytes.
-    long currentSizeBytes = 0;
-    for (int i = 0; i < files.length; ++i) {
-      File file = files[i];
-      currentSizeBytes += file.length();
-      if (currentSizeBytes > maxSizeBytes) {
-        return ArrayIterable.of(files, i, files.length);
-      }
-    }
-    return ImmutableList.<File>of();
-  }
 }
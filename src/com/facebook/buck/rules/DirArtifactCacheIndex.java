@@ -0,0 +1,271 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.MoreFiles;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Persistent record of the size and last use of every entry in a {@link DirArtifactCache}, so that
+ * eviction does not have to list and stat the whole cache directory after every build.
+ * <p>
+ * The index is a journal in the cache directory with one line per event, oldest first:
+ * {@code + <name> <size>} when an entry is stored or fetched, and {@code - <name>} when it is
+ * deleted. Recording an event appends a line, and a journal is replayed incrementally: each call
+ * to {@link #evict(long)} only reads the lines appended since the previous one, including those
+ * appended by other Buck processes sharing the cache. Once the journal is much longer than the
+ * number of live entries, it is rewritten with one line per entry, either on eviction or, for a
+ * cache without a maximum size, which never evicts, on {@link #close()}.
+ * <p>
+ * A cache without a journal (for example, one written by an older version of Buck) is indexed by a
+ * single scan of the directory, ordered by last access time.
+ * <p>
+ * The index is best effort: a line appended by another process while this one rewrites the
+ * journal may be lost. The entry is indexed again the next time it is fetched, or when the journal
+ * is deleted.
+ */
+class DirArtifactCacheIndex {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  @VisibleForTesting
+  static final String INDEX_FILE_NAME = ".index";
+
+  /** DirArtifactCache writes entries to temporary files with this suffix before moving them. */
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final int MIN_LINES_TO_COMPACT = 1000;
+
+  private final File cacheDir;
+  private final Path indexFile;
+
+  /** Entry name to size in bytes, least recently used first, or {@code null} until loaded. */
+  @Nullable private LinkedHashMap<String, Long> entries;
+  private long totalSizeBytes;
+  private long readOffset;
+  private int journalLines;
+  @Nullable private Object journalFileKey;
+
+  DirArtifactCacheIndex(File cacheDir) {
+    this.cacheDir = Preconditions.checkNotNull(cacheDir);
+    this.indexFile = cacheDir.toPath().resolve(INDEX_FILE_NAME);
+  }
+
+  /** Records that the entry was stored or fetched, making it the most recently used. */
+  synchronized void recordUse(String name, long sizeBytes) {
+    append(String.format("+ %s %d\n", name, sizeBytes));
+  }
+
+  /**
+   * Removes the least recently used entries from the index until the remaining ones fit in
+   * maxSizeBytes.
+   *
+   * @return the names of the removed entries, which the caller should delete.
+   */
+  synchronized ImmutableList<String> evict(long maxSizeBytes) throws IOException {
+    catchUp();
+    Preconditions.checkNotNull(entries);
+
+    ImmutableList.Builder<String> evicted = ImmutableList.builder();
+    StringBuilder removals = new StringBuilder();
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (totalSizeBytes > maxSizeBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      totalSizeBytes -= entry.getValue();
+      iterator.remove();
+      evicted.add(entry.getKey());
+      removals.append("- ").append(entry.getKey()).append('\n');
+    }
+    if (removals.length() > 0) {
+      append(removals.toString());
+    }
+
+    compactIfLong();
+    return evicted.build();
+  }
+
+  /** Rewrites the journal if this process used the index and the journal has grown too long. */
+  synchronized void close() throws IOException {
+    if (entries != null) {
+      catchUp();
+      compactIfLong();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getTotalSizeBytes() throws IOException {
+    catchUp();
+    return totalSizeBytes;
+  }
+
+  private void append(String lines) {
+    try {
+      if (entries == null) {
+        // Make sure that entries written before the journal existed get indexed.
+        catchUp();
+      }
+      Files.write(indexFile, lines.getBytes(Charsets.UTF_8), CREATE, APPEND);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to update the artifact cache index %s", indexFile);
+    }
+  }
+
+  /** Replays the lines appended to the journal since it was last read. */
+  private void catchUp() throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(indexFile, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      seed();
+      return;
+    }
+
+    boolean isReplaced = journalFileKey != null && !journalFileKey.equals(attributes.fileKey());
+    if (entries == null || isReplaced || attributes.size() < readOffset) {
+      // First use, or another process rewrote the journal: replay it from the start.
+      entries = Maps.newLinkedHashMap();
+      totalSizeBytes = 0;
+      readOffset = 0;
+      journalLines = 0;
+    }
+    journalFileKey = attributes.fileKey();
+
+    byte[] bytes;
+    try (RandomAccessFile file = new RandomAccessFile(indexFile.toFile(), "r")) {
+      long available = file.length() - readOffset;
+      if (available <= 0) {
+        return;
+      }
+      bytes = new byte[(int) available];
+      file.seek(readOffset);
+      file.readFully(bytes);
+    }
+
+    // Leave a line that another process is still appending for next time.
+    int end = bytes.length;
+    while (end > 0 && bytes[end - 1] != '\n') {
+      end--;
+    }
+    for (String line : new String(bytes, 0, end, Charsets.UTF_8).split("\n")) {
+      apply(line);
+    }
+    readOffset += end;
+  }
+
+  private void apply(String line) {
+    Preconditions.checkNotNull(entries);
+    String[] parts = line.split(" ");
+    if (parts.length == 3 && parts[0].equals("+")) {
+      long sizeBytes;
+      try {
+        sizeBytes = Long.parseLong(parts[2]);
+      } catch (NumberFormatException e) {
+        LOG.debug("Ignoring malformed index line '%s'", line);
+        return;
+      }
+      remove(parts[1]);
+      entries.put(parts[1], sizeBytes);
+      totalSizeBytes += sizeBytes;
+    } else if (parts.length == 2 && parts[0].equals("-")) {
+      remove(parts[1]);
+    } else if (!line.isEmpty()) {
+      LOG.debug("Ignoring malformed index line '%s'", line);
+      return;
+    }
+    journalLines++;
+  }
+
+  private void remove(String name) {
+    Preconditions.checkNotNull(entries);
+    Long sizeBytes = entries.remove(name);
+    if (sizeBytes != null) {
+      totalSizeBytes -= sizeBytes;
+    }
+  }
+
+  private void compactIfLong() throws IOException {
+    Preconditions.checkNotNull(entries);
+    if (journalLines > 2 * entries.size() + MIN_LINES_TO_COMPACT) {
+      compact();
+    }
+  }
+
+  /** Indexes the cache directory by scanning it once, then writes the journal. */
+  private void seed() throws IOException {
+    LOG.debug("Indexing artifact cache directory %s", cacheDir);
+    entries = Maps.newLinkedHashMap();
+    totalSizeBytes = 0;
+
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      MoreFiles.sortFilesByAccessTime(files);
+      // Most recently accessed files are at the front, so add from the back.
+      for (int i = files.length - 1; i >= 0; i--) {
+        String name = files[i].getName();
+        if (files[i].isFile() && !name.equals(INDEX_FILE_NAME) && !name.endsWith(TEMP_SUFFIX)) {
+          entries.put(name, files[i].length());
+          totalSizeBytes += files[i].length();
+        }
+      }
+    }
+    compact();
+  }
+
+  /** Rewrites the journal with one line per live entry. */
+  private void compact() throws IOException {
+    Preconditions.checkNotNull(entries);
+    Path tmpIndexFile = Files.createTempFile(cacheDir.toPath(), INDEX_FILE_NAME, TEMP_SUFFIX);
+    try {
+      try (Writer writer = Files.newBufferedWriter(tmpIndexFile, Charsets.UTF_8)) {
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+          writer.write(String.format("+ %s %d\n", entry.getKey(), entry.getValue()));
+        }
+      }
+      Files.move(tmpIndexFile, indexFile, REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmpIndexFile);
+    }
+
+    BasicFileAttributes attributes = Files.readAttributes(indexFile, BasicFileAttributes.class);
+    journalFileKey = attributes.fileKey();
+    readOffset = attributes.size();
+    journalLines = entries.size();
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * {@link BuildRule} whose steps need only some of its deps to be built, such as a library that
+ * compiles against the ABI jars of its deps rather than their full jars. {@link CachingBuildEngine}
+ * starts to build it as soon as those deps are built, but it is not built until all of its deps
+ * are.
+ */
+public interface HasDepsNeededToBuild {
+
+  /**
+   * @return the deps that must be built before this rule can be, which are among its deps.
+   */
+  public ImmutableSortedSet<BuildRule> getDepsNeededToBuild();
+}
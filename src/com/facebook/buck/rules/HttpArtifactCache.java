@@ -19,19 +19,24 @@ package com.facebook.buck.rules;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.log.Logger;
-import com.facebook.buck.util.FileHashCache;
+import com.facebook.buck.rules.HttpArtifactCacheProtocol.ArtifactInputStream;
+import com.facebook.buck.rules.HttpArtifactCacheProtocol.ArtifactOutputStream;
 import com.facebook.buck.util.ProjectFilesystem;
-import com.google.common.hash.HashCode;
+import com.facebook.buck.zip.Unzip;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
 import com.google.common.base.Preconditions;
 
 import java.io.File;
 import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
-import java.io.NotSerializableException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
@@ -41,8 +46,11 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
+
 public class HttpArtifactCache implements ArtifactCache {
   /**
    * If the user is offline, then we do not want to print every connection failure that occurs.
@@ -52,6 +60,7 @@ public class HttpArtifactCache implements ArtifactCache {
   private static final int MAX_CONNECTION_FAILURE_REPORTS = 1;
   private static final String URL_TEMPLATE_FETCH = "http://%s:%d/artifact/key/%s";
   private static final String URL_TEMPLATE_STORE = "http://%s:%d/artifact/";
+  private static final String URL_TEMPLATE_CONTAINS = "http://%s:%d/artifact/contains";
   private static final Logger logger = Logger.get(HttpArtifactCache.class);
   private static final String BOUNDARY = "buckcacheFormPartBoundaryCHk4TK4bRHXDX0cICpSAbBXWzkXbtt";
 
@@ -60,52 +69,64 @@ public class HttpArtifactCache implements ArtifactCache {
   private final int port;
   private final int timeoutSeconds;
   private final boolean doStore;
+  private final ArtifactCompression compression;
   private final ProjectFilesystem projectFilesystem;
   private final BuckEventBus buckEventBus;
-  private final FileHashCache fileHashCache;
   private final String urlStore;
+  private final String urlContains;
+  private final AtomicBoolean isMultiContainsSupported;
 
   public HttpArtifactCache(
       String hostname,
       int port,
       int timeoutSeconds,
       boolean doStore,
+      ArtifactCompression compression,
       ProjectFilesystem projectFilesystem,
-      BuckEventBus buckEventBus,
-      FileHashCache fileHashCache) {
+      BuckEventBus buckEventBus) {
     Preconditions.checkNotNull(hostname);
     Preconditions.checkArgument(0 <= port && port < 65536);
     Preconditions.checkArgument(1 <= timeoutSeconds);
+    Preconditions.checkNotNull(compression);
     Preconditions.checkNotNull(projectFilesystem);
     Preconditions.checkNotNull(buckEventBus);
     this.hostname = hostname;
     this.port = port;
     this.timeoutSeconds = timeoutSeconds;
     this.doStore = doStore;
+    this.compression = compression;
     this.projectFilesystem = projectFilesystem;
     this.buckEventBus = buckEventBus;
-    this.fileHashCache = Preconditions.checkNotNull(fileHashCache);
     this.numConnectionExceptionReports = new AtomicInteger(0);
     this.urlStore = String.format(URL_TEMPLATE_STORE, hostname, port);
+    this.urlContains = String.format(URL_TEMPLATE_CONTAINS, hostname, port);
+    this.isMultiContainsSupported = new AtomicBoolean(true);
   }
 
   protected HttpURLConnection getConnection(String url) throws MalformedURLException, IOException {
     return (HttpURLConnection) new URL(url).openConnection();
   }
 
-  @Override
-  public CacheResult fetch(RuleKey ruleKey, File file) {
+  /**
+   * Requests the artifact for ruleKey.
+   *
+   * @return the response body, if the server has the artifact.
+   */
+  private Optional<InputStream> openFetch(RuleKey ruleKey) {
     String url = String.format(URL_TEMPLATE_FETCH, hostname, port, ruleKey.toString());
     HttpURLConnection connection;
     try {
       connection = getConnection(url);
       connection.setConnectTimeout(1000 * timeoutSeconds);
+      connection.setRequestProperty(
+          HttpArtifactCacheProtocol.VERSION_HEADER,
+          String.valueOf(HttpArtifactCacheProtocol.VERSION));
     } catch (MalformedURLException e) {
       logger.error(e, "fetch(%s): malformed URL: %s", ruleKey, url);
-      return CacheResult.MISS;
+      return Optional.absent();
     } catch (IOException e) {
       logger.warn(e, "fetch(%s): [init] IOException: %s", ruleKey, e.getMessage());
-      return CacheResult.MISS;
+      return Optional.absent();
     }
 
     int responseCode;
@@ -113,80 +134,144 @@ public class HttpArtifactCache implements ArtifactCache {
       responseCode = connection.getResponseCode();
     } catch (IOException e) {
       reportConnectionFailure(String.format("fetch(%s)", ruleKey), e);
-      return CacheResult.MISS;
+      return Optional.absent();
     }
 
     switch (responseCode) {
       case HttpURLConnection.HTTP_OK:
-        try (InputStream input = connection.getInputStream()) {
-
-          // Setup an object input stream to deserialize the hash code.
-          try (ObjectInputStream objectStream = new ObjectInputStream(input)) {
-
-            // First, extract the hash code from the beginning of the request data.
-            HashCode expectedHashCode;
-            try {
-              expectedHashCode = (HashCode) objectStream.readObject();
-            } catch (ClassNotFoundException | ClassCastException e) {
-              logger.warn("fetch(%s): could not deserialize artifact checksum", ruleKey);
-              return CacheResult.MISS;
-            }
-
-            // Setup a temporary file, which sits next to the destination, to write to and
-            // make sure all parent dirs exist.
-            Path path = file.toPath();
-            projectFilesystem.createParentDirs(path);
-            Path temp = projectFilesystem.createTempFile(
-                path.getParent(),
-                path.getFileName().toString(),
-                ".tmp");
-
-            // Write the remaining response data to the temp file.
-            projectFilesystem.copyToPath(input, temp, StandardCopyOption.REPLACE_EXISTING);
-
-            // Now form the checksum on the file we got and compare it to the checksum form the
-            // the HTTP header.  If it's incorrect, log this and return a miss.
-            HashCode actualHashCode = fileHashCache.get(temp);
-            if (!expectedHashCode.equals(actualHashCode)) {
-              logger.warn("fetch(%s): artifact had invalid checksum", ruleKey);
-              projectFilesystem.deleteFileAtPath(temp);
-              return CacheResult.MISS;
-            }
-
-            // Finally, move the temp file into it's final place.
-            projectFilesystem.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
-
-          }
+        try {
+          return Optional.of(connection.getInputStream());
         } catch (IOException e) {
-          logger.warn(e, "fetch(%s): [write] IOException: %s", ruleKey, e.getMessage());
-          return CacheResult.MISS;
+          logger.warn(e, "fetch(%s): [read] IOException: %s", ruleKey, e.getMessage());
+          return Optional.absent();
         }
-        logger.info("fetch(%s): cache hit", ruleKey);
-        return CacheResult.HTTP_HIT;
       case HttpURLConnection.HTTP_NOT_FOUND:
         logger.info("fetch(%s): cache miss", ruleKey);
-        return CacheResult.MISS;
+        return Optional.absent();
       default:
         logger.warn("fetch(%s): unexpected response: %d", ruleKey, responseCode);
+        return Optional.absent();
+    }
+  }
+
+  /**
+   * Checks the header of a fetched artifact.
+   *
+   * @throws IOException if the response is not an artifact for ruleKey.
+   */
+  private static ArtifactInputStream readArtifact(InputStream input, RuleKey ruleKey)
+      throws IOException {
+    ArtifactInputStream artifact = new ArtifactInputStream(input);
+    if (!ruleKey.equals(artifact.getRuleKey())) {
+      throw new IOException(
+          String.format("Server returned the artifact for %s", artifact.getRuleKey()));
+    }
+    if (artifact.getCompression() != HttpArtifactCacheProtocol.COMPRESSION_NONE) {
+      throw new IOException(
+          String.format("Unsupported artifact compression %d", artifact.getCompression()));
+    }
+    return artifact;
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, File file) {
+    Optional<InputStream> response = openFetch(ruleKey);
+    if (!response.isPresent()) {
+      return CacheResult.MISS;
+    }
+
+    Path temp = null;
+    try (InputStream input = response.get();
+         ArtifactInputStream artifact = readArtifact(input, ruleKey)) {
+      // Setup a temporary file, which sits next to the destination, to write to and
+      // make sure all parent dirs exist.
+      Path path = file.toPath();
+      projectFilesystem.createParentDirs(path);
+      temp = projectFilesystem.createTempFile(
+          path.getParent(),
+          path.getFileName().toString(),
+          ".tmp");
+
+      // Reading the whole artifact verifies its checksum.
+      projectFilesystem.copyToPath(artifact, temp, StandardCopyOption.REPLACE_EXISTING);
+
+      // Finally, move the temp file into it's final place.
+      projectFilesystem.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.warn(e, "fetch(%s): [write] IOException: %s", ruleKey, e.getMessage());
+      if (temp != null) {
+        projectFilesystem.deleteFileAtPath(temp);
+      }
+      return CacheResult.MISS;
+    }
+    logger.info("fetch(%s): cache hit", ruleKey);
+    return CacheResult.HTTP_HIT;
+  }
+
+  /**
+   * Unzips the response as it arrives rather than writing it to a temp file first. The checksum
+   * is verified once the whole artifact has been read, so on a mismatch some files may already
+   * have been overwritten: this is reported as an IOException, so that the rule gets rebuilt.
+   */
+  @Override
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root) throws IOException {
+    Optional<InputStream> response = openFetch(ruleKey);
+    if (!response.isPresent()) {
+      return CacheResult.MISS;
+    }
+
+    try (InputStream input = response.get()) {
+      ArtifactInputStream artifact;
+      try {
+        artifact = readArtifact(input, ruleKey);
+      } catch (IOException e) {
+        // Nothing has been extracted yet, so this is just a miss.
+        logger.warn(e, "fetch(%s): %s", ruleKey, e.getMessage());
         return CacheResult.MISS;
+      }
+      // This reads to the end of the artifact, which verifies its checksum.
+      Unzip.extractZipStream(artifact, root.toAbsolutePath());
+    }
+    logger.info("fetch(%s): cache hit", ruleKey);
+    return CacheResult.HTTP_HIT;
+  }
+
+  /** Sends the zip as it is, whatever the compression configured for this cache. */
+  @Override
+  public void store(RuleKey ruleKey, final File file) {
+    try {
+      store(ruleKey, new ArtifactPacker() {
+        @Override
+        public void writeTo(OutputStream out, ArtifactCompression compression)
+            throws IOException {
+          try (InputStream is = projectFilesystem.newFileInputStream(file.toPath())) {
+            ByteStreams.copy(is, out);
+          }
+        }
+      });
+    } catch (IOException e) {
+      logger.warn(e, "store(%s): could not read %s", ruleKey, file);
     }
   }
 
+  /**
+   * Packs the artifact straight into the request, which is sent in chunks, so that it need not be
+   * written to disk or held in memory first.
+   */
   @Override
-  public void store(RuleKey ruleKey, File file) {
+  public void store(RuleKey ruleKey, ArtifactPacker packer) throws IOException {
     if (!isStoreSupported()) {
       return;
     }
     String method = "POST";
     HttpURLConnection connection;
+    UploadOutputStream upload;
     try {
       connection = getConnection(urlStore);
       connection.setConnectTimeout(1000 * timeoutSeconds);
       connection.setRequestMethod(method);
-      prepareFileUpload(connection, file, ruleKey.toString());
-    } catch (NotSerializableException e) {
-      logger.error(e, "store(%s): could not write hash code: %s", ruleKey);
-      return;
+      connection.setChunkedStreamingMode(0);
+      upload = prepareUpload(connection);
     } catch (MalformedURLException e) {
       logger.error(e, "store(%s): malformed URL: %s", ruleKey, urlStore);
       return;
@@ -201,6 +286,17 @@ public class HttpArtifactCache implements ArtifactCache {
       return;
     }
 
+    try (OutputStream os = upload) {
+      writeUpload(os, ruleKey, packer, compression);
+    } catch (IOException e) {
+      if (upload.failure == null) {
+        // The packer failed, rather than the connection.
+        throw e;
+      }
+      logger.warn(e, "store(%s): IOException: %s", ruleKey, e.getMessage());
+      return;
+    }
+
     int responseCode;
     try {
       responseCode = connection.getResponseCode();
@@ -213,6 +309,78 @@ public class HttpArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Asks the server which of the keys it has in a single request. Servers that predate the
+   * {@code contains} request cannot answer, so every key is reported as possibly present.
+   */
+  @Override
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    if (ruleKeys.isEmpty() || !isMultiContainsSupported.get()) {
+      return ruleKeys;
+    }
+    String method = "POST";
+    HttpURLConnection connection;
+    try {
+      connection = getConnection(urlContains);
+      connection.setConnectTimeout(1000 * timeoutSeconds);
+      connection.setRequestMethod(method);
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+      try (OutputStream os = new BufferedOutputStream(connection.getOutputStream())) {
+        os.write(Joiner.on('\n').join(ruleKeys).getBytes(StandardCharsets.UTF_8));
+      }
+    } catch (MalformedURLException e) {
+      logger.error(e, "multiContains(): malformed URL: %s", urlContains);
+      return ruleKeys;
+    } catch (ProtocolException e) {
+      logger.error(e, "multiContains(): invalid protocol: %s", method);
+      return ruleKeys;
+    } catch (ConnectException e) {
+      reportConnectionFailure("multiContains()", e);
+      return ruleKeys;
+    } catch (IOException e) {
+      logger.warn(e, "multiContains(): [init] IOException: %s", e.getMessage());
+      return ruleKeys;
+    }
+
+    int responseCode;
+    try {
+      responseCode = connection.getResponseCode();
+    } catch (IOException e) {
+      reportConnectionFailure("multiContains()", e);
+      return ruleKeys;
+    }
+
+    switch (responseCode) {
+      case HttpURLConnection.HTTP_OK:
+        ImmutableSet.Builder<RuleKey> present = ImmutableSet.builder();
+        try (InputStream input = connection.getInputStream()) {
+          String response = CharStreams.toString(
+              new InputStreamReader(input, StandardCharsets.UTF_8));
+          for (String key : Splitter.on('\n').trimResults().omitEmptyStrings().split(response)) {
+            RuleKey ruleKey = new RuleKey(key);
+            if (ruleKeys.contains(ruleKey)) {
+              present.add(ruleKey);
+            }
+          }
+        } catch (IOException | IllegalArgumentException e) {
+          logger.warn(e, "multiContains(): could not read response: %s", e.getMessage());
+          return ruleKeys;
+        }
+        ImmutableSet<RuleKey> result = present.build();
+        logger.info("multiContains(): %d of %d keys present", result.size(), ruleKeys.size());
+        return result;
+      case HttpURLConnection.HTTP_NOT_FOUND:
+      case HttpURLConnection.HTTP_BAD_METHOD:
+        logger.info("multiContains(): not supported by server, disabling");
+        isMultiContainsSupported.set(false);
+        return ruleKeys;
+      default:
+        logger.warn("multiContains(): unexpected response: %d", responseCode);
+        return ruleKeys;
+    }
+  }
+
   @Override
   public boolean isStoreSupported() {
     return doStore;
@@ -236,33 +404,75 @@ public class HttpArtifactCache implements ArtifactCache {
     }
   }
 
-  private void prepareFileUpload(HttpURLConnection connection, File file, String key)
-      throws IOException {
+  private UploadOutputStream prepareUpload(HttpURLConnection connection) throws IOException {
     connection.setDoOutput(true);
     connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
     // The cache protocol requires we provide the number of artifacts being sent in the request
     connection.setRequestProperty("Buck-Artifact-Count", "1");
-    try (OutputStream os = new BufferedOutputStream(connection.getOutputStream());
-         InputStream is = projectFilesystem.newFileInputStream(file.toPath());) {
-      os.write(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.UTF_8));
-      os.write("Content-Disposition: form-data; name=\"key0\"\r\n\r\n".getBytes(
-            StandardCharsets.UTF_8));
-      os.write(key.getBytes(StandardCharsets.UTF_8));
-      os.write(("\r\n--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.UTF_8));
-      os.write("Content-Disposition: form-data; name=\"data0\"; filename=\"artifact\"\r\n"
-          .getBytes(StandardCharsets.UTF_8));
-      os.write("Content-Type: application/octet-stream\r\n\r\n".getBytes(StandardCharsets.UTF_8));
-
-      // Setup an object output stream to serialize the hash code.
-      try (ObjectOutputStream objectStream = new ObjectOutputStream(os)) {
-
-        // Grab the hash code of the file contents and serialize it to the beginning of the
-        // request data.
-        objectStream.writeObject(fileHashCache.get(file.toPath()));
-        objectStream.flush();
-
-        ByteStreams.copy(is, os);
-        os.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    connection.setRequestProperty(
+        HttpArtifactCacheProtocol.VERSION_HEADER,
+        String.valueOf(HttpArtifactCacheProtocol.VERSION));
+    return new UploadOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+  }
+
+  private static void writeUpload(
+      OutputStream os,
+      RuleKey ruleKey,
+      ArtifactPacker packer,
+      ArtifactCompression compression) throws IOException {
+    os.write(("--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.UTF_8));
+    os.write("Content-Disposition: form-data; name=\"key0\"\r\n\r\n".getBytes(
+          StandardCharsets.UTF_8));
+    os.write(ruleKey.toString().getBytes(StandardCharsets.UTF_8));
+    os.write(("\r\n--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.UTF_8));
+    os.write("Content-Disposition: form-data; name=\"data0\"; filename=\"artifact\"\r\n"
+        .getBytes(StandardCharsets.UTF_8));
+    os.write("Content-Type: application/octet-stream\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+    try (ArtifactOutputStream artifact =
+             new ArtifactOutputStream(os, ruleKey, HttpArtifactCacheProtocol.COMPRESSION_NONE)) {
+      packer.writeTo(artifact, compression);
+    }
+    os.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Remembers whether writing to the connection failed, to tell failures to send an artifact from
+   * failures to pack it.
+   */
+  private static class UploadOutputStream extends FilterOutputStream {
+    @Nullable private IOException failure;
+
+    private UploadOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      try {
+        out.write(b);
+      } catch (IOException e) {
+        failure = e;
+        throw e;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        out.write(b, off, len);
+      } catch (IOException e) {
+        failure = e;
+        throw e;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        failure = e;
+        throw e;
       }
     }
   }
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The binary format in which {@link HttpArtifactCache} sends and receives artifacts. All integers
+ * are big-endian:
+ * <pre>
+ *   magic       4 bytes   "BKAC"
+ *   version     1 byte    1
+ *   flags       1 byte    low 4 bits: compression codec of the data, 0 for none
+ *   key length  2 bytes
+ *   key         UTF-8 rule key
+ *   data        chunks, each a 4 byte length followed by that many bytes, ending with an empty
+ *               chunk
+ *   hash length 1 byte
+ *   hash        SHA-1 of the data as sent
+ * </pre>
+ * Chunking lets the writer stream an artifact of unknown size, and putting the hash after the data
+ * lets it be computed on the fly. Readers check the header before returning any data, every chunk
+ * length as it is read, and the hash as soon as the last chunk has been read.
+ */
+public class HttpArtifactCacheProtocol {
+
+  /** Request header with which clients announce the version of the format they speak. */
+  public static final String VERSION_HEADER = "Buck-Artifact-Protocol";
+  public static final int VERSION = 1;
+
+  public static final int COMPRESSION_NONE = 0;
+
+  private static final byte[] MAGIC = {'B', 'K', 'A', 'C'};
+  private static final int COMPRESSION_MASK = 0x0f;
+  private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+  private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+
+  /** Utility class: do not instantiate. */
+  private HttpArtifactCacheProtocol() {}
+
+  /**
+   * Frames the bytes written to it as an artifact. {@link #close()} ends the frame, but leaves the
+   * underlying stream open.
+   */
+  public static class ArtifactOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final Hasher hasher = Hashing.sha1().newHasher();
+    private final byte[] chunk = new byte[WRITE_CHUNK_SIZE];
+    private int chunkLength;
+    private boolean isClosed;
+
+    public ArtifactOutputStream(OutputStream out, RuleKey ruleKey, int flags) throws IOException {
+      Preconditions.checkArgument((flags & ~COMPRESSION_MASK) == 0, "Unknown flags %s", flags);
+      this.out = new DataOutputStream(Preconditions.checkNotNull(out));
+      byte[] key = ruleKey.toString().getBytes(StandardCharsets.UTF_8);
+      this.out.write(MAGIC);
+      this.out.writeByte(VERSION);
+      this.out.writeByte(flags);
+      this.out.writeShort(key.length);
+      this.out.write(key);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      Preconditions.checkState(!isClosed);
+      while (len > 0) {
+        int copied = Math.min(len, chunk.length - chunkLength);
+        System.arraycopy(b, off, chunk, chunkLength, copied);
+        chunkLength += copied;
+        off += copied;
+        len -= copied;
+        if (chunkLength == chunk.length) {
+          writeChunk();
+        }
+      }
+    }
+
+    private void writeChunk() throws IOException {
+      if (chunkLength == 0) {
+        return;
+      }
+      hasher.putBytes(chunk, 0, chunkLength);
+      out.writeInt(chunkLength);
+      out.write(chunk, 0, chunkLength);
+      chunkLength = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writeChunk();
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      isClosed = true;
+      writeChunk();
+      out.writeInt(0);
+      byte[] hash = hasher.hash().asBytes();
+      out.writeByte(hash.length);
+      out.write(hash);
+      out.flush();
+    }
+  }
+
+  /**
+   * Reads the data of an artifact framed by an {@link ArtifactOutputStream}. Reading past the
+   * last byte of data verifies the hash, and throws an {@link IOException} if it does not match.
+   * {@link #close()} leaves the underlying stream open.
+   */
+  public static class ArtifactInputStream extends InputStream {
+    private final DataInputStream in;
+    private final RuleKey ruleKey;
+    private final int flags;
+    private final Hasher hasher = Hashing.sha1().newHasher();
+    private int remainingInChunk;
+    private boolean isEndOfData;
+
+    /**
+     * Reads and checks the header of the artifact.
+     *
+     * @throws IOException if the stream does not start with a header of a version of the format
+     *     that this class supports.
+     */
+    public ArtifactInputStream(InputStream in) throws IOException {
+      this.in = new DataInputStream(Preconditions.checkNotNull(in));
+      byte[] magic = new byte[MAGIC.length];
+      this.in.readFully(magic);
+      if (!Arrays.equals(MAGIC, magic)) {
+        throw new IOException("Not an artifact: bad magic number");
+      }
+      int version = this.in.readUnsignedByte();
+      if (version != VERSION) {
+        throw new IOException(String.format("Unsupported artifact format version %d", version));
+      }
+      this.flags = this.in.readUnsignedByte();
+      if ((flags & ~COMPRESSION_MASK) != 0) {
+        throw new IOException(String.format("Unsupported artifact flags %d", flags));
+      }
+      byte[] key = new byte[this.in.readUnsignedShort()];
+      this.in.readFully(key);
+      try {
+        this.ruleKey = new RuleKey(new String(key, StandardCharsets.UTF_8));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Malformed artifact rule key", e);
+      }
+    }
+
+    public RuleKey getRuleKey() {
+      return ruleKey;
+    }
+
+    /** @return the compression codec that the data was written with. */
+    public int getCompression() {
+      return flags & COMPRESSION_MASK;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int read = read(b, 0, 1);
+      return read == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (remainingInChunk == 0) {
+        if (isEndOfData) {
+          return -1;
+        }
+        readChunkHeader();
+      }
+      int read = in.read(b, off, Math.min(len, remainingInChunk));
+      if (read == -1) {
+        throw new EOFException("Artifact ended in the middle of a chunk");
+      }
+      hasher.putBytes(b, off, read);
+      remainingInChunk -= read;
+      return read;
+    }
+
+    private void readChunkHeader() throws IOException {
+      int length = in.readInt();
+      if (length < 0 || length > MAX_CHUNK_SIZE) {
+        throw new IOException(String.format("Invalid artifact chunk length %d", length));
+      }
+      if (length > 0) {
+        remainingInChunk = length;
+        return;
+      }
+
+      isEndOfData = true;
+      byte[] expected = new byte[in.readUnsignedByte()];
+      in.readFully(expected);
+      HashCode actual = hasher.hash();
+      if (!Arrays.equals(expected, actual.asBytes())) {
+        throw new IOException(String.format(
+            "Artifact for %s had invalid checksum: expected %s, got %s",
+            ruleKey,
+            BaseEncoding.base16().lowerCase().encode(expected),
+            actual));
+      }
+    }
+
+    @Override
+    public void close() {
+      // The underlying stream belongs to the caller.
+    }
+  }
+}
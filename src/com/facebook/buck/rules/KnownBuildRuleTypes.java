@@ -51,6 +51,7 @@ import com.facebook.buck.file.Downloader;
 import com.facebook.buck.file.RemoteFileDescription;
 import com.facebook.buck.gwt.GwtBinaryDescription;
 import com.facebook.buck.java.JavaBinaryDescription;
+import com.facebook.buck.java.JavaBuckConfig;
 import com.facebook.buck.java.JavaCompilerEnvironment;
 import com.facebook.buck.java.JavaLibraryDescription;
 import com.facebook.buck.java.JavaTestDescription;
@@ -238,7 +239,12 @@ public class KnownBuildRuleTypes {
     builder.register(new GwtBinaryDescription());
     builder.register(new KeystoreDescription());
     builder.register(new JavaBinaryDescription());
-    builder.register(new JavaLibraryDescription(javacEnv));
+    JavaBuckConfig javaConfig = new JavaBuckConfig(config);
+    builder.register(
+        new JavaLibraryDescription(
+            javacEnv,
+            javaConfig.isIncrementalCompilationEnabled(),
+            javaConfig.isCompilingAgainstAbiJarsEnabled()));
     builder.register(new JavaTestDescription(javacEnv));
     builder.register(new AppleLibraryDescription(cxxPlatform));
     builder.register(new AppleBinaryDescription());
@@ -17,9 +17,11 @@ package com.facebook.buck.rules;
 
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * Decorator for wrapping a {@link ArtifactCache} to log a {@link ArtifactCacheEvent} for the start
@@ -46,6 +48,22 @@ public class LoggingArtifactCacheDecorator {
         return fetchResult;
       }
 
+      @Override
+      public CacheResult fetchAndExtract(RuleKey ruleKey, Path root)
+          throws InterruptedException, IOException {
+        eventBus.post(ArtifactCacheEvent.started(ArtifactCacheEvent.Operation.FETCH,
+            ruleKey));
+        CacheResult fetchResult = CacheResult.MISS;
+        try {
+          fetchResult = delegate.fetchAndExtract(ruleKey, root);
+        } finally {
+          eventBus.post(ArtifactCacheEvent.finished(ArtifactCacheEvent.Operation.FETCH,
+              ruleKey,
+              fetchResult));
+        }
+        return fetchResult;
+      }
+
       @Override
       public void store(RuleKey ruleKey, File output)
           throws InterruptedException {
@@ -56,6 +74,25 @@ public class LoggingArtifactCacheDecorator {
             ruleKey));
       }
 
+      @Override
+      public void store(RuleKey ruleKey, ArtifactPacker packer)
+          throws InterruptedException, IOException {
+        eventBus.post(ArtifactCacheEvent.started(ArtifactCacheEvent.Operation.STORE,
+            ruleKey));
+        try {
+          delegate.store(ruleKey, packer);
+        } finally {
+          eventBus.post(ArtifactCacheEvent.finished(ArtifactCacheEvent.Operation.STORE,
+              ruleKey));
+        }
+      }
+
+      @Override
+      public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys)
+          throws InterruptedException {
+        return delegate.multiContains(ruleKeys);
+      }
+
       @Override
       public boolean isStoreSupported() {
         return delegate.isStoreSupported();
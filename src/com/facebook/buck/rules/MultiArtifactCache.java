@@ -16,23 +16,63 @@
 
 package com.facebook.buck.rules;
 
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.Nullable;
 
 /**
  * MultiArtifactCache encapsulates a set of ArtifactCache instances such that fetch() succeeds if
  * any of the ArtifactCaches contain the desired artifact, and store() applies to all
  * ArtifactCaches.
+ * <p>
+ * By default, the ArtifactCaches are queried one at a time, in order. If a parallel fetch service
+ * is supplied, all of the ArtifactCaches are queried at once, the first hit wins, and the earlier
+ * ArtifactCaches are back-filled on that service rather than on the calling thread.
  */
 public class MultiArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(MultiArtifactCache.class);
+
   private final ImmutableList<ArtifactCache> artifactCaches;
   private final boolean isStoreSupported;
+  private final Optional<ListeningExecutorService> parallelFetchService;
+  private final Set<ListenableFuture<?>> pendingBackfills;
 
   public MultiArtifactCache(ImmutableList<ArtifactCache> artifactCaches) {
+    this(artifactCaches, Optional.<ListeningExecutorService>absent());
+  }
+
+  /**
+   * @param parallelFetchService if present, the service on which the encapsulated ArtifactCaches
+   *     are queried concurrently and back-filled. It is shut down by {@link #close()}.
+   */
+  public MultiArtifactCache(
+      ImmutableList<ArtifactCache> artifactCaches,
+      Optional<ListeningExecutorService> parallelFetchService) {
     this.artifactCaches = Preconditions.checkNotNull(artifactCaches);
+    this.parallelFetchService = Preconditions.checkNotNull(parallelFetchService);
+    this.pendingBackfills = Sets.newConcurrentHashSet();
 
     boolean isStoreSupported = false;
     for (ArtifactCache artifactCache : artifactCaches) {
@@ -52,7 +92,20 @@ public class MultiArtifactCache implements ArtifactCache {
   @Override
   public CacheResult fetch(RuleKey ruleKey, File output)
       throws InterruptedException {
-    for (ArtifactCache artifactCache : artifactCaches) {
+    return fetchFrom(0, ruleKey, output);
+  }
+
+  /**
+   * Like {@link #fetch(RuleKey, File)}, but only queries the encapsulated ArtifactCaches from
+   * firstIndex on, because the ones before it are known to miss. They are still back-filled.
+   */
+  private CacheResult fetchFrom(int firstIndex, RuleKey ruleKey, File output)
+      throws InterruptedException {
+    if (parallelFetchService.isPresent() && artifactCaches.size() > 1) {
+      return fetchInParallel(firstIndex, ruleKey, output, parallelFetchService.get());
+    }
+
+    for (ArtifactCache artifactCache : artifactCaches.subList(firstIndex, artifactCaches.size())) {
       CacheResult cacheResult = artifactCache.fetch(ruleKey, output);
       if (cacheResult.isSuccess()) {
         // Success; terminate search for a cached artifact, and propagate artifact to caches
@@ -69,6 +122,163 @@ public class MultiArtifactCache implements ArtifactCache {
     return CacheResult.MISS;
   }
 
+  /**
+   * Give the first encapsulated ArtifactCache, which is usually the local one, the chance to
+   * restore the artifact in place. Otherwise fall back on fetching a zip from the other
+   * ArtifactCaches, so that the first one is back-filled as usual without being queried again.
+   */
+  @Override
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root)
+      throws InterruptedException, IOException {
+    if (artifactCaches.isEmpty()) {
+      return CacheResult.MISS;
+    }
+    CacheResult cacheResult = artifactCaches.get(0).fetchAndExtract(ruleKey, root);
+    if (cacheResult.isSuccess() || artifactCaches.size() == 1) {
+      return cacheResult;
+    }
+    File zipFile = ArtifactCaches.createTempZip(ruleKey);
+    return ArtifactCaches.extractFetchedZip(
+        ruleKey,
+        fetchFrom(1, ruleKey, zipFile),
+        zipFile,
+        root);
+  }
+
+  /**
+   * Queries every encapsulated ArtifactCache from firstIndex on at once. Each query writes to its
+   * own temp file next to output so that a slow loser can never clobber the artifact of the
+   * winner. Queries that are still outstanding once there is a winner are cancelled.
+   */
+  private CacheResult fetchInParallel(
+      int firstIndex,
+      final RuleKey ruleKey,
+      File output,
+      ListeningExecutorService service) throws InterruptedException {
+    final File outputDir = output.getAbsoluteFile().getParentFile();
+    final String prefix = output.getName();
+    final FetchRace race = new FetchRace();
+
+    List<ListenableFuture<?>> fetches =
+        Lists.newArrayListWithCapacity(artifactCaches.size() - firstIndex);
+    for (int i = firstIndex; i < artifactCaches.size(); i++) {
+      final int index = i;
+      final ArtifactCache artifactCache = artifactCaches.get(i);
+      fetches.add(service.submit(new Runnable() {
+        @Override
+        public void run() {
+          File tempFile = null;
+          CacheResult cacheResult = CacheResult.MISS;
+          try {
+            Files.createDirectories(outputDir.toPath());
+            tempFile = File.createTempFile(prefix, ".tmp", outputDir);
+            cacheResult = artifactCache.fetch(ruleKey, tempFile);
+          } catch (IOException | RuntimeException e) {
+            LOG.warn(e, "fetch(%s): query of cache #%d failed", ruleKey, index);
+          } catch (InterruptedException e) {
+            LOG.debug("fetch(%s): query of cache #%d was cancelled", ruleKey, index);
+          }
+          if (!race.offer(new FetchAttempt(index, cacheResult, tempFile))) {
+            // The race was decided without this attempt, so nobody else will clean up after it.
+            deleteQuietly(tempFile);
+          }
+        }
+      }));
+    }
+
+    FetchAttempt winner = null;
+    try {
+      for (int remaining = fetches.size(); remaining > 0 && winner == null; remaining--) {
+        FetchAttempt attempt = race.take();
+        if (attempt.cacheResult.isSuccess()) {
+          winner = attempt;
+        } else {
+          deleteQuietly(attempt.tempFile);
+        }
+      }
+    } finally {
+      for (ListenableFuture<?> fetch : fetches) {
+        fetch.cancel(/* mayInterruptIfRunning */ true);
+      }
+      for (FetchAttempt attempt : race.decide()) {
+        if (attempt != winner) {
+          deleteQuietly(attempt.tempFile);
+        }
+      }
+    }
+
+    if (winner == null) {
+      return CacheResult.MISS;
+    }
+    return installWinner(ruleKey, output, winner, service);
+  }
+
+  /**
+   * Moves the artifact fetched by winner into output. If any of the ArtifactCaches earlier in the
+   * search order support storing, output gets a copy instead and the temp file is kept around
+   * until it has been stored to each of them in the background.
+   */
+  private CacheResult installWinner(
+      final RuleKey ruleKey,
+      File output,
+      FetchAttempt winner,
+      ListeningExecutorService service) {
+    final File tempFile = Preconditions.checkNotNull(winner.tempFile);
+    final ImmutableList.Builder<ArtifactCache> priorArtifactCachesBuilder = ImmutableList.builder();
+    for (ArtifactCache priorArtifactCache : artifactCaches.subList(0, winner.index)) {
+      if (priorArtifactCache.isStoreSupported()) {
+        priorArtifactCachesBuilder.add(priorArtifactCache);
+      }
+    }
+    final ImmutableList<ArtifactCache> priorArtifactCaches = priorArtifactCachesBuilder.build();
+
+    try {
+      if (priorArtifactCaches.isEmpty()) {
+        Files.move(tempFile.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return winner.cacheResult;
+      }
+      Files.copy(tempFile.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.warn(e, "fetch(%s): could not move artifact to %s", ruleKey, output);
+      deleteQuietly(tempFile);
+      return CacheResult.MISS;
+    }
+
+    final ListenableFuture<?> backfill = service.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (ArtifactCache priorArtifactCache : priorArtifactCaches) {
+            priorArtifactCache.store(ruleKey, tempFile);
+          }
+        } catch (InterruptedException e) {
+          LOG.debug("fetch(%s): back-fill was interrupted", ruleKey);
+        } finally {
+          deleteQuietly(tempFile);
+        }
+      }
+    });
+    pendingBackfills.add(backfill);
+    backfill.addListener(new Runnable() {
+      @Override
+      public void run() {
+        pendingBackfills.remove(backfill);
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    return winner.cacheResult;
+  }
+
+  private static void deleteQuietly(@Nullable File file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file.toPath());
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to delete temp artifact %s", file);
+    }
+  }
+
   /**
    * Store the artifact to all encapsulated ArtifactCaches.
    */
@@ -79,6 +289,40 @@ public class MultiArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Let each encapsulated ArtifactCache that supports storing pack the artifact itself, so that
+   * each packs it at its own compression: a local cache favors speed, a remote one size.
+   */
+  @Override
+  public void store(RuleKey ruleKey, ArtifactPacker packer)
+      throws InterruptedException, IOException {
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (artifactCache.isStoreSupported()) {
+        artifactCache.store(ruleKey, packer);
+      }
+    }
+  }
+
+  /**
+   * Ask each encapsulated ArtifactCache in turn about the keys that none of the caches before it
+   * may contain.
+   */
+  @Override
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException {
+    ImmutableSet.Builder<RuleKey> present = ImmutableSet.builder();
+    Set<RuleKey> remaining = Sets.newLinkedHashSet(ruleKeys);
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (remaining.isEmpty()) {
+        break;
+      }
+      ImmutableSet<RuleKey> found = artifactCache.multiContains(ImmutableSet.copyOf(remaining));
+      present.addAll(found);
+      remaining.removeAll(found);
+    }
+    return present.build();
+  }
+
   /** @return {@code true} if there is at least one ArtifactCache that supports storing. */
   @Override
   public boolean isStoreSupported() {
@@ -87,6 +331,19 @@ public class MultiArtifactCache implements ArtifactCache {
 
   @Override
   public void close() throws IOException {
+    // Let outstanding back-fills finish before the caches that they write to are closed.
+    if (parallelFetchService.isPresent()) {
+      try {
+        Futures.successfulAsList(pendingBackfills).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // successfulAsList() never fails.
+        throw new IllegalStateException(e);
+      }
+      parallelFetchService.get().shutdown();
+    }
+
     // TODO(natthu): It's possible for this to be interrupted before it gets to call close() on all
     // the individual caches. This is acceptable for now since every ArtifactCache.close() is a
     // no-op in every cache except CassandraArtifactCache.
@@ -94,4 +351,46 @@ public class MultiArtifactCache implements ArtifactCache {
       artifactCache.close();
     }
   }
+
+  /** The outcome of querying a single encapsulated ArtifactCache. */
+  private static class FetchAttempt {
+    private final int index;
+    private final CacheResult cacheResult;
+    @Nullable private final File tempFile;
+
+    private FetchAttempt(int index, CacheResult cacheResult, @Nullable File tempFile) {
+      this.index = index;
+      this.cacheResult = cacheResult;
+      this.tempFile = tempFile;
+    }
+  }
+
+  /**
+   * Hands {@link FetchAttempt}s from the querying threads to the thread that called fetch(). Once
+   * the race is decided, late attempts are refused so that their owners clean up after themselves.
+   */
+  private static class FetchRace {
+    private final BlockingQueue<FetchAttempt> attempts = new LinkedBlockingQueue<>();
+    private boolean isDecided = false;
+
+    public synchronized boolean offer(FetchAttempt attempt) {
+      if (isDecided) {
+        return false;
+      }
+      attempts.add(attempt);
+      return true;
+    }
+
+    public FetchAttempt take() throws InterruptedException {
+      return attempts.take();
+    }
+
+    /** @return the attempts that were offered but never taken. */
+    public synchronized List<FetchAttempt> decide() {
+      isDecided = true;
+      List<FetchAttempt> leftovers = Lists.newArrayList();
+      attempts.drainTo(leftovers);
+      return leftovers;
+    }
+  }
 }
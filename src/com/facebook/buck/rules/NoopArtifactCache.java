@@ -16,7 +16,10 @@
 
 package com.facebook.buck.rules;
 
+import com.google.common.collect.ImmutableSet;
+
 import java.io.File;
+import java.nio.file.Path;
 
 public class NoopArtifactCache implements ArtifactCache {
 
@@ -26,11 +29,28 @@ public class NoopArtifactCache implements ArtifactCache {
     return CacheResult.MISS;
   }
 
+  @Override
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root) {
+    // Do nothing.
+    return CacheResult.MISS;
+  }
+
   @Override
   public void store(RuleKey ruleKey, File output) {
     // Do nothing.
   }
 
+  @Override
+  public void store(RuleKey ruleKey, ArtifactPacker packer) {
+    // Do nothing.
+  }
+
+  @Override
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    // Nothing is ever cached.
+    return ImmutableSet.of();
+  }
+
   /** @return {@code false}: storing artifacts is never supported by this class. */
   @Override
   public boolean isStoreSupported() {
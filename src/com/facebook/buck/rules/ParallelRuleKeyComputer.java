@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the {@link RuleKey}s of a set of rules and all of their dependencies in parallel on a
+ * {@link ForkJoinPool}, dependencies first. Rules memoize their keys, so a build that starts
+ * afterwards finds every key ready, rather than computing them one rule at a time as the rules'
+ * dependencies finish building.
+ * <p>
+ * If the rules' builders allow it with {@link RuleKey.Builder#setHashingInputsInParallel}, the
+ * input files of each rule are hashed in parallel on the pool as well.
+ */
+public class ParallelRuleKeyComputer {
+
+  private static final Logger LOG = Logger.get(ParallelRuleKeyComputer.class);
+
+  private final ForkJoinPool pool;
+  private final ConcurrentMap<BuildRule, ForkJoinTask<?>> tasks = Maps.newConcurrentMap();
+
+  public ParallelRuleKeyComputer(ForkJoinPool pool) {
+    this.pool = Preconditions.checkNotNull(pool);
+  }
+
+  /**
+   * Computes the keys of rules and their transitive dependencies, and returns once they are all
+   * computed. A rule whose key cannot be computed is skipped: the build reports the error if it
+   * ever needs the key.
+   */
+  @SuppressWarnings("serial")
+  public void computeRuleKeys(final Iterable<? extends BuildRule> rules) {
+    pool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        joinAll(forkAll(rules));
+      }
+    });
+  }
+
+  private List<ForkJoinTask<?>> forkAll(Iterable<? extends BuildRule> rules) {
+    List<ForkJoinTask<?>> forked = Lists.newArrayList();
+    for (BuildRule rule : rules) {
+      ForkJoinTask<?> task = new RuleKeyTask(rule);
+      ForkJoinTask<?> existing = tasks.putIfAbsent(rule, task);
+      if (existing == null) {
+        task.fork();
+        forked.add(task);
+      } else {
+        forked.add(existing);
+      }
+    }
+    return forked;
+  }
+
+  private static void joinAll(List<ForkJoinTask<?>> forked) {
+    for (ForkJoinTask<?> task : forked) {
+      task.join();
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private class RuleKeyTask extends RecursiveAction {
+    private final BuildRule rule;
+
+    private RuleKeyTask(BuildRule rule) {
+      this.rule = rule;
+    }
+
+    @Override
+    protected void compute() {
+      joinAll(forkAll(rule.getDeps()));
+      try {
+        rule.getRuleKey();
+      } catch (RuntimeException e) {
+        LOG.debug(e, "Unable to compute the rule key of %s ahead of the build", rule);
+      }
+    }
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decorator for an {@link ArtifactCache} that downloads artifacts in the background as soon as
+ * their {@link RuleKey}s are known, rather than when the rule that needs them is scheduled.
+ * <p>
+ * Keys passed to {@link #prefetch(Iterable)} are checked in batches with
+ * {@link ArtifactCache#multiContains(ImmutableSet)}, so that a whole batch costs a single round
+ * trip, and a key that turns out to be a miss costs no further round trip in
+ * {@link #fetch(RuleKey, File)}.
+ * <p>
+ * The decorated cache is owned by the caller: {@link #close()} only shuts down the prefetch service
+ * and deletes prefetched artifacts that were never claimed.
+ */
+public class PrefetchingArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(PrefetchingArtifactCache.class);
+
+  private final ArtifactCache delegate;
+  private final ListeningExecutorService service;
+  private final int batchSize;
+  private final Path tempDir;
+
+  private final ConcurrentMap<RuleKey, Prefetch> prefetches;
+
+  /** The keys that were fetched without a prefetch, which it is too late to start now. */
+  private final Set<RuleKey> fetchedWithoutPrefetch;
+
+  /**
+   * @param service the service that checks batches and downloads artifacts. It is shut down by
+   *     {@link #close()}.
+   * @param batchSize the maximum number of keys to pass to a single
+   *     {@link ArtifactCache#multiContains(ImmutableSet)} call.
+   * @param tempDir where prefetched artifacts are kept until they are claimed.
+   */
+  public PrefetchingArtifactCache(
+      ArtifactCache delegate,
+      ListeningExecutorService service,
+      int batchSize,
+      Path tempDir) {
+    Preconditions.checkArgument(batchSize > 0);
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.service = Preconditions.checkNotNull(service);
+    this.batchSize = batchSize;
+    this.tempDir = Preconditions.checkNotNull(tempDir);
+    this.prefetches = Maps.newConcurrentMap();
+    this.fetchedWithoutPrefetch =
+        Collections.newSetFromMap(Maps.<RuleKey, Boolean>newConcurrentMap());
+  }
+
+  /**
+   * Like {@link #prefetch(Iterable)}, but gets the keys on the prefetch service, so that the
+   * caller can go on while they are computed. Keys that have been fetched by then are skipped.
+   */
+  public void prefetchAsync(final Supplier<? extends Iterable<RuleKey>> ruleKeys) {
+    service.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          prefetch(ruleKeys.get());
+        } catch (RuntimeException e) {
+          LOG.debug(e, "Could not list the keys to prefetch");
+        }
+      }
+    });
+  }
+
+  /**
+   * Starts prefetching the artifacts for the given keys, in order. Keys for which a prefetch has
+   * already been started are ignored.
+   */
+  public void prefetch(Iterable<RuleKey> ruleKeys) {
+    ImmutableSet.Builder<RuleKey> batch = ImmutableSet.builder();
+    int batchCount = 0;
+    for (RuleKey ruleKey : ruleKeys) {
+      if (fetchedWithoutPrefetch.contains(ruleKey) ||
+          prefetches.putIfAbsent(ruleKey, new Prefetch()) != null) {
+        continue;
+      }
+      batch.add(ruleKey);
+      if (++batchCount == batchSize) {
+        submitBatch(batch.build());
+        batch = ImmutableSet.builder();
+        batchCount = 0;
+      }
+    }
+    if (batchCount > 0) {
+      submitBatch(batch.build());
+    }
+  }
+
+  private void submitBatch(final ImmutableSet<RuleKey> batch) {
+    service.submit(new Runnable() {
+      @Override
+      public void run() {
+        ImmutableSet<RuleKey> present;
+        try {
+          present = delegate.multiContains(batch);
+        } catch (InterruptedException | RuntimeException e) {
+          LOG.debug(e, "multiContains() of %d keys failed", batch.size());
+          for (RuleKey ruleKey : batch) {
+            complete(ruleKey, Optional.<PrefetchedArtifact>absent());
+          }
+          return;
+        }
+
+        for (RuleKey ruleKey : batch) {
+          if (present.contains(ruleKey)) {
+            submitFetch(ruleKey);
+          } else {
+            complete(ruleKey, Optional.of(new PrefetchedArtifact(CacheResult.MISS, null)));
+          }
+        }
+      }
+    });
+  }
+
+  private void submitFetch(final RuleKey ruleKey) {
+    service.submit(new Runnable() {
+      @Override
+      public void run() {
+        Prefetch prefetch = prefetches.get(ruleKey);
+        if (prefetch == null || prefetch.result.isDone()) {
+          // Taken over by fetch() or abandoned by close() before the download started.
+          return;
+        }
+        prefetch.isDownloading.set(true);
+
+        File tempFile = null;
+        Optional<PrefetchedArtifact> artifact = Optional.absent();
+        try {
+          Files.createDirectories(tempDir);
+          tempFile = Files.createTempFile(tempDir, ruleKey.toString(), ".zip").toFile();
+          CacheResult cacheResult = delegate.fetch(ruleKey, tempFile);
+          if (cacheResult.isSuccess()) {
+            artifact = Optional.of(new PrefetchedArtifact(cacheResult, tempFile));
+          } else {
+            artifact = Optional.of(new PrefetchedArtifact(CacheResult.MISS, null));
+          }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+          LOG.debug(e, "Prefetch of %s failed", ruleKey);
+        }
+
+        if (!complete(ruleKey, artifact) || !artifact.isPresent() ||
+            artifact.get().tempFile == null) {
+          deleteQuietly(tempFile);
+        }
+      }
+    });
+  }
+
+  /** @return whether the outcome was recorded, or {@code false} if nobody wants it anymore. */
+  private boolean complete(RuleKey ruleKey, Optional<PrefetchedArtifact> artifact) {
+    Prefetch prefetch = prefetches.get(ruleKey);
+    return prefetch != null && prefetch.result.set(artifact);
+  }
+
+  /**
+   * If the artifact for ruleKey is being downloaded, wait for it and hand it over. If its prefetch
+   * has not got that far yet, the calling thread would only be queueing behind other prefetches, so
+   * it takes over and fetches from the decorated cache directly.
+   */
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, File output) throws InterruptedException {
+    Prefetch prefetch = prefetches.get(ruleKey);
+    if (prefetch == null) {
+      fetchedWithoutPrefetch.add(ruleKey);
+      return delegate.fetch(ruleKey, output);
+    }
+
+    Optional<PrefetchedArtifact> artifact;
+    if (!prefetch.isDownloading.get() &&
+        prefetch.result.cancel(/* mayInterruptIfRunning */ false)) {
+      artifact = Optional.absent();
+    } else {
+      try {
+        artifact = prefetch.result.get();
+      } catch (ExecutionException | CancellationException e) {
+        artifact = Optional.absent();
+      }
+    }
+    prefetches.remove(ruleKey);
+
+    if (!artifact.isPresent()) {
+      return delegate.fetch(ruleKey, output);
+    }
+
+    File tempFile = artifact.get().tempFile;
+    if (tempFile == null) {
+      LOG.debug("fetch(%s): known miss", ruleKey);
+      return CacheResult.MISS;
+    }
+    try {
+      Files.createDirectories(output.toPath().getParent());
+      Files.move(tempFile.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.warn(e, "fetch(%s): could not move prefetched artifact to %s", ruleKey, output);
+      deleteQuietly(tempFile);
+      return delegate.fetch(ruleKey, output);
+    }
+    return artifact.get().cacheResult;
+  }
+
+  /**
+   * Prefetched artifacts are zips, so restore them through {@link #fetch(RuleKey, File)}. Leave any
+   * other key to the decorated cache, which may be able to restore it in place.
+   */
+  @Override
+  public CacheResult fetchAndExtract(RuleKey ruleKey, Path root)
+      throws InterruptedException, IOException {
+    if (prefetches.containsKey(ruleKey)) {
+      return ArtifactCaches.fetchAndExtractViaZip(this, ruleKey, root);
+    }
+    return delegate.fetchAndExtract(ruleKey, root);
+  }
+
+  @Override
+  public void store(RuleKey ruleKey, File output) throws InterruptedException {
+    delegate.store(ruleKey, output);
+  }
+
+  @Override
+  public void store(RuleKey ruleKey, ArtifactPacker packer)
+      throws InterruptedException, IOException {
+    delegate.store(ruleKey, packer);
+  }
+
+  @Override
+  public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException {
+    return delegate.multiContains(ruleKeys);
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return delegate.isStoreSupported();
+  }
+
+  @Override
+  public void close() {
+    service.shutdownNow();
+    for (Prefetch prefetch : prefetches.values()) {
+      if (prefetch.result.cancel(/* mayInterruptIfRunning */ false)) {
+        // A running download notices the cancellation in complete() and cleans up after itself.
+        continue;
+      }
+      try {
+        Optional<PrefetchedArtifact> artifact = prefetch.result.get();
+        if (artifact.isPresent()) {
+          deleteQuietly(artifact.get().tempFile);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        // SettableFutures in this class are never failed.
+        throw new IllegalStateException(e);
+      }
+    }
+    prefetches.clear();
+  }
+
+  private static void deleteQuietly(@Nullable File file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file.toPath());
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to delete prefetched artifact %s", file);
+    }
+  }
+
+  private static class Prefetch {
+    /**
+     * A present value is the outcome of the prefetch. An absent value means that nothing is known
+     * about the key, so it has to be fetched the regular way.
+     */
+    private final SettableFuture<Optional<PrefetchedArtifact>> result = SettableFuture.create();
+
+    /** Whether the download has started, after which it is cheaper to wait than to start over. */
+    private final AtomicBoolean isDownloading = new AtomicBoolean(false);
+  }
+
+  private static class PrefetchedArtifact {
+    private final CacheResult cacheResult;
+
+    /** Where the artifact was downloaded to, or {@code null} for a miss. */
+    @Nullable private final File tempFile;
+
+    private PrefetchedArtifact(CacheResult cacheResult, @Nullable File tempFile) {
+      this.cacheResult = cacheResult;
+      this.tempFile = tempFile;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.zip.CustomZipEntry;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.PrecompressedFiles;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Packs an artifact from a zip of it that has already been written, recompressing its entries at
+ * whatever compression the cache asks for.
+ */
+class RepackingArtifactPacker implements ArtifactPacker {
+
+  private final Path zip;
+
+  RepackingArtifactPacker(Path zip) {
+    this.zip = Preconditions.checkNotNull(zip);
+  }
+
+  @Override
+  public void writeTo(OutputStream out, ArtifactCompression compression) throws IOException {
+    try (ZipFile zipFile = new ZipFile(zip.toFile());
+         CustomZipOutputStream repacked = ZipOutputStreams.newOutputStreamLeavingOpen(out)) {
+      for (ZipArchiveEntry entry : Collections.list(zipFile.getEntriesInPhysicalOrder())) {
+        CustomZipEntry repackedEntry = new CustomZipEntry(entry.getName());
+        repackedEntry.setTime(entry.getTime());
+        repackedEntry.setExternalAttributes(entry.getExternalAttributes());
+        if (PrecompressedFiles.isPrecompressed(entry.getName())) {
+          repackedEntry.setCompressionLevel(Deflater.NO_COMPRESSION);
+        } else if (compression.getCompressionLevel() != Deflater.DEFAULT_COMPRESSION) {
+          repackedEntry.setCompressionLevel(compression.getCompressionLevel());
+        }
+        // The central directory of the zip already knows what a stored entry must declare.
+        if (repackedEntry.getMethod() == ZipEntry.STORED) {
+          repackedEntry.setSize(entry.getSize());
+          repackedEntry.setCompressedSize(entry.getSize());
+          repackedEntry.setCrc(entry.getCrc());
+        }
+
+        repacked.putNextEntry(repackedEntry);
+        try (InputStream input = zipFile.getInputStream(entry)) {
+          ByteStreams.copy(input, repacked);
+        }
+        repacked.closeEntry();
+      }
+    }
+  }
+}
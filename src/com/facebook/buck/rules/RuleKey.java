@@ -38,6 +38,8 @@ import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import javax.annotation.Nullable;
 
@@ -148,6 +150,7 @@ public class RuleKey {
     private final ImmutableSortedSet<BuildRule> exportedDeps;
     private final Hasher hasher;
     private final FileHashCache hashCache;
+    private boolean isHashingInputsInParallel;
 
     @Nullable private List<String> logElms;
 
@@ -164,6 +167,16 @@ public class RuleKey {
       }
     }
 
+    /**
+     * Lets {@link #setInputs(String, Iterator)} hash the inputs in parallel when the key is
+     * computed on a {@link java.util.concurrent.ForkJoinPool}, as {@link ParallelRuleKeyComputer}
+     * does. The key is the same either way.
+     */
+    public Builder setHashingInputsInParallel(boolean isHashingInputsInParallel) {
+      this.isHashingInputsInParallel = isHashingInputsInParallel;
+      return this;
+    }
+
     private Builder feed(byte[] bytes) {
       hasher.putBytes(bytes);
       return this;
@@ -270,6 +283,17 @@ public class RuleKey {
       Preconditions.checkNotNull(key);
       Preconditions.checkNotNull(inputs);
       setKey(key);
+      if (isHashingInputsInParallel && ForkJoinTask.inForkJoinPool()) {
+        // Computing keys ahead of the build: hash the inputs in parallel, then feed them in order.
+        List<ForkJoinTask<HashCode>> hashes = Lists.newArrayList();
+        while (inputs.hasNext()) {
+          hashes.add(new HashInputTask(inputs.next()).fork());
+        }
+        for (ForkJoinTask<HashCode> hash : hashes) {
+          setVal(hash.join().toString());
+        }
+        return separate();
+      }
       while (inputs.hasNext()) {
         Path input = inputs.next();
         setInputVal(input);
@@ -277,6 +301,24 @@ public class RuleKey {
       return separate();
     }
 
+    @SuppressWarnings("serial")
+    private class HashInputTask extends RecursiveTask<HashCode> {
+      private final Path input;
+
+      private HashInputTask(Path input) {
+        this.input = input;
+      }
+
+      @Override
+      protected HashCode compute() {
+        HashCode sha1 = hashCache.get(input);
+        if (sha1 == null) {
+          throw new RuntimeException("No SHA for " + input);
+        }
+        return sha1;
+      }
+    }
+
     public Builder setInput(String key, @Nullable Path input) {
       if (input != null) {
         setKey(key);
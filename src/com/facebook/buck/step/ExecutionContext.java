@@ -47,6 +47,9 @@ public class ExecutionContext {
   private final Optional<AndroidPlatformTarget> androidPlatformTarget;
   private final Optional<TargetDevice> targetDevice;
   private final long defaultTestTimeoutMillis;
+  private final int testJvmReuseLimit;
+  private final int testShardsPerRule;
+  private final boolean isTestResultsCacheEnabled;
   private final boolean isCodeCoverageEnabled;
   private final boolean isDebugEnabled;
   private final ProcessExecutor processExecutor;
@@ -62,6 +65,9 @@ public class ExecutionContext {
       Optional<AndroidPlatformTarget> androidPlatformTarget,
       Optional<TargetDevice> targetDevice,
       long defaultTestTimeoutMillis,
+      int testJvmReuseLimit,
+      int testShardsPerRule,
+      boolean isTestResultsCacheEnabled,
       boolean isCodeCoverageEnabled,
       boolean isDebugEnabled,
       @Nullable BuckEventBus eventBus,
@@ -75,6 +81,9 @@ public class ExecutionContext {
     this.androidPlatformTarget = Preconditions.checkNotNull(androidPlatformTarget);
     this.targetDevice = Preconditions.checkNotNull(targetDevice);
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
+    this.testJvmReuseLimit = testJvmReuseLimit;
+    this.testShardsPerRule = testShardsPerRule;
+    this.isTestResultsCacheEnabled = isTestResultsCacheEnabled;
     this.isCodeCoverageEnabled = isCodeCoverageEnabled;
     this.isDebugEnabled = isDebugEnabled;
     this.processExecutor = new ProcessExecutor(console);
@@ -96,6 +105,9 @@ public class ExecutionContext {
         getAndroidPlatformTargetOptional(),
         getTargetDeviceOptional(),
         getDefaultTestTimeoutMillis(),
+        getTestJvmReuseLimit(),
+        getTestShardsPerRule(),
+        isTestResultsCacheEnabled(),
         isCodeCoverageEnabled(),
         isDebugEnabled,
         eventBus,
@@ -192,6 +204,24 @@ public class ExecutionContext {
     return defaultTestTimeoutMillis;
   }
 
+  /**
+   * @return how many java_test rules a test JVM may run before it is replaced, or 0 to run each
+   *     one in a JVM of its own.
+   */
+  public int getTestJvmReuseLimit() {
+    return testJvmReuseLimit;
+  }
+
+  /** @return how many JVMs the test classes of a java_test rule may be split across. */
+  public int getTestShardsPerRule() {
+    return testShardsPerRule;
+  }
+
+  /** @return whether tests may reuse the results of their previous runs, rather than run again. */
+  public boolean isTestResultsCacheEnabled() {
+    return isTestResultsCacheEnabled;
+  }
+
   public boolean isCodeCoverageEnabled() {
     return isCodeCoverageEnabled;
   }
@@ -227,6 +257,9 @@ public class ExecutionContext {
     private Optional<AndroidPlatformTarget> androidPlatformTarget = Optional.absent();
     private Optional<TargetDevice> targetDevice = Optional.absent();
     private long defaultTestTimeoutMillis = 0L;
+    private int testJvmReuseLimit = 0;
+    private int testShardsPerRule = 1;
+    private boolean isTestResultsCacheEnabled = false;
     private boolean isCodeCoverageEnabled = false;
     private boolean isDebugEnabled = false;
     @Nullable private BuckEventBus eventBus = null;
@@ -244,6 +277,9 @@ public class ExecutionContext {
           androidPlatformTarget,
           targetDevice,
           defaultTestTimeoutMillis,
+          testJvmReuseLimit,
+          testShardsPerRule,
+          isTestResultsCacheEnabled,
           isCodeCoverageEnabled,
           isDebugEnabled,
           eventBus,
@@ -259,6 +295,9 @@ public class ExecutionContext {
       setAndroidPlatformTarget(executionContext.getAndroidPlatformTargetOptional());
       setTargetDevice(executionContext.getTargetDeviceOptional());
       setDefaultTestTimeoutMillis(executionContext.getDefaultTestTimeoutMillis());
+      setTestJvmReuseLimit(executionContext.getTestJvmReuseLimit());
+      setTestShardsPerRule(executionContext.getTestShardsPerRule());
+      setTestResultsCacheEnabled(executionContext.isTestResultsCacheEnabled());
       setCodeCoverageEnabled(executionContext.isCodeCoverageEnabled());
       setDebugEnabled(executionContext.isDebugEnabled());
       setEventBus(executionContext.getBuckEventBus());
@@ -297,6 +336,27 @@ public class ExecutionContext {
       return this;
     }
 
+    /** Specify 0 to run each test in a JVM of its own. */
+    public Builder setTestJvmReuseLimit(int testJvmReuseLimit) {
+      Preconditions.checkArgument(testJvmReuseLimit >= 0,
+          "Test JVM reuse limit cannot be negative.");
+      this.testJvmReuseLimit = testJvmReuseLimit;
+      return this;
+    }
+
+    /** Specify 1 to run all of the test classes of a rule in one JVM. */
+    public Builder setTestShardsPerRule(int testShardsPerRule) {
+      Preconditions.checkArgument(testShardsPerRule > 0,
+          "Test shards per rule must be positive.");
+      this.testShardsPerRule = testShardsPerRule;
+      return this;
+    }
+
+    public Builder setTestResultsCacheEnabled(boolean isTestResultsCacheEnabled) {
+      this.isTestResultsCacheEnabled = isTestResultsCacheEnabled;
+      return this;
+    }
+
     public Builder setCodeCoverageEnabled(boolean isCodeCoverageEnabled) {
       this.isCodeCoverageEnabled = isCodeCoverageEnabled;
       return this;
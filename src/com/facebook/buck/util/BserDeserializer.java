@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decodes the values that Watchman sends in its binary protocol, BSER. Watchman writes integers
+ * and reals in the byte order of the machine that it runs on, which is this machine.
+ * <p>
+ * Values are decoded to the same types that Jackson decodes their JSON equivalents to, except
+ * that every integer is a {@link Long}: {@link String}, {@link Long}, {@link Double},
+ * {@link Boolean}, {@link List}, {@link Map} or null.
+ *
+ * @see <a href="https://facebook.github.io/watchman/docs/bser.html">BSER</a>
+ */
+class BserDeserializer {
+
+  private static final byte[] MAGIC = {0x00, 0x01};
+
+  private static final byte ARRAY = 0x00;
+  private static final byte OBJECT = 0x01;
+  private static final byte STRING = 0x02;
+  private static final byte INT8 = 0x03;
+  private static final byte INT16 = 0x04;
+  private static final byte INT32 = 0x05;
+  private static final byte INT64 = 0x06;
+  private static final byte REAL = 0x07;
+  private static final byte TRUE = 0x08;
+  private static final byte FALSE = 0x09;
+  private static final byte NULL = 0x0a;
+  private static final byte TEMPLATE = 0x0b;
+  private static final byte SKIP = 0x0c;
+  private static final byte UTF8_STRING = 0x0d;
+
+  /** Utility class: do not instantiate. */
+  private BserDeserializer() {}
+
+  /**
+   * Reads the next PDU from {@code in}.
+   *
+   * @return the value that the PDU holds.
+   * @throws EOFException if {@code in} ends before the PDU does, including before it begins.
+   */
+  @Nullable
+  static Object deserializeBserValue(InputStream in) throws IOException {
+    byte[] header = new byte[MAGIC.length + 1];
+    ByteStreams.readFully(in, header);
+    if (header[0] != MAGIC[0] || header[1] != MAGIC[1]) {
+      throw new IOException(
+          String.format("Not a BSER PDU: it begins with 0x%02x 0x%02x.", header[0], header[1]));
+    }
+    int lengthSize = getIntSize(header[MAGIC.length]);
+    byte[] lengthBytes = new byte[lengthSize];
+    ByteStreams.readFully(in, lengthBytes);
+    long length = readInt(header[MAGIC.length], wrap(lengthBytes));
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Unusable BSER PDU length: " + length);
+    }
+
+    byte[] pdu = new byte[(int) length];
+    ByteStreams.readFully(in, pdu);
+    ByteBuffer buffer = wrap(pdu);
+    try {
+      Object value = readValue(buffer);
+      if (!buffer.hasRemaining()) {
+        return value;
+      }
+      throw new IOException(
+          String.format("%d bytes were left over from a BSER PDU.", buffer.remaining()));
+    } catch (BufferUnderflowException e) {
+      throw new IOException("A BSER PDU is shorter than its values.", e);
+    }
+  }
+
+  private static ByteBuffer wrap(byte[] bytes) {
+    return ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+  }
+
+  @Nullable
+  private static Object readValue(ByteBuffer buffer) throws IOException {
+    return readValue(buffer.get(), buffer);
+  }
+
+  @Nullable
+  private static Object readValue(byte type, ByteBuffer buffer) throws IOException {
+    switch (type) {
+      case ARRAY:
+        return readArray(buffer);
+      case OBJECT:
+        int numFields = readCount(buffer);
+        Map<String, Object> object = Maps.newLinkedHashMap();
+        for (int i = 0; i < numFields; i++) {
+          object.put(readKey(buffer), readValue(buffer));
+        }
+        return object;
+      case STRING:
+      case UTF8_STRING:
+        return readString(buffer);
+      case INT8:
+      case INT16:
+      case INT32:
+      case INT64:
+        return readInt(type, buffer);
+      case REAL:
+        return buffer.getDouble();
+      case TRUE:
+        return true;
+      case FALSE:
+        return false;
+      case NULL:
+        return null;
+      case TEMPLATE:
+        return readTemplate(buffer);
+      default:
+        throw new IOException(String.format("Unknown BSER type: 0x%02x.", type));
+    }
+  }
+
+  private static List<Object> readArray(ByteBuffer buffer) throws IOException {
+    int numItems = readCount(buffer);
+    List<Object> array = Lists.newArrayListWithCapacity(numItems);
+    for (int i = 0; i < numItems; i++) {
+      array.add(readValue(buffer));
+    }
+    return array;
+  }
+
+  /**
+   * A template is an array of objects that have the same keys, which are written once, ahead of
+   * the values of all of the objects. An object that has no value for a key skips it.
+   */
+  private static List<Object> readTemplate(ByteBuffer buffer) throws IOException {
+    byte keysType = buffer.get();
+    if (keysType != ARRAY) {
+      throw new IOException(String.format("The keys of a BSER template are of type 0x%02x.",
+          keysType));
+    }
+    List<Object> keys = readArray(buffer);
+    for (Object key : keys) {
+      if (!(key instanceof String)) {
+        throw new IOException("A key of a BSER template is not a string: " + key);
+      }
+    }
+
+    int numObjects = readCount(buffer);
+    List<Object> objects = Lists.newArrayListWithCapacity(numObjects);
+    for (int i = 0; i < numObjects; i++) {
+      Map<String, Object> object = Maps.newLinkedHashMap();
+      for (Object key : keys) {
+        byte type = buffer.get();
+        if (type != SKIP) {
+          object.put((String) key, readValue(type, buffer));
+        }
+      }
+      objects.add(object);
+    }
+    return objects;
+  }
+
+  private static String readKey(ByteBuffer buffer) throws IOException {
+    byte type = buffer.get();
+    if (type != STRING && type != UTF8_STRING) {
+      throw new IOException(String.format("A key of a BSER object is of type 0x%02x.", type));
+    }
+    return readString(buffer);
+  }
+
+  private static String readString(ByteBuffer buffer) throws IOException {
+    byte[] bytes = new byte[readCount(buffer)];
+    buffer.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  /** Reads the size of a string, array, object or template, which is an integer value. */
+  private static int readCount(ByteBuffer buffer) throws IOException {
+    long count = readInt(buffer.get(), buffer);
+    if (count < 0 || count > buffer.remaining()) {
+      // Every item takes at least a byte, so this is not what it says it is.
+      throw new IOException("Unusable BSER count: " + count);
+    }
+    return (int) count;
+  }
+
+  private static long readInt(byte type, ByteBuffer buffer) throws IOException {
+    switch (type) {
+      case INT8:
+        return buffer.get();
+      case INT16:
+        return buffer.getShort();
+      case INT32:
+        return buffer.getInt();
+      case INT64:
+        return buffer.getLong();
+      default:
+        throw new IOException(String.format("Expected a BSER integer, got type 0x%02x.", type));
+    }
+  }
+
+  private static int getIntSize(byte type) throws IOException {
+    switch (type) {
+      case INT8:
+        return 1;
+      case INT16:
+        return 2;
+      case INT32:
+        return 4;
+      case INT64:
+        return 8;
+      default:
+        throw new IOException(String.format("Expected a BSER integer, got type 0x%02x.", type));
+    }
+  }
+}
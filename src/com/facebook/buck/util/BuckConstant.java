@@ -48,6 +48,12 @@ public class BuckConstant {
 
   public static final Path LOG_PATH = BUCK_OUTPUT_PATH.resolve("log");
 
+  /**
+   * Where files are staged before being moved into place elsewhere in buck-out, which is on the
+   * same file system, unlike {@code java.io.tmpdir} often is, so that the move is a rename.
+   */
+  public static final Path SCRATCH_PATH = BUCK_OUTPUT_PATH.resolve("tmp");
+
   public static final Path BUCK_TRACE_DIR = BUCK_OUTPUT_PATH.resolve("log/traces");
 
   /**
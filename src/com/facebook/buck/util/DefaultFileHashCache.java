@@ -18,10 +18,12 @@ package com.facebook.buck.util;
 
 import com.facebook.buck.log.Logger;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
@@ -39,25 +41,74 @@ public class DefaultFileHashCache implements FileHashCache {
   private static final Logger LOG = Logger.get(DefaultFileHashCache.class);
 
   private final ProjectFilesystem projectFilesystem;
+  private final Optional<FileHashStore> store;
+
+  /** The stamps of the files whose hashes are cached, to recover from an overflow with. */
+  private final FileStampSnapshot stamps;
 
   @VisibleForTesting
   final LoadingCache<Path, HashCode> loadingCache;
 
   public DefaultFileHashCache(ProjectFilesystem projectFilesystem) {
+    this(projectFilesystem, Optional.<FileHashStore>absent());
+  }
+
+  /**
+   * @param store if present, where hashes are kept across Buck processes. It is also consulted
+   *     for ignored paths, since their stamps are checked on every lookup.
+   */
+  public DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Optional<FileHashStore> store) {
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    this.store = Preconditions.checkNotNull(store);
+    this.stamps = new FileStampSnapshot(projectFilesystem);
 
     this.loadingCache = CacheBuilder.newBuilder()
         .build(new CacheLoader<Path, HashCode>() {
           @Override
           public HashCode load(Path path) throws Exception {
-            return getHashCode(path);
+            Path absolutePath = DefaultFileHashCache.this.projectFilesystem.resolve(path);
+            // The stamp is read before the contents, so that a change made while they are read
+            // is seen as a change.
+            FileHashStore.FileStamp stamp = FileHashStore.FileStamp.of(absolutePath);
+            HashCode sha1 = DefaultFileHashCache.this.store.isPresent()
+                ? getHashCode(path, absolutePath, stamp)
+                : hash(absolutePath);
+            stamps.record(path, stamp);
+            return sha1;
           }
         });
   }
 
   private HashCode getHashCode(Path path) throws IOException {
     // TODO(simons): Should be this.projectFilesystem.computeSha1(path);
-    File file = this.projectFilesystem.resolve(path).toFile();
+    Path absolutePath = this.projectFilesystem.resolve(path);
+    if (!store.isPresent()) {
+      return hash(absolutePath);
+    }
+    return getHashCode(path, absolutePath, FileHashStore.FileStamp.of(absolutePath));
+  }
+
+  /** Only to be called when there is a {@link #store}. */
+  private HashCode getHashCode(
+      Path path,
+      Path absolutePath,
+      FileHashStore.FileStamp stamp) throws IOException {
+    Optional<HashCode> storedSha1 = store.get().get(path, stamp);
+    if (storedSha1.isPresent()) {
+      return storedSha1.get();
+    }
+    HashCode sha1 = hash(absolutePath);
+    // Only store the hash if the file did not change while it was being read.
+    if (stamp.equals(FileHashStore.FileStamp.of(absolutePath))) {
+      store.get().put(path, stamp, sha1);
+    }
+    return sha1;
+  }
+
+  private static HashCode hash(Path absolutePath) throws IOException {
+    File file = absolutePath.toFile();
     ByteSource source = Files.asByteSource(file);
     return source.hash(Hashing.sha1());
   }
@@ -78,7 +129,7 @@ public class DefaultFileHashCache implements FileHashCache {
       // Where ignored paths are output files, they are generated by each build and will not
       // generate cache hits so not caching them is likely a performance win in any case.
       if (projectFilesystem.isIgnored(path)) {
-        sha1 = getHashCode(path);
+        sha1 = getHashCode(path.normalize());
       } else {
         sha1 = loadingCache.get(path.normalize());
       }
@@ -99,11 +150,30 @@ public class DefaultFileHashCache implements FileHashCache {
       // Path event, remove the path from the cache as it has been changed, added or deleted.
       Path path = ((Path) event.context()).normalize();
       LOG.verbose("Invalidating %s", path);
-      loadingCache.invalidate(path);
+      invalidate(path);
     } else {
-      // Non-path change event, likely an overflow due to many change events: invalidate everything.
-      LOG.debug("Invalidating all");
-      loadingCache.invalidateAll();
+      // Non-path change event, likely an overflow due to many change events: invalidate only the
+      // files whose stamps have changed since they were hashed.
+      ImmutableSet<Path> changed = stamps.findChanged(loadingCache.asMap().keySet());
+      LOG.debug("Invalidating %d of %d hashes on overflow", changed.size(), loadingCache.size());
+      for (Path path : changed) {
+        invalidate(path);
+      }
+    }
+  }
+
+  private void invalidate(Path path) {
+    loadingCache.invalidate(path);
+    stamps.forget(path);
+    if (store.isPresent()) {
+      store.get().invalidate(path);
+    }
+  }
+
+  /** Writes the hashes computed so far to the store, if any. */
+  public void flush() {
+    if (store.isPresent()) {
+      store.get().flush();
     }
   }
 
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Persistent record of the SHA-1 of files, so that a new Buck process need not hash again the
+ * files that an earlier one hashed and that have not changed since. Each hash is stored with a
+ * {@link FileStamp} of the file, and is only returned while the file still has the same stamp.
+ * <p>
+ * The store is a journal with one line per event, oldest first:
+ * {@code + <sha1> <size> <mtime> <ctime> <file key> <path>} when a file is hashed, and
+ * {@code - <path>} when it changes. Lines are buffered and appended by {@link #flush()}. Once the
+ * journal is much longer than the number of live entries, it is rewritten with one line per entry.
+ * <p>
+ * The store is best effort: lines appended by another Buck process after this one loaded the
+ * journal are lost if this one rewrites it, and an unreadable journal is treated as empty.
+ */
+public class FileHashStore {
+
+  private static final Logger LOG = Logger.get(FileHashStore.class);
+
+  private static final int MIN_LINES_TO_COMPACT = 1000;
+  private static final int MAX_PENDING_LINES = 1000;
+
+  /**
+   * A file modified this recently may be modified again within the resolution of its modification
+   * time, without its stamp changing, so its hash is not stored.
+   */
+  @VisibleForTesting
+  static final long RACY_MODIFICATION_MILLIS = 2000;
+
+  private final Path journal;
+  private final ConcurrentMap<Path, Entry> entries = Maps.newConcurrentMap();
+  private final StringBuilder pendingLines = new StringBuilder();
+  private int pendingLineCount;
+  private int journalLines;
+
+  private FileHashStore(Path journal) {
+    this.journal = Preconditions.checkNotNull(journal);
+  }
+
+  /** Loads the store from journal, which need not exist yet. */
+  public static FileHashStore load(Path journal) {
+    FileHashStore store = new FileHashStore(journal);
+    try {
+      for (String line : Files.readAllLines(journal, Charsets.UTF_8)) {
+        store.apply(line);
+      }
+    } catch (NoSuchFileException e) {
+      LOG.debug("No file hash journal at %s yet", journal);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to read the file hash journal %s", journal);
+      store.entries.clear();
+    }
+    return store;
+  }
+
+  /** @return the hash stored for path, if the file still has the given stamp. */
+  public Optional<HashCode> get(Path path, FileStamp stamp) {
+    Entry entry = entries.get(path);
+    if (entry == null || !entry.stamp.equals(stamp)) {
+      return Optional.absent();
+    }
+    return Optional.of(entry.sha1);
+  }
+
+  /**
+   * Records the hash of the contents of path, which were read while the file had the given stamp.
+   * Hashes of files that were modified too recently for their stamp to be trusted are not stored.
+   */
+  public void put(Path path, FileStamp stamp, HashCode sha1) {
+    if (System.currentTimeMillis() - stamp.getModifiedMillis() < RACY_MODIFICATION_MILLIS) {
+      return;
+    }
+    Entry entry = new Entry(stamp, sha1);
+    if (entry.equals(entries.put(path, entry))) {
+      return;
+    }
+    append(format(path, entry));
+  }
+
+  /** Forgets the hash of path, which has changed. */
+  public void invalidate(Path path) {
+    if (entries.remove(path) != null) {
+      append(String.format("- %s\n", path));
+    }
+  }
+
+  /** Appends the buffered lines to the journal, and rewrites it if it has grown too long. */
+  public synchronized void flush() {
+    try {
+      if (journalLines > 2 * entries.size() + MIN_LINES_TO_COMPACT) {
+        compact();
+      } else if (pendingLineCount > 0) {
+        Files.createDirectories(journal.getParent());
+        Files.write(journal, pendingLines.toString().getBytes(Charsets.UTF_8), CREATE, APPEND);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to update the file hash journal %s", journal);
+    }
+    pendingLines.setLength(0);
+    pendingLineCount = 0;
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+
+  private synchronized void append(String line) {
+    pendingLines.append(line);
+    pendingLineCount++;
+    journalLines++;
+    if (pendingLineCount >= MAX_PENDING_LINES) {
+      flush();
+    }
+  }
+
+  private void apply(String line) {
+    String[] parts = line.split(" ", 7);
+    try {
+      if (parts.length == 7 && parts[0].equals("+")) {
+        FileStamp stamp = new FileStamp(
+            Long.parseLong(parts[2]),
+            Long.parseLong(parts[3]),
+            Long.parseLong(parts[4]),
+            parts[5].equals("-") ? null : parts[5]);
+        entries.put(Paths.get(parts[6]), new Entry(stamp, HashCode.fromString(parts[1])));
+      } else if (parts.length == 2 && parts[0].equals("-")) {
+        entries.remove(Paths.get(parts[1]));
+      } else {
+        LOG.debug("Ignoring malformed file hash line '%s'", line);
+        return;
+      }
+    } catch (IllegalArgumentException e) {
+      // Also covers NumberFormatException and InvalidPathException.
+      LOG.debug("Ignoring malformed file hash line '%s'", line);
+      return;
+    }
+    journalLines++;
+  }
+
+  /** Rewrites the journal with one line per live entry. */
+  private void compact() throws IOException {
+    Files.createDirectories(journal.getParent());
+    Path tmpJournal = Files.createTempFile(
+        journal.getParent(),
+        journal.getFileName().toString(),
+        ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(tmpJournal, Charsets.UTF_8)) {
+        for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+          writer.write(format(entry.getKey(), entry.getValue()));
+        }
+      }
+      Files.move(tmpJournal, journal, REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmpJournal);
+    }
+    journalLines = entries.size();
+  }
+
+  private static String format(Path path, Entry entry) {
+    FileStamp stamp = entry.stamp;
+    return String.format(
+        "+ %s %d %d %d %s %s\n",
+        entry.sha1,
+        stamp.size,
+        stamp.modifiedNanos,
+        stamp.changedNanos,
+        stamp.fileKey == null ? "-" : stamp.fileKey,
+        path);
+  }
+
+  private static class Entry {
+    private final FileStamp stamp;
+    private final HashCode sha1;
+
+    private Entry(FileStamp stamp, HashCode sha1) {
+      this.stamp = stamp;
+      this.sha1 = sha1;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Entry)) {
+        return false;
+      }
+      Entry that = (Entry) obj;
+      return stamp.equals(that.stamp) && sha1.equals(that.sha1);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(stamp, sha1);
+    }
+  }
+
+  /**
+   * The attributes of a file that change whenever its contents do: its size, modification time,
+   * and, where the file system has them, its inode and inode change time. Unlike the modification
+   * time, the change time cannot be set by tools that preserve timestamps.
+   */
+  public static class FileStamp {
+    private final long size;
+    private final long modifiedNanos;
+    private final long changedNanos;
+    @Nullable private final String fileKey;
+
+    @VisibleForTesting
+    FileStamp(long size, long modifiedNanos, long changedNanos, @Nullable String fileKey) {
+      this.size = size;
+      this.modifiedNanos = modifiedNanos;
+      this.changedNanos = changedNanos;
+      // The key is written to a space-separated journal.
+      this.fileKey = fileKey == null ? null : fileKey.replace(' ', '_');
+    }
+
+    /**
+     * Reads the stamp of the file at the given absolute path. This is on the path of every hash
+     * that is looked up, so all of the attributes are read at once.
+     */
+    public static FileStamp of(Path path) throws IOException {
+      Map<String, Object> attributes;
+      long changedNanos = 0;
+      try {
+        attributes = Files.readAttributes(path, "unix:size,lastModifiedTime,ctime,fileKey");
+        changedNanos = ((FileTime) attributes.get("ctime")).to(TimeUnit.NANOSECONDS);
+      } catch (UnsupportedOperationException e) {
+        // Not a Unix file system: make do without the change time.
+        attributes = Files.readAttributes(path, "size,lastModifiedTime,fileKey");
+      }
+      Object fileKey = attributes.get("fileKey");
+      return new FileStamp(
+          (Long) attributes.get("size"),
+          ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+          changedNanos,
+          fileKey == null ? null : fileKey.toString());
+    }
+
+    long getModifiedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(modifiedNanos);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof FileStamp)) {
+        return false;
+      }
+      FileStamp that = (FileStamp) obj;
+      return size == that.size &&
+          modifiedNanos == that.modifiedNanos &&
+          changedNanos == that.changedNanos &&
+          Objects.equal(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(size, modifiedNanos, changedNanos, fileKey);
+    }
+  }
+}
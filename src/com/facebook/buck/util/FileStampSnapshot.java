@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The {@link FileHashStore.FileStamp}s of the files that a cache was filled from, as they were
+ * when it was filled. When a watcher overflows, and so cannot say which files changed, the cache
+ * can check its files against their stamps and drop only what has changed, rather than everything.
+ * <p>
+ * The stamp of a directory changes when an entry is added to it or removed from it, so a cache of
+ * something derived from the listing of a directory can record the stamp of the directory.
+ */
+public class FileStampSnapshot {
+
+  private static final Logger LOG = Logger.get(FileStampSnapshot.class);
+
+  /** How many paths each thread checks at a time. */
+  private static final int BATCH_SIZE = 256;
+
+  private final ProjectFilesystem projectFilesystem;
+  private final ConcurrentMap<Path, FileHashStore.FileStamp> stamps = Maps.newConcurrentMap();
+
+  public FileStampSnapshot(ProjectFilesystem projectFilesystem) {
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+  }
+
+  /**
+   * Records the stamp that {@code path} had when it was read. Like {@link FileHashStore}, a file
+   * modified too recently for its stamp to be trusted is not recorded, and so counts as changed.
+   *
+   * @param path a path that is either absolute or relative to the project root.
+   */
+  public void record(Path path, FileHashStore.FileStamp stamp) {
+    record(path, stamp, System.currentTimeMillis());
+  }
+
+  /** Reads and records the current stamp of {@code path}. */
+  public void record(Path path) throws IOException {
+    record(path, System.currentTimeMillis());
+  }
+
+  /**
+   * Reads and records the current stamp of {@code path}, which was read at {@code readMillis}.
+   * This lets the stamp be read some time after the path was, as a path modified since then is
+   * too recent to be recorded too.
+   */
+  public void record(Path path, long readMillis) throws IOException {
+    record(path, FileHashStore.FileStamp.of(projectFilesystem.resolve(path)), readMillis);
+  }
+
+  private void record(Path path, FileHashStore.FileStamp stamp, long readMillis) {
+    if (readMillis - stamp.getModifiedMillis() < FileHashStore.RACY_MODIFICATION_MILLIS) {
+      stamps.remove(path);
+    } else {
+      stamps.put(path, stamp);
+    }
+  }
+
+  /** Forgets the stamp of {@code path}, which has changed. */
+  public void forget(Path path) {
+    stamps.remove(path);
+  }
+
+  public void clear() {
+    stamps.clear();
+  }
+
+  /**
+   * Reads the current stamps of {@code paths} on as many threads as there are processors.
+   *
+   * @return those of {@code paths} that have no recorded stamp, that no longer exist, or whose
+   *     stamp has changed since it was recorded. If interrupted, all of {@code paths}.
+   */
+  public ImmutableSet<Path> findChanged(Iterable<Path> paths) {
+    ImmutableList<Path> pathList = ImmutableList.copyOf(paths);
+    if (pathList.size() <= BATCH_SIZE) {
+      return findChangedInBatch(pathList);
+    }
+
+    int numThreads = Math.min(
+        Runtime.getRuntime().availableProcessors(),
+        (pathList.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+    ExecutorService executor = MoreExecutors.newMultiThreadExecutor(
+        FileStampSnapshot.class.getSimpleName(),
+        numThreads);
+    try {
+      List<Future<ImmutableSet<Path>>> futures = Lists.newArrayList();
+      for (final List<Path> batch : Iterables.partition(pathList, BATCH_SIZE)) {
+        futures.add(executor.submit(new Callable<ImmutableSet<Path>>() {
+          @Override
+          public ImmutableSet<Path> call() {
+            return findChangedInBatch(batch);
+          }
+        }));
+      }
+      ImmutableSet.Builder<Path> changed = ImmutableSet.builder();
+      for (Future<ImmutableSet<Path>> future : futures) {
+        changed.addAll(future.get());
+      }
+      return changed.build();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return ImmutableSet.copyOf(pathList);
+    } catch (ExecutionException e) {
+      // findChangedInBatch() handles IOExceptions itself, so this is a bug.
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private ImmutableSet<Path> findChangedInBatch(List<Path> paths) {
+    ImmutableSet.Builder<Path> changed = ImmutableSet.builder();
+    for (Path path : paths) {
+      FileHashStore.FileStamp recorded = stamps.get(path);
+      if (recorded == null) {
+        changed.add(path);
+        continue;
+      }
+      try {
+        if (!recorded.equals(FileHashStore.FileStamp.of(projectFilesystem.resolve(path)))) {
+          changed.add(path);
+        }
+      } catch (IOException e) {
+        // Deleted, most likely.
+        LOG.verbose(e, "Could not read the stamp of %s", path);
+        changed.add(path);
+      }
+    }
+    return changed.build();
+  }
+}
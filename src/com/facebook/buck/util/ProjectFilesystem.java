@@ -19,6 +19,7 @@ package com.facebook.buck.util;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.zip.CustomZipEntry;
 import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.PrecompressedFiles;
 import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
@@ -40,9 +41,9 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -75,6 +76,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
 import javax.annotation.Nullable;
 
@@ -684,8 +687,23 @@ public class ProjectFilesystem {
       Collection<Path> pathsToIncludeInZip,
       File out,
       ImmutableMap<Path, String> additionalFileContents) throws IOException {
+    try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(out))) {
+      createZip(pathsToIncludeInZip, stream, additionalFileContents, Deflater.DEFAULT_COMPRESSION);
+    }
+  }
+
+  /**
+   * Similar to {@link #createZip(Collection, File, ImmutableMap)}, but writes the zip to a stream,
+   * which is flushed but left open, deflating entries at compressionLevel. Files that are
+   * compressed already, such as jars, are stored as they are.
+   */
+  public void createZip(
+      Collection<Path> pathsToIncludeInZip,
+      OutputStream out,
+      ImmutableMap<Path, String> additionalFileContents,
+      int compressionLevel) throws IOException {
     Preconditions.checkState(!Iterables.isEmpty(pathsToIncludeInZip));
-    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(out)) {
+    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStreamLeavingOpen(out)) {
       for (Path path : pathsToIncludeInZip) {
         CustomZipEntry entry = new CustomZipEntry(path.toString());
 
@@ -699,20 +717,41 @@ public class ProjectFilesystem {
               EnumSet.of(PosixFilePermission.OWNER_EXECUTE)) << 16);
         }
 
-        zip.putNextEntry(entry);
-        try (InputStream input = Files.newInputStream(getPathForRelativePath(path))) {
-          ByteStreams.copy(input, zip);
+        if (PrecompressedFiles.isPrecompressed(path.toString())) {
+          entry.setCompressionLevel(Deflater.NO_COMPRESSION);
+        } else if (compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+          entry.setCompressionLevel(compressionLevel);
+        }
+        // Stored entries must declare their size and CRC up front, so read them only once.
+        if (entry.getMethod() == ZipEntry.STORED) {
+          byte[] contents = Files.readAllBytes(full);
+          entry.setSize(contents.length);
+          entry.setCompressedSize(contents.length);
+          entry.setCrc(Hashing.crc32().hashBytes(contents).padToLong());
+          zip.putNextEntry(entry);
+          zip.write(contents);
+        } else {
+          zip.putNextEntry(entry);
+          try (InputStream input = Files.newInputStream(full)) {
+            ByteStreams.copy(input, zip);
+          }
         }
         zip.closeEntry();
       }
 
       for (Map.Entry<Path, String> fileContentsEntry : additionalFileContents.entrySet()) {
         CustomZipEntry entry = new CustomZipEntry(fileContentsEntry.getKey().toString());
-        zip.putNextEntry(entry);
-        try (InputStream stream =
-                 new ByteArrayInputStream(fileContentsEntry.getValue().getBytes(Charsets.UTF_8))) {
-          ByteStreams.copy(stream, zip);
+        byte[] contents = fileContentsEntry.getValue().getBytes(Charsets.UTF_8);
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+          entry.setCompressionLevel(compressionLevel);
+        }
+        if (entry.getMethod() == ZipEntry.STORED) {
+          entry.setSize(contents.length);
+          entry.setCompressedSize(contents.length);
+          entry.setCrc(Hashing.crc32().hashBytes(contents).padToLong());
         }
+        zip.putNextEntry(entry);
+        zip.write(contents);
         zip.closeEntry();
       }
     }
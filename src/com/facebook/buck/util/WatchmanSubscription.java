@@ -0,0 +1,278 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.facebook.buck.log.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A Watchman subscription to the changes in a project, over a watchman process that lives for as
+ * long as the subscription does. The process sends the changes in BSER as they settle, and they
+ * are decoded on a thread of their own, so that they are ready to be posted by the time the next
+ * command starts, however many of them there are.
+ * <p>
+ * Changes that have only just been made may not have been sent yet when a command starts, so
+ * {@link #drainTo(Collection, long)} also returns a query for the changes since the last ones
+ * that were sent. That query is answered only once Watchman has caught up with the filesystem,
+ * and it only has the last few changes to report.
+ */
+class WatchmanSubscription implements Closeable {
+
+  private static final Logger LOG = Logger.get(WatchmanSubscription.class);
+
+  private final ObjectMapper objectMapper;
+  private final String rootPath;
+  private final String name;
+  private final Map<String, Object> queryParams;
+  private final int maxPendingEvents;
+
+  @Nullable private Process process;
+
+  /**
+   * The changes that have been sent but not yet drained, or a single overflow event once there
+   * have been more than {@link #maxPendingEvents} of them.
+   */
+  @GuardedBy("this")
+  private final List<WatchEvent<?>> pendingEvents = Lists.newArrayList();
+
+  @GuardedBy("this")
+  private boolean pendingEventsOverflowed;
+
+  /** The clock of the last changes that were sent, or null until Watchman replies. */
+  @GuardedBy("this")
+  @Nullable
+  private String clock;
+
+  @GuardedBy("this")
+  private boolean failed;
+
+  /** Only used on the thread that reads from the process. */
+  private boolean sawFirstResult;
+
+  /**
+   * @param queryParams the parameters of the subscription, other than where to start from. They
+   *     are also the parameters of the queries returned by {@link #drainTo(Collection, long)}.
+   * @param maxPendingEvents how many changes are kept until they are drained. Beyond that, they
+   *     are replaced by a single overflow event, as a branch switch can send a great many.
+   */
+  WatchmanSubscription(
+      ObjectMapper objectMapper,
+      String rootPath,
+      String name,
+      Map<String, Object> queryParams,
+      int maxPendingEvents) {
+    this.objectMapper = Preconditions.checkNotNull(objectMapper);
+    this.rootPath = Preconditions.checkNotNull(rootPath);
+    this.name = Preconditions.checkNotNull(name);
+    this.queryParams = ImmutableMap.copyOf(queryParams);
+    this.maxPendingEvents = maxPendingEvents;
+  }
+
+  /**
+   * Subscribes through {@code watchmanProcess}, which must have been started with
+   * {@code --persistent -j} and {@code --output-encoding=bser}.
+   */
+  void start(Process watchmanProcess) throws IOException {
+    Preconditions.checkState(process == null);
+    process = watchmanProcess;
+
+    String command = toJson(ImmutableList.of("subscribe", rootPath, name, queryParams));
+    LOG.debug("Writing subscription to Watchman: %s", command);
+    try (OutputStream stdin = watchmanProcess.getOutputStream()) {
+      stdin.write(command.getBytes(Charsets.UTF_8));
+    }
+
+    final InputStream stdout = new BufferedInputStream(watchmanProcess.getInputStream());
+    Thread reader = Threads.namedThread(
+        WatchmanSubscription.class.getSimpleName(),
+        new Runnable() {
+          @Override
+          public void run() {
+            readResponses(stdout);
+          }
+        });
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Decodes responses from {@code stdout} until it ends, or has something that is not understood,
+   * at which point the subscription has failed.
+   */
+  @VisibleForTesting
+  void readResponses(InputStream stdout) {
+    try {
+      while (true) {
+        Object response = BserDeserializer.deserializeBserValue(stdout);
+        if (!(response instanceof Map)) {
+          throw new IOException("Unexpected response from Watchman: " + response);
+        }
+        @SuppressWarnings("unchecked") // BSER objects are decoded as maps with string keys.
+        Map<String, Object> responseMap = (Map<String, Object>) response;
+        handleResponse(responseMap);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "The Watchman subscription %s has ended.", name);
+    } finally {
+      synchronized (this) {
+        failed = true;
+        notifyAll();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  void handleResponse(Map<String, Object> response) {
+    if (response.containsKey("error")) {
+      throw new WatchmanWatcherException(String.valueOf(response.get("error")));
+    }
+    Object responseClock = response.get("clock");
+
+    if (response.containsKey("subscribe")) {
+      // The reply to the subscribe command. Changes are sent from this clock on.
+      synchronized (this) {
+        clock = (String) Preconditions.checkNotNull(responseClock);
+        notifyAll();
+      }
+      return;
+    }
+
+    Object files = response.get("files");
+    if (!response.containsKey("subscription") || !(files instanceof List)) {
+      // Such as the notice that a repository operation has begun, which has no changes.
+      return;
+    }
+
+    List<WatchEvent<?>> events = Lists.newArrayList();
+    if (Boolean.TRUE.equals(response.get("is_fresh_instance")) && sawFirstResult) {
+      // Watchman has restarted, or given up on part of the project, and has no idea what changed.
+      LOG.info("Fresh watchman instance detected. Posting overflow event to flush caches.");
+      events.add(WatchmanWatcher.createOverflowEvent());
+    }
+    // The first result of a subscription always says it is fresh, as it has nothing to go on.
+    sawFirstResult = true;
+
+    for (Object file : (List<?>) files) {
+      Map<?, ?> fileMap = (Map<?, ?>) file;
+      WatchmanWatcher.PathEventBuilder builder = new WatchmanWatcher.PathEventBuilder();
+      builder.setPath(Paths.get((String) fileMap.get("name")));
+      if (Boolean.TRUE.equals(fileMap.get("new"))) {
+        builder.setCreationEvent();
+      }
+      if (Boolean.FALSE.equals(fileMap.get("exists"))) {
+        builder.setDeletionEvent();
+      }
+      events.add(builder.build());
+    }
+
+    synchronized (this) {
+      if (!pendingEventsOverflowed) {
+        if (pendingEvents.size() + events.size() > maxPendingEvents) {
+          LOG.warn(
+              "Received too many events from Watchman (more than %d), posting overflow event.",
+              maxPendingEvents);
+          pendingEvents.clear();
+          pendingEvents.add(WatchmanWatcher.createOverflowEvent());
+          pendingEventsOverflowed = true;
+        } else {
+          pendingEvents.addAll(events);
+        }
+      }
+      if (responseClock != null) {
+        clock = (String) responseClock;
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+   * Moves the changes that have been sent so far to {@code events}, first waiting up to
+   * {@code timeoutMillis} for Watchman to reply to the subscription if it has not yet.
+   *
+   * @return a query for the changes that have not been sent yet, or absent if the subscription
+   *     has failed, in which case changes may have been lost.
+   */
+  synchronized Optional<String> drainTo(
+      Collection<? super WatchEvent<?>> events,
+      long timeoutMillis) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (clock == null && !failed) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMillis <= 0) {
+        LOG.warn("Watchman has not replied to the subscription %s.", name);
+        failed = true;
+        break;
+      }
+      wait(remainingMillis);
+    }
+    if (failed) {
+      return Optional.absent();
+    }
+
+    events.addAll(pendingEvents);
+    pendingEvents.clear();
+    pendingEventsOverflowed = false;
+    Map<String, Object> sinceParams = new LinkedHashMap<>();
+    sinceParams.put("since", Preconditions.checkNotNull(clock));
+    sinceParams.putAll(queryParams);
+    return Optional.of(toJson(ImmutableList.of("query", rootPath, sinceParams)));
+  }
+
+  private String toJson(Object value) {
+    try {
+      return objectMapper.writeValueAsString(value);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      failed = true;
+      notifyAll();
+    }
+    if (process != null) {
+      // This ends the stream that the reader is blocked on, and so the reader too.
+      process.destroy();
+    }
+  }
+}
@@ -24,6 +24,7 @@ import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
@@ -62,6 +63,12 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
   private final ObjectMapper objectMapper;
   private final String query;
 
+  /**
+   * Streams changes in as they happen, so that each command only has to ask Watchman for the
+   * changes that have not been streamed yet. Absent if it could not be started, or has failed.
+   */
+  private Optional<WatchmanSubscription> subscription;
+
   /**
    * The maximum number of watchman changes to process in each call to postEvents before
    * giving up and generating an overflow. The goal is to be able to process a reasonable
@@ -91,7 +98,12 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
             MorePaths.absolutify(filesystem.getRootPath()).toString(),
             UUID.randomUUID().toString(),
             ignorePaths,
-            ignoreGlobs));
+            ignoreGlobs),
+        startSubscription(
+            objectMapper,
+            MorePaths.absolutify(filesystem.getRootPath()).toString(),
+            createQueryParams(ignorePaths, ignoreGlobs),
+            DEFAULT_OVERFLOW_THRESHOLD));
   }
 
   @VisibleForTesting
@@ -102,6 +114,25 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
                   int overflow,
                   long timeoutMillis,
                   String query) {
+    this(processSupplier,
+        fileChangeEventBus,
+        clock,
+        objectMapper,
+        overflow,
+        timeoutMillis,
+        query,
+        Optional.<WatchmanSubscription>absent());
+  }
+
+  @VisibleForTesting
+  WatchmanWatcher(Supplier<Process> processSupplier,
+                  EventBus fileChangeEventBus,
+                  Clock clock,
+                  ObjectMapper objectMapper,
+                  int overflow,
+                  long timeoutMillis,
+                  String query,
+                  Optional<WatchmanSubscription> subscription) {
     this.watchmanProcessSupplier = Preconditions.checkNotNull(processSupplier);
     this.eventBus = Preconditions.checkNotNull(fileChangeEventBus);
     this.clock = Preconditions.checkNotNull(clock);
@@ -109,6 +140,7 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
     this.overflow = overflow;
     this.timeoutMillis = timeoutMillis;
     this.query = Preconditions.checkNotNull(query);
+    this.subscription = Preconditions.checkNotNull(subscription);
   }
 
   @VisibleForTesting
@@ -127,6 +159,24 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
     sinceParams.put(
         "since",
         new StringBuilder("n:buckd").append(uuid).toString());
+    sinceParams.putAll(createQueryParams(ignorePaths, ignoreGlobs));
+    queryParams.add(sinceParams);
+    try {
+      return objectMapper.writeValueAsString(queryParams);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * @return the parameters, other than where to start from, of the queries and the subscription
+   *     that this watcher makes.
+   */
+  @VisibleForTesting
+  static Map<String, Object> createQueryParams(
+      Iterable<Path> ignorePaths,
+      Iterable<String> ignoreGlobs) {
+    Map<String, Object> params = new LinkedHashMap<>();
 
     // Exclude any expressions added to this list.
     List<Object> excludeAnyOf = Lists.<Object>newArrayList("anyof");
@@ -157,18 +207,41 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
               "wholename"));
     }
 
-    sinceParams.put(
+    params.put(
         "expression",
         Lists.newArrayList(
             "not",
             excludeAnyOf));
-    sinceParams.put("empty_on_fresh_instance", true);
-    sinceParams.put("fields", Lists.newArrayList("name", "exists", "new"));
-    queryParams.add(sinceParams);
+    params.put("empty_on_fresh_instance", true);
+    params.put("fields", Lists.newArrayList("name", "exists", "new"));
+    return params;
+  }
+
+  private static Optional<WatchmanSubscription> startSubscription(
+      ObjectMapper objectMapper,
+      String rootPath,
+      Map<String, Object> queryParams,
+      int overflow) {
+    ProcessBuilder processBuilder = new ProcessBuilder(
+        "watchman",
+        "--server-encoding=bser",
+        "--output-encoding=bser",
+        "--persistent",
+        "-j");
+    WatchmanSubscription subscription = new WatchmanSubscription(
+        objectMapper,
+        rootPath,
+        "buckd-" + UUID.randomUUID(),
+        queryParams,
+        overflow);
     try {
-      return objectMapper.writeValueAsString(queryParams);
+      LOG.debug("Starting watchman subscription: %s", processBuilder.command());
+      subscription.start(processBuilder.start());
+      return Optional.of(subscription);
     } catch (IOException e) {
-      throw Throwables.propagate(e);
+      LOG.warn(e, "Could not subscribe to Watchman, so changes will be queried for each command.");
+      subscription.close();
+      return Optional.absent();
     }
   }
 
@@ -201,6 +274,43 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
    */
   @Override
   public void postEvents() throws IOException, InterruptedException {
+    String query = this.query;
+    if (subscription.isPresent()) {
+      List<WatchEvent<?>> streamedEvents = Lists.newArrayList();
+      Optional<String> tailQuery = subscription.get().drainTo(streamedEvents, timeoutMillis);
+      if (tailQuery.isPresent()) {
+        if (streamedEvents.size() > overflow) {
+          // Streamed changes are held to the same limit as queried ones, deliberately: a batch
+          // of human edits stays well within it and is invalidated file by file, while one
+          // beyond it is a branch switch, which would invalidate nearly everything anyway. The
+          // overflow event also covers the changes that the tail query would return.
+          LOG.warn(
+              "Received too many events from Watchman (%d > overflow max %d), posting overflow " +
+              "event and giving up.",
+              streamedEvents.size(),
+              overflow);
+          postWatchEvent(createOverflowEvent());
+          return;
+        }
+        LOG.debug("Posting %d events streamed from Watchman.", streamedEvents.size());
+        for (WatchEvent<?> event : streamedEvents) {
+          postWatchEvent(event);
+        }
+        // Only the changes that have not been streamed yet are left to query for. The clock of
+        // the tail query is that of the last changes streamed, so it also returns the changes that
+        // the subscription is about to stream, which are then posted again the next time. That is
+        // harmless, but does invalidate them twice.
+        query = tailQuery.get();
+      } else {
+        // The named cursor of the query has not been used while the subscription was, so
+        // Watchman reports a fresh instance for it. That posts an overflow event, which covers
+        // whatever changes the subscription lost.
+        LOG.warn("The Watchman subscription has failed, so changes will be queried for instead.");
+        subscription.get().close();
+        subscription = Optional.absent();
+      }
+    }
+
     Process watchmanProcess = watchmanProcessSupplier.get();
     try {
       LOG.debug("Writing query to Watchman: %s", query);
@@ -340,7 +450,7 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
     eventBus.post(event);
   }
 
-  private WatchEvent<Object> createOverflowEvent() {
+  static WatchEvent<Object> createOverflowEvent() {
     return new WatchEvent<Object>() {
 
       @Override
@@ -368,9 +478,12 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
 
   @Override
   public void close() throws IOException {
+    if (subscription.isPresent()) {
+      subscription.get().close();
+    }
   }
 
-  private static class PathEventBuilder {
+  static class PathEventBuilder {
 
     private WatchEvent.Kind<Path> kind;
     @Nullable private Path path;
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Locale;
+
+/**
+ * Recognizes files that are compressed already, which are better stored in a zip as they are than
+ * deflated a second time.
+ */
+public class PrecompressedFiles {
+
+  private static final ImmutableSet<String> EXTENSIONS = ImmutableSet.of(
+      "aar",
+      "apk",
+      "bz2",
+      "gif",
+      "gz",
+      "jar",
+      "jpeg",
+      "jpg",
+      "mp3",
+      "ogg",
+      "png",
+      "tgz",
+      "war",
+      "webp",
+      "xz",
+      "zip");
+
+  /** Utility class: do not instantiate. */
+  private PrecompressedFiles() {}
+
+  /** @return whether the name of a file suggests that its contents are compressed. */
+  public static boolean isPrecompressed(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot != -1 &&
+        EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US));
+  }
+}
@@ -17,14 +17,21 @@
 package com.facebook.buck.zip;
 
 import com.facebook.buck.util.MorePosixFilePermissions;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteStreams;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermission;
@@ -33,6 +40,12 @@ import java.util.Set;
 
 public class Unzip {
 
+  /** Size of a central directory record, excluding variable length fields. */
+  private static final int CENTRAL_DIRECTORY_RECORD_SIZE = 46;
+  private static final int CENTRAL_DIRECTORY_RECORD_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
   /** Utility class: do not instantiate. */
   private Unzip() {}
 
@@ -163,4 +176,186 @@ public class Unzip {
     return filesWritten.build();
   }
 
+
+  /**
+   * Unzips a stream to a destination, overwriting existing files, and returns the paths of the
+   * written files. The stream is read to the end but left open. Each entry is written as soon as
+   * it has been read, so the zip never has to be stored in full.
+   * <p>
+   * Zip files record whether an entry is executable only in the central directory at the end of
+   * the zip, so the most recently read bytes of the stream are kept until it is exhausted, and the
+   * executable bits are set once the central directory has been read.
+   */
+  public static ImmutableList<Path> extractZipStream(
+      InputStream input,
+      Path destination) throws IOException {
+    Files.createDirectories(destination);
+
+    ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
+    TailRecordingInputStream tail = new TailRecordingInputStream(input);
+    try (ZipArchiveInputStream zip = new ZipArchiveInputStream(
+             tail,
+             Charsets.UTF_8.name(),
+             /* useUnicodeExtraFields */ true,
+             /* allowStoredEntriesWithDataDescriptor */ true)) {
+      ZipArchiveEntry entry;
+      while ((entry = zip.getNextZipEntry()) != null) {
+        tail.reserve(getCentralDirectoryRecordSize(entry));
+        Path target = destination.resolve(entry.getName());
+        if (entry.isDirectory()) {
+          Files.createDirectories(target);
+        } else {
+          Files.createDirectories(target.getParent());
+          filesWritten.add(target);
+          try (OutputStream out = Files.newOutputStream(target)) {
+            ByteStreams.copy(zip, out);
+          }
+        }
+      }
+
+      // The zip stream stops at the central directory, so read the rest of it directly.
+      ByteStreams.copy(tail, ByteStreams.nullOutputStream());
+    }
+    setExecutableBitsFromCentralDirectory(tail.getTail(), destination);
+    return filesWritten.build();
+  }
+
+  /**
+   * @return the size of the record of entry in the central directory, as far as a stream can tell.
+   *     Its extra field is assumed to be the larger of the local one and the one that the local
+   *     one implies. Its comment is only recorded in the central directory, so the slack of the
+   *     tail has to cover it.
+   */
+  private static int getCentralDirectoryRecordSize(ZipArchiveEntry entry) {
+    int extraLength = Math.max(
+        entry.getLocalFileDataExtra().length,
+        entry.getCentralDirectoryExtra().length);
+    int commentLength =
+        entry.getComment() == null ? 0 : entry.getComment().getBytes(Charsets.UTF_8).length;
+    return CENTRAL_DIRECTORY_RECORD_SIZE +
+        entry.getName().getBytes(Charsets.UTF_8).length +
+        extraLength +
+        commentLength;
+  }
+
+  private static void setExecutableBitsFromCentralDirectory(ByteBuffer tail, Path destination)
+      throws IOException {
+    tail.order(ByteOrder.LITTLE_ENDIAN);
+    int end = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+    while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+      end--;
+    }
+    if (end < 0) {
+      throw new IOException("Unable to find the end of the central directory of zip stream");
+    }
+    long centralDirectorySize = tail.getInt(end + 12) & 0xffffffffL;
+    if (centralDirectorySize > end) {
+      throw new IOException("Central directory of zip stream is too large to read");
+    }
+
+    int offset = end - (int) centralDirectorySize;
+    while (offset < end) {
+      if (tail.getInt(offset) != CENTRAL_DIRECTORY_RECORD_SIGNATURE) {
+        throw new IOException("Malformed central directory in zip stream");
+      }
+      int nameLength = tail.getShort(offset + 28) & 0xffff;
+      int extraLength = tail.getShort(offset + 30) & 0xffff;
+      int commentLength = tail.getShort(offset + 32) & 0xffff;
+      long externalAttributes = tail.getInt(offset + 38) & 0xffffffffL;
+      byte[] nameBytes = new byte[nameLength];
+      tail.position(offset + CENTRAL_DIRECTORY_RECORD_SIZE);
+      tail.get(nameBytes);
+
+      // See extractZipFile() for how executable files are recorded.
+      Set<PosixFilePermission> permissions =
+          MorePosixFilePermissions.fromMode(externalAttributes >> 16);
+      if (permissions.contains(PosixFilePermission.OWNER_EXECUTE)) {
+        Path target = destination.resolve(new String(nameBytes, Charsets.UTF_8));
+        target.toFile().setExecutable(/* executable */ true, /* ownerOnly */ true);
+      }
+      offset += CENTRAL_DIRECTORY_RECORD_SIZE + nameLength + extraLength + commentLength;
+    }
+  }
+
+  /**
+   * Keeps a copy of the last bytes read from a stream. It starts off keeping a fixed amount, and
+   * callers {@link #reserve(int)} more as they learn how long the end of the stream will be.
+   */
+  private static class TailRecordingInputStream extends FilterInputStream {
+    private static final int INITIAL_TAIL_SIZE = 64 * 1024;
+
+    private byte[] buffer = new byte[2 * INITIAL_TAIL_SIZE];
+    private int length;
+    private int tailSize = INITIAL_TAIL_SIZE;
+
+    private TailRecordingInputStream(InputStream in) {
+      super(in);
+    }
+
+    private void reserve(int bytes) {
+      tailSize += bytes;
+    }
+
+    private ByteBuffer getTail() {
+      int start = Math.max(0, length - tailSize);
+      return ByteBuffer.wrap(buffer, start, length - start).slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        makeRoomFor(1);
+        buffer[length++] = (byte) b;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        record(b, off, read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Read rather than skip, so the skipped bytes are recorded.
+      byte[] skipped = new byte[(int) Math.min(n, 8192)];
+      int read = read(skipped, 0, skipped.length);
+      return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    /** The stream belongs to the caller of extractZipStream(), so leave it open. */
+    @Override
+    public void close() {}
+
+    private void record(byte[] b, int off, int len) {
+      makeRoomFor(len);
+      System.arraycopy(b, off, buffer, length, len);
+      length += len;
+    }
+
+    private void makeRoomFor(int len) {
+      if (length + len > buffer.length) {
+        // Drop everything but the tail, growing the buffer if the tail no longer fits in half.
+        int keep = Math.min(length, tailSize);
+        byte[] target = buffer;
+        if (keep + len > buffer.length / 2) {
+          target = new byte[2 * (keep + len)];
+        }
+        System.arraycopy(buffer, length - keep, target, 0, keep);
+        buffer = target;
+        length = keep;
+      }
+    }
+  }
+
 }
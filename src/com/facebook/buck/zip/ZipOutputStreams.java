@@ -25,6 +25,8 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 
 public class ZipOutputStreams {
@@ -60,6 +62,26 @@ public class ZipOutputStreams {
     return newOutputStream(out, HandleDuplicates.THROW_EXCEPTION);
   }
 
+  /**
+   * Like {@link #newOutputStream(OutputStream)}, but closing the returned stream only flushes
+   * {@code out}, so that the caller can go on using it.
+   *
+   * @param out The output stream to write to, which the caller remains responsible for closing.
+   */
+  public static CustomZipOutputStream newOutputStreamLeavingOpen(OutputStream out) {
+    return newOutputStream(new FilterOutputStream(out) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    });
+  }
+
   /**
    * Create a new {@link CustomZipOutputStream} that handles duplicate entries in the way dictated
    * by {@code mode}.
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import javax.tools.ToolProvider;
+
+public class InProcessDexerLimitTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private final PrintStream nullStream = new PrintStream(ByteStreams.nullOutputStream());
+
+  // A run that did not give up its permit would leave the next one waiting forever.
+  @Test(timeout = 60000)
+  public void testEachRunGivesUpItsPermit() throws IOException, InterruptedException {
+    File classes = compileExample();
+
+    InProcessDexerLimit limit = new InProcessDexerLimit(/* maxDexers */ 1);
+    for (String output : ImmutableList.of("first.dex", "second.dex")) {
+      File dex = new File(tmp.getRoot(), output);
+      assertEquals(
+          0,
+          limit.run(
+              ImmutableList.of("--output", dex.getPath(), classes.getPath()),
+              nullStream,
+              nullStream));
+      assertTrue(dex.isFile());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testAFailedRunGivesUpItsPermit() throws IOException, InterruptedException {
+    InProcessDexerLimit limit = new InProcessDexerLimit(/* maxDexers */ 1);
+
+    int exitCode;
+    try {
+      exitCode = limit.run(
+          ImmutableList.of(
+              "--output",
+              new File(tmp.getRoot(), "out.dex").getPath(),
+              new File(tmp.getRoot(), "missing.jar").getPath()),
+          nullStream,
+          nullStream);
+    } catch (RuntimeException e) {
+      exitCode = 1;
+    }
+    assertNotEquals(0, exitCode);
+
+    File classes = compileExample();
+    File dex = new File(tmp.getRoot(), "classes.dex");
+    assertEquals(
+        0,
+        limit.run(
+            ImmutableList.of("--output", dex.getPath(), classes.getPath()),
+            nullStream,
+            nullStream));
+  }
+
+  private File compileExample() throws IOException {
+    File classes = tmp.newFolder("classes");
+    File source = new File(tmp.getRoot(), "Example.java");
+    Files.write(source.toPath(), "public class Example {}".getBytes(Charsets.UTF_8));
+    assertEquals(
+        0,
+        ToolProvider.getSystemJavaCompiler().run(
+            null,
+            null,
+            null,
+            // Class files that this version of dx understands.
+            "-source", "6",
+            "-target", "6",
+            "-d", classes.getPath(),
+            source.getPath()));
+    return classes;
+  }
+}
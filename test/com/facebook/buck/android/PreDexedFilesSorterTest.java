@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.rules.FakeBuildContext;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.step.Step;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+public class PreDexedFilesSorterTest {
+
+  private static final long LINEAR_ALLOC_HARD_LIMIT = 10;
+
+  @Test
+  public void testSecondaryDexesArePackedInOrderWithoutALayout() {
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 4), dex("b", 4), dex("c", 4)),
+        Optional.<Map<Path, Integer>>absent());
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 1, path("b"), 1, path("c"), 2),
+        result.secondaryDexLayout);
+  }
+
+  @Test
+  public void testNewLibrariesAreAppendedWithoutMovingTheOthers() {
+    // Packed afresh, "aa" would push "b" into the second secondary dex, and "c" into a third.
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 4), dex("aa", 4), dex("b", 4), dex("c", 4)),
+        Optional.of(ImmutableMap.of(path("a"), 1, path("b"), 1, path("c"), 2)));
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 1, path("b"), 1, path("c"), 2, path("aa"), 2),
+        result.secondaryDexLayout);
+  }
+
+  @Test
+  public void testALibraryThatNoLongerFitsIsMovedToTheEnd() {
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 4), dex("b", 7), dex("c", 4)),
+        Optional.of(ImmutableMap.of(path("a"), 1, path("b"), 1, path("c"), 2)));
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 1, path("c"), 2, path("b"), 3),
+        result.secondaryDexLayout);
+  }
+
+  @Test
+  public void testASecondaryDexWhoseLibrariesHaveGoneKeepsItsCanary() {
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 4), dex("c", 4), dex("e", 4)),
+        Optional.of(ImmutableMap.of(path("a"), 1, path("b"), 2, path("c"), 3, path("e"), 3)));
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 1, path("c"), 3, path("e"), 3),
+        result.secondaryDexLayout);
+    assertEquals(3, result.secondaryOutputToInputs.keySet().size());
+    assertEquals(
+        1,
+        result.secondaryOutputToInputs.get(Paths.get("jarfiles/secondary-2.dex.jar")).size());
+  }
+
+  @Test
+  public void testAWastefulLayoutIsRepacked() {
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 4), dex("b", 4)),
+        Optional.of(ImmutableMap.of(path("a"), 1, path("b"), 5)));
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 1, path("b"), 1),
+        result.secondaryDexLayout);
+  }
+
+  private static PreDexedFilesSorter.Result sort(
+      List<DexWithClasses> dexFilesToMerge,
+      Optional<? extends Map<Path, Integer>> previousLayout) {
+    PreDexedFilesSorter sorter = new PreDexedFilesSorter(
+        Optional.<DexWithClasses>absent(),
+        dexFilesToMerge,
+        /* primaryDexPatterns */ ImmutableSet.<String>of(),
+        Paths.get("scratch"),
+        LINEAR_ALLOC_HARD_LIMIT,
+        DexStore.JAR,
+        Paths.get("jarfiles"));
+    return sorter.sortIntoPrimaryAndSecondaryDexes(
+        FakeBuildContext.NOOP_CONTEXT,
+        ImmutableList.<Step>builder(),
+        previousLayout);
+  }
+
+  private static Path path(String name) {
+    return Paths.get(name + ".dex.jar");
+  }
+
+  private static DexWithClasses dex(final String name, final int sizeEstimate) {
+    return new DexWithClasses() {
+      @Override
+      public Path getPathToDexFile() {
+        return path(name);
+      }
+
+      @Override
+      public ImmutableSet<String> getClassNames() {
+        return ImmutableSet.of("com/example/" + name.toUpperCase());
+      }
+
+      @Override
+      public Sha1HashCode getClassesHash() {
+        return Sha1HashCode.fromHashCode(Hashing.sha1().hashString(name, Charsets.UTF_8));
+      }
+
+      @Override
+      public int getSizeEstimate() {
+        return sizeEstimate;
+      }
+    };
+  }
+}
@@ -25,6 +25,7 @@ import static org.junit.Assert.fail;
 
 import com.facebook.buck.parser.BuildTargetParser;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
+import com.facebook.buck.rules.ArtifactCompression;
 import com.facebook.buck.testutil.IdentityPathAbsolutifier;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 import com.facebook.buck.testutil.integration.ProjectWorkspace;
@@ -390,6 +391,24 @@ public class BuckConfigTest {
         config.getCacheDir());
   }
 
+  @Test
+  public void testReadCacheCompression() throws IOException {
+    BuckConfig config = createFromText(
+        "[cache]",
+        "http_compression = best",
+        "dir_compression = gzip");
+    assertEquals(ArtifactCompression.best, config.readCacheCompression("http_compression", "none"));
+    assertEquals(
+        ArtifactCompression.fast,
+        config.readCacheCompression("cassandra_compression", "fast"));
+    try {
+      config.readCacheCompression("dir_compression", "fast");
+      fail("Should have thrown HumanReadableException.");
+    } catch (HumanReadableException e) {
+      assertEquals("Unusable cache.dir_compression: 'gzip'", e.getHumanReadableErrorMessage());
+    }
+  }
+
   @Test
   public void testBuckPyIgnorePaths() throws IOException {
     ProjectWorkspace workspace = TestDataHelper.createProjectWorkspaceForScenario(
@@ -583,6 +602,20 @@ public class BuckConfigTest {
     assertArrayEquals("Should match value in environment.", expected, config.getEnv(name, ":"));
   }
 
+  @Test
+  public void testGlobHandler() throws IOException {
+    assertFalse(createFromText().isWatchmanGlobEnabled());
+    assertFalse(createFromText("[project]", "glob_handler = python").isWatchmanGlobEnabled());
+    assertTrue(createFromText("[project]", "glob_handler = watchman").isWatchmanGlobEnabled());
+
+    try {
+      createFromText("[project]", "glob_handler = inotify").isWatchmanGlobEnabled();
+      fail("Should have thrown HumanReadableException.");
+    } catch (HumanReadableException e) {
+      assertEquals("Unusable project.glob_handler: 'inotify'", e.getHumanReadableErrorMessage());
+    }
+  }
+
   private BuckConfig createWithDefaultFilesystem(Reader reader, @Nullable BuildTargetParser parser)
       throws IOException {
     ProjectFilesystem projectFilesystem = new ProjectFilesystem(temporaryFolder.getRoot());
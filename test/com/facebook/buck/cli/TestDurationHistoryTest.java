@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.java.JavaTestDescription;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.FakeTestRule;
+import com.facebook.buck.rules.Label;
+import com.facebook.buck.rules.TestRule;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class TestDurationHistoryTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private ObjectMapper objectMapper;
+
+  @Before
+  public void setUp() {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    objectMapper = new ObjectMapper();
+  }
+
+  @Test
+  public void testTestsKeepTheirOrderWithoutHistory() {
+    TestDurationHistory history = TestDurationHistory.load(filesystem, objectMapper);
+    ImmutableList<TestRule> tests = ImmutableList.of(createTest("//:b"), createTest("//:a"));
+
+    assertEquals(tests, history.sortLongestFirst(tests));
+    assertFalse(history.predictMakespan(tests, /* threadCount */ 2).isPresent());
+  }
+
+  @Test
+  public void testLongestTestsStartFirst() throws IOException {
+    filesystem.createParentDirs(TestDurationHistory.PATH);
+    filesystem.writeContentsToPath(
+        "{\"//:a\":100,\"//:b\":60,\"//:c\":50}",
+        TestDurationHistory.PATH);
+    TestDurationHistory history = TestDurationHistory.load(filesystem, objectMapper);
+    TestRule a = createTest("//:a");
+    TestRule b = createTest("//:b");
+    TestRule c = createTest("//:c");
+    // Takes as long as the average test.
+    TestRule d = createTest("//:d");
+
+    ImmutableList<TestRule> sorted = history.sortLongestFirst(ImmutableList.of(c, b, d, a));
+    assertEquals(ImmutableList.of(a, d, b, c), sorted);
+    // a and d start at once; b follows d, and c follows a.
+    assertEquals(Optional.of(150L), history.predictMakespan(sorted, /* threadCount */ 2));
+  }
+
+  @Test
+  public void testPredictionsAreMadeFromTheDurationsOfPreviousRuns()
+      throws IOException, InterruptedException {
+    filesystem.createParentDirs(TestDurationHistory.PATH);
+    filesystem.writeContentsToPath("{\"//:a\":100000}", TestDurationHistory.PATH);
+    TestDurationHistory history = TestDurationHistory.load(filesystem, objectMapper);
+    TestRule a = createTest("//:a");
+
+    history.createStartStep(a.getBuildTarget()).execute(TestExecutionContext.newInstance());
+    history.finished(a.getBuildTarget());
+
+    assertEquals(
+        Optional.of(100000L),
+        history.predictMakespan(ImmutableList.of(a), /* threadCount */ 1));
+  }
+
+  @Test
+  public void testDurationsOfTestsThatRanAreSaved() throws IOException, InterruptedException {
+    TestDurationHistory history = TestDurationHistory.load(filesystem, objectMapper);
+    TestRule ran = createTest("//:ran");
+    TestRule cached = createTest("//:cached");
+
+    history.createStartStep(ran.getBuildTarget()).execute(TestExecutionContext.newInstance());
+    history.finished(ran.getBuildTarget());
+    history.finished(cached.getBuildTarget());
+    history.save();
+
+    TestDurationHistory saved = TestDurationHistory.load(filesystem, objectMapper);
+    assertTrue(saved.getDuration(ran.getBuildTarget()).isPresent());
+    assertFalse(saved.getDuration(cached.getBuildTarget()).isPresent());
+  }
+
+  private static TestRule createTest(String target) {
+    return new FakeTestRule(
+        JavaTestDescription.TYPE,
+        ImmutableSet.<Label>of(),
+        BuildTargetFactory.newInstance(target),
+        ImmutableSortedSet.<BuildRule>of(),
+        ImmutableSet.<BuildTargetPattern>of());
+  }
+}
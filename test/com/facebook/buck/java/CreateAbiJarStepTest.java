@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.tools.ToolProvider;
+
+public class CreateAbiJarStepTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() {
+    context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot()))
+        .build();
+  }
+
+  @Test
+  public void testStubsKeepWhatDependentsCompileAgainst() throws IOException {
+    compile(
+        "lib",
+        "",
+        "Lib.java",
+        "package com.example;",
+        "public class Lib {",
+        "  public static final String NAME = \"lib\";",
+        "  private int secret;",
+        "  public int value() {",
+        "    return new Object() { public int hashCode() { return secret; } }.hashCode();",
+        "  }",
+        "  private void hidden() {}",
+        "  public static class Nested { protected void nested() {} }",
+        "}");
+    Files.createDirectories(tmp.getRoot().toPath().resolve("lib-jar"));
+    assertEquals(0, new JarDirectoryStep(
+        Paths.get("lib-jar/lib.jar"),
+        ImmutableSet.of(Paths.get("lib")),
+        /* mainClass */ null,
+        /* manifestFile */ null).execute(context));
+
+    assertEquals(
+        0,
+        new CreateAbiJarStep(Optional.of(Paths.get("lib-jar/lib.jar")), Paths.get("abi.jar"))
+            .execute(context));
+
+    File abiJar = new File(tmp.getRoot(), "abi.jar");
+    assertEquals(
+        ImmutableSortedSet.of(
+            "META-INF/MANIFEST.MF",
+            "com/",
+            "com/example/",
+            "com/example/Lib$Nested.class",
+            "com/example/Lib.class"),
+        getEntries(abiJar));
+    assertEquals(
+        ImmutableSortedSet.of("NAME", "<init>", "value"),
+        getMembers(abiJar, "com/example/Lib.class"));
+
+    // Constants are still inlined, and methods can still be called.
+    compile(
+        "use",
+        abiJar.getPath(),
+        "Use.java",
+        "class Use {",
+        "  String name = com.example.Lib.NAME;",
+        "  int value(com.example.Lib lib) { return lib.value(); }",
+        "  void nested(com.example.Lib.Nested nested) {}",
+        "}");
+  }
+
+  @Test
+  public void testEmptyJarIsWrittenWithoutAnInputJar() throws IOException {
+    assertEquals(
+        0,
+        new CreateAbiJarStep(Optional.<Path>absent(), Paths.get("abi.jar")).execute(context));
+
+    assertEquals(
+        ImmutableSortedSet.of("META-INF/MANIFEST.MF"),
+        getEntries(new File(tmp.getRoot(), "abi.jar")));
+  }
+
+  private void compile(
+      String outputDirectory,
+      String classpath,
+      String fileName,
+      String... lines) throws IOException {
+    File output = tmp.newFolder(outputDirectory);
+    File source = new File(tmp.getRoot(), fileName);
+    Files.write(source.toPath(), Joiner.on('\n').join(lines).getBytes(Charsets.UTF_8));
+    assertEquals(
+        0,
+        ToolProvider.getSystemJavaCompiler().run(
+            null,
+            null,
+            null,
+            // Class files that ASM can read.
+            "-source", "7",
+            "-target", "7",
+            "-d", output.getPath(),
+            "-classpath", classpath,
+            source.getPath()));
+  }
+
+  private static ImmutableSortedSet<String> getEntries(File jar) throws IOException {
+    ImmutableSortedSet.Builder<String> entries = ImmutableSortedSet.naturalOrder();
+    try (ZipFile zip = new ZipFile(jar)) {
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+        entries.add(e.nextElement().getName());
+      }
+    }
+    return entries.build();
+  }
+
+  private static ImmutableSortedSet<String> getMembers(File jar, String entry) throws IOException {
+    byte[] classFile;
+    try (ZipFile zip = new ZipFile(jar);
+         InputStream input = zip.getInputStream(zip.getEntry(entry))) {
+      classFile = ByteStreams.toByteArray(input);
+    }
+    final ImmutableSortedSet.Builder<String> members = ImmutableSortedSet.naturalOrder();
+    new ClassReader(classFile).accept(
+        new ClassVisitor(Opcodes.ASM4) {
+          @Override
+          public FieldVisitor visitField(
+              int access,
+              String name,
+              String desc,
+              String signature,
+              Object value) {
+            members.add(name);
+            return null;
+          }
+
+          @Override
+          public MethodVisitor visitMethod(
+              int access,
+              String name,
+              String desc,
+              String signature,
+              String[] exceptions) {
+            members.add(name);
+            return null;
+          }
+        },
+        0);
+    return members.build();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+public class IncrementalCompilationStateTest {
+
+  private static final HashCode ONE = HashCode.fromString("1111");
+  private static final HashCode TWO = HashCode.fromString("2222");
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  /** Base.java declares Base, Middle.java extends it, Top.java uses Middle, Other.java is alone. */
+  private static final IncrementalCompilationState STATE = new IncrementalCompilationState(
+      "fingerprint",
+      HashCode.fromString("abcd"),
+      ImmutableMap.of(
+          "Base.java", source(ImmutableSet.of("Base", "Base$Inner"), ImmutableSet.<String>of()),
+          "Middle.java", source(ImmutableSet.of("Middle"), ImmutableSet.of("Base$Inner")),
+          "Top.java", source(ImmutableSet.of("Top"), ImmutableSet.of("Middle", "java/util/List")),
+          "Other.java", source(ImmutableSet.of("Other"), ImmutableSet.of("java/util/List"))));
+
+  @Test
+  public void testDependentsAreCompiledAgainTransitively() {
+    assertEquals(
+        Optional.of(ImmutableSortedSet.of("Base.java", "Middle.java", "Top.java")),
+        STATE.getSourcesToRecompile(hashesOfAllSourcesChanging("Base.java")));
+    assertEquals(
+        Optional.of(ImmutableSortedSet.of("Top.java")),
+        STATE.getSourcesToRecompile(hashesOfAllSourcesChanging("Top.java")));
+  }
+
+  @Test
+  public void testAddingOrRemovingSourcesCompilesEverything() {
+    assertFalse(
+        STATE.getSourcesToRecompile(
+            ImmutableMap.of("Base.java", ONE, "Middle.java", ONE, "Top.java", ONE))
+            .isPresent());
+    assertFalse(
+        STATE.getSourcesToRecompile(
+            ImmutableMap.<String, HashCode>builder()
+                .putAll(hashesOfAllSources())
+                .put("New.java", ONE)
+                .build())
+            .isPresent());
+  }
+
+  @Test
+  public void testStateSurvivesBeingWrittenAndReadBack() throws IOException {
+    File file = new File(tmp.getRoot(), "state");
+    STATE.write(file);
+
+    Optional<IncrementalCompilationState> read = IncrementalCompilationState.read(file);
+    assertTrue(read.isPresent());
+    assertEquals("fingerprint", read.get().getFingerprint());
+    assertEquals("abcd", read.get().getJarHash());
+    assertEquals(
+        STATE.getSourcesToRecompile(hashesOfAllSources()),
+        read.get().getSourcesToRecompile(hashesOfAllSources()));
+    assertEquals(
+        ImmutableSortedSet.of("Middle", "java/util/List"),
+        read.get().getSources().get("Top.java").getReferencedTypes());
+  }
+
+  @Test
+  public void testUnreadableStateIsIgnored() throws IOException {
+    File file = tmp.newFile("state");
+    assertFalse(IncrementalCompilationState.read(file).isPresent());
+    assertFalse(IncrementalCompilationState.read(new File(tmp.getRoot(), "missing")).isPresent());
+  }
+
+  private static Map<String, HashCode> hashesOfAllSources() {
+    return hashesOfAllSourcesChanging("None.java");
+  }
+
+  private static Map<String, HashCode> hashesOfAllSourcesChanging(String changed) {
+    Map<String, HashCode> hashes = Maps.newHashMap();
+    for (String source : STATE.getSources().keySet()) {
+      hashes.put(source, source.equals(changed) ? TWO : ONE);
+    }
+    return hashes;
+  }
+
+  private static IncrementalCompilationState.Source source(
+      ImmutableSet<String> classes,
+      ImmutableSet<String> referencedTypes) {
+    return new IncrementalCompilationState.Source(
+        ONE.toString(),
+        classes,
+        referencedTypes,
+        ImmutableMap.<String, String>of());
+  }
+}
@@ -17,6 +17,8 @@
 package com.facebook.buck.java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.step.ExecutionContext;
@@ -174,4 +176,36 @@ public class JUnitStepTest {
     assertEquals("Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void testOnlyTestsWithoutVmArgumentsRunInReusedJvms() {
+    ExecutionContext reusingContext = TestExecutionContext.newBuilder()
+        .setTestJvmReuseLimit(10)
+        .build();
+
+    assertTrue(createJUnitStep(ImmutableList.<String>of(), TestType.JUNIT)
+        .canRunInWorker(reusingContext));
+    assertFalse(createJUnitStep(ImmutableList.of("-Xmx1g"), TestType.JUNIT)
+        .canRunInWorker(reusingContext));
+    assertFalse(createJUnitStep(ImmutableList.<String>of(), TestType.TESTNG)
+        .canRunInWorker(reusingContext));
+    assertFalse(createJUnitStep(ImmutableList.<String>of(), TestType.JUNIT)
+        .canRunInWorker(TestExecutionContext.newInstance()));
+  }
+
+  private static JUnitStep createJUnitStep(List<String> vmArgs, TestType type) {
+    return new JUnitStep(
+        ImmutableSet.of(Paths.get("foo")),
+        ImmutableSet.of("com.facebook.buck.shell.JUnitCommandTest"),
+        vmArgs,
+        Paths.get("buck-out/gen/theresults/"),
+        Paths.get("buck-out/gen/thetmp/"),
+        /* isCodeCoverageEnabled */ false,
+        /* isDebugEnabled */ false,
+        new BuildId("pretend-build-id"),
+        TestSelectorList.empty(),
+        /* isDryRun */ false,
+        type,
+        Paths.get("build/classes/junit"));
+  }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.tools.ToolProvider;
+
+public class JUnitWorkerPoolTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private Path testRunnerClassesDirectory;
+  private String classpath;
+  private JUnitWorkerPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    testRunnerClassesDirectory = Paths.get(System.getProperty(
+        "buck.testrunner_classes",
+        new File("build/testrunner/classes").getAbsolutePath()));
+    classpath = Joiner.on(File.pathSeparator).join(
+        tmp.newFolder("classes").getPath(),
+        new File("third-party/java/junit/junit-4.11.jar").getAbsolutePath(),
+        new File("third-party/java/hamcrest/hamcrest-core-1.3.jar").getAbsolutePath());
+    pool = new JUnitWorkerPool(/* maxIdleWorkers */ 1);
+  }
+
+  @Test
+  public void testWorkerRunsTestsUntilItReachesItsLimit() throws IOException {
+    compileTest("PassingTest", "");
+    compileTest("OtherTest", "");
+
+    assertEquals(0, run("PassingTest", /* maxRunsPerWorker */ 2).exitCode);
+    assertEquals(1, pool.getIdleWorkerCount());
+    assertEquals(0, run("OtherTest", /* maxRunsPerWorker */ 2).exitCode);
+    assertEquals(0, pool.getIdleWorkerCount());
+
+    assertThat(readResults("PassingTest"), containsString("testPasses"));
+    assertThat(readResults("OtherTest"), containsString("testPasses"));
+  }
+
+  @Test
+  public void testWorkerThatTestsLeaveThreadsRunningInIsReplaced() throws IOException {
+    compileTest(
+        "LeakingTest",
+        "new Thread() { public void run() { try { Thread.sleep(60000); } " +
+            "catch (InterruptedException e) {} } }.start();");
+
+    assertEquals(0, run("LeakingTest", /* maxRunsPerWorker */ 10).exitCode);
+    assertEquals(0, pool.getIdleWorkerCount());
+    assertThat(readResults("LeakingTest"), containsString("testPasses"));
+  }
+
+  @Test
+  public void testWhatEachRunPrintsIsReturnedWithItsResult() throws IOException {
+    compileTest("FirstTest", "");
+    compileTest("FailingTest", "org.junit.Assert.fail();");
+
+    JUnitWorkerPool.Result first = run("FirstTest", /* maxRunsPerWorker */ 10);
+    JUnitWorkerPool.Result second = run("FailingTest", /* maxRunsPerWorker */ 10);
+
+    // The test runner prints where it writes the results of each test class.
+    assertThat(first.output, containsString("FirstTest.xml"));
+    assertEquals("A failing test is not a failed run.", 0, second.exitCode);
+    assertThat(second.output, containsString("FailingTest.xml"));
+    assertThat(second.output, not(containsString("FirstTest.xml")));
+  }
+
+  @Test
+  public void testRunThatTheTestRunnerFailsIsReportedAsFailed() throws IOException {
+    compileTest("PassingTest", "");
+
+    JUnitWorkerPool.Result result = run(
+        "PassingTest",
+        /* maxRunsPerWorker */ 10,
+        /* defaultTestTimeoutMillis */ "not a number");
+
+    assertEquals(1, result.exitCode);
+    assertEquals("The worker should still be fit to run tests.", 1, pool.getIdleWorkerCount());
+  }
+
+  private JUnitWorkerPool.Result run(String testClassName, int maxRunsPerWorker)
+      throws IOException {
+    return run(testClassName, maxRunsPerWorker, /* defaultTestTimeoutMillis */ "0");
+  }
+
+  private JUnitWorkerPool.Result run(
+      String testClassName,
+      int maxRunsPerWorker,
+      String defaultTestTimeoutMillis) throws IOException {
+    File results = new File(tmp.getRoot(), "results-" + testClassName);
+    assertTrue(results.mkdir());
+    return pool.run(
+        testRunnerClassesDirectory,
+        tmp.getRoot().toPath(),
+        ImmutableMap.copyOf(System.getenv()),
+        maxRunsPerWorker,
+        ImmutableList.of(
+            classpath,
+            tmp.getRoot().getPath(),
+            "pretend-build-id",
+            results.getPath(),
+            defaultTestTimeoutMillis,
+            /* testSelectors */ "",
+            /* isDryRun */ "",
+            testClassName));
+  }
+
+  private String readResults(String testClassName) throws IOException {
+    Path results = tmp.getRoot().toPath()
+        .resolve("results-" + testClassName)
+        .resolve(testClassName + ".xml");
+    return new String(Files.readAllBytes(results), Charsets.UTF_8);
+  }
+
+  private void compileTest(String className, String body) throws IOException {
+    File source = new File(tmp.getRoot(), className + ".java");
+    Files.write(
+        source.toPath(),
+        Joiner.on('\n').join(
+            "public class " + className + " {",
+            "  @org.junit.Test public void testPasses() {",
+            "    " + body,
+            "  }",
+            "}").getBytes(Charsets.UTF_8));
+    assertEquals(
+        0,
+        ToolProvider.getSystemJavaCompiler().run(
+            null,
+            null,
+            null,
+            "-d", new File(tmp.getRoot(), "classes").getPath(),
+            "-classpath", classpath,
+            source.getPath()));
+  }
+}
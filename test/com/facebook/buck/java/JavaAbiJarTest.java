@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.Flavor;
+import com.facebook.buck.model.HasBuildTarget;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.FakeBuildContext;
+import com.facebook.buck.rules.FakeBuildableContext;
+import com.facebook.buck.step.Step;
+import com.google.common.base.Optional;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class JavaAbiJarTest {
+
+  @Test
+  public void testJavaLibraryHasAnAbiJarFlavor() {
+    assertTrue(new JavaLibraryDescription(JavaCompilerEnvironment.DEFAULT)
+        .hasFlavors(ImmutableSet.of(JavaLibrary.ABI_JAR)));
+    assertFalse(new JavaLibraryDescription(JavaCompilerEnvironment.DEFAULT)
+        .hasFlavors(ImmutableSet.of(new Flavor("cheese"))));
+  }
+
+  @Test
+  public void testAbiJarIsCompiledAgainstTheAbiJarsOfItsDeps() {
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    BuildRule prebuilt = PrebuiltJarBuilder.createBuilder(target("//:prebuilt"))
+        .setBinaryJar(Paths.get("prebuilt.jar"))
+        .build(resolver);
+    JavaLibraryBuilder.createBuilder(target("//:a"))
+        .addSrc(Paths.get("A.java"))
+        .addDep(prebuilt.getBuildTarget())
+        .build(resolver);
+    JavaLibraryBuilder.createBuilder(target("//:b"))
+        .addSrc(Paths.get("B.java"))
+        .addDep(target("//:a"))
+        .build(resolver);
+
+    JavaAbiJar abiJar = (JavaAbiJar) JavaLibraryBuilder.createBuilder(target("//:b#abi"))
+        .addSrc(Paths.get("B.java"))
+        .addDep(target("//:a"))
+        .build(resolver);
+
+    assertEquals(JavaAbiJar.TYPE, abiJar.getType());
+    assertEquals(
+        ImmutableSet.of(target("//:a#abi"), target("//:prebuilt")),
+        getTargets(abiJar.getDeps()));
+    JavaAbiJar depAbiJar = (JavaAbiJar) Iterables.getFirst(abiJar.getDeps(), null);
+    assertSame(
+        "The ABI jars of deps should be added to the resolver.",
+        depAbiJar,
+        resolver.getRule(target("//:a#abi")));
+    assertEquals(
+        Optional.of(
+            ImmutableSet.of(depAbiJar.getPathToOutputFile(), prebuilt.getPathToOutputFile())),
+        abiJar.getClasspath());
+
+    assertEquals(ImmutableSet.of(target("//:prebuilt")), getTargets(depAbiJar.getDeps()));
+    assertEquals(
+        Optional.of(ImmutableSet.of(prebuilt.getPathToOutputFile())),
+        depAbiJar.getClasspath());
+  }
+
+  @Test
+  public void testAbiJarOfALibraryWithAnnotationProcessorsIsMadeFromItsFullJar() {
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    JavaLibraryBuilder.createBuilder(target("//:processed"))
+        .addSrc(Paths.get("Processed.java"))
+        .addAnnotationProcessor("com.example.Processor")
+        .build(resolver);
+    JavaLibraryBuilder.createBuilder(target("//:b"))
+        .addSrc(Paths.get("B.java"))
+        .addDep(target("//:processed"))
+        .build(resolver);
+
+    JavaAbiJar abiJar = (JavaAbiJar) JavaLibraryBuilder.createBuilder(target("//:b#abi"))
+        .addSrc(Paths.get("B.java"))
+        .addDep(target("//:processed"))
+        .build(resolver);
+
+    // The full jar of the dep is compiled against, as its ABI jar would have to wait for it.
+    assertEquals(ImmutableSet.of(target("//:processed")), getTargets(abiJar.getDeps()));
+
+    JavaAbiJar processedAbiJar = (JavaAbiJar) JavaLibraryBuilder
+        .createBuilder(target("//:processed#abi"))
+        .addSrc(Paths.get("Processed.java"))
+        .addAnnotationProcessor("com.example.Processor")
+        .build(resolver);
+    assertEquals(ImmutableSet.of(target("//:processed")), getTargets(processedAbiJar.getDeps()));
+    assertEquals(Optional.<ImmutableSet<Path>>absent(), processedAbiJar.getClasspath());
+  }
+
+  @Test
+  public void testLibraryCanCompileAgainstTheAbiJarsOfItsDeps() {
+    JavaLibraryDescription description = new JavaLibraryDescription(
+        JavaCompilerEnvironment.DEFAULT,
+        /* incrementalCompilation */ false,
+        /* compileAgainstAbiJars */ true);
+    BuildRuleResolver resolver = new BuildRuleResolver();
+    BuildRule prebuilt = PrebuiltJarBuilder.createBuilder(target("//:prebuilt"))
+        .setBinaryJar(Paths.get("prebuilt.jar"))
+        .build(resolver);
+    JavaLibraryBuilder.createBuilder(description, target("//:a"))
+        .addSrc(Paths.get("A.java"))
+        .addDep(prebuilt.getBuildTarget())
+        .build(resolver);
+    DefaultJavaLibrary library = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(description, target("//:b"))
+        .addSrc(Paths.get("B.java"))
+        .addDep(target("//:a"))
+        .build(resolver);
+
+    BuildRule depAbiJar = resolver.getRule(target("//:a#abi"));
+    assertEquals(
+        ImmutableSet.of(target("//:a"), target("//:a#abi")),
+        getTargets(library.getDeps()));
+    assertEquals(
+        "The library should not wait for the full jar of its dep to be built.",
+        ImmutableSet.of(target("//:a#abi")),
+        getTargets(library.getDepsNeededToBuild()));
+
+    List<Step> steps = library.getBuildSteps(
+        FakeBuildContext.NOOP_CONTEXT,
+        new FakeBuildableContext());
+    JavacInMemoryStep javacStep =
+        Iterables.getOnlyElement(Iterables.filter(steps, JavacInMemoryStep.class));
+    assertEquals(
+        ImmutableSet.of(depAbiJar.getPathToOutputFile()),
+        javacStep.getClasspathEntries());
+
+    // Asking for the ABI jar of the dep finds the one that the library compiles against.
+    BuildRule abiJar = JavaLibraryBuilder.createBuilder(description, target("//:a#abi"))
+        .addSrc(Paths.get("A.java"))
+        .addDep(prebuilt.getBuildTarget())
+        .build(resolver);
+    assertSame(depAbiJar, abiJar);
+  }
+
+  private static BuildTarget target(String name) {
+    return BuildTargetFactory.newInstance(name);
+  }
+
+  private static ImmutableSet<BuildTarget> getTargets(Iterable<? extends BuildRule> rules) {
+    return FluentIterable.from(rules).transform(HasBuildTarget.TO_TARGET).toSet();
+  }
+}
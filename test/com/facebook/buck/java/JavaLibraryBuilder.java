@@ -27,13 +27,23 @@ import java.nio.file.Path;
 public class JavaLibraryBuilder extends AbstractBuilder<JavaLibraryDescription.Arg> {
 
   protected JavaLibraryBuilder(BuildTarget target) {
-    super(new JavaLibraryDescription(JavaCompilerEnvironment.DEFAULT), target);
+    this(new JavaLibraryDescription(JavaCompilerEnvironment.DEFAULT), target);
+  }
+
+  protected JavaLibraryBuilder(JavaLibraryDescription description, BuildTarget target) {
+    super(description, target);
   }
 
   public static JavaLibraryBuilder createBuilder(BuildTarget target) {
     return new JavaLibraryBuilder(target);
   }
 
+  public static JavaLibraryBuilder createBuilder(
+      JavaLibraryDescription description,
+      BuildTarget target) {
+    return new JavaLibraryBuilder(description, target);
+  }
+
   public JavaLibraryBuilder addDep(BuildTarget rule) {
     arg.deps = amend(arg.deps, rule);
     return this;
@@ -44,6 +54,11 @@ public class JavaLibraryBuilder extends AbstractBuilder<JavaLibraryDescription.A
     return this;
   }
 
+  public JavaLibraryBuilder addAnnotationProcessor(String processor) {
+    arg.annotationProcessors = amendSet(arg.annotationProcessors, processor);
+    return this;
+  }
+
   public JavaLibraryBuilder addResource(SourcePath sourcePath) {
     arg.resources = amend(arg.resources, sourcePath);
     return this;
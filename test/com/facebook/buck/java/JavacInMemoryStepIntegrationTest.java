@@ -16,6 +16,7 @@
 
 package com.facebook.buck.java;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -37,7 +38,11 @@ import com.facebook.buck.util.ProjectFilesystem;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 
 import org.junit.Before;
@@ -48,6 +53,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class JavacInMemoryStepIntegrationTest {
   @Rule
@@ -177,6 +187,175 @@ public class JavacInMemoryStepIntegrationTest {
     assertEquals("Example.java", Files.toString(srcsListFile, Charsets.UTF_8).trim());
   }
 
+  @Test
+  public void testClassesAndResourcesCanBeWrittenStraightToAJar()
+      throws IOException, InterruptedException {
+    File packageDir = tmp.newFolder("src", "com", "example");
+    Files.write(
+        "package com.example; public class Example { class Inner {} }",
+        new File(packageDir, "Example.java"),
+        Charsets.UTF_8);
+    Files.write("data", new File(packageDir, "data.txt"), Charsets.UTF_8);
+    tmp.newFolder("out");
+    tmp.newFolder("lib");
+
+    CopyResourcesStep resources = new CopyResourcesStep(
+        BuildTarget.builder("//src/com/example", "example").build(),
+        ImmutableSet.of(new TestSourcePath("src/com/example/data.txt")),
+        Paths.get("out"),
+        DefaultJavaPackageFinder.createDefaultJavaPackageFinder(ImmutableSet.of("/src")));
+    JavacInMemoryStep javac = new JavacInMemoryStep(
+        Paths.get("out"),
+        ImmutableSet.<SourcePath>of(new TestSourcePath("src/com/example/Example.java")),
+        /* transitive classpathEntries */ ImmutableSet.<Path>of(),
+        /* declared classpathEntries */ ImmutableSet.<Path>of(),
+        JavacOptions.builder().build(),
+        /* pathToOutputAbiFile */ Optional.<Path>absent(),
+        Optional.<BuildTarget>absent(),
+        BuildDependencies.FIRST_ORDER_ONLY,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>absent(),
+        /* pathToSrcsList */ Optional.<Path>absent(),
+        Optional.of(Paths.get("lib/example.jar")),
+        Optional.of(resources));
+
+    assertEquals(0, javac.execute(createExecutionContext()));
+
+    assertEquals(
+        "No classes should have been written outside the jar.",
+        0,
+        new File(tmp.getRoot(), "out").list().length);
+    List<String> entryNames = Lists.newArrayList();
+    Set<Long> entryTimes = Sets.newHashSet();
+    try (ZipFile jar = new ZipFile(new File(tmp.getRoot(), "lib/example.jar"))) {
+      for (ZipEntry entry : Collections.list(jar.entries())) {
+        entryNames.add(entry.getName());
+        entryTimes.add(entry.getTime());
+      }
+    }
+    assertEquals("Entries should not depend on when they were written.", 1, entryTimes.size());
+    assertEquals(
+        ImmutableList.of(
+            "com/",
+            "com/example/",
+            "com/example/Example$Inner.class",
+            "com/example/Example.class",
+            "com/example/data.txt",
+            "META-INF/MANIFEST.MF"),
+        entryNames);
+  }
+
+  @Test
+  public void testIncrementalCompilationWritesTheSameJarAsACleanBuild()
+      throws IOException, InterruptedException {
+    File packageDir = tmp.newFolder("src", "com", "example");
+    writeSource(packageDir, "A", "public class A { public static int f() { return 1; } }");
+    writeSource(packageDir, "B", "public class B { int g() { return A.f() + C.VALUE; } }");
+    writeSource(packageDir, "C", "public class C { public static final int VALUE = 1; }");
+    writeSource(packageDir, "D", "public class D { Runnable r = new Runnable() { " +
+        "public void run() {} }; }");
+    tmp.newFolder("out");
+    tmp.newFolder("lib");
+    tmp.newFolder("abi");
+
+    ImmutableSet<SourcePath> srcs = ImmutableSet.<SourcePath>of(
+        new TestSourcePath("src/com/example/A.java"),
+        new TestSourcePath("src/com/example/B.java"),
+        new TestSourcePath("src/com/example/C.java"),
+        new TestSourcePath("src/com/example/D.java"));
+    ImmutableSet<Path> classpath = ImmutableSet.of();
+    assertEquals(0, createIncrementalJavac(srcs, classpath).execute(createExecutionContext()));
+
+    // A method body, then a constant that B has a copy of.
+    writeSource(packageDir, "A", "public class A { public static int f() { return 2; } }");
+    assertIncrementalBuildMatchesCleanBuild(srcs, classpath);
+    writeSource(packageDir, "C", "public class C { public static final int VALUE = 2; }");
+    assertIncrementalBuildMatchesCleanBuild(srcs, classpath);
+  }
+
+  @Test
+  public void testIncrementalCompilationDoesNotCompileSourcesThatNeitherChangedNorDependOnChanges()
+      throws IOException, InterruptedException {
+    File depsPackageDir = tmp.newFolder("deps_src", "com", "dep");
+    Files.write(
+        "package com.dep; public class Dep {}",
+        new File(depsPackageDir, "Dep.java"),
+        Charsets.UTF_8);
+    tmp.newFolder("deps");
+    JavacInMemoryStep depsJavac = new JavacInMemoryStep(
+        Paths.get("deps"),
+        ImmutableSet.<SourcePath>of(new TestSourcePath("deps_src/com/dep/Dep.java")),
+        /* transitive classpathEntries */ ImmutableSet.<Path>of(),
+        /* declared classpathEntries */ ImmutableSet.<Path>of(),
+        JavacOptions.builder().build(),
+        /* pathToOutputAbiFile */ Optional.<Path>absent(),
+        Optional.<BuildTarget>absent(),
+        BuildDependencies.FIRST_ORDER_ONLY,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>absent(),
+        /* pathToSrcsList */ Optional.<Path>absent());
+    assertEquals(0, depsJavac.execute(createExecutionContext()));
+
+    File packageDir = tmp.newFolder("src", "com", "example");
+    writeSource(packageDir, "A", "public class A {}");
+    writeSource(packageDir, "B", "public class B { com.dep.Dep dep; }");
+    tmp.newFolder("out");
+    tmp.newFolder("lib");
+    tmp.newFolder("abi");
+    ImmutableSet<SourcePath> srcs = ImmutableSet.<SourcePath>of(
+        new TestSourcePath("src/com/example/A.java"),
+        new TestSourcePath("src/com/example/B.java"));
+    ImmutableSet<Path> classpath = ImmutableSet.of(Paths.get("deps"));
+    assertEquals(0, createIncrementalJavac(srcs, classpath).execute(createExecutionContext()));
+
+    // B could not be compiled again without its dependency.
+    assertTrue(new File(tmp.getRoot(), "deps/com/dep/Dep.class").delete());
+    writeSource(packageDir, "A", "public class A { void f() {} }");
+    assertEquals(0, createIncrementalJavac(srcs, classpath).execute(createExecutionContext()));
+  }
+
+  private void assertIncrementalBuildMatchesCleanBuild(
+      ImmutableSet<SourcePath> srcs,
+      ImmutableSet<Path> classpath) throws IOException, InterruptedException {
+    JavacInMemoryStep incremental = createIncrementalJavac(srcs, classpath);
+    assertEquals(0, incremental.execute(createExecutionContext()));
+    byte[] incrementalJar = Files.toByteArray(new File(tmp.getRoot(), "lib/example.jar"));
+
+    assertTrue(new File(tmp.getRoot(), "incremental_state").delete());
+    JavacInMemoryStep clean = createIncrementalJavac(srcs, classpath);
+    assertEquals(0, clean.execute(createExecutionContext()));
+    byte[] cleanJar = Files.toByteArray(new File(tmp.getRoot(), "lib/example.jar"));
+
+    assertArrayEquals(cleanJar, incrementalJar);
+    assertEquals(clean.getAbiKey(), incremental.getAbiKey());
+  }
+
+  private JavacInMemoryStep createIncrementalJavac(
+      ImmutableSet<SourcePath> srcs,
+      ImmutableSet<Path> classpath) {
+    return new JavacInMemoryStep(
+        Paths.get("out"),
+        srcs,
+        /* transitive classpathEntries */ classpath,
+        /* declared classpathEntries */ classpath,
+        JavacOptions.builder().build(),
+        Optional.of(Paths.get("abi/abi")),
+        Optional.<BuildTarget>absent(),
+        BuildDependencies.FIRST_ORDER_ONLY,
+        Optional.<JavacInMemoryStep.SuggestBuildRules>absent(),
+        /* pathToSrcsList */ Optional.<Path>absent(),
+        Optional.of(Paths.get("lib/example.jar")),
+        /* resources */ Optional.<CopyResourcesStep>absent(),
+        Optional.of(Paths.get("incremental_state")),
+        Suppliers.ofInstance(new Sha1HashCode(AbiWriterProtocol.EMPTY_ABI_KEY)));
+  }
+
+  private static void writeSource(File packageDir, String className, String body)
+      throws IOException {
+    Files.write(
+        "package com.example; " + body,
+        new File(packageDir, className + ".java"),
+        Charsets.UTF_8);
+  }
+
   private JavacInMemoryStep createJavac(
       ImmutableSet<SourcePath> javaSourceFilePaths,
       boolean withSyntaxError)
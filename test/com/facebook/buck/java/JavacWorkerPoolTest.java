@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class JavacWorkerPoolTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  @Test
+  public void testReuseKeyIgnoresPerCompilationOptions() {
+    assertEquals(
+        ImmutableList.of("-source", "7", "-bootclasspath", "android.jar"),
+        JavacWorkerPool.getReuseKey(ImmutableList.of(
+            "-source", "7",
+            "-bootclasspath", "android.jar",
+            "-Abuck.output_abi_file=/tmp/abi",
+            "-d", "buck-out/bin/lib__classes",
+            "-classpath", "guava.jar")));
+  }
+
+  @Test
+  public void testWorkerIsReusedForTheSameOptions() throws IOException {
+    Path jar = createJar("one");
+    JavacWorkerPool pool = new JavacWorkerPool(2);
+
+    JavacWorkerPool.Worker first = pool.acquire(compileAgainst(jar, "first"));
+    pool.release(first);
+    assertEquals(1, pool.getIdleWorkerCount());
+
+    JavacWorkerPool.Worker second = pool.acquire(compileAgainst(jar, "second"));
+    assertSame(first, second);
+    assertEquals(0, pool.getIdleWorkerCount());
+    pool.discard(second);
+  }
+
+  @Test
+  public void testWorkerIsNotReusedOnceAJarOnTheClasspathChanges() throws IOException {
+    Path jar = createJar("one");
+    JavacWorkerPool pool = new JavacWorkerPool(2);
+
+    JavacWorkerPool.Worker first = pool.acquire(compileAgainst(jar, "first"));
+    pool.release(first);
+    Files.write(jar, "three".getBytes(Charsets.UTF_8));
+
+    JavacWorkerPool.Worker second = pool.acquire(compileAgainst(jar, "second"));
+    assertNotSame(first, second);
+    pool.discard(second);
+  }
+
+  @Test
+  public void testWorkerIsNotReusedForOtherOptions() throws IOException {
+    Path jar = createJar("one");
+    JavacWorkerPool pool = new JavacWorkerPool(2);
+
+    JavacWorkerPool.Worker first = pool.acquire(compileAgainst(jar, "first"));
+    pool.release(first);
+
+    JavacWorkerPool.Worker second = pool.acquire(ImmutableList.<String>builder()
+        .add("-bootclasspath", jar.toString())
+        .addAll(compileAgainst(jar, "second"))
+        .build());
+    assertNotSame(first, second);
+    assertEquals(1, pool.getIdleWorkerCount());
+    pool.discard(second);
+  }
+
+  @Test
+  public void testReusedWorkerCompilesAgainstTheNewClasspathIntoTheNewDirectory()
+      throws IOException {
+    Path root = tmp.getRoot().toPath();
+    JavacWorkerPool pool = new JavacWorkerPool(2);
+
+    JavacWorkerPool.Worker first = pool.acquire(compileAgainst(root.resolve("none"), "first"));
+    assertTrue(compile(first, compileAgainst(root.resolve("none"), "first"), "A", ""));
+    pool.release(first);
+
+    ImmutableList<String> options = compileAgainst(root.resolve("first"), "second");
+    JavacWorkerPool.Worker second = pool.acquire(options);
+    assertSame(first, second);
+    assertTrue(compile(second, options, "B", "A a;"));
+    pool.discard(second);
+
+    assertTrue(Files.isRegularFile(root.resolve("first/A.class")));
+    assertTrue(Files.isRegularFile(root.resolve("second/B.class")));
+    assertFalse(Files.exists(root.resolve("first/B.class")));
+  }
+
+  @Test
+  public void testIdleWorkersAreBounded() throws IOException {
+    Path jar = createJar("one");
+    JavacWorkerPool pool = new JavacWorkerPool(1);
+
+    JavacWorkerPool.Worker first = pool.acquire(compileAgainst(jar, "first"));
+    JavacWorkerPool.Worker second = pool.acquire(compileAgainst(jar, "second"));
+    pool.release(first);
+    pool.release(second);
+    assertEquals(1, pool.getIdleWorkerCount());
+  }
+
+  private Path createJar(String contents) throws IOException {
+    Path jar = tmp.getRoot().toPath().resolve("lib.jar");
+    Files.write(jar, contents.getBytes(Charsets.UTF_8));
+    // Stamps of files modified within the last moments are not trusted by other caches either.
+    Files.setLastModifiedTime(
+        jar,
+        FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+    return jar;
+  }
+
+  private boolean compile(
+      JavacWorkerPool.Worker worker,
+      List<String> options,
+      String className,
+      String body) throws IOException {
+    Path source = tmp.getRoot().toPath().resolve(className + ".java");
+    Files.write(source, ("class " + className + " { " + body + " }").getBytes(Charsets.UTF_8));
+    return worker.getCompiler().getTask(
+        null,
+        worker.getFileManager(),
+        null,
+        options,
+        null,
+        worker.getFileManager().getJavaFileObjects(source.toFile()))
+        .call();
+  }
+
+  private ImmutableList<String> compileAgainst(Path jar, String outputDirectory)
+      throws IOException {
+    // A worker is only reused for an output directory that exists.
+    Path output = Files.createDirectories(tmp.getRoot().toPath().resolve(outputDirectory));
+    return ImmutableList.of(
+        "-d", output.toString(),
+        "-classpath", jar.toString());
+  }
+}
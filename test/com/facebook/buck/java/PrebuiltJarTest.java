@@ -22,10 +22,7 @@ import static org.junit.Assert.assertTrue;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.AbiRule;
 import com.facebook.buck.rules.BuildContext;
-import com.facebook.buck.rules.BuildResult;
 import com.facebook.buck.rules.BuildRuleParams;
-import com.facebook.buck.rules.BuildRuleSuccess;
-import com.facebook.buck.rules.CacheResult;
 import com.facebook.buck.rules.CachingBuildEngine;
 import com.facebook.buck.rules.FakeBuildRuleParamsBuilder;
 import com.facebook.buck.rules.FakeBuildableContext;
@@ -95,13 +92,10 @@ public class PrebuiltJarTest {
                 "com/example/Bar 1b1221d71c29aacb8e0b5b9eaffcd05e914ac55b",
                 "com/example/Foo cea146e5aa5565a09e6a1ae9137044eb64b2cf45"));
 
-    BuildResult buildResult = new BuildResult(BuildRuleSuccess.Type.BUILT_LOCALLY,
-        CacheResult.MISS);
     CachingBuildEngine buildEngine = new CachingBuildEngine();
-    buildEngine.createFutureFor(junitJarRule.getBuildTarget());
     buildEngine.doHydrationAfterBuildStepsFinish(
         // I am ashamed. Temporary hack, I hope.
-        junitJarRule, buildResult, onDiskBuildInfo);
+        junitJarRule, onDiskBuildInfo);
 
     // Make sure the ABI key is set as expected.
     HashCode hashForJar = Files.asByteSource(PATH_TO_JUNIT_JAR.toFile()).hash(Hashing.sha1());
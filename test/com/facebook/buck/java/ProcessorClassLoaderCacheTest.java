@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ProcessorClassLoaderCacheTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  @Test
+  public void testClassLoaderIsSharedWhileTheJarsAreUnchanged() throws IOException {
+    Path jar = tmp.newFile("processor.jar").toPath();
+    Files.write(jar, "one".getBytes(Charsets.UTF_8));
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache();
+
+    URLClassLoader first = cache.acquire(ImmutableList.of(jar));
+    URLClassLoader second = cache.acquire(ImmutableList.of(jar));
+    assertSame(first, second);
+    assertNull("Processors must not see Buck's own classes.", first.getParent());
+    cache.release(first);
+    cache.release(second);
+
+    Files.write(jar, "three".getBytes(Charsets.UTF_8));
+    URLClassLoader third = cache.acquire(ImmutableList.of(jar));
+    assertNotSame(first, third);
+    assertEquals(1, cache.size());
+    cache.release(third);
+  }
+
+  @Test
+  public void testPathsWithDirectoriesAreNotShared() throws IOException {
+    Path classes = tmp.newFolder("classes").toPath();
+    ProcessorClassLoaderCache cache = new ProcessorClassLoaderCache();
+
+    URLClassLoader first = cache.acquire(ImmutableList.of(classes));
+    URLClassLoader second = cache.acquire(ImmutableList.of(classes));
+    assertNotSame(first, second);
+    assertEquals(0, cache.size());
+    cache.release(first);
+    cache.release(second);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ShardedJUnitStepTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  @Test
+  public void testResultsOfAllShardsAreMergedEvenIfOneFails() throws Exception {
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setProjectFilesystem(new ProjectFilesystem(tmp.getRoot()))
+        .build();
+    Path results = Paths.get("results");
+    Path shard0 = results.resolve("__shard_0__");
+    Path shard1 = results.resolve("__shard_1__");
+    Files.createDirectories(tmp.getRoot().toPath().resolve(shard0));
+    Files.createDirectories(tmp.getRoot().toPath().resolve(shard1));
+
+    ShardedJUnitStep step = new ShardedJUnitStep(
+        ImmutableList.<JUnitStep>of(
+            new FakeJUnitStep("First", shard0, /* exitCode */ 0),
+            new FakeJUnitStep("Second", shard1, /* exitCode */ 1)),
+        ImmutableList.of(shard0, shard1),
+        results);
+
+    assertEquals(1, step.execute(context));
+    File resultsDirectory = new File(tmp.getRoot(), "results");
+    assertTrue(new File(resultsDirectory, "First.xml").isFile());
+    assertTrue(new File(resultsDirectory, "Second.xml").isFile());
+    assertFalse(new File(resultsDirectory, "__shard_0__").exists());
+    assertFalse(new File(resultsDirectory, "__shard_1__").exists());
+  }
+
+  /** Writes an empty result for its only class, rather than running it. */
+  private static class FakeJUnitStep extends JUnitStep {
+    private final String testClassName;
+    private final Path directoryForTestResults;
+    private final int exitCode;
+
+    private FakeJUnitStep(String testClassName, Path directoryForTestResults, int exitCode) {
+      super(
+          ImmutableSet.<Path>of(),
+          ImmutableSet.of(testClassName),
+          ImmutableList.<String>of(),
+          directoryForTestResults,
+          Paths.get("tmp"),
+          /* isCodeCoverageEnabled */ false,
+          /* isDebugEnabled */ false,
+          new BuildId("pretend-build-id"),
+          TestSelectorList.empty(),
+          /* isDryRun */ false,
+          TestType.JUNIT,
+          Paths.get("build/classes/junit"));
+      this.testClassName = testClassName;
+      this.directoryForTestResults = directoryForTestResults;
+      this.exitCode = exitCode;
+    }
+
+    @Override
+    public int execute(ExecutionContext context) {
+      try {
+        context.getProjectFilesystem().writeContentsToPath(
+            "",
+            directoryForTestResults.resolve(testClassName + ".xml"));
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+      return exitCode;
+    }
+  }
+}
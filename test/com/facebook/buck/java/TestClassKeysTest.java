@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SortedMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.ToolProvider;
+
+public class TestClassKeysTest {
+
+  private static final ImmutableSet<String> TEST_CLASS_NAMES =
+      ImmutableSet.of("com.example.ATest", "com.example.BTest", "com.example.CTest");
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private File jar;
+  private SortedMap<String, HashCode> classHashes;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    compile("ATest", "public class ATest {}");
+    compile("BTest", "public class BTest extends ATest {}");
+    compile("Helper", "public class Helper {}");
+    compile("CTest", "public class CTest { Helper helper; }");
+
+    jar = new File(tmp.getRoot(), "tests.jar");
+    classHashes = Maps.newTreeMap();
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (String className : ImmutableList.of("ATest", "BTest", "CTest", "Helper")) {
+        byte[] classFile = Files.readAllBytes(
+            tmp.getRoot().toPath().resolve("classes/com/example/" + className + ".class"));
+        zip.putNextEntry(new ZipEntry("com/example/" + className + ".class"));
+        zip.write(classFile);
+        classHashes.put("com/example/" + className, Hashing.sha1().hashBytes(classFile));
+      }
+    }
+  }
+
+  @Test
+  public void testChangingATestClassChangesTheKeysOfTheClassesThatReferToIt() throws IOException {
+    ImmutableSortedMap<String, String> before = computeKeys();
+    classHashes.put("com/example/ATest", Hashing.sha1().hashInt(1));
+    ImmutableSortedMap<String, String> after = computeKeys();
+
+    assertNotEquals(before.get("com.example.ATest"), after.get("com.example.ATest"));
+    assertNotEquals(before.get("com.example.BTest"), after.get("com.example.BTest"));
+    assertEquals(before.get("com.example.CTest"), after.get("com.example.CTest"));
+  }
+
+  @Test
+  public void testChangingAnotherClassChangesTheKeysOfAllTestClasses() throws IOException {
+    ImmutableSortedMap<String, String> before = computeKeys();
+    classHashes.put("com/example/Helper", Hashing.sha1().hashInt(1));
+    ImmutableSortedMap<String, String> after = computeKeys();
+
+    for (String testClassName : TEST_CLASS_NAMES) {
+      assertNotEquals(before.get(testClassName), after.get(testClassName));
+    }
+  }
+
+  @Test
+  public void testClassesCannotBeKeyedWithADirectoryOnTheClasspath() throws IOException {
+    tmp.newFolder("resources");
+    assertFalse(
+        TestClassKeys.compute(
+            TEST_CLASS_NAMES,
+            classHashes,
+            jar,
+            ImmutableSetMultimap.<JavaLibrary, Path>of(),
+            ImmutableSet.of(Paths.get("resources")),
+            ImmutableList.<String>of(),
+            filesystem).isPresent());
+  }
+
+  @Test
+  public void testWrittenKeysAreRead() throws IOException, InterruptedException {
+    ImmutableMap<String, String> keys = ImmutableMap.of("com.example.ATest", "abc");
+    Path keysFile = Paths.get(TestClassKeys.KEYS_FILE);
+
+    TestClassKeys.createWriteStep(keys, keysFile).execute(
+        TestExecutionContext.newBuilder().setProjectFilesystem(filesystem).build());
+
+    assertEquals(keys, TestClassKeys.read(filesystem, keysFile));
+  }
+
+  private ImmutableSortedMap<String, String> computeKeys() throws IOException {
+    return TestClassKeys.compute(
+        TEST_CLASS_NAMES,
+        classHashes,
+        jar,
+        ImmutableSetMultimap.<JavaLibrary, Path>of(),
+        ImmutableSet.<Path>of(),
+        ImmutableList.of("JUNIT"),
+        filesystem).get();
+  }
+
+  private void compile(String className, String body) throws IOException {
+    File source = new File(tmp.getRoot(), className + ".java");
+    Files.write(
+        source.toPath(),
+        ("package com.example; " + body).getBytes(Charsets.UTF_8));
+    File classes = new File(tmp.getRoot(), "classes");
+    classes.mkdirs();
+    assertEquals(
+        0,
+        ToolProvider.getSystemJavaCompiler().run(
+            null,
+            null,
+            null,
+            // Class files that the version of ASM that reads them understands.
+            "-source", "7",
+            "-target", "7",
+            "-d", classes.getPath(),
+            "-classpath", classes.getPath(),
+            source.getPath()));
+  }
+}
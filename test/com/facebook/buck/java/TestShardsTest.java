@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Test;
+
+public class TestShardsTest {
+
+  @Test
+  public void testLongestClassesAreDealtOutFirst() {
+    assertEquals(
+        ImmutableList.of(
+            ImmutableSortedSet.of("Slow"),
+            ImmutableSortedSet.of("Fast", "Medium", "Quick")),
+        TestShards.balance(
+            ImmutableSet.of("Quick", "Fast", "Slow", "Medium"),
+            ImmutableMap.of("Slow", 100L, "Medium", 60L, "Fast", 30L, "Quick", 10L),
+            /* maxShards */ 2));
+  }
+
+  @Test
+  public void testClassesThatHaveNotRunBeforeTakeTheAverageTime() {
+    assertEquals(
+        ImmutableList.of(
+            ImmutableSortedSet.of("Slow"),
+            ImmutableSortedSet.of("Fast", "New")),
+        TestShards.balance(
+            ImmutableSet.of("Slow", "Fast", "New"),
+            ImmutableMap.of("Slow", 90L, "Fast", 10L),
+            /* maxShards */ 2));
+  }
+
+  @Test
+  public void testThereAreNoEmptyShards() {
+    assertEquals(
+        ImmutableList.of(ImmutableSortedSet.of("A"), ImmutableSortedSet.of("B")),
+        TestShards.balance(
+            ImmutableSet.of("B", "A"),
+            ImmutableMap.<String, Long>of(),
+            /* maxShards */ 8));
+  }
+}
@@ -71,7 +71,10 @@ public class CrossRepoTargetsIntegrationTest {
         repositoryFactory,
         repositoryFactory.getRootRepository().getBuckConfig().getPythonInterpreter(),
         ImmutableSet.<Pattern>of(),
-        new FakeRuleKeyBuilderFactory());
+        new FakeRuleKeyBuilderFactory(),
+        /* parsingThreads */ 1,
+        /* usePersistentParseCache */ false,
+        /* useWatchmanGlob */ false);
 
     BuildTarget mainTarget = BuildTarget.builder("//", "main").build();
     BuildTarget externalTarget =
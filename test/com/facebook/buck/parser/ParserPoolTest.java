@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.json.ProjectBuildFileParser;
+import com.facebook.buck.json.ProjectBuildFileParserFactory;
+import com.facebook.buck.rules.Description;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.Console;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParserPoolTest {
+
+  private static final ImmutableList<Path> BUILD_FILES = ImmutableList.of(
+      Paths.get("/project/a/BUCK"),
+      Paths.get("/project/b/BUCK"),
+      Paths.get("/project/c/BUCK"));
+
+  @Test
+  public void testBuildFilesAreParsedAtTheSameTime() throws InterruptedException {
+    // No build file can be parsed until all of them are being parsed.
+    final CyclicBarrier barrier = new CyclicBarrier(BUILD_FILES.size());
+    FakeParserFactory factory = new FakeParserFactory() {
+      @Override
+      void parse(Path buildFile) throws IOException {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+          throw new IOException(e);
+        }
+      }
+    };
+
+    Map<Path, Optional<List<Map<String, Object>>>> results;
+    try (ParserPool pool = createPool(BUILD_FILES.size(), factory)) {
+      results = parseAll(pool);
+    }
+
+    assertEquals(BUILD_FILES.size(), results.size());
+    for (Path buildFile : BUILD_FILES) {
+      assertTrue(results.get(buildFile).isPresent());
+      assertEquals(
+          buildFile.toString(),
+          results.get(buildFile).get().get(0).get("buck.base_path"));
+    }
+    assertEquals(BUILD_FILES.size(), factory.created.get());
+    assertEquals(BUILD_FILES.size(), factory.closed.get());
+  }
+
+  @Test
+  public void testABuildFileThatCannotBeParsedHasNoRules() throws InterruptedException {
+    FakeParserFactory factory = new FakeParserFactory() {
+      @Override
+      void parse(Path buildFile) throws IOException {
+        if (buildFile.equals(BUILD_FILES.get(1))) {
+          throw new IOException("Bad build file.");
+        }
+      }
+    };
+
+    Map<Path, Optional<List<Map<String, Object>>>> results;
+    try (ParserPool pool = createPool(1, factory)) {
+      results = parseAll(pool);
+    }
+
+    assertTrue(results.get(BUILD_FILES.get(0)).isPresent());
+    assertFalse(results.get(BUILD_FILES.get(1)).isPresent());
+    assertTrue(results.get(BUILD_FILES.get(2)).isPresent());
+    // The parser that failed is not used again.
+    assertEquals(2, factory.created.get());
+    assertEquals(2, factory.closed.get());
+  }
+
+  @Test
+  public void testClosingSkipsBuildFilesThatAreYetToBeParsed() throws InterruptedException {
+    final CountDownLatch parsing = new CountDownLatch(1);
+    final CountDownLatch mayFinishParsing = new CountDownLatch(1);
+    FakeParserFactory factory = new FakeParserFactory() {
+      @Override
+      void parse(Path buildFile) throws IOException {
+        parsing.countDown();
+        try {
+          mayFinishParsing.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+    };
+
+    final ParserPool pool = createPool(1, factory);
+    pool.submit(BUILD_FILES);
+    assertTrue(parsing.await(10, TimeUnit.SECONDS));
+    Thread closer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          pool.close();
+        } catch (InterruptedException e) {
+          // The test fails on the counts below.
+        }
+      }
+    };
+    closer.start();
+    // Let the parse finish only once close() is waiting for it.
+    while (closer.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(10);
+    }
+    mayFinishParsing.countDown();
+    closer.join();
+
+    // The parser that was part way through a build file is closed once it finishes it.
+    assertEquals(1, factory.created.get());
+    assertEquals(1, factory.closed.get());
+    Map<Path, Optional<List<Map<String, Object>>>> results = Maps.newHashMap();
+    for (int i = 0; i < BUILD_FILES.size(); i++) {
+      ParserPool.ParseResult result = pool.take();
+      results.put(result.buildFile, result.rules);
+    }
+    assertTrue(results.get(BUILD_FILES.get(0)).isPresent());
+    assertFalse(results.get(BUILD_FILES.get(1)).isPresent());
+    assertFalse(results.get(BUILD_FILES.get(2)).isPresent());
+  }
+
+  private static ParserPool createPool(int size, ProjectBuildFileParserFactory factory) {
+    return new ParserPool(
+        size,
+        factory,
+        ImmutableList.<String>of(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        BuckEventBusFactory.newInstance(),
+        /* enableProfiling */ false);
+  }
+
+  private static Map<Path, Optional<List<Map<String, Object>>>> parseAll(ParserPool pool)
+      throws InterruptedException {
+    pool.submit(BUILD_FILES);
+    Map<Path, Optional<List<Map<String, Object>>>> results = Maps.newHashMap();
+    for (int i = 0; i < BUILD_FILES.size(); i++) {
+      ParserPool.ParseResult result = pool.take();
+      results.put(result.buildFile, result.rules);
+    }
+    return results;
+  }
+
+  /** Creates parsers that return one rule for each build file, without starting buck.py. */
+  private abstract static class FakeParserFactory implements ProjectBuildFileParserFactory {
+    final AtomicInteger created = new AtomicInteger();
+    final AtomicInteger closed = new AtomicInteger();
+
+    abstract void parse(Path buildFile) throws IOException;
+
+    @Override
+    public ProjectBuildFileParser createParser(
+        Iterable<String> commonIncludes,
+        Console console,
+        ImmutableMap<String, String> environment,
+        BuckEventBus buckEventBus) {
+      created.incrementAndGet();
+      return new ProjectBuildFileParser(
+          new FakeProjectFilesystem(),
+          commonIncludes,
+          "python",
+          ImmutableSet.<Description<?>>of(),
+          console,
+          environment,
+          buckEventBus) {
+        @Override
+        protected List<Map<String, Object>> getAllRulesInternal(Optional<Path> buildFile)
+            throws IOException {
+          parse(buildFile.get());
+          return ImmutableList.<Map<String, Object>>of(
+              ImmutableMap.<String, Object>of("buck.base_path", buildFile.get().toString()),
+              ImmutableMap.<String, Object>of("__includes", ImmutableList.of()));
+        }
+
+        @Override
+        public void close() {
+          closed.incrementAndGet();
+        }
+      };
+    }
+  }
+}
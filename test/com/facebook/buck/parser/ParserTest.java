@@ -23,6 +23,7 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
 
@@ -76,10 +77,13 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -198,7 +202,9 @@ public class ParserTest extends EasyMockSupport {
         buildTargetParser,
         buildFileParserFactory,
         tempFilePatterns,
-        new FakeRuleKeyBuilderFactory());
+        new FakeRuleKeyBuilderFactory(),
+        /* parsingThreads */ 1,
+        Optional.<PersistentParseCache>absent());
 
     try {
       parser.parseRawRulesInternal(rules);
@@ -410,6 +416,81 @@ public class ParserTest extends EasyMockSupport {
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
   }
 
+  @Test
+  public void whenNotifiedOfNonPathEventThenUnchangedCacheRulesAreKept()
+      throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+    TestProjectBuildFileParserFactory buildFileParserFactory =
+        new TestProjectBuildFileParserFactory(filesystem, buildRuleTypes);
+    Parser parser = createParser(emptyBuildTargets(), buildFileParserFactory);
+    parser.startRecordingStamps();
+    setProjectFilesOld();
+
+    // Call filterAllTargetsInProject to populate the cache.
+    parser.filterAllTargetsInProject(
+        filesystem,
+        Lists.<String>newArrayList(),
+        alwaysTrue(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        BuckEventBusFactory.newInstance(),
+        false /* enableProfiling */);
+
+    // Process event.
+    WatchEvent<Object> event = WatchEvents.createOverflowEvent();
+    parser.onFileSystemChange(event);
+
+    // Call filterAllTargetsInProject to request cached rules.
+    parser.filterAllTargetsInProject(
+        filesystem,
+        Lists.<String>newArrayList(),
+        alwaysTrue(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        BuckEventBusFactory.newInstance(),
+        false /* enableProfiling */);
+
+    // Test that the second parseBuildFile call did not repopulate the cache.
+    assertEquals("Should have kept cache.", 1, buildFileParserFactory.calls);
+  }
+
+  @Test
+  public void whenNotifiedOfNonPathEventThenChangedCacheRulesAreInvalidated()
+      throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+    TestProjectBuildFileParserFactory buildFileParserFactory =
+        new TestProjectBuildFileParserFactory(filesystem, buildRuleTypes);
+    Parser parser = createParser(emptyBuildTargets(), buildFileParserFactory);
+    parser.startRecordingStamps();
+    setProjectFilesOld();
+
+    // Call filterAllTargetsInProject to populate the cache.
+    parser.filterAllTargetsInProject(
+        filesystem,
+        Lists.<String>newArrayList(),
+        alwaysTrue(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        BuckEventBusFactory.newInstance(),
+        false /* enableProfiling */);
+
+    // Add a file to the package, which could change what its globs match, and process event.
+    tempDir.newFile("java/com/facebook/Foo.java");
+    WatchEvent<Object> event = WatchEvents.createOverflowEvent();
+    parser.onFileSystemChange(event);
+
+    // Call filterAllTargetsInProject to request cached rules.
+    parser.filterAllTargetsInProject(
+        filesystem,
+        Lists.<String>newArrayList(),
+        alwaysTrue(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        BuckEventBusFactory.newInstance(),
+        false /* enableProfiling */);
+
+    // Test that the second parseBuildFile call repopulated the cache.
+    assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
+  }
+
   @Test
   public void whenEnvironmentChangesThenCacheRulesAreInvalidated()
       throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
@@ -1149,6 +1230,27 @@ public class ParserTest extends EasyMockSupport {
    * ProjectBuildFileParser test double which counts the number of times rules are parsed to test
    * caching logic in Parser.
    */
+  /**
+   * Makes every file and directory in the project old enough for the parser to trust its stamp
+   * when it recovers from an overflow.
+   */
+  private void setProjectFilesOld() throws IOException {
+    final long lastModified = System.currentTimeMillis() - 60 * 1000;
+    filesystem.walkFileTree(tempDir.getRoot().toPath(), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        assertTrue(dir.toFile().setLastModified(lastModified));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        assertTrue(file.toFile().setLastModified(lastModified));
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
   private static class TestProjectBuildFileParserFactory implements ProjectBuildFileParserFactory {
     private final ProjectFilesystem projectFilesystem;
     private final KnownBuildRuleTypes buildRuleTypes;
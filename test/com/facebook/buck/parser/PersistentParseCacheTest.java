@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+public class PersistentParseCacheTest {
+
+  private static final ImmutableList<String> DEFAULT_INCLUDES = ImmutableList.of("//DEFS");
+  private static final ImmutableMap<String, String> ENVIRONMENT = ImmutableMap.of("HOME", "/home");
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Path buildFile;
+  private Path defs;
+  private List<Map<String, Object>> rules;
+
+  @Before
+  public void setUp() throws IOException {
+    Path root = tmp.getRoot().toPath().toRealPath();
+    filesystem = new ProjectFilesystem(root, ImmutableSet.of(BuckConstant.BUCK_OUTPUT_PATH));
+    defs = write(root.resolve("DEFS"), "FOO = 1");
+    buildFile = write(root.resolve("java/BUCK"), "java_library(name = 'lib')");
+    write(root.resolve("java/Lib.java"), "class Lib {}");
+    write(root.resolve("java/sub/BUCK"), "");
+
+    Map<String, Object> rule = Maps.newHashMap();
+    rule.put("type", "java_library");
+    rule.put("name", "lib");
+    rule.put("buck.base_path", "java");
+    rule.put("srcs", Arrays.<Object>asList("Lib.java"));
+    rule.put("deps", Arrays.<Object>asList());
+    rule.put("source", null);
+    rule.put("export_deps", false);
+    rule.put("proguard_config", 2L);
+    rule.put("ratio", 0.5);
+    Map<String, Object> includes = Maps.newHashMap();
+    includes.put(
+        Parser.INCLUDES_META_RULE,
+        Arrays.<Object>asList(buildFile.toString(), defs.toString()));
+    rules = ImmutableList.of(rule, includes);
+  }
+
+  @Test
+  public void testRulesAreReadBack() {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+
+    assertEquals(Optional.of(rules), createCache().get(buildFile, DEFAULT_INCLUDES, ENVIRONMENT));
+  }
+
+  @Test
+  public void testNothingIsReadBackForAnotherBuildFile() {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+
+    assertFalse(
+        createCache()
+            .get(filesystem.resolve(Paths.get("java/sub/BUCK")), DEFAULT_INCLUDES, ENVIRONMENT)
+            .isPresent());
+  }
+
+  @Test
+  public void testRulesAreNotReadBackWhenTheBuildFileChanges() throws IOException {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+    write(buildFile, "java_library(name = 'other')");
+
+    assertFalse(createCache().get(buildFile, DEFAULT_INCLUDES, ENVIRONMENT).isPresent());
+  }
+
+  @Test
+  public void testRulesAreNotReadBackWhenAnIncludedFileChanges() throws IOException {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+    write(defs, "FOO = 2");
+
+    assertFalse(createCache().get(buildFile, DEFAULT_INCLUDES, ENVIRONMENT).isPresent());
+  }
+
+  @Test
+  public void testRulesAreNotReadBackWhenAFileIsAddedToThePackage() throws IOException {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+    write(filesystem.resolve(Paths.get("java/Other.java")), "class Other {}");
+
+    assertFalse(createCache().get(buildFile, DEFAULT_INCLUDES, ENVIRONMENT).isPresent());
+  }
+
+  @Test
+  public void testRulesAreReadBackWhenOnlyOtherPackagesOrTempFilesChange() throws IOException {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+    write(filesystem.resolve(Paths.get("java/sub/Sub.java")), "class Sub {}");
+    write(filesystem.resolve(Paths.get("java/Lib.java~")), "class Lib {}");
+    write(filesystem.resolve(Paths.get("java/Lib.java")), "class Lib { int changed; }");
+
+    assertTrue(createCache().get(buildFile, DEFAULT_INCLUDES, ENVIRONMENT).isPresent());
+  }
+
+  @Test
+  public void testRulesAreNotReadBackInAnotherEnvironment() {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+
+    assertFalse(
+        createCache()
+            .get(buildFile, DEFAULT_INCLUDES, ImmutableMap.of("HOME", "/elsewhere"))
+            .isPresent());
+    assertFalse(
+        createCache()
+            .get(buildFile, ImmutableList.<String>of(), ENVIRONMENT)
+            .isPresent());
+  }
+
+  @Test
+  public void testRulesAreNotReadBackByAnotherParser() {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+
+    PersistentParseCache cache = new PersistentParseCache(
+        filesystem,
+        Hashing.sha1().hashString("another buck.py", Charsets.UTF_8),
+        ImmutableSet.<Pattern>of());
+    assertFalse(cache.get(buildFile, DEFAULT_INCLUDES, ENVIRONMENT).isPresent());
+  }
+
+  @Test
+  public void testACorruptEntryIsIgnored() throws IOException {
+    createCache().put(buildFile, DEFAULT_INCLUDES, ENVIRONMENT, rules);
+    Path cacheDir = filesystem.resolve(PersistentParseCache.CACHE_PATH);
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(cacheDir)) {
+      for (Path entry : entries) {
+        byte[] contents = Files.readAllBytes(entry);
+        Files.write(entry, Arrays.copyOf(contents, contents.length / 2));
+      }
+    }
+
+    assertFalse(createCache().get(buildFile, DEFAULT_INCLUDES, ENVIRONMENT).isPresent());
+  }
+
+  private PersistentParseCache createCache() {
+    HashCode parserKey = Hashing.sha1().hashString("buck.py", Charsets.UTF_8);
+    return new PersistentParseCache(
+        filesystem,
+        parserKey,
+        ImmutableSet.of(Pattern.compile(".*~$")));
+  }
+
+  private static Path write(Path path, String contents) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, contents.getBytes(Charsets.UTF_8));
+    return path;
+  }
+}
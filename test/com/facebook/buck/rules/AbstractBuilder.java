@@ -59,7 +59,10 @@ public abstract class AbstractBuilder<A> {
     BuildRuleParams params = createBuildRuleParams(resolver, filesystem);
 
     BuildRule rule = description.createBuildRule(params, resolver, arg);
-    resolver.addToIndex(rule);
+    // As when building the action graph, the rule may have been indexed when it was created.
+    if (resolver.getRuleOptional(rule.getBuildTarget()).orNull() != rule) {
+      resolver.addToIndex(rule);
+    }
     return rule;
   }
 
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class AsyncUploadArtifactCacheTest {
+
+  private static final RuleKey RULE_KEY =
+      new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  /** Records the contents of the artifacts it is asked to store, once it is allowed to. */
+  private static class BlockingArtifactCache implements ArtifactCache {
+    private final CountDownLatch allowStores = new CountDownLatch(1);
+    private final List<String> storedContents =
+        Collections.synchronizedList(Lists.<String>newArrayList());
+    private final List<byte[]> packedZips =
+        Collections.synchronizedList(Lists.<byte[]>newArrayList());
+
+    @Override
+    public CacheResult fetch(RuleKey ruleKey, File output) {
+      return CacheResult.MISS;
+    }
+
+    @Override
+    public CacheResult fetchAndExtract(RuleKey ruleKey, Path root) {
+      return CacheResult.MISS;
+    }
+
+    @Override
+    public void store(RuleKey ruleKey, File output) throws InterruptedException {
+      allowStores.await();
+      try {
+        storedContents.add(Files.toString(output, Charsets.UTF_8));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /** Packs the artifact at the best compression. */
+    @Override
+    public void store(RuleKey ruleKey, ArtifactPacker packer)
+        throws InterruptedException, IOException {
+      allowStores.await();
+      ByteArrayOutputStream zip = new ByteArrayOutputStream();
+      packer.writeTo(zip, ArtifactCompression.best);
+      packedZips.add(zip.toByteArray());
+    }
+
+    @Override
+    public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+      return ImmutableSet.of();
+    }
+
+    @Override
+    public boolean isStoreSupported() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+      // Nothing to complete - do nothing.
+    }
+  }
+
+  private static class QueueEventListener {
+    private final List<ArtifactUploadQueueEvent> events =
+        Collections.synchronizedList(Lists.<ArtifactUploadQueueEvent>newArrayList());
+
+    @Subscribe
+    public void queueChanged(ArtifactUploadQueueEvent event) {
+      events.add(event);
+    }
+  }
+
+  @Test
+  public void testStoreReturnsBeforeUploadAndCloseFlushes()
+      throws InterruptedException, IOException {
+    BlockingArtifactCache delegate = new BlockingArtifactCache();
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    QueueEventListener listener = new QueueEventListener();
+    eventBus.register(listener);
+    AsyncUploadArtifactCache cache = new AsyncUploadArtifactCache(
+        delegate,
+        eventBus,
+        MoreExecutors.newSingleThreadExecutor("upload"),
+        /* maxQueuedUploads */ 10,
+        /* flushTimeoutSeconds */ 60);
+
+    File artifact = tmpDir.newFile("artifact.zip");
+    Files.write("contents", artifact, Charsets.UTF_8);
+    cache.store(RULE_KEY, artifact);
+    // Callers delete their artifact as soon as store() returns.
+    assertTrue(artifact.delete());
+
+    delegate.allowStores.countDown();
+    cache.close();
+
+    assertEquals(Collections.singletonList("contents"), delegate.storedContents);
+    assertEquals(0, tmpDir.getRoot().list().length);
+
+    ArtifactUploadQueueEvent queued = listener.events.get(0);
+    assertEquals(1, queued.getQueuedUploads());
+    assertEquals("contents".length(), queued.getQueuedBytes());
+    ArtifactUploadQueueEvent finished = listener.events.get(listener.events.size() - 1);
+    assertEquals(0, finished.getQueuedUploads());
+    assertEquals(1, finished.getFinishedUploads());
+    assertEquals("contents".length(), finished.getUploadedBytes());
+  }
+
+  @Test
+  public void testCloseAbandonsUploadsAfterFlushTimeout() throws InterruptedException, IOException {
+    BlockingArtifactCache delegate = new BlockingArtifactCache();
+    AsyncUploadArtifactCache cache = new AsyncUploadArtifactCache(
+        delegate,
+        BuckEventBusFactory.newInstance(),
+        MoreExecutors.newSingleThreadExecutor("upload"),
+        /* maxQueuedUploads */ 10,
+        /* flushTimeoutSeconds */ 0);
+
+    for (String name : new String[] {"first.zip", "second.zip"}) {
+      File artifact = tmpDir.newFile(name);
+      Files.write(name, artifact, Charsets.UTF_8);
+      cache.store(RULE_KEY, artifact);
+      assertTrue(artifact.delete());
+    }
+
+    // Neither upload is allowed to finish, so both are abandoned.
+    cache.close();
+
+    assertEquals(Collections.<String>emptyList(), delegate.storedContents);
+    assertEquals(0, tmpDir.getRoot().list().length);
+  }
+
+  @Test
+  public void testStoreWaitingForASlotWhenClosedStoresDirectly()
+      throws InterruptedException, IOException {
+    BlockingArtifactCache delegate = new BlockingArtifactCache();
+    ExecutorService uploadService = MoreExecutors.newSingleThreadExecutor("upload");
+    final AsyncUploadArtifactCache cache = new AsyncUploadArtifactCache(
+        delegate,
+        BuckEventBusFactory.newInstance(),
+        uploadService,
+        /* maxQueuedUploads */ 1,
+        /* flushTimeoutSeconds */ 60);
+
+    File first = tmpDir.newFile("first.zip");
+    Files.write("first", first, Charsets.UTF_8);
+    cache.store(RULE_KEY, first);
+    final File second = tmpDir.newFile("second.zip");
+    Files.write("second", second, Charsets.UTF_8);
+    Thread secondStore = new Thread() {
+      @Override
+      public void run() {
+        try {
+          cache.store(RULE_KEY, second);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    secondStore.start();
+    while (secondStore.getState() != Thread.State.WAITING) {
+      Thread.sleep(10);
+    }
+    Thread closer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          cache.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    closer.start();
+    while (!uploadService.isShutdown()) {
+      Thread.sleep(10);
+    }
+
+    // The first upload frees the slot that the second store() waits for.
+    delegate.allowStores.countDown();
+    secondStore.join();
+    closer.join();
+
+    assertEquals(ImmutableList.of("first", "second"), delegate.storedContents);
+    assertEquals(
+        ImmutableSet.of("first.zip", "second.zip"),
+        ImmutableSet.copyOf(tmpDir.getRoot().list()));
+  }
+
+  @Test
+  public void testPackedArtifactIsCompressedByTheDelegate()
+      throws InterruptedException, IOException {
+    BlockingArtifactCache delegate = new BlockingArtifactCache();
+    AsyncUploadArtifactCache cache = new AsyncUploadArtifactCache(
+        delegate,
+        BuckEventBusFactory.newInstance(),
+        MoreExecutors.newSingleThreadExecutor("upload"),
+        /* maxQueuedUploads */ 10,
+        /* flushTimeoutSeconds */ 60);
+
+    final ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
+    final String text = Strings.repeat("compressible ", 1000);
+    Files.write(text, tmpDir.newFile("out.txt"), Charsets.UTF_8);
+    Files.write(text, tmpDir.newFile("lib.jar"), Charsets.UTF_8);
+    final List<ArtifactCompression> compressions =
+        Collections.synchronizedList(Lists.<ArtifactCompression>newArrayList());
+    cache.store(RULE_KEY, new ArtifactPacker() {
+      @Override
+      public void writeTo(OutputStream out, ArtifactCompression compression) throws IOException {
+        compressions.add(compression);
+        projectFilesystem.createZip(
+            ImmutableList.of(Paths.get("out.txt"), Paths.get("lib.jar")),
+            out,
+            ImmutableMap.<Path, String>of(),
+            compression.getCompressionLevel());
+      }
+    });
+
+    delegate.allowStores.countDown();
+    cache.close();
+
+    // The build thread only pays for an uncompressed zip.
+    assertEquals(ImmutableList.of(ArtifactCompression.none), compressions);
+    assertEquals(1, delegate.packedZips.size());
+    try (ZipInputStream zip =
+             new ZipInputStream(new ByteArrayInputStream(delegate.packedZips.get(0)))) {
+      ZipEntry entry = zip.getNextEntry();
+      assertEquals("out.txt", entry.getName());
+      assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+      assertEquals(text, new String(ByteStreams.toByteArray(zip), Charsets.UTF_8));
+      entry = zip.getNextEntry();
+      assertEquals("lib.jar", entry.getName());
+      assertEquals(ZipEntry.STORED, entry.getMethod());
+      assertEquals(text, new String(ByteStreams.toByteArray(zip), Charsets.UTF_8));
+      assertNull(zip.getNextEntry());
+    }
+  }
+}
@@ -24,7 +24,9 @@ import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -68,9 +70,11 @@ import com.google.common.collect.Lists;
 import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.easymock.Capture;
 import org.easymock.EasyMockSupport;
+import org.easymock.IAnswer;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -209,7 +213,7 @@ public class CachingBuildEngineTest extends EasyMockSupport {
             /* ruleKeyWithoutDepsForRecorder */ anyObject(RuleKey.class)))
         .andReturn(buildInfoRecorder);
     expect(buildInfoRecorder.fetchArtifactForBuildable(
-            anyObject(File.class),
+            anyObject(Path.class),
             eq(artifactCache)))
         .andReturn(CacheResult.MISS);
 
@@ -453,7 +457,7 @@ public class CachingBuildEngineTest extends EasyMockSupport {
            /* ruleKeyWithoutDeps */ anyObject(RuleKey.class)))
         .andReturn(buildInfoRecorder);
 
-    expect(buildInfoRecorder.fetchArtifactForBuildable(anyObject(File.class), eq(artifactCache)))
+    expect(buildInfoRecorder.fetchArtifactForBuildable(anyObject(Path.class), eq(artifactCache)))
         .andReturn(CacheResult.MISS);
 
     // Populate the metadata that should be read from disk.
@@ -523,11 +527,22 @@ public class CachingBuildEngineTest extends EasyMockSupport {
         .andReturn(Optional.<String>absent());
     expect(projectFilesystem.getRootPath()).andReturn(tmp.getRoot().toPath());
 
-    // Simulate successfully fetching the output file from the ArtifactCache.
-    ArtifactCache artifactCache = createMock(ArtifactCache.class);
+    // Simulate successfully fetching the output file from the ArtifactCache, which only knows how
+    // to produce it as a zip.
+    final ArtifactCache artifactCache = createMock(ArtifactCache.class);
     Map<String, String> desiredZipEntries = ImmutableMap.of(
         "buck-out/gen/src/com/facebook/orca/orca.jar",
         "Imagine this is the contents of a valid JAR file.");
+    expect(artifactCache.fetchAndExtract(eq(buildRule.getRuleKey()), anyObject(Path.class)))
+        .andAnswer(new IAnswer<CacheResult>() {
+          @Override
+          public CacheResult answer() throws Throwable {
+            return ArtifactCaches.fetchAndExtractViaZip(
+                artifactCache,
+                (RuleKey) getCurrentArguments()[0],
+                (Path) getCurrentArguments()[1]);
+          }
+        });
     expect(
         artifactCache.fetch(
             eq(buildRule.getRuleKey()),
@@ -634,6 +649,52 @@ public class CachingBuildEngineTest extends EasyMockSupport {
   // TODO(mbolin): Test that when the value in the success file does not agree with the current
   // value, the rule is rebuilt and the result is written back to the cache.
 
+  @Test
+  public void testRuleStartsOnceTheDepsItNeedsAreBuiltButFinishesOnceAllAre()
+      throws ExecutionException, InterruptedException {
+    CachingBuildEngine cachingBuildEngine = new CachingBuildEngine();
+
+    BuildTarget neededTarget = BuildTargetFactory.newInstance("//java/com/example:needed");
+    FakeBuildRule neededDep = new FakeBuildRule(JavaLibraryDescription.TYPE, neededTarget);
+    neededDep.setRuleKey(new RuleKey(Strings.repeat("a", 40)));
+    cachingBuildEngine.setBuildRuleResult(
+        neededTarget,
+        new BuildRuleSuccess(neededDep, BuildRuleSuccess.Type.FETCHED_FROM_CACHE));
+
+    BuildTarget otherTarget = BuildTargetFactory.newInstance("//java/com/example:other");
+    FakeBuildRule otherDep = new FakeBuildRule(JavaLibraryDescription.TYPE, otherTarget);
+    otherDep.setRuleKey(new RuleKey(Strings.repeat("b", 40)));
+    SettableFuture<BuildRuleSuccess> otherDepResult =
+        cachingBuildEngine.createFutureFor(otherTarget);
+
+    final List<String> strings = Lists.newArrayList();
+    Step buildStep = new AbstractExecutionStep("test_step") {
+      @Override
+      public int execute(ExecutionContext context) {
+        strings.add("Step was executed.");
+        return 0;
+      }
+    };
+    BuildRuleParams buildRuleParams = new FakeBuildRuleParamsBuilder(buildTarget)
+        .setDeps(ImmutableSortedSet.<BuildRule>of(neededDep, otherDep))
+        .setType(JavaLibraryDescription.TYPE)
+        .build();
+    BuildRule buildRuleToTest = new PartlyDependentBuildRule(
+        buildRuleParams,
+        ImmutableList.of(buildStep),
+        ImmutableSortedSet.<BuildRule>of(neededDep));
+
+    ListenableFuture<BuildRuleSuccess> result =
+        cachingBuildEngine.build(FakeBuildContext.NOOP_CONTEXT, buildRuleToTest);
+    MoreAsserts.assertListEquals(Lists.newArrayList("Step was executed."), strings);
+    assertFalse(
+        "The rule should not be built until all of its deps are built.",
+        result.isDone());
+
+    otherDepResult.set(new BuildRuleSuccess(otherDep, BuildRuleSuccess.Type.BUILT_LOCALLY));
+    assertEquals(BuildRuleSuccess.Type.BUILT_LOCALLY, result.get().getType());
+  }
+
   // TODO(mbolin): Test that a failure when executing the build steps is propagated appropriately.
 
   // TODO(mbolin): Test what happens when the cache's methods throw an exception.
@@ -735,6 +796,33 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     }
   }
 
+  /**
+   * {@link BuildableAbstractCachingBuildRule} that needs only some of its deps to build.
+   */
+  private static class PartlyDependentBuildRule extends BuildableAbstractCachingBuildRule
+      implements HasDepsNeededToBuild {
+
+    private final ImmutableSortedSet<BuildRule> depsNeededToBuild;
+
+    private PartlyDependentBuildRule(
+        BuildRuleParams params,
+        List<Step> buildSteps,
+        ImmutableSortedSet<BuildRule> depsNeededToBuild) {
+      super(
+          params,
+          /* inputs */ ImmutableList.<Path>of(),
+          /* pathToOutputFile */ null,
+          buildSteps,
+          CacheMode.ENABLED);
+      this.depsNeededToBuild = depsNeededToBuild;
+    }
+
+    @Override
+    public ImmutableSortedSet<BuildRule> getDepsNeededToBuild() {
+      return depsNeededToBuild;
+    }
+  }
+
   /**
    * {@link AbstractBuildRule} that implements {@link AbiRule}.
    */
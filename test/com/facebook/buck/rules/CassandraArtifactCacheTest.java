@@ -43,6 +43,7 @@ public class CassandraArtifactCacheTest {
     CassandraArtifactCache cache = new CassandraArtifactCache(
         10 /* timeoutSeconds */,
         true /* doStore */,
+        ArtifactCompression.normal,
         mockEventBus,
         fileHashCache,
         mockContext);
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.MorePosixFilePermissions;
+import com.facebook.buck.zip.CustomZipEntry;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.Unzip;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Map;
+
+public class ContentAddressedDirArtifactCacheTest {
+
+  private static final RuleKey RULE_KEY_A =
+      new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey RULE_KEY_B =
+      new RuleKey("00000000000000000000000000000000000000ff");
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private ContentAddressedDirArtifactCache cache;
+
+  @After
+  public void tearDown() {
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
+  @Test
+  public void testIdenticalFilesAreStoredOnce() throws IOException {
+    File cacheDir = tmpDir.newFolder("cache");
+    cache = new ContentAddressedDirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent(),
+        /* useHardLinks */ false);
+
+    cache.store(
+        RULE_KEY_A,
+        createZip("a.zip", ImmutableMap.of("one.txt", "same", "two.txt", "same")));
+    cache.store(RULE_KEY_B, createZip("b.zip", ImmutableMap.of("three.txt", "same")));
+
+    assertEquals(1, countBlobs(cacheDir));
+    assertEquals(
+        ImmutableSet.of(RULE_KEY_A, RULE_KEY_B),
+        cache.multiContains(ImmutableSet.of(RULE_KEY_A, RULE_KEY_B)));
+  }
+
+  @Test
+  public void testFetchAndExtractRestoresFilesAndExecutableBit() throws IOException {
+    cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder("cache"),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent(),
+        /* useHardLinks */ false);
+    cache.store(RULE_KEY_A, createZip("a.zip", ImmutableMap.of("buck-out/gen/lib.jar", "jar")));
+    cache.store(RULE_KEY_B, createExecutableZip("b.zip", "buck-out/bin/tool.sh", "#!/bin/sh"));
+
+    Path root = tmpDir.newFolder("root").toPath();
+    Path existing = root.resolve("buck-out/gen/lib.jar");
+    Files.createDirectories(existing.getParent());
+    Files.write(existing, "stale".getBytes(Charsets.UTF_8));
+
+    assertEquals(CacheResult.DIR_HIT, cache.fetchAndExtract(RULE_KEY_A, root));
+    assertEquals(CacheResult.DIR_HIT, cache.fetchAndExtract(RULE_KEY_B, root));
+    assertEquals("jar", new String(Files.readAllBytes(existing), Charsets.UTF_8));
+    assertTrue(root.resolve("buck-out/bin/tool.sh").toFile().canExecute());
+    assertFalse(existing.toFile().canExecute());
+
+    assertEquals(
+        CacheResult.MISS,
+        cache.fetchAndExtract(new RuleKey("0000000000000000000000000000000000000aaa"), root));
+  }
+
+  @Test
+  public void testHardLinkRestoresShareTheBlob() throws IOException {
+    cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder("cache"),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent(),
+        /* useHardLinks */ true);
+    cache.store(RULE_KEY_A, createZip("a.zip", ImmutableMap.of("out.txt", "contents")));
+
+    Path root = tmpDir.newFolder("root").toPath();
+    assertEquals(CacheResult.DIR_HIT, cache.fetchAndExtract(RULE_KEY_A, root));
+
+    Path blob = cache.getBlobPath(sha1("contents"), /* isExecutable */ false);
+    assertTrue(Files.isSameFile(blob, root.resolve("out.txt")));
+  }
+
+  @Test
+  public void testFetchRebuildsTheZip() throws IOException {
+    cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder("cache"),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent(),
+        /* useHardLinks */ false);
+    cache.store(RULE_KEY_B, createExecutableZip("b.zip", "bin/tool.sh", "#!/bin/sh"));
+
+    File zip = new File(tmpDir.getRoot(), "fetched.zip");
+    assertEquals(CacheResult.DIR_HIT, cache.fetch(RULE_KEY_B, zip));
+
+    Path root = tmpDir.newFolder("unzipped").toPath();
+    Unzip.extractZipFile(zip.toPath(), root, /* overwriteExistingFiles */ true);
+    assertEquals(
+        "#!/bin/sh",
+        new String(Files.readAllBytes(root.resolve("bin/tool.sh")), Charsets.UTF_8));
+    assertTrue(root.resolve("bin/tool.sh").toFile().canExecute());
+  }
+
+  @Test
+  public void testEvictionDropsLeastRecentlyUsedManifestsAndTheirBlobs() throws IOException {
+    File cacheDir = tmpDir.newFolder("cache");
+    cache = new ContentAddressedDirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(12L),
+        /* useHardLinks */ false);
+    cache.store(RULE_KEY_A, createZip("a.zip", ImmutableMap.of("a.txt", "aaaaaaaaaa")));
+    cache.store(RULE_KEY_B, createZip("b.zip", ImmutableMap.of("b.txt", "bbbbbbbbbb")));
+    Files.setLastModifiedTime(
+        cacheDir.toPath().resolve("cas/manifests").resolve(RULE_KEY_A.toString()),
+        FileTime.fromMillis(0));
+
+    cache.deleteOldEntries();
+
+    assertEquals(ImmutableSet.of(RULE_KEY_B), cache.multiContains(
+        ImmutableSet.of(RULE_KEY_A, RULE_KEY_B)));
+    assertEquals(1, countBlobs(cacheDir));
+    assertFalse(Files.exists(cache.getBlobPath(sha1("aaaaaaaaaa"), /* isExecutable */ false)));
+  }
+
+  @Test
+  public void testReadOnlyCacheDoesNotStore() throws IOException {
+    cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder("cache"),
+        /* doStore */ false,
+        /* maxCacheSizeBytes */ Optional.<Long>absent(),
+        /* useHardLinks */ false);
+    cache.store(RULE_KEY_A, createZip("a.zip", ImmutableMap.of("a.txt", "a")));
+
+    assertFalse(cache.isStoreSupported());
+    assertEquals(ImmutableSet.<RuleKey>of(), cache.multiContains(ImmutableSet.of(RULE_KEY_A)));
+  }
+
+  private File createZip(String name, Map<String, String> entries) throws IOException {
+    File zip = new File(tmpDir.getRoot(), name);
+    try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(zip)) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        out.putNextEntry(new CustomZipEntry(entry.getKey()));
+        out.write(entry.getValue().getBytes(Charsets.UTF_8));
+        out.closeEntry();
+      }
+    }
+    return zip;
+  }
+
+  private File createExecutableZip(String name, String path, String contents) throws IOException {
+    File zip = new File(tmpDir.getRoot(), name);
+    try (CustomZipOutputStream out = ZipOutputStreams.newOutputStream(zip)) {
+      CustomZipEntry entry = new CustomZipEntry(path);
+      entry.setExternalAttributes(
+          MorePosixFilePermissions.toMode(EnumSet.of(PosixFilePermission.OWNER_EXECUTE)) << 16);
+      out.putNextEntry(entry);
+      out.write(contents.getBytes(Charsets.UTF_8));
+      out.closeEntry();
+    }
+    return zip;
+  }
+
+  private static int countBlobs(File cacheDir) throws IOException {
+    int count = 0;
+    for (File shard : new File(cacheDir, "cas/blobs").listFiles()) {
+      if (shard.isDirectory()) {
+        count += shard.list().length;
+      }
+    }
+    return count;
+  }
+
+  private static String sha1(String contents) {
+    return Hashing.sha1().hashString(contents, Charsets.UTF_8).toString();
+  }
+}
@@ -23,6 +23,9 @@ import static org.junit.Assert.assertTrue;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.FileHashCache;
 import com.facebook.buck.util.NullFileHashCache;
+import com.facebook.buck.zip.CustomZipEntry;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -35,8 +38,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 
@@ -109,6 +114,39 @@ public class DirArtifactCacheTest {
     assertEquals(inputRuleX, new BuildRuleForTest(fileX));
   }
 
+  @Test
+  public void testStorePackedArtifactAndFetchAndExtract() throws InterruptedException, IOException {
+    File cacheDir = tmpDir.newFolder();
+    dirArtifactCache = new DirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent(),
+        ArtifactCompression.best);
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(zipBytes)) {
+      zip.putNextEntry(new CustomZipEntry("buck-out/gen/x"));
+      zip.write("x".getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+    }
+    final byte[] zip = zipBytes.toByteArray();
+
+    dirArtifactCache.store(ruleKey, new ArtifactPacker() {
+      @Override
+      public void writeTo(OutputStream out, ArtifactCompression compression) throws IOException {
+        assertEquals(ArtifactCompression.best, compression);
+        out.write(zip);
+      }
+    });
+
+    File root = tmpDir.newFolder();
+    assertEquals(CacheResult.DIR_HIT, dirArtifactCache.fetchAndExtract(ruleKey, root.toPath()));
+    assertEquals("x", Files.toString(new File(root, "buck-out/gen/x"), Charsets.UTF_8));
+    assertEquals(
+        ImmutableSet.of(new File(cacheDir, ruleKey.toString())),
+        listCacheEntries(cacheDir));
+  }
+
   @Test
   public void testCacheStoreOverwrite() throws IOException {
     File cacheDir = tmpDir.newFolder();
@@ -177,11 +215,11 @@ public class DirArtifactCacheTest {
     assertEquals(inputRuleY, new BuildRuleForTest(fileY));
     assertEquals(inputRuleZ, new BuildRuleForTest(fileZ));
 
-    assertEquals(3, cacheDir.listFiles().length);
+    assertEquals(3, listCacheEntries(cacheDir).size());
 
     dirArtifactCache.deleteOldFiles();
 
-    assertEquals(0, cacheDir.listFiles().length);
+    assertEquals(0, listCacheEntries(cacheDir).size());
   }
 
   @Test
@@ -307,7 +345,116 @@ public class DirArtifactCacheTest {
 
     dirArtifactCache.deleteOldFiles();
 
-    assertEquals(ImmutableSet.of(fileZ, fileW), ImmutableSet.copyOf(cacheDir.listFiles()));
+    assertEquals(ImmutableSet.of(fileZ, fileW), listCacheEntries(cacheDir));
+  }
+
+  @Test
+  public void testDeleteLeastRecentlyFetched() throws IOException {
+    File cacheDir = tmpDir.newFolder();
+    File fileX = tmpDir.newFile("x");
+    File fileY = tmpDir.newFile("y");
+    File fileZ = tmpDir.newFile("z");
+
+    dirArtifactCache = new DirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(2L));
+
+    Files.write("x", fileX, Charsets.UTF_8);
+    Files.write("y", fileY, Charsets.UTF_8);
+    Files.write("z", fileZ, Charsets.UTF_8);
+    RuleKey ruleKeyX = RuleKey.builder(new BuildRuleForTest(fileX), fileHashCache).build()
+        .getTotalRuleKey();
+    RuleKey ruleKeyY = RuleKey.builder(new BuildRuleForTest(fileY), fileHashCache).build()
+        .getTotalRuleKey();
+    RuleKey ruleKeyZ = RuleKey.builder(new BuildRuleForTest(fileZ), fileHashCache).build()
+        .getTotalRuleKey();
+
+    dirArtifactCache.store(ruleKeyX, fileX);
+    dirArtifactCache.store(ruleKeyY, fileY);
+    dirArtifactCache.store(ruleKeyZ, fileZ);
+    // Using X makes Y the least recently used entry, whatever the access times on disk say.
+    assertEquals(CacheResult.DIR_HIT, dirArtifactCache.fetch(ruleKeyX, fileX));
+
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(
+        ImmutableSet.of(
+            new File(cacheDir, ruleKeyX.toString()),
+            new File(cacheDir, ruleKeyZ.toString())),
+        listCacheEntries(cacheDir));
+  }
+
+  @Test
+  public void testDeleteEntriesStoredByAnotherInstance() throws IOException {
+    File cacheDir = tmpDir.newFolder();
+    File fileX = tmpDir.newFile("x");
+    File fileY = tmpDir.newFile("y");
+
+    dirArtifactCache = new DirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(1L));
+    DirArtifactCache otherDirArtifactCache = new DirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(1L));
+
+    Files.write("x", fileX, Charsets.UTF_8);
+    Files.write("y", fileY, Charsets.UTF_8);
+    RuleKey ruleKeyX = RuleKey.builder(new BuildRuleForTest(fileX), fileHashCache).build()
+        .getTotalRuleKey();
+    RuleKey ruleKeyY = RuleKey.builder(new BuildRuleForTest(fileY), fileHashCache).build()
+        .getTotalRuleKey();
+
+    dirArtifactCache.store(ruleKeyX, fileX);
+    dirArtifactCache.deleteOldFiles();
+    otherDirArtifactCache.store(ruleKeyY, fileY);
+    otherDirArtifactCache.close();
+
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(
+        ImmutableSet.of(new File(cacheDir, ruleKeyY.toString())),
+        listCacheEntries(cacheDir));
+  }
+
+  @Test
+  public void testJournalOfACacheWithoutAMaximumSizeIsCompactedOnClose() throws IOException {
+    File cacheDir = tmpDir.newFolder();
+    File fileX = tmpDir.newFile("x");
+
+    dirArtifactCache = new DirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    Files.write("x", fileX, Charsets.UTF_8);
+    RuleKey ruleKeyX = RuleKey.builder(new BuildRuleForTest(fileX), fileHashCache).build()
+        .getTotalRuleKey();
+
+    dirArtifactCache.store(ruleKeyX, fileX);
+    for (int i = 0; i < 2000; i++) {
+      assertEquals(CacheResult.DIR_HIT, dirArtifactCache.fetch(ruleKeyX, fileX));
+    }
+    dirArtifactCache.close();
+    dirArtifactCache = null;
+
+    assertEquals(
+        ImmutableList.of(String.format("+ %s 1", ruleKeyX)),
+        Files.readLines(
+            new File(cacheDir, DirArtifactCacheIndex.INDEX_FILE_NAME),
+            Charsets.UTF_8));
+  }
+
+  private static ImmutableSet<File> listCacheEntries(File cacheDir) {
+    ImmutableSet.Builder<File> entries = ImmutableSet.builder();
+    for (File file : cacheDir.listFiles()) {
+      if (!file.getName().equals(DirArtifactCacheIndex.INDEX_FILE_NAME)) {
+        entries.add(file);
+      }
+    }
+    return entries.build();
   }
 
   private static class BuildRuleForTest extends FakeBuildRule {
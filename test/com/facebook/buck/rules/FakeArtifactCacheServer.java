@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.rules.HttpArtifactCacheProtocol.ArtifactInputStream;
+import com.facebook.buck.rules.HttpArtifactCacheProtocol.ArtifactOutputStream;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * In-memory stand-in for an HTTP artifact cache server, speaking the same protocol as
+ * {@link HttpArtifactCache}, for use in tests.
+ */
+public class FakeArtifactCacheServer implements Closeable {
+
+  private static final String FETCH_PREFIX = "/artifact/key/";
+  private static final String STORE_PATH = "/artifact/";
+  private static final String CONTAINS_PATH = "/artifact/contains";
+
+  private final Server server;
+  private final ConcurrentMap<RuleKey, byte[]> artifacts = Maps.newConcurrentMap();
+
+  private FakeArtifactCacheServer() {
+    this.server = new Server();
+  }
+
+  /** Starts a server on a free local port. */
+  public static FakeArtifactCacheServer start() throws IOException {
+    FakeArtifactCacheServer cacheServer = new FakeArtifactCacheServer();
+    ServerConnector connector = new ServerConnector(cacheServer.server);
+    connector.setHost("localhost");
+    connector.setPort(0);
+    cacheServer.server.addConnector(connector);
+    cacheServer.server.setHandler(cacheServer.new ArtifactHandler());
+    try {
+      cacheServer.server.start();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    return cacheServer;
+  }
+
+  public int getPort() {
+    return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+  }
+
+  public void putArtifact(RuleKey ruleKey, byte[] artifact) {
+    artifacts.put(ruleKey, artifact);
+  }
+
+  public Optional<byte[]> getArtifact(RuleKey ruleKey) {
+    return Optional.fromNullable(artifacts.get(ruleKey));
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      server.stop();
+      server.join();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  private class ArtifactHandler extends AbstractHandler {
+    @Override
+    public void handle(
+        String target,
+        Request baseRequest,
+        HttpServletRequest request,
+        HttpServletResponse response) throws IOException {
+      baseRequest.setHandled(true);
+      if (request.getMethod().equals("POST") && target.equals(CONTAINS_PATH)) {
+        handleContains(request, response);
+      } else if (!String.valueOf(HttpArtifactCacheProtocol.VERSION).equals(
+          request.getHeader(HttpArtifactCacheProtocol.VERSION_HEADER))) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      } else if (request.getMethod().equals("GET") && target.startsWith(FETCH_PREFIX)) {
+        handleFetch(new RuleKey(target.substring(FETCH_PREFIX.length())), response);
+      } else if (request.getMethod().equals("POST") && target.equals(STORE_PATH)) {
+        handleStore(request, response);
+      } else {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      }
+    }
+
+    private void handleFetch(RuleKey ruleKey, HttpServletResponse response) throws IOException {
+      byte[] artifact = artifacts.get(ruleKey);
+      if (artifact == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      response.setStatus(HttpServletResponse.SC_OK);
+      try (OutputStream out = response.getOutputStream();
+           ArtifactOutputStream artifactOut = new ArtifactOutputStream(
+               out,
+               ruleKey,
+               HttpArtifactCacheProtocol.COMPRESSION_NONE)) {
+        artifactOut.write(artifact);
+      }
+    }
+
+    private void handleContains(HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+      String body = new String(ByteStreams.toByteArray(request.getInputStream()), Charsets.UTF_8);
+      StringBuilder present = new StringBuilder();
+      for (String key : Splitter.on('\n').omitEmptyStrings().split(body)) {
+        if (artifacts.containsKey(new RuleKey(key))) {
+          present.append(key).append('\n');
+        }
+      }
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.getOutputStream().write(present.toString().getBytes(Charsets.UTF_8));
+    }
+
+    /** Stores the artifact in a multipart request with a single key0 and data0 part. */
+    private void handleStore(HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+      String contentType = request.getContentType();
+      String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+      byte[] body = ByteStreams.toByteArray(request.getInputStream());
+
+      byte[] key = getPart(body, boundary, "key0");
+      byte[] data = getPart(body, boundary, "data0");
+      RuleKey ruleKey = new RuleKey(new String(key, Charsets.UTF_8));
+      try (ArtifactInputStream artifact =
+               new ArtifactInputStream(new ByteArrayInputStream(data))) {
+        if (!ruleKey.equals(artifact.getRuleKey())) {
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+          return;
+        }
+        artifacts.put(ruleKey, ByteStreams.toByteArray(artifact));
+      } catch (IOException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+      response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    private byte[] getPart(byte[] body, String boundary, String name) throws IOException {
+      byte[] disposition = String.format("name=\"%s\"", name).getBytes(Charsets.UTF_8);
+      int start = indexOf(body, disposition, 0);
+      if (start < 0) {
+        throw new IOException("Missing part " + name);
+      }
+      start = indexOf(body, "\r\n\r\n".getBytes(Charsets.UTF_8), start) + 4;
+      int end = indexOf(body, ("\r\n--" + boundary).getBytes(Charsets.UTF_8), start);
+      return Arrays.copyOfRange(body, start, end);
+    }
+
+    private int indexOf(byte[] array, byte[] target, int from) {
+      int i = from;
+      while (i <= array.length - target.length && !matchesAt(array, target, i)) {
+        i++;
+      }
+      return i <= array.length - target.length ? i : -1;
+    }
+
+    private boolean matchesAt(byte[] array, byte[] target, int at) {
+      for (int j = 0; j < target.length; j++) {
+        if (array[at + j] != target[j]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.rules.HttpArtifactCacheProtocol.ArtifactInputStream;
+import com.facebook.buck.rules.HttpArtifactCacheProtocol.ArtifactOutputStream;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class HttpArtifactCacheProtocolTest {
+
+  private static final RuleKey RULE_KEY = new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+
+  private static byte[] write(byte[] data) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (ArtifactOutputStream artifact = new ArtifactOutputStream(
+             output,
+             RULE_KEY,
+             HttpArtifactCacheProtocol.COMPRESSION_NONE)) {
+      // Write in uneven pieces to exercise chunking.
+      int offset = 0;
+      while (offset < data.length) {
+        int length = Math.min(data.length - offset, 1000 + offset % 7);
+        artifact.write(data, offset, length);
+        offset += length;
+      }
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] read(byte[] artifact) throws IOException {
+    try (ArtifactInputStream input = new ArtifactInputStream(new ByteArrayInputStream(artifact))) {
+      assertEquals(RULE_KEY, input.getRuleKey());
+      return ByteStreams.toByteArray(input);
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] data = new byte[200 * 1024];
+    new Random(0).nextBytes(data);
+    assertArrayEquals(data, read(write(data)));
+    assertArrayEquals(new byte[0], read(write(new byte[0])));
+  }
+
+  @Test
+  public void testRejectsBadMagicNumberBeforeReadingData() {
+    try {
+      new ArtifactInputStream(
+          new ByteArrayInputStream(new byte[] {(byte) 0xac, (byte) 0xed, 0x00, 0x05, 0x73}));
+      fail("Java serialization should not be mistaken for an artifact");
+    } catch (IOException e) {
+      assertEquals("Not an artifact: bad magic number", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testRejectsUnsupportedVersion() throws IOException {
+    byte[] artifact = write(new byte[] {1, 2, 3});
+    artifact[4] = 2;
+    try {
+      read(artifact);
+      fail("Version 2 is not supported");
+    } catch (IOException e) {
+      assertEquals("Unsupported artifact format version 2", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testRejectsCorruptData() throws IOException {
+    byte[] artifact = write("data".getBytes());
+    // The data ends with an empty chunk (4 bytes) and a SHA-1 (1 + 20 bytes).
+    artifact[artifact.length - 26] ^= 1;
+    try {
+      read(artifact);
+      fail("The corruption should be detected");
+    } catch (IOException e) {
+      assertEquals(
+          "Artifact for " + RULE_KEY + " had invalid checksum",
+          e.getMessage().substring(0, e.getMessage().indexOf(':')));
+    }
+  }
+
+  @Test(expected = EOFException.class)
+  public void testRejectsTruncatedArtifact() throws IOException {
+    byte[] artifact = write("data".getBytes());
+    read(Arrays.copyOf(artifact, artifact.length - 30));
+  }
+}
@@ -16,154 +16,275 @@
 
 package com.facebook.buck.rules;
 
-import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusFactory;
-import com.facebook.buck.util.FileHashCache;
+import com.facebook.buck.rules.HttpArtifactCacheProtocol.ArtifactOutputStream;
 import com.facebook.buck.util.ProjectFilesystem;
-import com.google.common.hash.HashCode;
+import com.facebook.buck.zip.CustomZipEntry;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 
 public class HttpArtifactCacheTest {
 
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private static final RuleKey RULE_KEY = new RuleKey("00000000000000000000000000000000");
+
   private HttpArtifactCache cache;
   private HttpURLConnection connection;
   private ProjectFilesystem projectFilesystem;
   private BuckEventBus buckEventBus;
-  private FileHashCache fileHashCache;
 
-  private byte[] createFileContentsWithHashCode(HashCode code, String contents) throws IOException {
+  private static byte[] createArtifact(RuleKey ruleKey, byte[] contents) throws IOException {
     ByteArrayOutputStream output = new ByteArrayOutputStream();
-    ObjectOutputStream objectStream = new ObjectOutputStream(output);
-    objectStream.writeObject(code);
-    output.write(contents.getBytes());
+    try (ArtifactOutputStream artifact = new ArtifactOutputStream(
+             output,
+             ruleKey,
+             HttpArtifactCacheProtocol.COMPRESSION_NONE)) {
+      artifact.write(contents);
+    }
+    return output.toByteArray();
+  }
+
+  /** Flips a bit in the last byte of contents, leaving the checksum as it was. */
+  private static byte[] corrupt(byte[] artifact) {
+    byte[] corrupted = artifact.clone();
+    // The artifact ends with an empty chunk (4 bytes) and a SHA-1 (1 + 20 bytes).
+    corrupted[corrupted.length - 26] ^= 1;
+    return corrupted;
+  }
+
+  private static byte[] createZip(String name, String contents) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(output)) {
+      zip.putNextEntry(new CustomZipEntry(name));
+      zip.write(contents.getBytes(Charsets.UTF_8));
+      zip.closeEntry();
+    }
     return output.toByteArray();
   }
 
   @Before
   public void setUp() {
     connection = createNiceMock(HttpURLConnection.class);
-    projectFilesystem = createMock(ProjectFilesystem.class);
+    projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
     buckEventBus = BuckEventBusFactory.newInstance();
-    fileHashCache = createMock(FileHashCache.class);
-    cache = new FakeHttpArtifactCache(connection, projectFilesystem, buckEventBus, fileHashCache);
+    cache = new FakeHttpArtifactCache(connection, projectFilesystem, buckEventBus);
   }
 
   @Test
   public void testFetchNotFound() throws IOException {
     expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_NOT_FOUND);
     replay(connection);
-    assertEquals(cache.fetch(new RuleKey("00000000000000000000000000000000"),
-          File.createTempFile("000", "")),
-        CacheResult.MISS);
+    assertEquals(cache.fetch(RULE_KEY, tmpDir.newFile()), CacheResult.MISS);
     verify(connection);
   }
 
   @Test
   public void testFetchOK() throws IOException {
-    String data = "test";
-    HashCode hashCode = HashCode.fromString("deadbeef");
     expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_OK);
-    InputStream is = new ByteArrayInputStream(createFileContentsWithHashCode(hashCode, data));
-    expect(connection.getInputStream()).andReturn(is);
-    File file = File.createTempFile("000", "");
-    Path path = file.toPath();
-    Path temp = File.createTempFile("000", "").toPath();
-    projectFilesystem.createParentDirs(path);
-    expect(projectFilesystem.createTempFile(
-            path.getParent(),
-            path.getFileName().toString(),
-            ".tmp"))
-        .andReturn(temp);
-    projectFilesystem.copyToPath(is, temp, StandardCopyOption.REPLACE_EXISTING);
-    expect(fileHashCache.get(temp)).andReturn(hashCode);
-    projectFilesystem.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
-    replay(fileHashCache);
+    expect(connection.getInputStream()).andReturn(
+        new ByteArrayInputStream(createArtifact(RULE_KEY, "test".getBytes(Charsets.UTF_8))));
     replay(connection);
-    replay(projectFilesystem);
-    assertEquals(
-        cache.fetch(new RuleKey("00000000000000000000000000000000"), file),
-        CacheResult.HTTP_HIT);
-    verify(fileHashCache);
+    File file = new File(tmpDir.getRoot(), "out/artifact");
+    assertEquals(CacheResult.HTTP_HIT, cache.fetch(RULE_KEY, file));
+    assertEquals("test", Files.toString(file, Charsets.UTF_8));
     verify(connection);
-    verify(projectFilesystem);
   }
 
   @Test
   public void testFetchBadChecksum() throws IOException {
-    String data = "test";
-    HashCode hashCode = HashCode.fromString("deadbeef");
-    HashCode badHashCode = HashCode.fromString("deafbead");
     expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_OK);
-    InputStream is = new ByteArrayInputStream(createFileContentsWithHashCode(hashCode, data));
-    expect(connection.getInputStream()).andReturn(is);
-    File file = File.createTempFile("000", "");
-    Path path = file.toPath();
-    Path temp = File.createTempFile("000", "").toPath();
-    projectFilesystem.createParentDirs(path);
-    expect(projectFilesystem.createTempFile(
-            path.getParent(),
-            path.getFileName().toString(),
-            ".tmp"))
-        .andReturn(temp);
-    projectFilesystem.copyToPath(is, temp, StandardCopyOption.REPLACE_EXISTING);
-    expect(fileHashCache.get(temp)).andReturn(badHashCode);
-    expect(projectFilesystem.deleteFileAtPath(temp)).andReturn(true);
-    replay(fileHashCache);
+    expect(connection.getInputStream()).andReturn(new ByteArrayInputStream(
+        corrupt(createArtifact(RULE_KEY, "test".getBytes(Charsets.UTF_8)))));
+    replay(connection);
+    File file = new File(tmpDir.getRoot(), "out/artifact");
+    assertEquals(CacheResult.MISS, cache.fetch(RULE_KEY, file));
+    assertArrayEquals(
+        "Neither the artifact nor its temp file should be left behind",
+        new String[0],
+        file.getParentFile().list());
+    verify(connection);
+  }
+
+  @Test
+  public void testFetchArtifactForAnotherRuleKey() throws IOException {
+    RuleKey otherKey = new RuleKey("ffffffffffffffffffffffffffffffff");
+    expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_OK);
+    expect(connection.getInputStream()).andReturn(
+        new ByteArrayInputStream(createArtifact(otherKey, "test".getBytes(Charsets.UTF_8))));
+    replay(connection);
+    assertEquals(CacheResult.MISS, cache.fetch(RULE_KEY, tmpDir.newFile()));
+    verify(connection);
+  }
+
+  @Test
+  public void testFetchAndExtractOK() throws InterruptedException, IOException {
+    byte[] zip = createZip("buck-out/gen/a.txt", "test");
+    expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_OK);
+    expect(connection.getInputStream()).andReturn(
+        new ByteArrayInputStream(createArtifact(RULE_KEY, zip)));
     replay(connection);
-    replay(projectFilesystem);
     assertEquals(
-        cache.fetch(new RuleKey("00000000000000000000000000000000"), file),
-        CacheResult.MISS);
-    verify(fileHashCache);
+        CacheResult.HTTP_HIT,
+        cache.fetchAndExtract(RULE_KEY, tmpDir.getRoot().toPath()));
+    assertEquals(
+        "test",
+        Files.toString(new File(tmpDir.getRoot(), "buck-out/gen/a.txt"), Charsets.UTF_8));
     verify(connection);
-    verify(projectFilesystem);
+  }
+
+  @Test(expected = IOException.class)
+  public void testFetchAndExtractBadChecksum() throws InterruptedException, IOException {
+    byte[] zip = createZip("buck-out/gen/a.txt", "test");
+    expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_OK);
+    expect(connection.getInputStream()).andReturn(
+        new ByteArrayInputStream(corrupt(createArtifact(RULE_KEY, zip))));
+    replay(connection);
+    cache.fetchAndExtract(RULE_KEY, tmpDir.getRoot().toPath());
   }
 
   @Test
   public void testStore() throws IOException {
-    String data = "test";
-    HashCode hashCode = HashCode.fromString("deadbeef");
     connection.setConnectTimeout(1000);
     connection.setDoOutput(true);
     connection.setRequestMethod("POST");
     ByteArrayOutputStream output = new ByteArrayOutputStream();
     expect(connection.getOutputStream()).andReturn(output);
-    File file = File.createTempFile("000", "");
-    expect(fileHashCache.get(file.toPath())).andReturn(hashCode);
-    InputStream is = new ByteArrayInputStream(data.getBytes());
-    expect(projectFilesystem.newFileInputStream(file.toPath())).andReturn(is);
     expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_ACCEPTED);
-    replay(fileHashCache);
     replay(connection);
-    replay(projectFilesystem);
-    cache.store(new RuleKey("00000000000000000000000000000000"), file);
-    verify(fileHashCache);
+    File file = tmpDir.newFile();
+    Files.write("test", file, Charsets.UTF_8);
+    cache.store(RULE_KEY, file);
     verify(connection);
-    verify(projectFilesystem);
     assertNotEquals(
         -1,
-        output.toString().indexOf(new String(createFileContentsWithHashCode(hashCode, data))));
+        output.toString("ISO-8859-1").indexOf(
+            new String(createArtifact(RULE_KEY, "test".getBytes(Charsets.UTF_8)), "ISO-8859-1")));
+  }
+
+  @Test
+  public void testStoreFailsIfPackerFails() throws InterruptedException, IOException {
+    expect(connection.getOutputStream()).andReturn(new ByteArrayOutputStream());
+    replay(connection);
+    final IOException failure = new IOException("Cannot read output");
+    try {
+      cache.store(RULE_KEY, new ArtifactPacker() {
+        @Override
+        public void writeTo(OutputStream out, ArtifactCompression compression)
+            throws IOException {
+          throw failure;
+        }
+      });
+      fail("The failure to pack the artifact should be reported");
+    } catch (IOException e) {
+      assertSame(failure, e);
+    }
+  }
+
+  @Test
+  public void testRoundTripThroughServer() throws InterruptedException, IOException {
+    try (FakeArtifactCacheServer server = FakeArtifactCacheServer.start();
+         HttpArtifactCache realCache = new HttpArtifactCache(
+             "localhost",
+             server.getPort(),
+             /* timeoutSeconds */ 1,
+             /* doStore */ true,
+             ArtifactCompression.normal,
+             projectFilesystem,
+             buckEventBus)) {
+      // Large enough to span several chunks.
+      final byte[] zip = createZip("buck-out/gen/a.txt", Strings.repeat("test", 100000));
+      realCache.store(RULE_KEY, new ArtifactPacker() {
+        @Override
+        public void writeTo(OutputStream out, ArtifactCompression compression)
+            throws IOException {
+          assertEquals(ArtifactCompression.normal, compression);
+          out.write(zip);
+        }
+      });
+      assertArrayEquals(zip, server.getArtifact(RULE_KEY).get());
+
+      assertEquals(ImmutableSet.of(RULE_KEY), realCache.multiContains(ImmutableSet.of(RULE_KEY)));
+      File file = tmpDir.newFile();
+      assertEquals(CacheResult.HTTP_HIT, realCache.fetch(RULE_KEY, file));
+      assertArrayEquals(zip, Files.toByteArray(file));
+      assertEquals(
+          CacheResult.HTTP_HIT,
+          realCache.fetchAndExtract(RULE_KEY, tmpDir.getRoot().toPath()));
+      assertEquals(
+          Strings.repeat("test", 100000),
+          Files.toString(new File(tmpDir.getRoot(), "buck-out/gen/a.txt"), Charsets.UTF_8));
+
+      RuleKey absentKey = new RuleKey("ffffffffffffffffffffffffffffffff");
+      assertEquals(CacheResult.MISS, realCache.fetch(absentKey, file));
+    }
+  }
+
+  @Test
+  public void testMultiContains() throws IOException {
+    RuleKey presentKey = new RuleKey("00000000000000000000000000000000");
+    RuleKey absentKey = new RuleKey("ffffffffffffffffffffffffffffffff");
+    connection.setConnectTimeout(1000);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    expect(connection.getOutputStream()).andReturn(output);
+    expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_OK);
+    expect(connection.getInputStream()).andReturn(
+        new ByteArrayInputStream((presentKey.toString() + "\n").getBytes()));
+    replay(connection);
+    assertEquals(
+        ImmutableSet.of(presentKey),
+        cache.multiContains(ImmutableSet.of(presentKey, absentKey)));
+    verify(connection);
+    assertEquals(presentKey + "\n" + absentKey, output.toString());
+  }
+
+  @Test
+  public void testMultiContainsNotSupportedByServer() throws IOException {
+    ImmutableSet<RuleKey> ruleKeys = ImmutableSet.of(
+        new RuleKey("00000000000000000000000000000000"));
+    expect(connection.getOutputStream()).andReturn(new ByteArrayOutputStream());
+    expect(connection.getResponseCode()).andReturn(HttpURLConnection.HTTP_NOT_FOUND);
+    replay(connection);
+    assertEquals(
+        "Every key may be present if the server cannot tell",
+        ruleKeys,
+        cache.multiContains(ruleKeys));
+    assertEquals(
+        "The server should not be asked again",
+        ruleKeys,
+        cache.multiContains(ruleKeys));
+    verify(connection);
   }
 
   class FakeHttpArtifactCache extends HttpArtifactCache {
@@ -172,9 +293,15 @@ public class HttpArtifactCacheTest {
     FakeHttpArtifactCache(
         HttpURLConnection connectionMock,
         ProjectFilesystem projectFilesystem,
-        BuckEventBus buckEventBus,
-        FileHashCache fileHashCache) {
-      super("localhost", 8080, 1, true, projectFilesystem, buckEventBus, fileHashCache);
+        BuckEventBus buckEventBus) {
+      super(
+          "localhost",
+          8080,
+          1,
+          true,
+          ArtifactCompression.normal,
+          projectFilesystem,
+          buckEventBus);
       this.connectionMock = connectionMock;
     }
 
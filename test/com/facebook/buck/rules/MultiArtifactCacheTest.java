@@ -17,13 +17,27 @@
 package com.facebook.buck.rules;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -32,6 +46,9 @@ public class MultiArtifactCacheTest {
       new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
   private static final File dummyFile = new File("dummy");
 
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
   class DummyArtifactCache implements ArtifactCache {
     @Nullable public RuleKey storeKey;
 
@@ -44,11 +61,26 @@ public class MultiArtifactCacheTest {
       return ruleKey.equals(storeKey) ? CacheResult.LOCAL_KEY_UNCHANGED_HIT : CacheResult.MISS;
     }
 
+    @Override
+    public CacheResult fetchAndExtract(RuleKey ruleKey, Path root) {
+      return fetch(ruleKey, dummyFile);
+    }
+
     @Override
     public void store(RuleKey ruleKey, File output) {
       storeKey = ruleKey;
     }
 
+    @Override
+    public void store(RuleKey ruleKey, ArtifactPacker packer) {
+      storeKey = ruleKey;
+    }
+
+    @Override
+    public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+      return ruleKeys.contains(storeKey) ? ImmutableSet.of(storeKey) : ImmutableSet.<RuleKey>of();
+    }
+
     @Override
     public boolean isStoreSupported() {
       return true;
@@ -106,4 +138,134 @@ public class MultiArtifactCacheTest {
 
     multiArtifactCache.close();
   }
+
+  @Test
+  public void testParallelFetchTakesFirstHitAndBackfillsEarlierCaches()
+      throws InterruptedException, IOException {
+    final CountDownLatch slowCacheMayReturn = new CountDownLatch(1);
+    ArtifactCache slowMissingCache = new DummyArtifactCache() {
+      @Override
+      public CacheResult fetch(RuleKey ruleKey, File output) {
+        try {
+          slowCacheMayReturn.await();
+        } catch (InterruptedException e) {
+          // Cancelled because another cache won: fall through to the miss.
+        }
+        return CacheResult.MISS;
+      }
+    };
+    DummyArtifactCache missingCache = new DummyArtifactCache();
+    ArtifactCache hittingCache = new DummyArtifactCache() {
+      @Override
+      public CacheResult fetch(RuleKey ruleKey, File output) {
+        try {
+          Files.write("artifact", output, Charsets.UTF_8);
+        } catch (IOException e) {
+          return CacheResult.MISS;
+        }
+        return CacheResult.HTTP_HIT;
+      }
+    };
+    ListeningExecutorService service =
+        MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(
+        ImmutableList.of(missingCache, slowMissingCache, hittingCache),
+        Optional.of(service));
+
+    File output = tmpDir.newFile("artifact.zip");
+    assertEquals(
+        "Fetch should not wait for the slow cache once another cache has hit",
+        CacheResult.HTTP_HIT,
+        multiArtifactCache.fetch(dummyRuleKey, output));
+    assertEquals("artifact", Files.toString(output, Charsets.UTF_8));
+
+    slowCacheMayReturn.countDown();
+    multiArtifactCache.close();
+    assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(
+        "Caches earlier in the search order should be back-filled by the time close() returns",
+        dummyRuleKey,
+        missingCache.storeKey);
+    assertEquals(
+        "Temp files of the individual queries should be cleaned up",
+        ImmutableList.of("artifact.zip"),
+        ImmutableList.copyOf(tmpDir.getRoot().list()));
+  }
+
+  @Test
+  public void testParallelFetchMiss() throws InterruptedException, IOException {
+    DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
+    DummyArtifactCache dummyArtifactCache2 = new DummyArtifactCache();
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(
+        ImmutableList.<ArtifactCache>of(dummyArtifactCache1, dummyArtifactCache2),
+        Optional.of(MoreExecutors.listeningDecorator(Executors.newCachedThreadPool())));
+
+    File output = tmpDir.newFile("artifact.zip");
+    assertEquals(
+        "Fetch should fail",
+        CacheResult.MISS,
+        multiArtifactCache.fetch(dummyRuleKey, output));
+    assertEquals(
+        "Temp files of the individual queries should be cleaned up",
+        ImmutableList.of("artifact.zip"),
+        ImmutableList.copyOf(tmpDir.getRoot().list()));
+
+    multiArtifactCache.close();
+  }
+
+  @Test
+  public void testFetchAndExtractQueriesTheFirstCacheOnce()
+      throws InterruptedException, IOException {
+    for (boolean isParallel : new boolean[] {false, true}) {
+      final AtomicInteger firstCacheFetches = new AtomicInteger();
+      DummyArtifactCache firstCache = new DummyArtifactCache() {
+        @Override
+        public CacheResult fetch(RuleKey ruleKey, File output) {
+          firstCacheFetches.incrementAndGet();
+          return super.fetch(ruleKey, output);
+        }
+      };
+      DummyArtifactCache secondCache = new DummyArtifactCache();
+      MultiArtifactCache multiArtifactCache = new MultiArtifactCache(
+          ImmutableList.<ArtifactCache>of(firstCache, secondCache),
+          isParallel
+              ? Optional.of(MoreExecutors.listeningDecorator(Executors.newCachedThreadPool()))
+              : Optional.<ListeningExecutorService>absent());
+
+      assertEquals(
+          "Fetch should fail",
+          CacheResult.MISS,
+          multiArtifactCache.fetchAndExtract(dummyRuleKey, tmpDir.getRoot().toPath()));
+      assertEquals(
+          "The first cache should not be queried again after it failed to extract in place",
+          1,
+          firstCacheFetches.get());
+
+      multiArtifactCache.close();
+    }
+  }
+
+  @Test
+  public void testMultiContainsOnlyAsksLaterCachesAboutRemainingKeys()
+      throws InterruptedException, IOException {
+    final RuleKey otherRuleKey = new RuleKey("00000000000000000000000000000000000000ff");
+    DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
+    DummyArtifactCache dummyArtifactCache2 = new DummyArtifactCache() {
+      @Override
+      public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+        assertEquals(ImmutableSet.of(otherRuleKey), ruleKeys);
+        return super.multiContains(ruleKeys);
+      }
+    };
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(ImmutableList.<ArtifactCache>of(
+        dummyArtifactCache1,
+        dummyArtifactCache2));
+
+    dummyArtifactCache1.store(dummyRuleKey, dummyFile);
+    assertEquals(
+        ImmutableSet.of(dummyRuleKey),
+        multiArtifactCache.multiContains(ImmutableSet.of(dummyRuleKey, otherRuleKey)));
+
+    multiArtifactCache.close();
+  }
 }
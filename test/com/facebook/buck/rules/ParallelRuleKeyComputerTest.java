@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelRuleKeyComputerTest {
+
+  @Test
+  public void testKeysAreComputedOnceAndDependenciesFirst() {
+    List<BuildRule> computed = Collections.synchronizedList(Lists.<BuildRule>newArrayList());
+    // A diamond: top depends on left and right, which both depend on bottom.
+    RecordingRule bottom = new RecordingRule("//:bottom", computed);
+    RecordingRule left = new RecordingRule("//:left", computed, bottom);
+    RecordingRule right = new RecordingRule("//:right", computed, bottom);
+    RecordingRule top = new RecordingRule("//:top", computed, left, right);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      new ParallelRuleKeyComputer(pool).computeRuleKeys(ImmutableList.of(top, left));
+    } finally {
+      pool.shutdown();
+    }
+
+    assertEquals(4, computed.size());
+    assertEquals(ImmutableSet.of(bottom, left, right, top), ImmutableSet.copyOf(computed));
+    assertEquals(bottom, computed.get(0));
+    assertEquals(top, computed.get(3));
+  }
+
+  @Test
+  public void testRuleWithoutKeyDoesNotStopTheOthers() {
+    List<BuildRule> computed = Collections.synchronizedList(Lists.<BuildRule>newArrayList());
+    // FakeBuildRule throws when asked for a key it was not given.
+    FakeBuildRule broken = new FakeBuildRule("//:broken");
+    RecordingRule dependent = new RecordingRule("//:dependent", computed, broken);
+
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      new ParallelRuleKeyComputer(pool).computeRuleKeys(ImmutableList.of(dependent));
+    } finally {
+      pool.shutdown();
+    }
+
+    assertTrue(computed.contains(dependent));
+  }
+
+  private static class RecordingRule extends FakeBuildRule {
+    private final List<BuildRule> computed;
+
+    private RecordingRule(String target, List<BuildRule> computed, BuildRule... deps) {
+      super(target, deps);
+      this.computed = computed;
+      setRuleKey(RuleKey.TO_RULE_KEY.apply("deadbeef"));
+    }
+
+    @Override
+    public RuleKey getRuleKey() {
+      computed.add(this);
+      return super.getRuleKey();
+    }
+  }
+}
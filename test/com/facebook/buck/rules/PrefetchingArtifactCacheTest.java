@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public class PrefetchingArtifactCacheTest {
+
+  private static final RuleKey PRESENT_KEY =
+      new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey ABSENT_KEY =
+      new RuleKey("00000000000000000000000000000000000000ff");
+  private static final RuleKey UNKNOWN_KEY =
+      new RuleKey("0000000000000000000000000000000000000aaa");
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private static class RecordingArtifactCache implements ArtifactCache {
+    private final List<ImmutableSet<RuleKey>> multiContainsCalls = Lists.newArrayList();
+    private final List<RuleKey> fetchCalls = Lists.newArrayList();
+
+    @Override
+    public CacheResult fetch(RuleKey ruleKey, File output) {
+      fetchCalls.add(ruleKey);
+      if (!ruleKey.equals(PRESENT_KEY)) {
+        return CacheResult.MISS;
+      }
+      try {
+        Files.write(ruleKey.toString(), output, Charsets.UTF_8);
+      } catch (IOException e) {
+        return CacheResult.MISS;
+      }
+      return CacheResult.HTTP_HIT;
+    }
+
+    @Override
+    public CacheResult fetchAndExtract(RuleKey ruleKey, Path root)
+        throws InterruptedException, IOException {
+      return ArtifactCaches.fetchAndExtractViaZip(this, ruleKey, root);
+    }
+
+    @Override
+    public void store(RuleKey ruleKey, File output) {
+      // Not needed by these tests.
+    }
+
+    @Override
+    public void store(RuleKey ruleKey, ArtifactPacker packer) {
+      // Not needed by these tests.
+    }
+
+    @Override
+    public ImmutableSet<RuleKey> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+      multiContainsCalls.add(ruleKeys);
+      return ruleKeys.contains(PRESENT_KEY)
+          ? ImmutableSet.of(PRESENT_KEY)
+          : ImmutableSet.<RuleKey>of();
+    }
+
+    @Override
+    public boolean isStoreSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() {
+      // Nothing to complete - do nothing.
+    }
+  }
+
+  @Test
+  public void testPrefetchedHitsAreHandedOverAndMissesCostNoRoundTrip()
+      throws InterruptedException, IOException {
+    RecordingArtifactCache delegate = new RecordingArtifactCache();
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(
+        delegate,
+        MoreExecutors.sameThreadExecutor(),
+        /* batchSize */ 2,
+        tmpDir.newFolder("prefetch").toPath());
+
+    cache.prefetch(ImmutableList.of(PRESENT_KEY, ABSENT_KEY));
+    assertEquals(
+        "Both keys should have been checked in a single batch",
+        ImmutableList.of(ImmutableSet.of(PRESENT_KEY, ABSENT_KEY)),
+        delegate.multiContainsCalls);
+    assertEquals(
+        "Only the key that is present should have been downloaded",
+        ImmutableList.of(PRESENT_KEY),
+        delegate.fetchCalls);
+
+    File output = tmpDir.newFile("present.zip");
+    assertEquals(CacheResult.HTTP_HIT, cache.fetch(PRESENT_KEY, output));
+    assertEquals(PRESENT_KEY.toString(), Files.toString(output, Charsets.UTF_8));
+    assertEquals(CacheResult.MISS, cache.fetch(ABSENT_KEY, tmpDir.newFile("absent.zip")));
+    assertEquals(
+        "Fetching prefetched keys should not go back to the decorated cache",
+        ImmutableList.of(PRESENT_KEY),
+        delegate.fetchCalls);
+
+    cache.close();
+    assertEquals(0, new File(tmpDir.getRoot(), "prefetch").list().length);
+  }
+
+  @Test
+  public void testKeysThatWereNotPrefetchedAreFetchedDirectly()
+      throws InterruptedException, IOException {
+    RecordingArtifactCache delegate = new RecordingArtifactCache();
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(
+        delegate,
+        MoreExecutors.sameThreadExecutor(),
+        /* batchSize */ 10,
+        tmpDir.newFolder("prefetch").toPath());
+
+    cache.prefetch(ImmutableList.of(ABSENT_KEY));
+    assertEquals(CacheResult.MISS, cache.fetch(UNKNOWN_KEY, tmpDir.newFile("unknown.zip")));
+    assertEquals(ImmutableList.of(UNKNOWN_KEY), delegate.fetchCalls);
+
+    cache.close();
+  }
+
+  @Test
+  public void testKeysListedLaterSkipThoseAlreadyFetched()
+      throws InterruptedException, IOException {
+    RecordingArtifactCache delegate = new RecordingArtifactCache();
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(
+        delegate,
+        MoreExecutors.sameThreadExecutor(),
+        /* batchSize */ 10,
+        tmpDir.newFolder("prefetch").toPath());
+
+    assertEquals(CacheResult.HTTP_HIT, cache.fetch(PRESENT_KEY, tmpDir.newFile("present.zip")));
+    cache.prefetchAsync(Suppliers.<Iterable<RuleKey>>ofInstance(
+        ImmutableList.of(PRESENT_KEY, ABSENT_KEY)));
+    assertEquals(
+        "Only the key that had not been fetched yet should have been checked",
+        ImmutableList.of(ImmutableSet.of(ABSENT_KEY)),
+        delegate.multiContainsCalls);
+    assertEquals(ImmutableList.of(PRESENT_KEY), delegate.fetchCalls);
+
+    cache.close();
+  }
+
+  @Test
+  public void testCloseDeletesUnclaimedArtifacts() throws InterruptedException, IOException {
+    RecordingArtifactCache delegate = new RecordingArtifactCache();
+    File prefetchDir = tmpDir.newFolder("prefetch");
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(
+        delegate,
+        MoreExecutors.sameThreadExecutor(),
+        /* batchSize */ 10,
+        prefetchDir.toPath());
+
+    cache.prefetch(ImmutableList.of(PRESENT_KEY));
+    assertEquals(1, prefetchDir.list().length);
+
+    cache.close();
+    assertEquals(0, prefetchDir.list().length);
+  }
+}
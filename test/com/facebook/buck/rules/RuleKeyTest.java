@@ -40,6 +40,8 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 public class RuleKeyTest {
 
@@ -274,6 +276,32 @@ public class RuleKeyTest {
             .build());
   }
 
+  @Test
+  public void setInputsHashesTheSameInParallelOnAForkJoinPool() throws Exception {
+    final ImmutableList<Path> inputs =
+        ImmutableList.of(Paths.get("a.java"), Paths.get("b.java"), Paths.get("c.java"));
+    RuleKey serial =
+        createEmptyRuleKey().setInputs("srcs", inputs.iterator()).build().getTotalRuleKey();
+
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      RuleKey parallel = pool.submit(
+          new Callable<RuleKey>() {
+            @Override
+            public RuleKey call() {
+              return createEmptyRuleKey()
+                  .setHashingInputsInParallel(true)
+                  .setInputs("srcs", inputs.iterator())
+                  .build()
+                  .getTotalRuleKey();
+            }
+          }).get();
+      assertEquals(serial, parallel);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   private RuleKey.Builder createEmptyRuleKey() {
     return RuleKey.builder(
         BuildTargetFactory.newInstance("//some:example"),
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Bytes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class BserDeserializerTest {
+
+  @Test
+  public void testValuesAreDecodedToTheirJsonTypes() throws IOException {
+    ImmutableMap<String, Object> response = ImmutableMap.<String, Object>of(
+        "clock", "c:1386170113:26390:5:50273",
+        "is_fresh_instance", false,
+        "files", ImmutableList.of(
+            ImmutableMap.of("name", "foo/Bar.java", "exists", true, "size", 42L),
+            ImmutableMap.of("name", "\u00e9t\u00e9.txt", "exists", false, "size", 0L)),
+        "ratio", 0.25);
+    // The decoded map has Arrays.asList(null) rather than an ImmutableList, which cannot hold it.
+    InputStream in = new ByteArrayInputStream(Bytes.concat(
+        BserTestSerializer.serialize(response),
+        BserTestSerializer.serialize(Arrays.asList((Object) null))));
+
+    assertEquals(response, BserDeserializer.deserializeBserValue(in));
+    assertEquals(Collections.singletonList(null), BserDeserializer.deserializeBserValue(in));
+  }
+
+  @Test
+  public void testIntegersOfEverySizeAreLongs() throws IOException {
+    ByteBuffer body = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+    body.put((byte) 0x00).put((byte) 0x03).put((byte) 4);
+    body.put((byte) 0x03).put((byte) -1);
+    body.put((byte) 0x04).putShort((short) 1000);
+    body.put((byte) 0x05).putInt(100000);
+    body.put((byte) 0x06).putLong(1L << 40);
+
+    assertEquals(
+        ImmutableList.of(-1L, 1000L, 100000L, 1L << 40),
+        BserDeserializer.deserializeBserValue(pdu(body)));
+  }
+
+  @Test
+  public void testTemplatesAreDecodedToListsOfMaps() throws IOException {
+    ByteBuffer body = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+    body.put((byte) 0x0b);
+    // The keys.
+    body.put((byte) 0x00).put((byte) 0x03).put((byte) 2);
+    putString(body, "name");
+    putString(body, "exists");
+    // Two objects, the second of which skips "exists".
+    body.put((byte) 0x03).put((byte) 2);
+    putString(body, "a");
+    body.put((byte) 0x08);
+    putString(body, "b");
+    body.put((byte) 0x0c);
+
+    List<Map<String, Object>> expected = ImmutableList.<Map<String, Object>>of(
+        ImmutableMap.<String, Object>of("name", "a", "exists", true),
+        ImmutableMap.<String, Object>of("name", "b"));
+    assertEquals(expected, BserDeserializer.deserializeBserValue(pdu(body)));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTheEndOfTheStreamIsAnEofException() throws IOException {
+    BserDeserializer.deserializeBserValue(new ByteArrayInputStream(new byte[0]));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testATruncatedPduIsAnEofException() throws IOException {
+    byte[] bytes = BserTestSerializer.serialize(ImmutableMap.of("clock", "c:1"));
+    BserDeserializer.deserializeBserValue(
+        new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+  }
+
+  @Test
+  public void testJsonIsNotBser() {
+    try {
+      BserDeserializer.deserializeBserValue(new ByteArrayInputStream("{}\n".getBytes()));
+      fail("Should have thrown IOException.");
+    } catch (IOException e) {
+      assertEquals("Not a BSER PDU: it begins with 0x7b 0x7d.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testACountLargerThanThePduIsRejected() {
+    ByteBuffer body = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+    // An array that says it has 5 items, but has 1.
+    body.put((byte) 0x00).put((byte) 0x03).put((byte) 5);
+    body.put((byte) 0x08);
+    try {
+      BserDeserializer.deserializeBserValue(pdu(body));
+      fail("Should have thrown IOException.");
+    } catch (IOException e) {
+      assertEquals("Unusable BSER count: 5", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testAPduThatIsShorterThanItsValuesIsRejected() {
+    ByteBuffer body = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+    // A 32-bit integer with only 2 bytes.
+    body.put((byte) 0x05).putShort((short) 1);
+    try {
+      BserDeserializer.deserializeBserValue(pdu(body));
+      fail("Should have thrown IOException.");
+    } catch (IOException e) {
+      assertEquals("A BSER PDU is shorter than its values.", e.getMessage());
+    }
+  }
+
+  private static void putString(ByteBuffer buffer, String string) {
+    byte[] bytes = string.getBytes();
+    buffer.put((byte) 0x02).put((byte) 0x03).put((byte) bytes.length).put(bytes);
+  }
+
+  private static InputStream pdu(ByteBuffer body) {
+    body.flip();
+    ByteBuffer pdu = ByteBuffer.allocate(body.remaining() + 4).order(ByteOrder.nativeOrder());
+    pdu.put((byte) 0x00).put((byte) 0x01).put((byte) 0x03).put((byte) body.remaining());
+    pdu.put(body);
+    return new ByteArrayInputStream(pdu.array());
+  }
+}
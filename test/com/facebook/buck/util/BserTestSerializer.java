@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Encodes values as Watchman would in BSER, for tests of what decodes them. Integers are always
+ * written as 32 bits, and templates are never used.
+ */
+class BserTestSerializer {
+
+  /** Utility class: do not instantiate. */
+  private BserTestSerializer() {}
+
+  static byte[] serialize(@Nullable Object value) {
+    ByteBuffer body = newBuffer();
+    writeValue(body, value);
+    body.flip();
+
+    ByteBuffer pdu = newBuffer();
+    pdu.put((byte) 0x00).put((byte) 0x01);
+    pdu.put((byte) 0x05).putInt(body.remaining());
+    pdu.put(body);
+    pdu.flip();
+    byte[] bytes = new byte[pdu.remaining()];
+    pdu.get(bytes);
+    return bytes;
+  }
+
+  private static ByteBuffer newBuffer() {
+    return ByteBuffer.allocate(1 << 16).order(ByteOrder.nativeOrder());
+  }
+
+  private static void writeValue(ByteBuffer buffer, @Nullable Object value) {
+    if (value == null) {
+      buffer.put((byte) 0x0a);
+    } else if (value instanceof String) {
+      byte[] bytes = ((String) value).getBytes(Charsets.UTF_8);
+      buffer.put((byte) 0x02).put((byte) 0x05).putInt(bytes.length).put(bytes);
+    } else if (value instanceof Boolean) {
+      buffer.put((Boolean) value ? (byte) 0x08 : (byte) 0x09);
+    } else if (value instanceof Long || value instanceof Integer) {
+      buffer.put((byte) 0x05).putInt(((Number) value).intValue());
+    } else if (value instanceof Double) {
+      buffer.put((byte) 0x07).putDouble((Double) value);
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      buffer.put((byte) 0x00).put((byte) 0x05).putInt(list.size());
+      for (Object item : list) {
+        writeValue(buffer, item);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      buffer.put((byte) 0x01).put((byte) 0x05).putInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(buffer, entry.getKey());
+        writeValue(buffer, entry.getValue());
+      }
+    } else {
+      throw new IllegalArgumentException("Cannot serialize " + value);
+    }
+  }
+}
@@ -24,6 +24,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.io.Files;
@@ -72,6 +73,39 @@ public class DefaultFileHashCacheTest {
     assertFalse("Cache should not contain path", cache.contains(path));
   }
 
+  @Test
+  public void whenNotifiedOfOverflowEventOnlyChangedEntriesAreRemoved() throws IOException {
+    DefaultFileHashCache cache =
+        new DefaultFileHashCache(new ProjectFilesystem(tmp.getRoot().toPath()));
+    Path unchanged = writeOldFile("Unchanged.java", "class Unchanged {}");
+    Path modified = writeOldFile("Modified.java", "class Modified {}");
+    Path deleted = writeOldFile("Deleted.java", "class Deleted {}");
+    cache.get(unchanged);
+    cache.get(modified);
+    cache.get(deleted);
+
+    writeOldFile("Modified.java", "class Modified { int field; }");
+    assertTrue(tmp.getRoot().toPath().resolve(deleted).toFile().delete());
+    cache.onFileSystemChange(createOverflowEvent());
+
+    assertTrue("Cache should still contain unchanged path", cache.contains(unchanged));
+    assertFalse("Cache should not contain modified path", cache.contains(modified));
+    assertFalse("Cache should not contain deleted path", cache.contains(deleted));
+  }
+
+  @Test
+  public void whenNotifiedOfOverflowEventRecentlyModifiedEntriesAreRemoved() throws IOException {
+    DefaultFileHashCache cache =
+        new DefaultFileHashCache(new ProjectFilesystem(tmp.getRoot().toPath()));
+    Path path = Paths.get("SomeClass.java");
+    Files.write("class SomeClass {}".getBytes(Charsets.US_ASCII), tmp.newFile("SomeClass.java"));
+    cache.get(path);
+
+    // It may be modified again without its stamp changing, so its hash cannot be trusted.
+    cache.onFileSystemChange(createOverflowEvent());
+    assertFalse("Cache should not contain path", cache.contains(path));
+  }
+
   @Test
   public void whenNotifiedOfCreateEventCacheEntryIsRemoved() throws IOException {
     DefaultFileHashCache cache =
@@ -119,4 +153,39 @@ public class DefaultFileHashCacheTest {
     cache.get(Paths.get(ignoredFile));
     assertFalse("Cache should not contain path.", cache.contains(inputFile.toPath()));
   }
+
+  @Test
+  public void whenStoreIsPresentHashesAreReusedByLaterCaches() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    Path journal = tmp.getRoot().toPath().resolve("buck-out/file_hashes");
+    Path path = Paths.get("SomeClass.java");
+    File inputFile = tmp.newFile("SomeClass.java");
+    Files.write("class SomeClass {}".getBytes(Charsets.US_ASCII), inputFile);
+    // Files modified within the last couple of seconds are not stored.
+    assertTrue(inputFile.setLastModified(System.currentTimeMillis() - 60 * 1000));
+
+    DefaultFileHashCache cache =
+        new DefaultFileHashCache(filesystem, Optional.of(FileHashStore.load(journal)));
+    HashCode hash = cache.get(path);
+    cache.flush();
+
+    FileHashStore reloaded = FileHashStore.load(journal);
+    assertEquals(
+        Optional.of(hash),
+        reloaded.get(path, FileHashStore.FileStamp.of(inputFile.toPath())));
+    DefaultFileHashCache laterCache =
+        new DefaultFileHashCache(filesystem, Optional.of(reloaded));
+    assertEquals(hash, laterCache.get(path));
+
+    laterCache.onFileSystemChange(createPathEvent(path, StandardWatchEventKinds.ENTRY_MODIFY));
+    assertEquals(0, reloaded.size());
+  }
+
+  /** Writes a file that was last modified long enough ago for its stamp to be trusted. */
+  private Path writeOldFile(String name, String contents) throws IOException {
+    File file = tmp.getRoot().toPath().resolve(name).toFile();
+    Files.write(contents.getBytes(Charsets.US_ASCII), file);
+    assertTrue(file.setLastModified(System.currentTimeMillis() - 60 * 1000));
+    return Paths.get(name);
+  }
 }
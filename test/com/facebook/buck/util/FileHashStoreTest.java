@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.FileHashStore.FileStamp;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+public class FileHashStoreTest {
+
+  private static final Path PATH = Paths.get("src/SomeClass.java");
+  private static final HashCode SHA1 =
+      HashCode.fromString("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final long AN_HOUR_AGO_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - TimeUnit.HOURS.toNanos(1);
+  private static final FileStamp STAMP =
+      new FileStamp(42, AN_HOUR_AGO_NANOS, AN_HOUR_AGO_NANOS, "(dev=801,ino=1234)");
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  @Test
+  public void testHashesSurviveReload() throws IOException {
+    Path journal = tmp.getRoot().toPath().resolve("buck-out/file_hashes");
+    FileHashStore store = FileHashStore.load(journal);
+    store.put(PATH, STAMP, SHA1);
+    assertEquals(Optional.of(SHA1), store.get(PATH, STAMP));
+    store.flush();
+
+    FileHashStore reloaded = FileHashStore.load(journal);
+    assertEquals(Optional.of(SHA1), reloaded.get(PATH, STAMP));
+  }
+
+  @Test
+  public void testChangedStampMissesTheStore() throws IOException {
+    FileHashStore store = FileHashStore.load(tmp.getRoot().toPath().resolve("file_hashes"));
+    store.put(PATH, STAMP, SHA1);
+
+    // A file replaced by a copy with the same size and times is a different inode.
+    FileStamp otherInode =
+        new FileStamp(42, AN_HOUR_AGO_NANOS, AN_HOUR_AGO_NANOS, "(dev=801,ino=5678)");
+    assertEquals(Optional.<HashCode>absent(), store.get(PATH, otherInode));
+    FileStamp otherChangeTime =
+        new FileStamp(42, AN_HOUR_AGO_NANOS, AN_HOUR_AGO_NANOS + 1, "(dev=801,ino=1234)");
+    assertEquals(Optional.<HashCode>absent(), store.get(PATH, otherChangeTime));
+  }
+
+  @Test
+  public void testRecentlyModifiedFilesAreNotStored() throws IOException {
+    FileHashStore store = FileHashStore.load(tmp.getRoot().toPath().resolve("file_hashes"));
+    long nowNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    FileStamp racy = new FileStamp(42, nowNanos, nowNanos, null);
+    store.put(PATH, racy, SHA1);
+    assertEquals(Optional.<HashCode>absent(), store.get(PATH, racy));
+  }
+
+  @Test
+  public void testInvalidationIsJournaled() throws IOException {
+    Path journal = tmp.getRoot().toPath().resolve("file_hashes");
+    FileHashStore store = FileHashStore.load(journal);
+    store.put(PATH, STAMP, SHA1);
+    store.flush();
+    store.invalidate(PATH);
+    store.flush();
+
+    assertEquals(0, FileHashStore.load(journal).size());
+  }
+
+  @Test
+  public void testMalformedLinesAreIgnored() throws IOException {
+    Path journal = tmp.getRoot().toPath().resolve("file_hashes");
+    FileHashStore store = FileHashStore.load(journal);
+    store.put(PATH, STAMP, SHA1);
+    store.flush();
+    Files.write(
+        journal,
+        "+ not-a-hash 1 2 3 - x\ngarbage\n+ 76b1".getBytes(Charsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    FileHashStore reloaded = FileHashStore.load(journal);
+    assertEquals(1, reloaded.size());
+    assertEquals(Optional.of(SHA1), reloaded.get(PATH, STAMP));
+  }
+
+  @Test
+  public void testStampOfFileChangesWithItsContents() throws IOException {
+    Path file = tmp.newFile("file.txt").toPath();
+    Files.write(file, "one".getBytes(Charsets.UTF_8));
+    FileStamp before = FileStamp.of(file);
+    Files.write(file, "three".getBytes(Charsets.UTF_8));
+    assertFalse(before.equals(FileStamp.of(file)));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class FileStampSnapshotTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path root;
+  private FileStampSnapshot snapshot;
+
+  @Before
+  public void setUp() {
+    root = tmp.getRoot().toPath();
+    snapshot = new FileStampSnapshot(new ProjectFilesystem(root));
+  }
+
+  @Test
+  public void testOnlyChangedFilesAreFound() throws IOException {
+    Path unchanged = writeOldFile("unchanged", "a");
+    Path modified = writeOldFile("modified", "a");
+    Path deleted = writeOldFile("deleted", "a");
+    Path unrecorded = writeOldFile("unrecorded", "a");
+    snapshot.record(unchanged);
+    snapshot.record(modified);
+    snapshot.record(deleted);
+
+    writeOldFile("modified", "ab");
+    Files.delete(root.resolve(deleted));
+
+    assertEquals(
+        ImmutableSet.of(modified, deleted, unrecorded),
+        snapshot.findChanged(ImmutableSet.of(unchanged, modified, deleted, unrecorded)));
+  }
+
+  @Test
+  public void testAFileModifiedTooRecentlyIsNotRecorded() throws IOException {
+    Path recent = Paths.get("recent");
+    Files.write(root.resolve(recent), "a".getBytes(Charsets.UTF_8));
+    snapshot.record(recent);
+
+    assertEquals(ImmutableSet.of(recent), snapshot.findChanged(ImmutableSet.of(recent)));
+  }
+
+  @Test
+  public void testAFileModifiedSinceItWasReadIsNotRecorded() throws IOException {
+    Path path = writeOldFile("path", "a");
+    snapshot.record(path, System.currentTimeMillis() - 60 * 1000);
+
+    assertEquals(ImmutableSet.of(path), snapshot.findChanged(ImmutableSet.of(path)));
+  }
+
+  @Test
+  public void testAForgottenFileIsChanged() throws IOException {
+    Path path = writeOldFile("path", "a");
+    snapshot.record(path);
+    snapshot.forget(path);
+
+    assertEquals(ImmutableSet.of(path), snapshot.findChanged(ImmutableSet.of(path)));
+  }
+
+  @Test
+  public void testAddingToADirectoryChangesIt() throws IOException {
+    Path dir = Paths.get("dir");
+    Files.createDirectory(root.resolve(dir));
+    setOld(dir);
+    snapshot.record(dir);
+    assertEquals(ImmutableSet.<Path>of(), snapshot.findChanged(ImmutableSet.of(dir)));
+
+    writeOldFile("dir/file", "a");
+    assertEquals(ImmutableSet.of(dir), snapshot.findChanged(ImmutableSet.of(dir)));
+  }
+
+  @Test
+  public void testManyFilesAreCheckedInParallelBatches() throws IOException {
+    List<Path> paths = Lists.newArrayList();
+    ImmutableSet.Builder<Path> expected = ImmutableSet.builder();
+    for (int i = 0; i < 1000; i++) {
+      Path path = writeOldFile("file" + i, "a");
+      paths.add(path);
+      if (i % 3 == 0) {
+        expected.add(path);
+      } else {
+        snapshot.record(path);
+      }
+    }
+
+    assertEquals(expected.build(), snapshot.findChanged(paths));
+  }
+
+  /** Writes a file that was last modified long enough ago for its stamp to be trusted. */
+  private Path writeOldFile(String name, String contents) throws IOException {
+    Path path = Paths.get(name);
+    Files.write(root.resolve(path), contents.getBytes(Charsets.UTF_8));
+    setOld(path);
+    return path;
+  }
+
+  private void setOld(Path path) throws IOException {
+    Files.setLastModifiedTime(
+        root.resolve(path),
+        FileTime.from(System.currentTimeMillis() - 60 * 1000, TimeUnit.MILLISECONDS));
+  }
+}
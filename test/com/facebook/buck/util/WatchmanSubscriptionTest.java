@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Bytes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Map;
+
+public class WatchmanSubscriptionTest {
+
+  private static final Map<String, Object> SUBSCRIBED = ImmutableMap.<String, Object>of(
+      "version", "2.9.8",
+      "subscribe", "buckd",
+      "clock", "c:1:1");
+
+  private static final Map<String, Object> INITIAL_RESULT = ImmutableMap.<String, Object>of(
+      "subscription", "buckd",
+      "clock", "c:1:2",
+      "is_fresh_instance", true,
+      "files", ImmutableList.of());
+
+  @Test
+  public void whenChangesAreSentThenTheyAreDrainedWithAQueryForLaterOnes()
+      throws InterruptedException {
+    WatchmanSubscription subscription = createSubscription();
+    subscription.handleResponse(SUBSCRIBED);
+    subscription.handleResponse(INITIAL_RESULT);
+    subscription.handleResponse(ImmutableMap.<String, Object>of(
+        "subscription", "buckd",
+        "clock", "c:1:3",
+        "is_fresh_instance", false,
+        "files", ImmutableList.of(
+            ImmutableMap.of("name", "foo/Bar.java", "new", true, "exists", true),
+            ImmutableMap.of("name", "foo/Baz.java", "new", false, "exists", false))));
+
+    List<WatchEvent<?>> events = Lists.newArrayList();
+    Optional<String> query = subscription.drainTo(events, 0);
+
+    assertEquals(
+        Optional.of("[\"query\",\"/path/to/repo\",{\"since\":\"c:1:3\",\"fields\":[\"name\"]}]"),
+        query);
+    assertEquals(2, events.size());
+    assertEquals(StandardWatchEventKinds.ENTRY_CREATE, events.get(0).kind());
+    assertEquals(Paths.get("foo/Bar.java"), events.get(0).context());
+    assertEquals(StandardWatchEventKinds.ENTRY_DELETE, events.get(1).kind());
+    assertEquals(Paths.get("foo/Baz.java"), events.get(1).context());
+
+    events.clear();
+    subscription.drainTo(events, 0);
+    assertTrue("Events should only be drained once.", events.isEmpty());
+  }
+
+  @Test
+  public void whenWatchmanRestartsThenOverflowEventIsDrained() throws InterruptedException {
+    WatchmanSubscription subscription = createSubscription();
+    subscription.handleResponse(SUBSCRIBED);
+    subscription.handleResponse(INITIAL_RESULT);
+    subscription.handleResponse(ImmutableMap.<String, Object>of(
+        "subscription", "buckd",
+        "clock", "c:2:1",
+        "is_fresh_instance", true,
+        "files", ImmutableList.of()));
+
+    List<WatchEvent<?>> events = Lists.newArrayList();
+    subscription.drainTo(events, 0);
+
+    assertEquals(1, events.size());
+    assertEquals(StandardWatchEventKinds.OVERFLOW, events.get(0).kind());
+  }
+
+  @Test
+  public void whenResponsesAreReadThenTheyAreHandled() throws InterruptedException {
+    WatchmanSubscription subscription = createSubscription();
+    subscription.handleResponse(SUBSCRIBED);
+    byte[] stdout = Bytes.concat(
+        BserTestSerializer.serialize(INITIAL_RESULT),
+        BserTestSerializer.serialize(ImmutableMap.<String, Object>of(
+            "subscription", "buckd",
+            "clock", "c:1:3",
+            "files", ImmutableList.of(ImmutableMap.of("name", "foo/Bar.java")))));
+    subscription.readResponses(new ByteArrayInputStream(stdout));
+
+    List<WatchEvent<?>> events = Lists.newArrayList();
+    assertFalse(
+        "Once its output has ended, the subscription has failed.",
+        subscription.drainTo(events, 0).isPresent());
+    assertTrue("Changes may have been lost, so none are drained.", events.isEmpty());
+  }
+
+  @Test
+  public void whenWatchmanRepliesWithAnErrorThenTheSubscriptionFails()
+      throws InterruptedException {
+    WatchmanSubscription subscription = createSubscription();
+    subscription.readResponses(new ByteArrayInputStream(BserTestSerializer.serialize(
+        ImmutableMap.of("version", "2.9.8", "error", "unable to resolve root /path/to/repo"))));
+
+    assertFalse(subscription.drainTo(Lists.<WatchEvent<?>>newArrayList(), 0).isPresent());
+  }
+
+  @Test
+  public void whenWatchmanDoesNotReplyThenTheSubscriptionFails() throws InterruptedException {
+    WatchmanSubscription subscription = createSubscription();
+
+    assertFalse(subscription.drainTo(Lists.<WatchEvent<?>>newArrayList(), 1).isPresent());
+    subscription.handleResponse(SUBSCRIBED);
+    assertFalse(
+        "A late reply should not revive the subscription.",
+        subscription.drainTo(Lists.<WatchEvent<?>>newArrayList(), 0).isPresent());
+  }
+
+  @Test
+  public void whenClosedThenTheSubscriptionFails() throws InterruptedException, IOException {
+    WatchmanSubscription subscription = createSubscription();
+    subscription.handleResponse(SUBSCRIBED);
+    subscription.close();
+
+    assertFalse(subscription.drainTo(Lists.<WatchEvent<?>>newArrayList(), 0).isPresent());
+  }
+
+  @Test
+  public void whenTooManyChangesAreSentThenASingleOverflowEventIsDrained()
+      throws InterruptedException {
+    WatchmanSubscription subscription = createSubscription();
+    subscription.handleResponse(SUBSCRIBED);
+    subscription.handleResponse(INITIAL_RESULT);
+    for (int i = 0; i < 3; i++) {
+      subscription.handleResponse(ImmutableMap.<String, Object>of(
+          "subscription", "buckd",
+          "clock", "c:1:" + (3 + i),
+          "files", ImmutableList.of(
+              ImmutableMap.of("name", "foo/Bar" + i + ".java"),
+              ImmutableMap.of("name", "foo/Baz" + i + ".java"))));
+    }
+
+    List<WatchEvent<?>> events = Lists.newArrayList();
+    Optional<String> query = subscription.drainTo(events, 0);
+
+    assertEquals(
+        Optional.of("[\"query\",\"/path/to/repo\",{\"since\":\"c:1:5\",\"fields\":[\"name\"]}]"),
+        query);
+    assertEquals(1, events.size());
+    assertEquals(StandardWatchEventKinds.OVERFLOW, events.get(0).kind());
+
+    subscription.handleResponse(ImmutableMap.<String, Object>of(
+        "subscription", "buckd",
+        "clock", "c:1:6",
+        "files", ImmutableList.of(ImmutableMap.of("name", "foo/Qux.java"))));
+    events.clear();
+    subscription.drainTo(events, 0);
+    assertEquals(
+        "Once drained, changes should be kept again.",
+        Paths.get("foo/Qux.java"),
+        events.get(0).context());
+  }
+
+  private static WatchmanSubscription createSubscription() {
+    return new WatchmanSubscription(
+        new ObjectMapper(),
+        "/path/to/repo",
+        "buckd",
+        ImmutableMap.<String, Object>of("fields", ImmutableList.of("name")),
+        /* maxPendingEvents */ 5);
+  }
+}
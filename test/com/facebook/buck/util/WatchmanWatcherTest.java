@@ -35,8 +35,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
@@ -417,6 +420,101 @@ public class WatchmanWatcherTest {
     assertTrue(overflowSeen);
   }
 
+  @Test
+  public void whenSubscribedThenStreamedEventsArePostedAndOnlyLaterChangesAreQueried()
+      throws IOException, InterruptedException {
+    WatchmanSubscription subscription = new WatchmanSubscription(
+        new ObjectMapper(),
+        "/path/to/repo",
+        "buckd",
+        WatchmanWatcher.createQueryParams(
+            Lists.<Path>newArrayList(),
+            Lists.<String>newArrayList()),
+        200 /* maxPendingEvents */);
+    subscription.handleResponse(ImmutableMap.<String, Object>of(
+        "subscribe", "buckd",
+        "clock", "c:1:1"));
+    subscription.handleResponse(ImmutableMap.<String, Object>of(
+        "subscription", "buckd",
+        "clock", "c:1:2",
+        "files", ImmutableList.of(ImmutableMap.of("name", "foo/streamed"))));
+
+    String watchmanOutput = "{\"files\": [{\"name\": \"foo/queried\"}]}";
+    ByteArrayOutputStream stdin = new ByteArrayOutputStream();
+    Process process = createMock(Process.class);
+    expect(process.getOutputStream()).andReturn(stdin).times(2);
+    expect(process.getInputStream()).andReturn(
+        new ByteArrayInputStream(watchmanOutput.getBytes(Charsets.US_ASCII)));
+    expect(process.waitFor()).andReturn(0);
+    Capture<WatchEvent<Path>> firstEvent = new Capture<>();
+    Capture<WatchEvent<Path>> secondEvent = new Capture<>();
+    EventBus eventBus = createStrictMock(EventBus.class);
+    eventBus.post(capture(firstEvent));
+    eventBus.post(capture(secondEvent));
+    replay(eventBus, process);
+
+    WatchmanWatcher watcher = new WatchmanWatcher(
+        Suppliers.ofInstance(process),
+        eventBus,
+        new IncrementingFakeClock(),
+        new ObjectMapper(),
+        200 /* overflow */,
+        10000 /* timeout */,
+        "" /* query */,
+        Optional.of(subscription));
+    watcher.postEvents();
+
+    verify(eventBus, process);
+    assertEquals("foo/streamed", firstEvent.getValue().context().toString());
+    assertEquals("foo/queried", secondEvent.getValue().context().toString());
+    assertThat(
+        "Watchman should only be asked for the changes since the streamed ones.",
+        stdin.toString("UTF-8"),
+        Matchers.startsWith("[\"query\",\"/path/to/repo\",{\"since\":\"c:1:2\","));
+  }
+
+  @Test
+  public void whenTooManyEventsAreStreamedThenASingleOverflowEventIsPosted()
+      throws IOException, InterruptedException {
+    WatchmanSubscription subscription = new WatchmanSubscription(
+        new ObjectMapper(),
+        "/path/to/repo",
+        "buckd",
+        WatchmanWatcher.createQueryParams(
+            Lists.<Path>newArrayList(),
+            Lists.<String>newArrayList()),
+        200 /* maxPendingEvents */);
+    subscription.handleResponse(ImmutableMap.<String, Object>of(
+        "subscribe", "buckd",
+        "clock", "c:1:1"));
+    subscription.handleResponse(ImmutableMap.<String, Object>of(
+        "subscription", "buckd",
+        "clock", "c:1:2",
+        "files", ImmutableList.of(
+            ImmutableMap.of("name", "foo/first"),
+            ImmutableMap.of("name", "foo/second"))));
+
+    Process process = createMock(Process.class);
+    Capture<WatchEvent<Path>> event = new Capture<>();
+    EventBus eventBus = createStrictMock(EventBus.class);
+    eventBus.post(capture(event));
+    replay(eventBus, process);
+
+    WatchmanWatcher watcher = new WatchmanWatcher(
+        Suppliers.ofInstance(process),
+        eventBus,
+        new IncrementingFakeClock(),
+        new ObjectMapper(),
+        1 /* overflow */,
+        10000 /* timeout */,
+        "" /* query */,
+        Optional.of(subscription));
+    watcher.postEvents();
+
+    verify(eventBus, process);
+    assertEquals(StandardWatchEventKinds.OVERFLOW, event.getValue().kind());
+  }
+
   @Test
   public void watchmanQueryWithRepoPathNeedingEscapingFormatsToCorrectJson() {
     String query = WatchmanWatcher.createQuery(
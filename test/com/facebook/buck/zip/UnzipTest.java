@@ -16,15 +16,19 @@
 
 package com.facebook.buck.zip;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.testutil.Zip;
 import com.facebook.buck.util.MorePosixFilePermissions;
 import com.google.common.collect.ImmutableList;
 
+import org.apache.commons.compress.archivers.zip.UnrecognizedExtraField;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipShort;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -33,6 +37,7 @@ import org.junit.rules.TemporaryFolder;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.zip.ZipEntry;
@@ -114,4 +119,69 @@ public class UnzipTest {
         result);
 
   }
+
+  @Test
+  public void testExtractZipStream() throws IOException {
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile)) {
+      ZipArchiveEntry exe = new ZipArchiveEntry("bin/test.exe");
+      exe.setUnixMode((int) MorePosixFilePermissions.toMode(
+          PosixFilePermissions.fromString("r-x------")));
+      zip.putArchiveEntry(exe);
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+      zip.putArchiveEntry(new ZipArchiveEntry("1.bin"));
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+      zip.putArchiveEntry(new ZipArchiveEntry("emptydir/"));
+      zip.closeArchiveEntry();
+    }
+
+    File extractFolder = tmpFolder.newFolder();
+    ImmutableList<Path> result;
+    try (FileInputStream input = new FileInputStream(zipFile)) {
+      result = Unzip.extractZipStream(input, extractFolder.toPath().toAbsolutePath());
+      assertEquals("The whole stream should be read", -1, input.read());
+    }
+
+    assertEquals(
+        ImmutableList.of(
+            extractFolder.toPath().resolve("bin/test.exe"),
+            extractFolder.toPath().resolve("1.bin")),
+        result);
+    File exe = new File(extractFolder, "bin/test.exe");
+    assertTrue(exe.canExecute());
+    assertArrayEquals(DUMMY_FILE_CONTENTS, Files.readAllBytes(exe.toPath()));
+    assertFalse(new File(extractFolder, "1.bin").canExecute());
+    assertTrue(new File(extractFolder, "emptydir").isDirectory());
+  }
+
+  @Test
+  public void testExtractZipStreamWithCentralDirectoryLargerThanItsNames() throws IOException {
+    // Extra fields make the central directory far larger than the names in it, and larger than
+    // the bytes that extractZipStream() keeps regardless.
+    byte[] extra = new byte[1000];
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile)) {
+      for (int i = 0; i < 100; i++) {
+        ZipArchiveEntry entry = new ZipArchiveEntry(i + ".exe");
+        entry.setUnixMode((int) MorePosixFilePermissions.toMode(
+            PosixFilePermissions.fromString("r-x------")));
+        UnrecognizedExtraField field = new UnrecognizedExtraField();
+        field.setHeaderId(new ZipShort(0x4242));
+        field.setLocalFileDataData(extra);
+        field.setCentralDirectoryData(extra);
+        entry.addExtraField(field);
+        zip.putArchiveEntry(entry);
+        zip.write(DUMMY_FILE_CONTENTS);
+        zip.closeArchiveEntry();
+      }
+    }
+
+    File extractFolder = tmpFolder.newFolder();
+    try (FileInputStream input = new FileInputStream(zipFile)) {
+      Unzip.extractZipStream(input, extractFolder.toPath().toAbsolutePath());
+    }
+
+    assertTrue(new File(extractFolder, "0.exe").canExecute());
+    assertTrue(new File(extractFolder, "99.exe").canExecute());
+  }
 }